@@ -288,7 +288,8 @@ public class AllConstants {
 	
 	public enum Config {
 		FORM_ENTITY_PARSER_LAST_SYNCED_FORM_SUBMISSION, FORM_ENTITY_PARSER_LAST_MIGRATED_FORM_SUBMISSION, // Used when executing data migrations
-		EVENTS_PARSER_LAST_PROCESSED_EVENT // Used to track last time events processed
+		EVENTS_PARSER_LAST_PROCESSED_EVENT, // Used to track last time events processed
+		SERVER_VERSION_NEXT_AVAILABLE // Used to hand out unique serverVersions across server nodes
 	}
 	
 	public static final String FORM_SCHEDULE_SUBJECT = "FORM-SCHEDULE";
@@ -11,23 +11,27 @@ import org.springframework.stereotype.Component;
 
 import java.text.MessageFormat;
 import java.util.*;
-import java.util.concurrent.locks.ReentrantLock;
-
-import static java.util.Collections.binarySearch;
-import static org.opensrp.common.audit.AuditMessageType.NORMAL;
-
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Holds the latest <code>number.of.audit.messages</code> audit messages in a ring buffer. A message
+ * is stored in the slot given by its index modulo the capacity, overwriting the message one
+ * capacity older, so adding a message and dropping the oldest one is a single write and neither
+ * writers nor readers take a lock.
+ */
 @Scope("singleton")
 @Component
 public class Auditor {
-    private List<AuditMessage> messages;
+    private final AtomicReferenceArray<AuditMessage> messages;
     private final int numberOfAuditMessagesToHoldOnTo;
-    private static long messageIndex = DateTime.now().getMillis();
-    private static ReentrantLock lock = new ReentrantLock();
+    private final long firstMessageIndex = DateTime.now().getMillis();
+    private final AtomicLong messageIndex = new AtomicLong(firstMessageIndex);
     private static Logger logger = LoggerFactory.getLogger(Auditor.class.toString());
 
     @Autowired
     public Auditor(@Value("#{opensrp['number.of.audit.messages']}") int numberOfAuditMessagesToHoldOnTo) {
-        this.messages = new ArrayList<>();
+        this.messages = new AtomicReferenceArray<>(numberOfAuditMessagesToHoldOnTo);
         this.numberOfAuditMessagesToHoldOnTo = numberOfAuditMessagesToHoldOnTo;
     }
 
@@ -35,37 +39,59 @@ public class Auditor {
         return new AuditMessageBuilder(this, type);
     }
 
+    /**
+     * @return a copy of the messages held with an index greater than the given one, oldest first
+     *         and with consecutive indexes; all held messages if the index is zero or negative. A
+     *         message still being added by another thread ends the list, so the messages returned
+     *         never skip one a later call would return.
+     */
     public List<AuditMessage> messagesSince(long messageIndex) {
-        if (messageIndex <= 0) {
-            return messages;
+        long last = this.messageIndex.get() - 1;
+        long first = Math.max(firstMessageIndex, last - numberOfAuditMessagesToHoldOnTo + 1);
+        if (messageIndex > 0) {
+            first = Math.max(first, messageIndex + 1);
         }
-
-        int index = binarySearch(messages, new AuditMessage(DateUtil.now(), messageIndex, NORMAL, null));
-        int position = Math.abs(index + 1);
-
-        if (position >= messages.size()) {
+        if (first > last) {
             return Collections.emptyList();
         }
 
-        return messages.subList(position, messages.size());
+        List<AuditMessage> since = new ArrayList<>((int) (last - first + 1));
+        for (long index = first; index <= last; index++) {
+            AuditMessage message = messages.get(slotOf(index));
+            if (message == null || message.index() < index) {
+                // claimed but not stored yet
+                break;
+            }
+            if (message.index() > index) {
+                // dropped while being read, and so were the older ones read before it
+                since.clear();
+            } else {
+                since.add(message);
+            }
+        }
+        return since;
     }
 
-    private void prune() {
-        if (messages.size() > numberOfAuditMessagesToHoldOnTo) {
-            messages.remove(0);
-        }
+    private int slotOf(long index) {
+        return (int) (index % numberOfAuditMessagesToHoldOnTo);
     }
 
     private void createAuditMessage(AuditMessageType messageType, Map<String, String> data) {
-        lock.lock();
-        try {
-            AuditMessage auditMessage = new AuditMessage(DateUtil.now(), messageIndex, messageType, data);
-            messages.add(auditMessage);
-            messageIndex++;
+        if (numberOfAuditMessagesToHoldOnTo <= 0) {
+            return;
+        }
+        AuditMessage auditMessage = new AuditMessage(DateUtil.now(), messageIndex.getAndIncrement(), messageType, data);
+        int slot = slotOf(auditMessage.index());
+        AuditMessage older;
+        do {
+            older = messages.get(slot);
+            if (older != null && older.index() > auditMessage.index()) {
+                // a writer one whole buffer ahead got there first, this message is already dropped
+                return;
+            }
+        } while (!messages.compareAndSet(slot, older, auditMessage));
+        if (logger.isDebugEnabled()) {
             logger.debug(MessageFormat.format("Added message: {0}", auditMessage));
-            prune();
-        } finally {
-            lock.unlock();
         }
     }
 
@@ -0,0 +1,19 @@
+package org.opensrp.common.monitor;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+public class Counter {
+    private final AtomicLong value = new AtomicLong();
+
+    public void increment() {
+        value.incrementAndGet();
+    }
+
+    public void add(long amount) {
+        value.addAndGet(amount);
+    }
+
+    public long value() {
+        return value.get();
+    }
+}
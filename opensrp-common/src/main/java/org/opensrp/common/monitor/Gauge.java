@@ -0,0 +1,9 @@
+package org.opensrp.common.monitor;
+
+/**
+ * A value read when the metrics are published, e.g. the size of a pool or a queue.
+ */
+public interface Gauge {
+
+    long value();
+}
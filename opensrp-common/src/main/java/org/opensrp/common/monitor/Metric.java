@@ -1,8 +1,63 @@
 package org.opensrp.common.monitor;
 
+import static org.opensrp.common.monitor.Metric.Type.COUNTER;
+import static org.opensrp.common.monitor.Metric.Type.TIMER;
+
 public enum Metric {
     REPORTING_ANM_REPORTS_CACHE_TIME,
     REPORTING_ANM_REPORTS_INSERT_TIME,
     REPORTING_SERVICE_PROVIDED_CACHE_TIME,
     REPORTING_SERVICE_PROVIDED_INSERT_TIME,
+    ZIGGY_ENGINE_POOL_WAIT_TIME,
+    ZIGGY_FORM_SAVE_TIME,
+
+    EVENT_SYNC_TIME,
+    EVENT_SYNC_STREAM_TIME,
+    EVENT_SAVE_TIME,
+    EVENTS_SYNCED(COUNTER),
+    EVENTS_SAVED(COUNTER),
+    EVENT_SAVE_FAILURES(COUNTER),
+    CLIENTS_SAVED(COUNTER),
+    CLIENT_SAVE_FAILURES(COUNTER),
+
+    LUCENE_QUERY_TIME,
+    LUCENE_STALE_QUERIES(COUNTER),
+
+    EVENTS_LISTENER_PAGE_TIME,
+    EVENT_ROUTE_TIME,
+    EVENTS_ROUTED(COUNTER),
+    EVENT_ROUTE_FAILURES(COUNTER),
+
+    FORM_SUBMISSION_PROCESS_TIME,
+    FORM_SUBMISSIONS_PROCESSED(COUNTER),
+    FORM_SUBMISSION_FAILURES(COUNTER),
+
+    OPENMRS_PATIENT_PUSH_TIME,
+    OPENMRS_ENCOUNTER_PUSH_TIME,
+    OPENMRS_PATIENTS_PUSHED(COUNTER),
+    OPENMRS_PATIENT_PUSH_FAILURES(COUNTER),
+    OPENMRS_ENCOUNTERS_PUSHED(COUNTER),
+    OPENMRS_ENCOUNTER_PUSH_FAILURES(COUNTER);
+
+    /**
+     * A timer keeps a histogram of durations, observed with {@link Monitor#start(Metric)} and
+     * {@link Monitor#end(Probe)}; a counter only ever goes up, by {@link Monitor#increment(Metric)}.
+     */
+    public enum Type {
+        TIMER, COUNTER
+    }
+
+    private final Type type;
+
+    Metric() {
+        this(TIMER);
+    }
+
+    Metric(Type type) {
+        this.type = type;
+    }
+
+    public Type type() {
+        return type;
+    }
 }
@@ -5,11 +5,42 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
 
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.opensrp.common.monitor.Metric.Type.COUNTER;
+import static org.opensrp.common.monitor.Metric.Type.TIMER;
+
+/**
+ * Registry of the server's metrics: a {@link Histogram} of durations for every timer {@link Metric},
+ * a {@link Counter} for every counter metric and {@link Gauge}s registered by name. Timers and
+ * counters live in arrays indexed by the metric, so observing one takes no lookup and no lock.
+ * <p>
+ * Every observation is also logged to {@link #LOGGER_NAME} at INFO.
+ */
 @Component
 public class Monitor {
     public static final String LOGGER_NAME = "DRISHTI_MONITOR";
     private static Logger logger = LoggerFactory.getLogger(LOGGER_NAME);
 
+    private final Histogram[] timers = new Histogram[Metric.values().length];
+    private final Counter[] counters = new Counter[Metric.values().length];
+    private final ConcurrentMap<String, Gauge> gauges = new ConcurrentHashMap<String, Gauge>();
+
+    public Monitor() {
+        for (Metric metric : Metric.values()) {
+            if (metric.type() == TIMER) {
+                timers[metric.ordinal()] = new Histogram();
+            } else {
+                counters[metric.ordinal()] = new Counter();
+            }
+        }
+    }
+
     public Probe start(Metric metric) {
         return new Probe(metric);
     }
@@ -18,7 +49,53 @@ public class Monitor {
         addObservationFor(probe.metric(), probe.value());
     }
 
+    /**
+     * @param value nanoseconds; the timer keeps microseconds
+     */
     public void addObservationFor(Metric metric, long value) {
-        logger.info(metric.name() + " " + value + " " + DateUtil.now().getMillis());
+        timer(metric).record(TimeUnit.NANOSECONDS.toMicros(value));
+        if (logger.isInfoEnabled()) {
+            logger.info(metric.name() + " " + value + " " + DateUtil.now().getMillis());
+        }
+    }
+
+    public void increment(Metric metric) {
+        counter(metric).increment();
+    }
+
+    public void increment(Metric metric, long amount) {
+        counter(metric).add(amount);
+    }
+
+    /**
+     * @param name unique name of the gauge, lower case words separated by underscores; a gauge
+     *             registered under the same name before is replaced
+     */
+    public void registerGauge(String name, Gauge gauge) {
+        gauges.put(name, gauge);
+    }
+
+    /**
+     * @return durations observed for the timer, in microseconds
+     */
+    public Histogram timer(Metric metric) {
+        if (metric.type() != TIMER) {
+            throw new IllegalArgumentException(metric + " is not a timer");
+        }
+        return timers[metric.ordinal()];
+    }
+
+    public Counter counter(Metric metric) {
+        if (metric.type() != COUNTER) {
+            throw new IllegalArgumentException(metric + " is not a counter");
+        }
+        return counters[metric.ordinal()];
+    }
+
+    /**
+     * @return the registered gauges by name
+     */
+    public Map<String, Gauge> gauges() {
+        return Collections.unmodifiableMap(new TreeMap<String, Gauge>(gauges));
     }
 }
@@ -1,8 +1,12 @@
 package org.opensrp.common.monitor;
 
+/**
+ * Start time of one observation of a timer. Holds nothing but the metric and a nanoTime, so a
+ * probe that does not escape the method it is started in is usually never allocated on the heap.
+ */
 public class Probe {
-    private Metric metric;
-    private long startTime;
+    private final Metric metric;
+    private final long startTime;
 
     public Probe(Metric metric) {
         this.metric = metric;
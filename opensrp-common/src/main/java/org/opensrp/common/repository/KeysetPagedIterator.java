@@ -0,0 +1,89 @@
+package org.opensrp.common.repository;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.ektorp.CouchDbConnector;
+import org.ektorp.ViewQuery;
+import org.ektorp.support.CouchDbDocument;
+
+/**
+ * Iterates over the documents of a CouchDB view a page at a time. Every page after the first starts
+ * at the key and document id of the last row read (startkey / startkey_docid) rather than skipping
+ * the rows read before, so each page costs the same however deep into the view it is, and only one
+ * page of documents is held in memory at a time.
+ * <p>
+ * The view has to emit exactly one row per document, and {@link #keyOf(CouchDbDocument)} has to
+ * return the key that row was emitted with.
+ */
+public abstract class KeysetPagedIterator<T extends CouchDbDocument> implements Iterator<T> {
+
+	private final CouchDbConnector db;
+
+	private final ViewQuery query;
+
+	private final Class<T> type;
+
+	private final int pageSize;
+
+	private Iterator<T> page = Collections.<T> emptyList().iterator();
+
+	private T last;
+
+	private boolean lastPage;
+
+	/**
+	 * @param query view query with the start and end keys of the range to iterate over; it is changed
+	 *            as pages are fetched, so it should not be shared
+	 */
+	public KeysetPagedIterator(CouchDbConnector db, ViewQuery query, Class<T> type, int pageSize) {
+		if (pageSize < 1) {
+			throw new IllegalArgumentException("Page size must be positive, was " + pageSize);
+		}
+		this.db = db;
+		this.query = query.includeDocs(true).limit(pageSize);
+		this.type = type;
+		this.pageSize = pageSize;
+	}
+
+	/**
+	 * @return the view key the row of the given document was emitted with
+	 */
+	protected abstract Object keyOf(T doc);
+
+	@Override
+	public boolean hasNext() {
+		if (!page.hasNext() && !lastPage) {
+			fetchNextPage();
+		}
+		return page.hasNext();
+	}
+
+	@Override
+	public T next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		return page.next();
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	private void fetchNextPage() {
+		if (last != null) {
+			// resume at the last row read and skip over it
+			query.startKey(keyOf(last)).startDocId(last.getId()).skip(1);
+		}
+		List<T> docs = db.queryView(query, type);
+		lastPage = docs.size() < pageSize;
+		if (!docs.isEmpty()) {
+			last = docs.get(docs.size() - 1);
+		}
+		page = docs.iterator();
+	}
+}
@@ -0,0 +1,23 @@
+package org.opensrp.common.util;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Creates named daemon threads for the worker pools of the services, so that a pool left running
+ * does not keep the JVM from exiting.
+ */
+public class DaemonThreadFactory implements ThreadFactory {
+
+    private final String name;
+
+    public DaemonThreadFactory(String name) {
+        this.name = name;
+    }
+
+    @Override
+    public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+}
@@ -0,0 +1,149 @@
+package org.opensrp.common.util;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.regex.Pattern;
+
+import org.apache.http.client.methods.HttpRequestBase;
+
+/**
+ * Latency of the calls {@link HttpUtil} makes, per endpoint. An endpoint is the method, host and
+ * path of a request with the query left out and id-like path segments replaced by <code>{id}</code>,
+ * so calls for different patients or locations share one histogram.
+ */
+public class HttpClientMetrics {
+
+	/** endpoints kept apart at most; calls to any further endpoint of a host are counted together */
+	static final int MAX_ENDPOINTS = 500;
+
+	private static final Pattern ID_SEGMENT = Pattern.compile("(?i)[0-9a-f]{8}-[0-9a-f-]{27,}|[^/]*\\d{3,}[^/]*");
+
+	private final ConcurrentMap<String, Latency> endpoints = new ConcurrentHashMap<String, Latency>();
+
+	/**
+	 * @param failed true if no response was received or it had a 5xx status
+	 */
+	public void record(HttpRequestBase request, long nanos, boolean failed) {
+		String endpoint = endpointOf(request);
+		Latency latency = endpoints.get(endpoint);
+		if (latency == null) {
+			if (endpoints.size() >= MAX_ENDPOINTS) {
+				endpoint = request.getMethod() + " " + request.getURI().getHost() + "/*";
+			}
+			Latency created = new Latency();
+			latency = endpoints.putIfAbsent(endpoint, created);
+			if (latency == null) {
+				latency = created;
+			}
+		}
+		latency.record(nanos, failed);
+	}
+
+	/**
+	 * @return latency of each endpoint called so far, by endpoint
+	 */
+	public Map<String, Latency> endpoints() {
+		return Collections.unmodifiableMap(new TreeMap<String, Latency>(endpoints));
+	}
+
+	static String endpointOf(HttpRequestBase request) {
+		String path = request.getURI().getRawPath();
+		StringBuilder endpoint = new StringBuilder(request.getMethod()).append(' ').append(request.getURI().getHost());
+		if (request.getURI().getPort() != -1) {
+			endpoint.append(':').append(request.getURI().getPort());
+		}
+		if (path != null) {
+			for (String segment : path.split("/")) {
+				if (!segment.isEmpty()) {
+					endpoint.append('/').append(ID_SEGMENT.matcher(segment).matches() ? "{id}" : segment);
+				}
+			}
+		}
+		return endpoint.toString();
+	}
+
+	/**
+	 * Histogram of call durations over fixed buckets, with the number of calls that failed.
+	 */
+	public static class Latency {
+
+		/** upper bounds of the buckets, in milliseconds; one more bucket holds everything slower */
+		public static final long[] BUCKET_BOUNDS_MILLIS = { 5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000 };
+
+		private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_BOUNDS_MILLIS.length + 1);
+
+		private final AtomicLong count = new AtomicLong();
+
+		private final AtomicLong failures = new AtomicLong();
+
+		private final AtomicLong totalNanos = new AtomicLong();
+
+		void record(long nanos, boolean failed) {
+			long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+			int bucket = 0;
+			while (bucket < BUCKET_BOUNDS_MILLIS.length && millis > BUCKET_BOUNDS_MILLIS[bucket]) {
+				bucket++;
+			}
+			buckets.incrementAndGet(bucket);
+			count.incrementAndGet();
+			totalNanos.addAndGet(nanos);
+			if (failed) {
+				failures.incrementAndGet();
+			}
+		}
+
+		public long count() {
+			return count.get();
+		}
+
+		public long failures() {
+			return failures.get();
+		}
+
+		public long totalNanos() {
+			return totalNanos.get();
+		}
+
+		/**
+		 * @return calls per bucket, the bucket after the last bound holding the slowest calls
+		 */
+		public long[] bucketCounts() {
+			long[] counts = new long[buckets.length()];
+			for (int i = 0; i < counts.length; i++) {
+				counts[i] = buckets.get(i);
+			}
+			return counts;
+		}
+
+		/**
+		 * @param percentile between 0 and 100
+		 * @return upper bound of the bucket the percentile falls in, Long.MAX_VALUE if that is the
+		 *         last one, 0 if nothing was recorded
+		 */
+		public long percentileMillis(double percentile) {
+			long[] counts = bucketCounts();
+			long total = 0;
+			for (long bucketCount : counts) {
+				total += bucketCount;
+			}
+			if (total == 0) {
+				return 0;
+			}
+			long rank = (long) Math.ceil(total * percentile / 100);
+			long seen = 0;
+			for (int i = 0; i < BUCKET_BOUNDS_MILLIS.length; i++) {
+				seen += counts[i];
+				if (seen >= rank) {
+					return BUCKET_BOUNDS_MILLIS[i];
+				}
+			}
+			return Long.MAX_VALUE;
+		}
+	}
+}
@@ -1,29 +1,53 @@
 package org.opensrp.common.util;
 
 import org.apache.commons.codec.binary.Base64;
-import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.StringUtils;
+import org.apache.http.HttpHost;
+import org.apache.http.client.ResponseHandler;
 import org.apache.http.client.methods.*;
-import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.client.protocol.RequestAcceptEncoding;
+import org.apache.http.client.protocol.ResponseContentEncoding;
+import org.apache.http.conn.routing.HttpRoute;
 import org.apache.http.conn.scheme.PlainSocketFactory;
 import org.apache.http.conn.scheme.Scheme;
 import org.apache.http.conn.scheme.SchemeRegistry;
 import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.DefaultHttpClient;
-import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.impl.client.DefaultHttpRequestRetryHandler;
+import org.apache.http.impl.conn.PoolingClientConnectionManager;
 import org.apache.http.params.BasicHttpParams;
 import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.pool.PoolStats;
 import org.apache.http.protocol.HTTP;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.io.support.PropertiesLoaderUtils;
 import org.springframework.stereotype.Component;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.security.KeyStore;
+import java.util.Properties;
 
+/**
+ * The outbound HTTP client shared by the OpenMRS, DHIS2 and RapidPro connectors. Connections are
+ * pooled per host and kept alive, responses may be gzipped, idempotent calls (anything but POST) are
+ * retried with exponential backoff on I/O errors and 502/503/504, and the latency of every call is
+ * recorded per endpoint in {@link #metrics()}.
+ * <p>
+ * The client is configured from the <code>http.client.*</code> keys of opensrp.properties.
+ */
 @Component
 public class HttpUtil {
 
+	private static Logger logger = LoggerFactory.getLogger(HttpUtil.class.toString());
+
 	private HttpUtil() {
 
 	}
@@ -32,9 +56,54 @@ public class HttpUtil {
 		BASIC, TOKEN, NONE
 	}
 
+	private static final Properties settings = loadSettings();
+
+	private static final int retries = setting("http.client.retries", 2);
+
+	private static final long retryBackoffMillis = setting("http.client.retry.backoff.millis", 500);
+
+	private static final HttpClientMetrics metrics = new HttpClientMetrics();
+
+	private static final PoolingClientConnectionManager connectionManager = createConnectionManager();
+
 	private final static DefaultHttpClient httpClient = init();
 
+	/**
+	 * Responses read into an {@link HttpResponse} with the body as a String. Use the methods taking a
+	 * {@link ResponseHandler} to stream large bodies instead.
+	 */
+	private static final ResponseHandler<HttpResponse> STRING_RESPONSE = new ResponseHandler<HttpResponse>() {
+
+		@Override
+		public HttpResponse handleResponse(org.apache.http.HttpResponse response) throws IOException {
+			return createCustomResponseFrom(response);
+		}
+	};
+
 	public static DefaultHttpClient init() {
+		BasicHttpParams basicHttpParams = new BasicHttpParams();
+		HttpConnectionParams.setConnectionTimeout(basicHttpParams, setting("http.client.connect.timeout.millis", 30000));
+		HttpConnectionParams.setSoTimeout(basicHttpParams, setting("http.client.socket.timeout.millis", 60000));
+
+		DefaultHttpClient client = new DefaultHttpClient(connectionManager, basicHttpParams);
+		// retried in execute, where only idempotent calls are retried and with backoff
+		client.setHttpRequestRetryHandler(new DefaultHttpRequestRetryHandler(0, false));
+		client.addRequestInterceptor(new RequestAcceptEncoding());
+		client.addResponseInterceptor(new ResponseContentEncoding());
+
+		final long keepAliveMillis = setting("http.client.keep.alive.seconds", 30) * 1000L;
+		client.setKeepAliveStrategy(new DefaultConnectionKeepAliveStrategy() {
+
+			@Override
+			public long getKeepAliveDuration(org.apache.http.HttpResponse response, HttpContext context) {
+				long duration = super.getKeepAliveDuration(response, context);
+				return duration > 0 ? Math.min(duration, keepAliveMillis) : keepAliveMillis;
+			}
+		});
+		return client;
+	}
+
+	private static PoolingClientConnectionManager createConnectionManager() {
 		try {
 			//TODO add option to ignore cetificate validation in opensrp.prop
 			KeyStore trustStore = KeyStore.getInstance(KeyStore.getDefaultType());
@@ -42,23 +111,63 @@ public class HttpUtil {
 			CustomCertificateSSLSocketFactory sf = new CustomCertificateSSLSocketFactory(trustStore);
 			sf.setHostnameVerifier(CustomCertificateSSLSocketFactory.ALLOW_ALL_HOSTNAME_VERIFIER);
 
-			BasicHttpParams basicHttpParams = new BasicHttpParams();
-			HttpConnectionParams.setConnectionTimeout(basicHttpParams, 30000);
-			HttpConnectionParams.setSoTimeout(basicHttpParams, 60000);
-
 			SchemeRegistry registry = new SchemeRegistry();
 			registry.register(new Scheme("http", PlainSocketFactory.getSocketFactory(), 80));
 			registry.register(new Scheme("https", sf, 443));
 
-			ClientConnectionManager connectionManager = new ThreadSafeClientConnManager(basicHttpParams, registry);
-			return new DefaultHttpClient(connectionManager, basicHttpParams);
+			PoolingClientConnectionManager manager = new PoolingClientConnectionManager(registry);
+			manager.setMaxTotal(setting("http.client.max.connections", 100));
+			manager.setDefaultMaxPerRoute(setting("http.client.max.connections.per.host", 20));
+			// host:port=connections,... for hosts that should get more, or fewer, than the default
+			String overrides = settings.getProperty("http.client.max.connections.per.host.overrides", "");
+			for (String override : overrides.split(",")) {
+				String[] hostAndSize = override.trim().split("=");
+				if (hostAndSize.length != 2) {
+					continue;
+				}
+				String[] hostAndPort = hostAndSize[0].trim().split(":");
+				int port = hostAndPort.length > 1 ? Integer.parseInt(hostAndPort[1]) : 80;
+				HttpHost host = new HttpHost(hostAndPort[0], port, port == 443 ? "https" : "http");
+				manager.setMaxPerRoute(new HttpRoute(host), Integer.parseInt(hostAndSize[1].trim()));
+			}
+			return manager;
 		}
 		catch (Exception e) {
-			e.printStackTrace();
+			logger.error("Could not create the HTTP connection pool", e);
 			throw new RuntimeException(e);
 		}
 	}
 
+	private static Properties loadSettings() {
+		try {
+			return PropertiesLoaderUtils.loadProperties(new ClassPathResource("opensrp.properties"));
+		}
+		catch (IOException e) {
+			logger.info("No opensrp.properties on the classpath, the HTTP client uses its default settings");
+			return new Properties();
+		}
+	}
+
+	private static int setting(String key, int defaultValue) {
+		String value = settings.getProperty(key);
+		return StringUtils.isBlank(value) ? defaultValue : Integer.parseInt(value.trim());
+	}
+
+	/**
+	 * @return latency of the calls made so far, per endpoint
+	 */
+	public static HttpClientMetrics metrics() {
+		return metrics;
+	}
+
+	/**
+	 * @return connections of the pool leased, available and at most open, and the number of calls
+	 *         waiting for one; calls that wait mean the pool is saturated
+	 */
+	public static PoolStats poolStats() {
+		return connectionManager.getTotalStats();
+	}
+
 	public static HttpResponse post(String url, String payload, String data, String username, String password) {
 		return post(url, payload, data, "application/json", AuthType.BASIC, username + ":" + password);
 	}
@@ -77,15 +186,13 @@ public class HttpUtil {
 		try {
 			HttpPost request = (HttpPost) makeConnection(url, payload, RequestMethod.POST, authType, authString);
 			request.setHeader(HTTP.CONTENT_TYPE, contentType);
-			StringEntity entity = new StringEntity(data == null ? "" : data);
-			System.out.println(data);
+			StringEntity entity = new StringEntity(data == null ? "" : data, "UTF-8");
 			entity.setContentEncoding(contentType);
 			request.setEntity(entity);
-			org.apache.http.HttpResponse response = httpClient.execute(request);
-			return createCustomResponseFrom(response);
+			return execute(request, STRING_RESPONSE);
 		}
 		catch (Exception e) {
-			e.printStackTrace();
+			logger.error("POST " + url + " failed", e);
 			throw new RuntimeException(e);
 		}
 	}
@@ -107,10 +214,18 @@ public class HttpUtil {
 	}
 
 	public static HttpResponse get(String url, String payload, AuthType authType, String authString) {
+		return get(url, payload, authType, authString, STRING_RESPONSE);
+	}
+
+	/**
+	 * GET handing the response to the handler while it is being received, for bodies too large to be
+	 * read into a String. The connection is released once the handler returns.
+	 */
+	public static <T> T get(String url, String payload, AuthType authType, String authString,
+	                        ResponseHandler<? extends T> handler) {
 		try {
 			HttpGet request = (HttpGet) makeConnection(url, payload, RequestMethod.GET, authType, authString);
-			org.apache.http.HttpResponse response = httpClient.execute(request);
-			return createCustomResponseFrom(response);
+			return execute(request, handler);
 		}
 		catch (Exception e) {
 			throw new RuntimeException(e);
@@ -120,19 +235,71 @@ public class HttpUtil {
 	public static HttpResponse delete(String url, String payload, AuthType authType, String authString) {
 		try {
 			HttpDelete request = (HttpDelete) makeConnection(url, payload, RequestMethod.DELETE, authType, authString);
-			org.apache.http.HttpResponse response = httpClient.execute(request);
-			return createCustomResponseFrom(response);
+			return execute(request, STRING_RESPONSE);
 		}
 		catch (Exception e) {
 			throw new RuntimeException(e);
 		}
 	}
 
+	/**
+	 * Execute a request built by the caller on the shared client, with the retries and metrics of
+	 * the calls made through the other methods.
+	 */
+	public static <T> T execute(HttpRequestBase request, ResponseHandler<? extends T> handler) throws IOException {
+		int attempts = request instanceof HttpPost ? 1 : 1 + retries;
+		for (int attempt = 1;; attempt++) {
+			long start = System.nanoTime();
+			org.apache.http.HttpResponse response;
+			try {
+				response = httpClient.execute(request);
+			}
+			catch (IOException e) {
+				metrics.record(request, System.nanoTime() - start, true);
+				if (attempt >= attempts) {
+					throw e;
+				}
+				backOff(request, attempt, e.toString());
+				continue;
+			}
+
+			int statusCode = response.getStatusLine().getStatusCode();
+			try {
+				if (attempt < attempts && isRetryable(statusCode)) {
+					backOff(request, attempt, "status " + statusCode);
+					continue;
+				}
+				return handler.handleResponse(response);
+			}
+			finally {
+				EntityUtils.consumeQuietly(response.getEntity());
+				metrics.record(request, System.nanoTime() - start, statusCode >= 500);
+			}
+		}
+	}
+
+	private static boolean isRetryable(int statusCode) {
+		return statusCode == 502 || statusCode == 503 || statusCode == 504;
+	}
+
+	private static void backOff(HttpRequestBase request, int attempt, String reason) throws InterruptedIOException {
+		long delay = retryBackoffMillis << (attempt - 1);
+		logger.warn(request.getMethod() + " " + request.getURI() + " failed with " + reason + ", retrying in " + delay
+		        + " ms");
+		try {
+			Thread.sleep(delay);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting to retry " + request.getURI());
+		}
+	}
+
 	static HttpResponse createCustomResponseFrom(org.apache.http.HttpResponse response) throws IOException {
 		int statusCode = response.getStatusLine().getStatusCode();
 		String entity = "";
 		if (response.getEntity() != null) {
-			entity = IOUtils.toString(response.getEntity().getContent());
+			entity = EntityUtils.toString(response.getEntity(), "UTF-8");
 		}
 
 		return new HttpResponse(checkSuccessBasedOnHttpCode(statusCode), statusCode, entity);
@@ -153,6 +320,8 @@ public class HttpUtil {
 		if (url.endsWith("/")) {
 			url = url.substring(0, url.lastIndexOf("/"));
 		}
+		// the query may carry credentials, it is left out of the log
+		logger.debug(method + " " + url);
 		url = (url + (StringUtils.isBlank(payload) ? "" : ("?" + payload))).replaceAll(" ", "%20");
 		URI urlo = new URI(url);
 
@@ -178,7 +347,6 @@ public class HttpUtil {
 			requestBase.addHeader("Authorization", "Token " + authString);
 		}
 
-		System.out.println(url);
 		return requestBase;
 	}
 
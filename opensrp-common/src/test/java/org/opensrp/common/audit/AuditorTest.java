@@ -14,6 +14,7 @@ import java.util.List;
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
 import static org.opensrp.common.audit.AuditMessageType.NORMAL;
 
 public class AuditorTest extends BaseUnitTest {
@@ -179,6 +180,58 @@ public class AuditorTest extends BaseUnitTest {
         assertEquals(10000, auditor.messagesSince(0).size());
     }
 
+    @Test
+    public void shouldReturnACopyWhichLaterMessagesDoNotChange() {
+        Auditor auditor = new Auditor(2);
+        audit(auditor, "Message 1");
+        audit(auditor, "Message 2");
+
+        List<AuditMessage> messages = auditor.messagesSince(0);
+        audit(auditor, "Message 3");
+
+        assertThat(messages.size(), is(2));
+        assertData(messages.get(0), is("Message 1"));
+        assertData(messages.get(1), is("Message 2"));
+    }
+
+    @Test
+    public void shouldGiveReadersConsecutiveMessagesWhileOthersAreAdded() throws Exception {
+        final Auditor auditor = new Auditor(100);
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < 4; i++) {
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 10000; i++) {
+                        audit(auditor, "Message " + i);
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+
+        long lastSeen = 0;
+        boolean writing = true;
+        while (writing) {
+            writing = false;
+            for (Thread thread : threads) {
+                writing |= thread.isAlive();
+            }
+            List<AuditMessage> messages = auditor.messagesSince(lastSeen);
+            assertTrue(messages.size() <= 100);
+            for (int i = 1; i < messages.size(); i++) {
+                assertEquals(messages.get(i - 1).index() + 1, messages.get(i).index());
+            }
+            if (!messages.isEmpty()) {
+                assertTrue(messages.get(0).index() > lastSeen);
+                lastSeen = messages.get(messages.size() - 1).index();
+            }
+        }
+        assertThat(auditor.messagesSince(0).size(), is(100));
+    }
+
     private void assertData(AuditMessage message, Matcher<String> expectedDataMatcher) {
         assertThat(message.data().get("data"), expectedDataMatcher);
     }
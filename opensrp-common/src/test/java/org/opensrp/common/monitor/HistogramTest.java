@@ -0,0 +1,63 @@
+package org.opensrp.common.monitor;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HistogramTest {
+
+    @Test
+    public void shouldCountSmallValuesExactly() {
+        Histogram histogram = new Histogram();
+        for (long value = 1; value <= 50; value++) {
+            histogram.record(value);
+        }
+
+        assertEquals(50, histogram.count());
+        assertEquals(1275, histogram.sum());
+        assertEquals(50, histogram.max());
+        assertEquals(25, histogram.valueAtPercentile(50));
+        assertEquals(50, histogram.valueAtPercentile(100));
+    }
+
+    @Test
+    public void shouldReportLargeValuesWithinBucketPrecision() {
+        Histogram histogram = new Histogram();
+        for (long value = 1; value <= 100000; value++) {
+            histogram.record(value * 1000);
+        }
+
+        assertWithin(50000000, histogram.valueAtPercentile(50));
+        assertWithin(99000000, histogram.valueAtPercentile(99));
+        assertEquals(100000000, histogram.valueAtPercentile(100));
+    }
+
+    @Test
+    public void shouldClampValuesOutOfRange() {
+        Histogram histogram = new Histogram();
+        histogram.record(-5);
+        histogram.record(Long.MAX_VALUE);
+
+        assertEquals(0, histogram.valueAtPercentile(50));
+        assertEquals(Histogram.HIGHEST_TRACKABLE_VALUE, histogram.valueAtPercentile(100));
+    }
+
+    @Test
+    public void bucketsShouldCoverEveryValueOnce() {
+        for (int index = Histogram.SUB_BUCKETS; index < Histogram.indexOf(Histogram.HIGHEST_TRACKABLE_VALUE); index++) {
+            assertEquals(index + 1, Histogram.indexOf(Histogram.highestValueAt(index) + 1));
+            assertEquals(index, Histogram.indexOf(Histogram.highestValueAt(index)));
+        }
+    }
+
+    @Test
+    public void shouldReportZeroWhenNothingWasRecorded() {
+        assertEquals(0, new Histogram().valueAtPercentile(99));
+    }
+
+    private void assertWithin(long expected, long actual) {
+        assertTrue(actual + " is not within 1/" + Histogram.HALF + " of " + expected,
+                actual >= expected && actual - expected <= expected / Histogram.HALF);
+    }
+}
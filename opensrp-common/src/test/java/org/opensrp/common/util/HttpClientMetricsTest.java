@@ -0,0 +1,46 @@
+package org.opensrp.common.util;
+
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class HttpClientMetricsTest {
+
+    @Test
+    public void shouldGroupCallsForDifferentIdsUnderOneEndpoint() {
+        assertEquals("GET localhost:8080/openmrs/ws/rest/v1/patient/{id}", HttpClientMetrics.endpointOf(
+                new HttpGet("http://localhost:8080/openmrs/ws/rest/v1/patient/8d8f2d4c-0c5a-4c6e-9f65-1a2b3c4d5e6f?v=full")));
+        assertEquals("POST dhis2.org/api/trackedEntityInstances", HttpClientMetrics.endpointOf(
+                new HttpPost("https://dhis2.org/api/trackedEntityInstances")));
+        assertEquals("GET dhis2.org/api/events/{id}", HttpClientMetrics.endpointOf(
+                new HttpGet("https://dhis2.org/api/events/10023")));
+    }
+
+    @Test
+    public void shouldRecordLatencyAndFailuresPerEndpoint() {
+        HttpClientMetrics metrics = new HttpClientMetrics();
+        HttpGet request = new HttpGet("http://localhost/openmrs/ws/rest/v1/location/12345");
+
+        metrics.record(request, TimeUnit.MILLISECONDS.toNanos(3), false);
+        metrics.record(request, TimeUnit.MILLISECONDS.toNanos(40), false);
+        metrics.record(request, TimeUnit.MILLISECONDS.toNanos(400), true);
+        metrics.record(request, TimeUnit.SECONDS.toNanos(60), true);
+
+        HttpClientMetrics.Latency latency = metrics.endpoints().get("GET localhost/openmrs/ws/rest/v1/location/{id}");
+        assertEquals(4, latency.count());
+        assertEquals(2, latency.failures());
+        assertEquals(5, latency.percentileMillis(25));
+        assertEquals(50, latency.percentileMillis(50));
+        assertEquals(500, latency.percentileMillis(75));
+        assertEquals(Long.MAX_VALUE, latency.percentileMillis(99));
+    }
+
+    @Test
+    public void shouldReportZeroPercentileWhenNothingWasRecorded() {
+        assertEquals(0, new HttpClientMetrics.Latency().percentileMillis(99));
+    }
+}
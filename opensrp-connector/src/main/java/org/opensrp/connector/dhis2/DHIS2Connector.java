@@ -3,9 +3,14 @@
  */
 package org.opensrp.connector.dhis2;
 
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.opensrp.common.util.DateUtil;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 
@@ -17,6 +22,12 @@ public class DHIS2Connector extends DHIS2Service {
 	
 	private static org.slf4j.Logger logger = LoggerFactory.getLogger(DHIS2Connector.class.toString());
 	
+	private static final String UID_LETTERS = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ";
+	
+	private static final String UID_CHARACTERS = UID_LETTERS + "0123456789";
+	
+	private static final int UID_LENGTH = 11;
+	
 	private String orgUnit;
 	
 	private String trackedEntity;
@@ -35,6 +46,10 @@ public class DHIS2Connector extends DHIS2Service {
 		
 	}
 	
+	public DHIS2Connector(String dhis2Url, String user, String password) {
+		super(dhis2Url, user, password);
+	}
+	
 	public String getTrackedEntity() {
 		return trackedEntity;
 	}
@@ -74,6 +89,18 @@ public class DHIS2Connector extends DHIS2Service {
 		return clientData;
 	}
 	
+	/**
+	 * Send the attributes as a tracked entity instance of the organisation unit and enroll it in the
+	 * program, with {@link #send()}
+	 */
+	public JSONObject send(JSONArray attributes, String program) throws JSONException {
+		setAttributes(attributes);
+		setOrgUnit(DHIS2Settings.ORG_UNIT);
+		setProgram(program);
+		setTrackedEntity(DHIS2Settings.TRACKED_ENTITY);
+		return send();
+	}
+	
 	public JSONObject send() throws JSONException {
 		
 		String reference = "reference";
@@ -102,4 +129,100 @@ public class DHIS2Connector extends DHIS2Service {
 		
 	}
 	
+	/**
+	 * A tracked entity instance enrolled in the program, for
+	 * {@link #sendTrackedEntityInstances(JSONArray)}. Unlike {@link #send()} this keeps no state, so
+	 * it can be used from several threads.
+	 * <p>
+	 * The instance and its enrollment get uids derived from the program and the key, so sending the
+	 * same instance again updates it in DHIS2 instead of creating a duplicate.
+	 * 
+	 * @param key identifies the instance within the program, e.g. the baseEntityId of the client
+	 */
+	public static JSONObject trackedEntityInstance(String key, JSONArray attributes, String program)
+	    throws JSONException {
+		String today = DateUtil.today().toString();
+		JSONObject enrollment = new JSONObject();
+		enrollment.put("enrollment", uid(program + "/" + key + "/enrollment"));
+		enrollment.put("orgUnit", DHIS2Settings.ORG_UNIT);
+		enrollment.put("program", program);
+		enrollment.put("enrollmentDate", today);
+		enrollment.put("incidentDate", today);
+		
+		JSONObject trackedEntityInstance = new JSONObject();
+		trackedEntityInstance.put("trackedEntityInstance", uid(program + "/" + key));
+		trackedEntityInstance.put("attributes", attributes);
+		trackedEntityInstance.put("trackedEntity", DHIS2Settings.TRACKED_ENTITY);
+		trackedEntityInstance.put("orgUnit", DHIS2Settings.ORG_UNIT);
+		trackedEntityInstance.put("enrollments", new JSONArray().put(enrollment));
+		return trackedEntityInstance;
+	}
+	
+	/**
+	 * @return a DHIS2 uid, a letter followed by ten letters or digits, that is always the same for the
+	 *         same seed
+	 */
+	static String uid(String seed) {
+		byte[] hash;
+		try {
+			hash = MessageDigest.getInstance("SHA-256").digest(seed.getBytes("UTF-8"));
+		}
+		catch (NoSuchAlgorithmException | UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+		StringBuilder uid = new StringBuilder(UID_LENGTH);
+		uid.append(UID_LETTERS.charAt((hash[0] & 0xff) % UID_LETTERS.length()));
+		for (int i = 1; i < UID_LENGTH; i++) {
+			uid.append(UID_CHARACTERS.charAt((hash[i] & 0xff) % UID_CHARACTERS.length()));
+		}
+		return uid.toString();
+	}
+	
+	/**
+	 * Create and enroll a batch of tracked entity instances with a single bulk request, instead of a
+	 * trackedEntityInstances and an enrollments request per client.
+	 * 
+	 * @param trackedEntityInstances built with
+	 *            {@link #trackedEntityInstance(String, JSONArray, String)}
+	 * @return the import summary of the batch
+	 * @throws RuntimeException if DHIS2 did not import every instance of the batch, even when it
+	 *             answered 200
+	 */
+	public JSONObject sendTrackedEntityInstances(JSONArray trackedEntityInstances) throws JSONException {
+		JSONObject payload = new JSONObject();
+		payload.put("trackedEntityInstances", trackedEntityInstances);
+		JSONObject response = new JSONObject(Dhis2HttpUtils.post(DHIS2_BASE_URL.replaceAll("\\s+", "")
+		        + "trackedEntityInstances", "", payload.toString(), DHIS2_USER.replaceAll("\\s+", ""),
+		    DHIS2_PWD.replaceAll("\\s+", "")).body());
+		checkImportSummaries(response);
+		return response;
+	}
+	
+	/**
+	 * Fail on import summaries with an ERROR status or ignored instances. The summaries are either the
+	 * response itself or, from DHIS2 2.26 on, wrapped in its <code>response</code> field.
+	 */
+	static void checkImportSummaries(JSONObject response) throws JSONException {
+		if ("ERROR".equals(response.optString("status"))) {
+			throw new RuntimeException("DHIS2 did not import the batch: " + response);
+		}
+		JSONObject summaries = response.has("importSummaries") ? response : response.optJSONObject("response");
+		if (summaries == null) {
+			return;
+		}
+		if ("ERROR".equals(summaries.optString("status")) || summaries.optInt("ignored") > 0) {
+			throw new RuntimeException("DHIS2 did not import the whole batch: " + summaries);
+		}
+		JSONArray importSummaries = summaries.optJSONArray("importSummaries");
+		for (int i = 0; importSummaries != null && i < importSummaries.length(); i++) {
+			JSONObject summary = importSummaries.getJSONObject(i);
+			JSONObject importCount = summary.optJSONObject("importCount");
+			if ("ERROR".equals(summary.optString("status")) || importCount != null
+			        && importCount.optInt("ignored") > 0) {
+				throw new RuntimeException("DHIS2 did not import instance " + summary.optString("reference") + ": "
+				        + summary);
+			}
+		}
+	}
+	
 }
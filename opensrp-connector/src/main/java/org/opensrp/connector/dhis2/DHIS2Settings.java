@@ -11,6 +11,15 @@ import java.util.Map;
  */
 public class DHIS2Settings {
 	
+	static final String ORG_UNIT = "IDc0HEyjhvL";
+	
+	static final String TRACKED_ENTITY = "MCPQUTHX1Ze";
+	
+	/** program the children, mothers and households are enrolled in */
+	static final String CLIENT_PROGRAM = "OprRhyWVIM6";
+	
+	static final String VACCINATION_PROGRAM = "Bxy7WXRMscX";
+	
 	static Map<String, String> CHILDMAPPING = new HashMap<String, String>();
 	static {
 		CHILDMAPPING.put("firstName", "pzuh7zrs9Xx");
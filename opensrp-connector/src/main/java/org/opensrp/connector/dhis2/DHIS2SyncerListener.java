@@ -1,6 +1,16 @@
 package org.opensrp.connector.dhis2;
 
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.PreDestroy;
 
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -8,6 +18,7 @@ import org.json.JSONObject;
 import org.motechproject.scheduler.domain.MotechEvent;
 import org.motechproject.server.event.annotations.MotechListener;
 import org.opensrp.common.AllConstants.DHIS2Constants;
+import org.opensrp.common.util.DaemonThreadFactory;
 import org.opensrp.common.util.DateUtil;
 import org.opensrp.domain.Client;
 import org.opensrp.domain.DHIS2Marker;
@@ -15,38 +26,77 @@ import org.opensrp.domain.Event;
 import org.opensrp.repository.AllDHIS2Marker;
 import org.opensrp.service.ClientService;
 import org.opensrp.service.EventService;
+import org.opensrp.util.ServerVersionPages;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 @Component
 public class DHIS2SyncerListener {
 	
+	private static Logger logger = LoggerFactory.getLogger(DHIS2SyncerListener.class.toString());
+	
+	private static final ReentrantLock lock = new ReentrantLock();
+	
 	private final ClientService clientService;
 	
-	@Autowired
-	private AllDHIS2Marker allDHIS2Marker;
+	private final EventService eventService;
 	
-	@Autowired
-	private Dhis2TrackCaptureConnector dhis2TrackCaptureConnector;
+	private final AllDHIS2Marker allDHIS2Marker;
 	
-	@Autowired
-	private DHIS2TrackerService dhis2TrackerService;
+	private final DHIS2TrackerService dhis2TrackerService;
 	
-	private DHIS2Tracker dhis2Tracker;
+	private final DHIS2Connector dhis2Connector;
 	
 	@Autowired
-	private EventService eventService;
+	private Dhis2TrackCaptureConnector dhis2TrackCaptureConnector;
 	
 	@Autowired
 	public VaccinationTracker vaccinationTracker;
 	
+	private final int pageSize;
+	
+	private final int batchSize;
+	
+	private final int workerThreads;
+	
+	/** sends the batches of a page, a few at a time */
+	private final ExecutorService batchSenders;
+	
 	@Autowired
-	public DHIS2SyncerListener(ClientService clientService) {
+	public DHIS2SyncerListener(ClientService clientService, EventService eventService, AllDHIS2Marker allDHIS2Marker,
+	    DHIS2TrackerService dhis2TrackerService, DHIS2Connector dhis2Connector,
+	    @Value("#{opensrp['dhis2.syncer.page.size']}") int pageSize,
+	    @Value("#{opensrp['dhis2.syncer.batch.size']}") int batchSize,
+	    @Value("#{opensrp['dhis2.syncer.worker.threads']}") int workerThreads) {
 		this.clientService = clientService;
+		this.eventService = eventService;
+		this.allDHIS2Marker = allDHIS2Marker;
+		this.dhis2TrackerService = dhis2TrackerService;
+		this.dhis2Connector = dhis2Connector;
+		this.pageSize = pageSize;
+		this.batchSize = Math.max(1, batchSize);
+		this.workerThreads = Math.max(1, workerThreads);
+		this.batchSenders = Executors.newFixedThreadPool(this.workerThreads,
+		    new DaemonThreadFactory("dhis2-tracker-push"));
 	}
 	
+	/**
+	 * Push the clients and vaccinations stamped since the last push. Clients go in bulk batches of
+	 * <code>dhis2.syncer.batch.size</code>, up to <code>dhis2.syncer.worker.threads</code> batches at a
+	 * time, and the client marker moves past a batch only once it and every batch before it has been
+	 * sent. A run that finds the previous one still pushing does nothing.
+	 * 
+	 * @return the import summary of the last batch of clients sent
+	 */
 	@MotechListener(subjects = DHIS2Constants.DHIS2_TRACK_DATA_SYNCER_SUBJECT)
 	public JSONObject pushToDHIS2(MotechEvent event) {
+		if (!lock.tryLock()) {
+			logger.warn("Not pushing to DHIS2. The previous push is still in progress.");
+			return null;
+		}
 		JSONObject response = null;
 		try {
 			Long start = 0l;
@@ -60,47 +110,116 @@ public class DHIS2SyncerListener {
 			} else {
 				start = clientSync == null || clientSync.get(0).getValue() == null ? 0 : clientSync.get(0).getValue();
 			}
-			System.err.println("start:" + start);
-			List<Client> cl = clientService.findByServerVersion(start);
 			if (eventSync.size() == 0) {
 				allDHIS2Marker.addEventMarker();
 				eventStart = 0l;
 			} else {
 				eventStart = eventSync == null || eventSync.get(0).getValue() == null ? 0 : eventSync.get(0).getValue();
 			}
-			List<Event> events = eventService.findByServerVersion(eventStart);
-			for (Client c : cl) {
-				System.err.println("Name:" + c.fullName());
-				try {
-					response = processTrackerAndSendToDHIS2(c);
-					allDHIS2Marker.update(c.getServerVersion());
-				}
-				catch (Exception e) {
-					e.printStackTrace();
-				}
-			}
 			
-			processAndSendVaccineTrackerToDHIS2(events);
+			response = pushClients(clientService.iterateByServerVersion(start, pageSize), start);
+			
+			processAndSendVaccineTrackerToDHIS2(eventService.iterateByServerVersion(eventStart, pageSize), eventStart);
 			
 		}
 		catch (Exception ex) {
-			ex.printStackTrace();
+			logger.error("DHIS2 push failed", ex);
+		}
+		finally {
+			lock.unlock();
 		}
 		return response;
 	}
 	
-	private JSONObject processAndSendVaccineTrackerToDHIS2(List<Event> events) throws JSONException {
-		vaccinationTracker.getTrackCaptureDataAndSend(events);
-		return null;
-		
+	/**
+	 * Send the clients in batches, <code>workerThreads</code> batches at a time. Stops at the first
+	 * batch that could not be sent, so it is sent again by the next run. Batches of the same round
+	 * after it may have been sent already and are sent again too, which DHIS2 takes as updates since
+	 * every instance has a uid derived from its client. A batch may end in the middle of a
+	 * serverVersion, the marker then only moves up to the serverVersion before it, see
+	 * {@link ServerVersionPages}.
+	 */
+	private JSONObject pushClients(Iterator<Client> clients, long start) throws InterruptedException {
+		JSONObject response = null;
+		long marker = start;
+		ServerVersionPages<Client> pages = ServerVersionPages.of(clients, batchSize, start);
+		while (pages.hasNext()) {
+			List<Future<JSONObject>> batches = new ArrayList<Future<JSONObject>>(workerThreads);
+			List<Long> watermarks = new ArrayList<Long>(workerThreads);
+			while (batches.size() < workerThreads && pages.hasNext()) {
+				final List<Client> batch = pages.next();
+				watermarks.add(pages.checkpoint());
+				batches.add(batchSenders.submit(new Callable<JSONObject>() {
+					
+					@Override
+					public JSONObject call() throws JSONException {
+						return sendBatch(batch);
+					}
+				}));
+			}
+			
+			boolean failed = false;
+			for (int i = 0; i < batches.size(); i++) {
+				try {
+					JSONObject batchResponse = batches.get(i).get();
+					if (!failed) {
+						response = batchResponse == null ? response : batchResponse;
+						if (watermarks.get(i) != marker) {
+							marker = watermarks.get(i);
+							allDHIS2Marker.update(marker);
+						}
+					}
+				}
+				catch (ExecutionException e) {
+					logger.error("Could not send clients after serverVersion " + marker + " to DHIS2", e.getCause());
+					failed = true;
+				}
+			}
+			if (failed) {
+				break;
+			}
+		}
+		return response;
 	}
 	
-	private JSONObject processTrackerAndSendToDHIS2(Client client) throws JSONException {
-		
-		dhis2Tracker = dhis2TrackerService.getTrackerType(client);
-		JSONArray clientData = dhis2Tracker.getTrackCaptureData(client);
-		return dhis2Tracker.sendTrackCaptureData(clientData);
-		
+	/**
+	 * @return the import summary of the batch, null if none of its clients is tracked in DHIS2
+	 */
+	private JSONObject sendBatch(List<Client> batch) throws JSONException {
+		JSONArray trackedEntityInstances = new JSONArray();
+		for (Client client : batch) {
+			DHIS2Tracker tracker = dhis2TrackerService.getTrackerType(client);
+			if (tracker == null) {
+				logger.info("No DHIS2 tracker for client " + client.getBaseEntityId());
+				continue;
+			}
+			try {
+				trackedEntityInstances.put(tracker.getTrackedEntityInstance(client));
+			}
+			catch (Exception e) {
+				logger.error("Not sending client " + client.getBaseEntityId() + " to DHIS2", e);
+			}
+		}
+		if (trackedEntityInstances.length() == 0) {
+			return null;
+		}
+		return dhis2Connector.sendTrackedEntityInstances(trackedEntityInstances);
+	}
+	
+	private void processAndSendVaccineTrackerToDHIS2(Iterator<Event> events, long start) throws JSONException {
+		ServerVersionPages<Event> pages = ServerVersionPages.of(events, pageSize, start);
+		while (pages.hasNext()) {
+			vaccinationTracker.getTrackCaptureDataAndSend(pages.next());
+			if (pages.checkpoint() != start) {
+				start = pages.checkpoint();
+				allDHIS2Marker.updateEventMarker(start);
+			}
+		}
+	}
+	
+	@PreDestroy
+	public void shutdown() {
+		batchSenders.shutdownNow();
 	}
 	
 	public JSONObject sentTrackCaptureDataToDHIS2(Client client) throws JSONException {
@@ -154,15 +273,15 @@ public class DHIS2SyncerListener {
 		/////////////////////
 		JSONArray enrollments = new JSONArray();
 		JSONObject enrollmentsObj = new JSONObject();
-		enrollmentsObj.put("orgUnit", "IDc0HEyjhvL");
-		enrollmentsObj.put("program", "OprRhyWVIM6");
+		enrollmentsObj.put("orgUnit", DHIS2Settings.ORG_UNIT);
+		enrollmentsObj.put("program", DHIS2Settings.CLIENT_PROGRAM);
 		enrollmentsObj.put("enrollmentDate", DateUtil.getTodayAsString());
 		enrollmentsObj.put("incidentDate", DateUtil.getTodayAsString());
 		enrollments.put(enrollmentsObj);
 		
 		clientData.put("attributes", clientAttribute);
-		clientData.put("trackedEntity", "MCPQUTHX1Ze");
-		clientData.put("orgUnit", "IDc0HEyjhvL");
+		clientData.put("trackedEntity", DHIS2Settings.TRACKED_ENTITY);
+		clientData.put("orgUnit", DHIS2Settings.ORG_UNIT);
 		
 		return dhis2TrackCaptureConnector.trackCaptureDataSendToDHIS2(clientData);
 	}
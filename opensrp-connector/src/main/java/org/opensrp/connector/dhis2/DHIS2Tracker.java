@@ -11,4 +11,10 @@ public interface DHIS2Tracker {
 	
 	public JSONObject sendTrackCaptureData(JSONArray attributes) throws JSONException;
 	
+	/**
+	 * @return the client as a tracked entity instance enrolled in the tracker's program, to be sent in
+	 *         bulk with {@link DHIS2Connector#sendTrackedEntityInstances(JSONArray)}
+	 */
+	public JSONObject getTrackedEntityInstance(Client client) throws JSONException;
+	
 }
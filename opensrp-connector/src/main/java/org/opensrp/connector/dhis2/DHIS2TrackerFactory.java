@@ -15,14 +15,12 @@ public class DHIS2TrackerFactory {
 	@Autowired
 	private ChildTracker childTracker;
 	
-	private DHIS2Tracker dhis2Tracker;
-	
 	public DHIS2TrackerFactory() {
 		
 	}
 	
 	public DHIS2Tracker getTracker(TrackerType tracker) {
-		
+		DHIS2Tracker dhis2Tracker = null;
 		if (tracker == TrackerType.HOUSEHOLD) {
 			
 			dhis2Tracker = householdTracker;
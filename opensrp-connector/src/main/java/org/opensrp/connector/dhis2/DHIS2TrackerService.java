@@ -2,6 +2,8 @@ package org.opensrp.connector.dhis2;
 
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -13,24 +15,28 @@ import org.springframework.stereotype.Service;
 @Service
 public class DHIS2TrackerService {
 	
-	private DHIS2Tracker dhis2Tracker;
+	/** trackers resolved from the factory, by type; they are singletons so resolving once is enough */
+	private final ConcurrentMap<TrackerType, DHIS2Tracker> trackers = new ConcurrentHashMap<TrackerType, DHIS2Tracker>();
 	
 	@Autowired
 	private DHIS2TrackerFactory dhis2TrackerFactory;
 	
+	/**
+	 * @return the tracker of the client's type, or null if the client is none of household, mother or
+	 *         child
+	 */
 	public DHIS2Tracker getTrackerType(Client client) {
 		TrackerType clientType = getClientType(client);
-		if (clientType == TrackerType.HOUSEHOLD) {
-			
-			dhis2Tracker = dhis2TrackerFactory.getTracker(TrackerType.HOUSEHOLD);
-		} else if (clientType == TrackerType.MOTHER) {
-			dhis2Tracker = dhis2TrackerFactory.getTracker(TrackerType.MOTHER);
-		} else if (clientType == TrackerType.CHILD) {
-			dhis2Tracker = dhis2TrackerFactory.getTracker(TrackerType.CHILD);
-		} else {
-			
+		if (clientType == null) {
+			return null;
+		}
+		DHIS2Tracker dhis2Tracker = trackers.get(clientType);
+		if (dhis2Tracker == null) {
+			dhis2Tracker = dhis2TrackerFactory.getTracker(clientType);
+			if (dhis2Tracker != null) {
+				trackers.putIfAbsent(clientType, dhis2Tracker);
+			}
 		}
-		
 		return dhis2Tracker;
 		
 	}
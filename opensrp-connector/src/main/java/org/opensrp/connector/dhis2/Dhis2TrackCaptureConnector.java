@@ -28,8 +28,8 @@ public class Dhis2TrackCaptureConnector extends DHIS2Service {
 		
 		JSONObject enroll = new JSONObject();
 		enroll.put("trackedEntityInstance", trackEntityReference.get("reference"));
-		enroll.put("program", "OprRhyWVIM6");
-		enroll.put("orgUnit", "IDc0HEyjhvL");
+		enroll.put("program", DHIS2Settings.CLIENT_PROGRAM);
+		enroll.put("orgUnit", DHIS2Settings.ORG_UNIT);
 		JSONObject response = new JSONObject(Dhis2HttpUtils.post(DHIS2_BASE_URL.replaceAll("\\s+", "") + "enrollments", "",
 		    enroll.toString(), DHIS2_USER.replaceAll("\\s+", ""), DHIS2_PWD.replaceAll("\\s+", "")).body());
 		
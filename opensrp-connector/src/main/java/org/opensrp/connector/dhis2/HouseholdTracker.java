@@ -128,25 +128,12 @@ public class HouseholdTracker extends DHIS2Service implements DHIS2Tracker {
 	
 	@Override
 	public JSONObject sendTrackCaptureData(JSONArray attributes) throws JSONException {
-		String orgUnit = "IDc0HEyjhvL";
-		String program = "OprRhyWVIM6";
-		String trackedEntity = "MCPQUTHX1Ze";
-		JSONObject clientData = new JSONObject();
-		
-		//JSONArray enrollments = new JSONArray();
-		//JSONObject enrollmentsObj = new JSONObject();
-		//enrollmentsObj.put("orgUnit", orgUnit);
-		//enrollmentsObj.put("program", program);
-		/*enrollmentsObj.put("enrollmentDate", DateUtil.getTodayAsString());
-		enrollmentsObj.put("incidentDate", DateUtil.getTodayAsString());*/
-		//enrollments.put(enrollmentsObj);
-		//clientData.put("enrollments", enrollments);		
-		dhis2Connector.setAttributes(attributes);
-		dhis2Connector.setOrgUnit(orgUnit);
-		dhis2Connector.setProgram(program);
-		dhis2Connector.setTrackedEntity(trackedEntity);
-		return dhis2Connector.send();
-		
+		return dhis2Connector.send(attributes, DHIS2Settings.CLIENT_PROGRAM);
 	}
 	
+	@Override
+	public JSONObject getTrackedEntityInstance(Client client) throws JSONException {
+		return DHIS2Connector.trackedEntityInstance(client.getBaseEntityId(), getTrackCaptureData(client),
+		    DHIS2Settings.CLIENT_PROGRAM);
+	}
 }
@@ -157,13 +157,12 @@ public class MotherTracker extends DHIS2Service implements DHIS2Tracker {
 	
 	@Override
 	public JSONObject sendTrackCaptureData(JSONArray attributes) throws JSONException {
-		String orgUnit = "IDc0HEyjhvL";
-		String program = "OprRhyWVIM6";
-		String trackedEntity = "MCPQUTHX1Ze";
-		dhis2Connector.setAttributes(attributes);
-		dhis2Connector.setOrgUnit(orgUnit);
-		dhis2Connector.setProgram(program);
-		dhis2Connector.setTrackedEntity(trackedEntity);
-		return dhis2Connector.send();
+		return dhis2Connector.send(attributes, DHIS2Settings.CLIENT_PROGRAM);
+	}
+	
+	@Override
+	public JSONObject getTrackedEntityInstance(Client client) throws JSONException {
+		return DHIS2Connector.trackedEntityInstance(client.getBaseEntityId(), getTrackCaptureData(client),
+		    DHIS2Settings.CLIENT_PROGRAM);
 	}
 }
@@ -1,8 +1,10 @@
 package org.opensrp.connector.dhis2;
 
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -10,7 +12,6 @@ import org.json.JSONObject;
 import org.opensrp.domain.Client;
 import org.opensrp.domain.Event;
 import org.opensrp.domain.Obs;
-import org.opensrp.repository.AllDHIS2Marker;
 import org.opensrp.service.ClientService;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -30,9 +31,6 @@ public class VaccinationTracker extends DHIS2Service {
 	@Autowired
 	private DHIS2Connector dhis2Connector;
 	
-	@Autowired
-	private AllDHIS2Marker allDHIS2Marker;
-	
 	public VaccinationTracker() {
 		
 	}
@@ -41,22 +39,39 @@ public class VaccinationTracker extends DHIS2Service {
 		super(dhis2Url, user, password);
 	}
 	
+	/**
+	 * Send a vaccination tracked entity instance for every vaccine of the events, all in one bulk
+	 * request. The clients of the events are looked up together, not once per vaccine.
+	 * 
+	 * @return the tracked entity instances sent
+	 */
 	public JSONArray getTrackCaptureDataAndSend(List<Event> events) throws JSONException {
+		Set<String> baseEntityIds = new HashSet<>();
 		for (Event event : events) {
-			List<Obs> observations = event.getObs();
-			allDHIS2Marker.updateEventMarker(event.getServerVersion());
-			for (Obs obs : observations) {
-				
+			baseEntityIds.add(event.getBaseEntityId());
+		}
+		Map<String, Client> clients = new HashMap<>();
+		for (Client client : clientService.findByBaseEntityIds(baseEntityIds)) {
+			clients.put(client.getBaseEntityId(), client);
+		}
+		
+		JSONArray trackedEntityInstances = new JSONArray();
+		for (Event event : events) {
+			Client client = clients.get(event.getBaseEntityId());
+			if (client == null) {
+				continue;
+			}
+			for (Obs obs : event.getObs()) {
 				if (DHIS2Settings.VACCINATION.containsKey(obs.getFormSubmissionField())) {
-					Client client = clientService.find(event.getBaseEntityId());
-					
-					if (client != null)
-						sendTrackCaptureData(prepareData(obs, client));
+					trackedEntityInstances.put(DHIS2Connector.trackedEntityInstance(client.getBaseEntityId() + "/"
+					        + obs.getFormSubmissionField(), prepareData(obs, client), DHIS2Settings.VACCINATION_PROGRAM));
 				}
 			}
-			
 		}
-		return null;
+		if (trackedEntityInstances.length() > 0) {
+			dhis2Connector.sendTrackedEntityInstances(trackedEntityInstances);
+		}
+		return trackedEntityInstances;
 	}
 	
 	private JSONArray prepareData(Obs obs, Client client) {
@@ -103,13 +118,6 @@ public class VaccinationTracker extends DHIS2Service {
 	}
 	
 	public JSONObject sendTrackCaptureData(JSONArray attributes) throws JSONException {
-		String orgUnit = "IDc0HEyjhvL";
-		String program = "Bxy7WXRMscX";
-		String trackedEntity = "MCPQUTHX1Ze";
-		dhis2Connector.setAttributes(attributes);
-		dhis2Connector.setOrgUnit(orgUnit);
-		dhis2Connector.setProgram(program);
-		dhis2Connector.setTrackedEntity(trackedEntity);
-		return dhis2Connector.send();
+		return dhis2Connector.send(attributes, DHIS2Settings.VACCINATION_PROGRAM);
 	}
 }
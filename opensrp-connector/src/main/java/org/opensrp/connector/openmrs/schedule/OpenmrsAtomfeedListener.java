@@ -7,6 +7,7 @@ import org.motechproject.server.event.annotations.MotechListener;
 import org.opensrp.connector.openmrs.EncounterAtomfeed;
 import org.opensrp.connector.openmrs.PatientAtomfeed;
 import org.opensrp.connector.openmrs.constants.OpenmrsConstants;
+import org.opensrp.connector.openmrs.service.OpenmrsLocationService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
@@ -15,11 +16,14 @@ public class OpenmrsAtomfeedListener {
 	Logger log = Logger.getLogger(getClass().getName());
 	private PatientAtomfeed patientAtomfeed;
 	private EncounterAtomfeed encounterAtomfeed;
+	private OpenmrsLocationService openmrsLocationService;
 
 	@Autowired
-	public OpenmrsAtomfeedListener(PatientAtomfeed patientAtomfeed, EncounterAtomfeed encounterAtomfeed) {
+	public OpenmrsAtomfeedListener(PatientAtomfeed patientAtomfeed, EncounterAtomfeed encounterAtomfeed,
+	    OpenmrsLocationService openmrsLocationService) {
 		this.patientAtomfeed = patientAtomfeed;
 		this.encounterAtomfeed = encounterAtomfeed;
+		this.openmrsLocationService = openmrsLocationService;
 	}
 
 	@MotechListener(subjects=OpenmrsConstants.SCHEDULER_OPENMRS_ATOMFEED_SYNCER_SUBJECT)
@@ -34,5 +38,7 @@ public class OpenmrsAtomfeedListener {
 		catch(Exception e){
 			e.printStackTrace();
 		}
+		// location hierarchy served to devices is reloaded on the feed tick once older than its refresh interval
+		openmrsLocationService.refreshLocationsIfStale();
 	}
 }
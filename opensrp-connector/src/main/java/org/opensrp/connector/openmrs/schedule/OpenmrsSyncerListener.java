@@ -1,9 +1,27 @@
 package org.opensrp.connector.openmrs.schedule;
 
+import static org.opensrp.common.monitor.Metric.OPENMRS_ENCOUNTERS_PUSHED;
+import static org.opensrp.common.monitor.Metric.OPENMRS_ENCOUNTER_PUSH_FAILURES;
+import static org.opensrp.common.monitor.Metric.OPENMRS_ENCOUNTER_PUSH_TIME;
+import static org.opensrp.common.monitor.Metric.OPENMRS_PATIENTS_PUSHED;
+import static org.opensrp.common.monitor.Metric.OPENMRS_PATIENT_PUSH_FAILURES;
+import static org.opensrp.common.monitor.Metric.OPENMRS_PATIENT_PUSH_TIME;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Map.Entry;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.locks.ReentrantLock;
 
+import javax.annotation.PreDestroy;
+
 import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.joda.time.DateTime;
 import org.json.JSONArray;
@@ -11,6 +29,9 @@ import org.json.JSONException;
 import org.json.JSONObject;
 import org.motechproject.scheduler.domain.MotechEvent;
 import org.motechproject.server.event.annotations.MotechListener;
+import org.opensrp.common.monitor.Monitor;
+import org.opensrp.common.monitor.Probe;
+import org.opensrp.common.util.DaemonThreadFactory;
 import org.opensrp.connector.dhis2.Dhis2TrackCaptureConnector;
 import org.opensrp.connector.openmrs.constants.OpenmrsConstants;
 import org.opensrp.connector.openmrs.constants.OpenmrsConstants.SchedulerConfig;
@@ -25,9 +46,11 @@ import org.opensrp.service.ClientService;
 import org.opensrp.service.ConfigService;
 import org.opensrp.service.ErrorTraceService;
 import org.opensrp.service.EventService;
+import org.opensrp.util.ServerVersionPages;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 @Component
@@ -55,15 +78,23 @@ public class OpenmrsSyncerListener {
 	
 	private final ClientService clientService;
 	
+	private final int pageSize;
+	
+	private final ExecutorService workers;
+	
 	// private RelationShipService relationShipService;
 	
 	@Autowired
 	private Dhis2TrackCaptureConnector dhis2TrackCaptureConnector;
 	
+	private final Monitor monitor;
+	
 	@Autowired
 	public OpenmrsSyncerListener(ScheduleService opensrpScheduleService, ActionService actionService, ConfigService config,
 	    ErrorTraceService errorTraceService, PatientService patientService, EncounterService encounterService,
-	    ClientService clientService, EventService eventService) {
+	    ClientService clientService, EventService eventService, Monitor monitor,
+	    @Value("#{opensrp['openmrs.syncer.page.size']}") int pageSize,
+	    @Value("#{opensrp['openmrs.syncer.worker.threads']}") int workerThreads) {
 		//this.openmrsSchedulerService = openmrsSchedulerService;
 		this.opensrpScheduleService = opensrpScheduleService;
 		this.actionService = actionService;
@@ -73,6 +104,9 @@ public class OpenmrsSyncerListener {
 		this.encounterService = encounterService;
 		this.eventService = eventService;
 		this.clientService = clientService;
+		this.monitor = monitor;
+		this.pageSize = pageSize;
+		this.workers = createWorkers(workerThreads);
 		
 		this.config.registerAppStateToken(SchedulerConfig.openmrs_syncer_sync_schedule_tracker_by_last_update_enrollment, 0,
 		    "ScheduleTracker token to keep track of enrollment synced with OpenMRS", true);
@@ -173,134 +207,301 @@ public class OpenmrsSyncerListener {
 		
 	}
 	
+	/**
+	 * Push clients updated after given serverVersion to OpenMRS, a page at a time. Patients of a page
+	 * are created / updated on the worker pool, then the page's relationships are created and the
+	 * token is moved past the page, so it never passes a client not yet pushed.
+	 * Identifier to patient uuid lookups are cached for the whole run.
+	 */
 	public JSONObject pushClient(long start) throws JSONException {
-		List<Client> cl = clientService.findByServerVersion(start);
-		logger.info("Clients list size " + cl.size());
-		JSONObject patient = new JSONObject();// only for test code purpose
 		JSONArray patientsJsonArray = new JSONArray();// only for test code purpose
 		JSONArray relationshipsArray = new JSONArray();// only for test code purpose
 		JSONObject returnJsonObject = new JSONObject();// only for test code purpose
-		for (Client c : cl) {
-			try {
-				// FIXME This is to deal with existing records and should be
-				// removed later
-				if (c.getIdentifiers().containsKey("M_ZEIR_ID")) {
-					if (c.getBirthdate() == null) {
-						c.setBirthdate(new DateTime("1970-01-01"));
-					}
-					c.setGender("Female");
-				}
-				String uuid = c.getIdentifier(PatientService.OPENMRS_UUID_IDENTIFIER_TYPE);
-				
-				if (uuid == null) {
-					JSONObject p = patientService.getPatientByIdentifier(c.getBaseEntityId());
-					for (Entry<String, String> id : c.getIdentifiers().entrySet()) {
-						p = patientService.getPatientByIdentifier(id.getValue());
-						if (p != null) {
-							break;
-						}
-					}
-					if (p != null) {
-						uuid = p.getString("uuid");
-					}
+		Map<String, String> patientUuids = new ConcurrentHashMap<String, String>();
+		
+		long started = System.currentTimeMillis();
+		int pushed = 0;
+		ServerVersionPages<Client> pages = ServerVersionPages.of(clientService.iterateByServerVersion(start, pageSize),
+		    pageSize, start);
+		while (pages.hasNext()) {
+			List<Client> cl = pages.next();
+			logger.info("Clients list size " + cl.size());
+			
+			List<Future<JSONObject>> patients = new ArrayList<Future<JSONObject>>(cl.size());
+			for (Client c : cl) {
+				patients.add(workers.submit(pushPatientTask(c, patientUuids)));
+			}
+			for (Future<JSONObject> patient : patients) {
+				JSONObject p = waitFor(patient);
+				if (p == null && Thread.currentThread().isInterrupted()) {
+					logger.warn("Interrupted while pushing clients to OpenMRS, stopping at " + start);
+					return returnJsonObject.put("patient", patientsJsonArray).put("relation", relationshipsArray);
 				}
-				if (uuid != null) {
-					logger.info("Updating patient " + uuid);
-					patient = patientService.updatePatient(c, uuid);
-					config.updateAppStateToken(SchedulerConfig.openmrs_syncer_sync_client_by_date_updated,
-					    c.getServerVersion());
-					
-				} else {
-					JSONObject patientJson = patientService.createPatient(c);
-					patient = patientJson;//only for test code purpose					
-					if (patientJson != null && patientJson.has("uuid")) {
-						c.addIdentifier(PatientService.OPENMRS_UUID_IDENTIFIER_TYPE, patientJson.getString("uuid"));
-						clientService.addorUpdate(c, false);
-						
-						config.updateAppStateToken(SchedulerConfig.openmrs_syncer_sync_client_by_date_updated,
-						    c.getServerVersion());
-						
-					}
-					
+				if (p != null) {
+					patientsJsonArray.put(p);
 				}
 			}
-			catch (Exception ex1) {
-				ex1.printStackTrace();
-				errorTraceService.log("OPENMRS FAILED CLIENT PUSH", Client.class.getName(), c.getBaseEntityId(),
-				    ExceptionUtils.getStackTrace(ex1), "");
+			createRelationships(cl, patientUuids, relationshipsArray);
+			
+			if (pages.checkpoint() != start) {
+				start = pages.checkpoint();
+				config.updateAppStateToken(SchedulerConfig.openmrs_syncer_sync_client_by_date_updated, start);
 			}
-			patientsJsonArray.put(patient);
+			pushed += cl.size();
 		}
+		logger.info("Pushed " + pushed + " clients to OpenMRS in " + (System.currentTimeMillis() - started) + " ms");
 		
+		returnJsonObject.put("patient", patientsJsonArray); // only for test code purpose
+		returnJsonObject.put("relation", relationshipsArray);// only for test code purpose
+		return returnJsonObject;
+		
+	}
+	
+	private Callable<JSONObject> pushPatientTask(final Client c, final Map<String, String> patientUuids) {
+		return new Callable<JSONObject>() {
+			
+			@Override
+			public JSONObject call() {
+				return pushPatient(c, patientUuids);
+			}
+		};
+	}
+	
+	/**
+	 * @return the created / updated patient, null if the push failed
+	 */
+	private JSONObject pushPatient(Client c, Map<String, String> patientUuids) {
+		Probe probe = monitor.start(OPENMRS_PATIENT_PUSH_TIME);
+		try {
+			// FIXME This is to deal with existing records and should be
+			// removed later
+			if (c.getIdentifiers().containsKey("M_ZEIR_ID")) {
+				if (c.getBirthdate() == null) {
+					c.setBirthdate(new DateTime("1970-01-01"));
+				}
+				c.setGender("Female");
+			}
+			String uuid = c.getIdentifier(PatientService.OPENMRS_UUID_IDENTIFIER_TYPE);
+			
+			if (uuid == null) {
+				uuid = findPatientUuid(c.getBaseEntityId(), patientUuids);
+				for (Iterator<String> ids = c.getIdentifiers().values().iterator(); uuid == null && ids.hasNext();) {
+					uuid = findPatientUuid(ids.next(), patientUuids);
+				}
+			}
+			JSONObject patient;
+			if (uuid != null) {
+				logger.info("Updating patient " + uuid);
+				patient = patientService.updatePatient(c, uuid);
+			} else {
+				patient = patientService.createPatient(c);
+				if (patient != null && patient.has("uuid")) {
+					uuid = patient.getString("uuid");
+					c.addIdentifier(PatientService.OPENMRS_UUID_IDENTIFIER_TYPE, uuid);
+					clientService.addorUpdate(c, false);
+				}
+			}
+			
+			if (uuid != null) {
+				cachePatientUuid(c.getBaseEntityId(), uuid, patientUuids);
+				for (String id : c.getIdentifiers().values()) {
+					cachePatientUuid(id, uuid, patientUuids);
+				}
+			}
+			monitor.increment(OPENMRS_PATIENTS_PUSHED);
+			return patient;
+		}
+		catch (Exception ex1) {
+			monitor.increment(OPENMRS_PATIENT_PUSH_FAILURES);
+			ex1.printStackTrace();
+			errorTraceService.log("OPENMRS FAILED CLIENT PUSH", Client.class.getName(), c.getBaseEntityId(),
+			    ExceptionUtils.getStackTrace(ex1), "");
+			return null;
+		}
+		finally {
+			monitor.end(probe);
+		}
+	}
+	
+	/**
+	 * @return uuid of the patient with given identifier, from this run's cache or else OpenMRS; null if
+	 *         there is no such patient. Misses are not cached as the patient may be created later in the run.
+	 */
+	private String findPatientUuid(String identifier, Map<String, String> patientUuids) throws JSONException {
+		if (identifier == null) {
+			return null;
+		}
+		String uuid = patientUuids.get(identifier);
+		if (uuid == null) {
+			JSONObject p = patientService.getPatientByIdentifier(identifier);
+			if (p != null && p.has("uuid")) {
+				uuid = p.getString("uuid");
+				cachePatientUuid(identifier, uuid, patientUuids);
+			}
+		}
+		return uuid;
+	}
+	
+	/**
+	 * The cache is shared by the workers, a ConcurrentHashMap, which takes no null keys or values; clients
+	 * without a baseEntityId or with an empty identifier are simply not cached.
+	 */
+	private void cachePatientUuid(String identifier, String uuid, Map<String, String> patientUuids) {
+		if (identifier != null && uuid != null) {
+			patientUuids.put(identifier, uuid);
+		}
+	}
+	
+	private void createRelationships(List<Client> cl, Map<String, String> patientUuids, JSONArray relationshipsArray) {
+		Map<String, List<Client>> siblingsByMother = new HashMap<String, List<Client>>();
 		for (Client c : cl) {
-			if (c.getRelationships() != null) {// Mother has no relations. 
-				JSONObject motherJson = patientService.getPatientByIdentifier(c.getRelationships().get("mother").get(0)
-				        .toString());
-				JSONObject person = motherJson.getJSONObject("person");
-				
-				if (person.getString("uuid") != null) {
-					JSONObject relation = patientService.createPatientRelationShip(c.getIdentifier("OPENMRS_UUID"),
-					    person.getString("uuid"), "8d91a210-c2cc-11de-8d13-0010c6dffd0f");
-					relationshipsArray.put(relation); // only for test code purpose
-					logger.info("RelationshipsCreated check openrs" + c.getIdentifier("OPENMRS_UUID"));
+			if (c.getRelationships() == null || c.getRelationships().get("mother") == null
+			        || c.getRelationships().get("mother").isEmpty()) {// Mother has no relations.
+				continue;
+			}
+			try {
+				String uuid = patientUuids.get(c.getBaseEntityId());
+				String motherId = c.getRelationships().get("mother").get(0).toString();
+				String motherUuid = findPatientUuid(motherId, patientUuids);
+				if (uuid == null || motherUuid == null) {
+					logger.warn("No OpenMRS patient for client " + c.getBaseEntityId() + " or its mother " + motherId);
+					continue;
 				}
 				
-				List<Client> siblings = clientService.findByRelationship(c.getRelationships().get("mother").get(0)
-				        .toString());
-				if (!siblings.isEmpty() || siblings != null) {
-					JSONObject siblingJson;
-					JSONObject sibling;
-					for (Client client : siblings) {
-						if (!c.getBaseEntityId().equals(client.getBaseEntityId())) {
-							siblingJson = patientService.getPatientByIdentifier(client.getBaseEntityId());
-							sibling = siblingJson.getJSONObject("person");
-							patientService.createPatientRelationShip(c.getIdentifier("OPENMRS_UUID"),
-							    sibling.getString("uuid"), "8d91a01c-c2cc-11de-8d13-0010c6dffd0f");
+				JSONObject relation = patientService.createPatientRelationShip(uuid, motherUuid,
+				    "8d91a210-c2cc-11de-8d13-0010c6dffd0f");
+				relationshipsArray.put(relation); // only for test code purpose
+				logger.info("RelationshipsCreated check openrs" + uuid);
+				
+				List<Client> siblings = siblingsByMother.get(motherId);
+				if (siblings == null) {
+					siblings = clientService.findByRelationship(motherId);
+					siblingsByMother.put(motherId, siblings);
+				}
+				for (Client client : siblings) {
+					if (!c.getBaseEntityId().equals(client.getBaseEntityId())) {
+						String siblingUuid = findPatientUuid(client.getBaseEntityId(), patientUuids);
+						if (siblingUuid != null) {
+							patientService.createPatientRelationShip(uuid, siblingUuid, "8d91a01c-c2cc-11de-8d13-0010c6dffd0f");
 						}
-						
 					}
-					
 				}
 			}
-			logger.info("RelationshipsCreated sibling1 ");
-			
+			catch (Exception e) {
+				logger.error("", e);
+				errorTraceService.log("OPENMRS FAILED RELATIONSHIP PUSH", Client.class.getName(), c.getBaseEntityId(),
+				    ExceptionUtils.getStackTrace(e), "");
+			}
 		}
-		returnJsonObject.put("patient", patientsJsonArray); // only for test code purpose
-		returnJsonObject.put("relation", relationshipsArray);// only for test code purpose
-		return returnJsonObject;
-		
+		logger.info("RelationshipsCreated sibling1 ");
 	}
 	
+	/**
+	 * Push events updated after given serverVersion to OpenMRS as encounters, a page at a time on the
+	 * worker pool, moving the token past each page once the whole page is pushed.
+	 */
 	public JSONObject pushEvent(long start) {
-		List<Event> el = eventService.findByServerVersion(start);
-		logger.info("Event list size " + el.size() + " [start]" + start);
 		JSONObject encounter = null;
-		for (Event e : el) {
-			try {
-				String uuid = e.getIdentifier(EncounterService.OPENMRS_UUID_IDENTIFIER_TYPE);
-				if (uuid != null) {
-					encounter = encounterService.updateEncounter(e);
-					config.updateAppStateToken(SchedulerConfig.openmrs_syncer_sync_event_by_date_updated,
-					    e.getServerVersion());
-				} else {
-					JSONObject eventJson = encounterService.createEncounter(e);
+		long started = System.currentTimeMillis();
+		int pushed = 0;
+		ServerVersionPages<Event> pages = ServerVersionPages.of(eventService.iterateByServerVersion(start, pageSize),
+		    pageSize, start);
+		while (pages.hasNext()) {
+			List<Event> el = pages.next();
+			logger.info("Event list size " + el.size() + " [start]" + start);
+			
+			List<Future<JSONObject>> encounters = new ArrayList<Future<JSONObject>>(el.size());
+			for (Event e : el) {
+				encounters.add(workers.submit(pushEncounterTask(e)));
+			}
+			for (Future<JSONObject> e : encounters) {
+				JSONObject eventJson = waitFor(e);
+				if (eventJson == null && Thread.currentThread().isInterrupted()) {
+					logger.warn("Interrupted while pushing events to OpenMRS, stopping at " + start);
+					return encounter;
+				}
+				if (eventJson != null) {
 					encounter = eventJson;// only for test code purpose
-					if (eventJson != null && eventJson.has("uuid")) {
-						e.addIdentifier(EncounterService.OPENMRS_UUID_IDENTIFIER_TYPE, eventJson.getString("uuid"));
-						eventService.updateEvent(e);
-						config.updateAppStateToken(SchedulerConfig.openmrs_syncer_sync_event_by_date_updated,
-						    e.getServerVersion());
-					}
 				}
 			}
-			catch (Exception ex2) {
-				logger.error("", ex2);
-				errorTraceService.log("OPENMRS FAILED EVENT PUSH", Event.class.getName(), e.getId(),
-				    ExceptionUtils.getStackTrace(ex2), "");
+			
+			if (pages.checkpoint() != start) {
+				start = pages.checkpoint();
+				config.updateAppStateToken(SchedulerConfig.openmrs_syncer_sync_event_by_date_updated, start);
 			}
+			pushed += el.size();
 		}
+		logger.info("Pushed " + pushed + " events to OpenMRS in " + (System.currentTimeMillis() - started) + " ms");
 		return encounter;
 		
 	}
 	
+	private Callable<JSONObject> pushEncounterTask(final Event e) {
+		return new Callable<JSONObject>() {
+			
+			@Override
+			public JSONObject call() {
+				return pushEncounter(e);
+			}
+		};
+	}
+	
+	/**
+	 * @return the created / updated encounter, null if the push failed
+	 */
+	private JSONObject pushEncounter(Event e) {
+		Probe probe = monitor.start(OPENMRS_ENCOUNTER_PUSH_TIME);
+		try {
+			String uuid = e.getIdentifier(EncounterService.OPENMRS_UUID_IDENTIFIER_TYPE);
+			JSONObject eventJson;
+			if (uuid != null) {
+				eventJson = encounterService.updateEncounter(e);
+			} else {
+				eventJson = encounterService.createEncounter(e);
+				if (eventJson != null && eventJson.has("uuid")) {
+					e.addIdentifier(EncounterService.OPENMRS_UUID_IDENTIFIER_TYPE, eventJson.getString("uuid"));
+					eventService.updateEvent(e);
+				}
+			}
+			monitor.increment(OPENMRS_ENCOUNTERS_PUSHED);
+			return eventJson;
+		}
+		catch (Exception ex2) {
+			monitor.increment(OPENMRS_ENCOUNTER_PUSH_FAILURES);
+			logger.error("", ex2);
+			errorTraceService.log("OPENMRS FAILED EVENT PUSH", Event.class.getName(), e.getId(),
+			    ExceptionUtils.getStackTrace(ex2), "");
+			return null;
+		}
+		finally {
+			monitor.end(probe);
+		}
+	}
+	
+	/**
+	 * @return the result of the push, null if it failed or the wait was interrupted
+	 */
+	private JSONObject waitFor(Future<JSONObject> push) {
+		try {
+			return push.get();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		}
+		catch (ExecutionException e) {
+			logger.error("", e.getCause());
+			return null;
+		}
+	}
+	
+	@PreDestroy
+	public void shutdown() {
+		workers.shutdownNow();
+	}
+	
+	private static ExecutorService createWorkers(int workerThreads) {
+		return Executors.newFixedThreadPool(Math.max(1, workerThreads), new DaemonThreadFactory("openmrs-syncer"));
+	}
+	
 }
@@ -1,5 +1,19 @@
 package org.opensrp.connector.openmrs.service;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -7,13 +21,29 @@ import org.opensrp.api.domain.Location;
 import org.opensrp.api.util.LocationTree;
 import org.opensrp.common.util.HttpResponse;
 import org.opensrp.common.util.HttpUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import com.google.gson.Gson;
 import com.mysql.jdbc.StringUtils;
 
+/**
+ * Serves location trees from an in-memory hierarchy of all OpenMRS locations. The hierarchy is loaded
+ * on first use and reloaded by {@link #refreshLocationsIfStale()}; trees and their json are built once
+ * per requested set of locations and kept with the hierarchy they were built from.
+ */
 @Service
 public class OpenmrsLocationService extends OpenmrsService{
+	private static Logger logger = LoggerFactory.getLogger(OpenmrsLocationService.class.toString());
 	private static final String LOCATION_URL = "ws/rest/v1/location";
+	private static final int PAGE_SIZE = 100;
+
+	@Value("#{opensrp['openmrs.location.cache.refresh.interval-min']}")
+	protected int locationRefreshIntervalMin = 15;
+
+	private volatile LocationHierarchy hierarchy;
 
 	public OpenmrsLocationService() {	}
 
@@ -65,30 +95,99 @@ public class OpenmrsLocationService extends OpenmrsService{
 	}
 	
 	public LocationTree getLocationTree() throws JSONException {
-		LocationTree ltr = new LocationTree();
-		HttpResponse op = HttpUtil.get(HttpUtil.removeEndingSlash(OPENMRS_BASE_URL)+"/"+LOCATION_URL, "v=full", OPENMRS_USER, OPENMRS_PWD);
-		
-		JSONArray res = new JSONObject(op.body()).getJSONArray("results");
-		if(res.length() == 0){
-			return ltr;
-		}
-		
-		for (int i = 0; i < res.length(); i++) {
-			ltr.addLocation(makeLocation(res.getJSONObject(i)));
-		}
-		return ltr;
+		return getHierarchy().treeOf();
 	}
 	
 	public LocationTree getLocationTreeOf(String locationIdOrName) throws JSONException {
-		LocationTree ltr = new LocationTree();
-		
-		fillTreeWithHierarchy(ltr, locationIdOrName);
-		fillTreeWithUpperHierarchy(ltr, locationIdOrName);
-		
-		return ltr;
+		return getLocationTreeOf(new String[] { locationIdOrName });
 	}
 	
 	public LocationTree getLocationTreeOf(String[] locationIdsOrNames) throws JSONException {
+		LocationTree ltr = getHierarchy().treeOf(locationIdsOrNames);
+		if(ltr == null){
+			// a location added to openmrs after the last refresh
+			return fetchLocationTreeOf(locationIdsOrNames);
+		}
+		return ltr;
+	}
+	
+	public String getLocationTreeJson() throws JSONException {
+		return getHierarchy().jsonOf();
+	}
+	
+	public String getLocationTreeJsonOf(String... locationIdsOrNames) throws JSONException {
+		String json = getHierarchy().jsonOf(locationIdsOrNames);
+		if(json == null){
+			return new Gson().toJson(fetchLocationTreeOf(locationIdsOrNames));
+		}
+		return json;
+	}
+	
+	/**
+	 * Reloads all locations if the hierarchy in memory is older than the refresh interval. The previous
+	 * hierarchy keeps being served if the reload fails.
+	 */
+	public void refreshLocationsIfStale() {
+		LocationHierarchy h = hierarchy;
+		if(h != null && System.currentTimeMillis() - h.loadedAt < TimeUnit.MINUTES.toMillis(locationRefreshIntervalMin)){
+			return;
+		}
+		try {
+			refreshLocations();
+		}
+		catch (Exception e) {
+			logger.error("Failed to refresh openmrs locations, serving the ones loaded before", e);
+		}
+	}
+	
+	public synchronized void refreshLocations() throws JSONException {
+		List<Location> locations = fetchLocations();
+		hierarchy = new LocationHierarchy(locations);
+		logger.info("Loaded "+locations.size()+" openmrs locations");
+	}
+	
+	private LocationHierarchy getHierarchy() throws JSONException {
+		LocationHierarchy h = hierarchy;
+		if(h == null){
+			synchronized (this) {
+				if(hierarchy == null){
+					refreshLocations();
+				}
+				h = hierarchy;
+			}
+		}
+		return h;
+	}
+	
+	List<Location> fetchLocations() throws JSONException {
+		List<Location> locations = new ArrayList<>();
+		int startIndex = 0;
+		while (true) {
+			HttpResponse op = HttpUtil.get(HttpUtil.removeEndingSlash(OPENMRS_BASE_URL)+"/"+LOCATION_URL, "v=full&limit="+PAGE_SIZE+"&startIndex="+startIndex, OPENMRS_USER, OPENMRS_PWD);
+			
+			JSONObject page = new JSONObject(op.body());
+			JSONArray res = page.getJSONArray("results");
+			for (int i = 0; i < res.length(); i++) {
+				locations.add(makeLocation(res.getJSONObject(i)));
+			}
+			if(res.length() == 0 || !hasNextPage(page)){
+				return locations;
+			}
+			startIndex += res.length();
+		}
+	}
+	
+	private boolean hasNextPage(JSONObject page) throws JSONException {
+		JSONArray links = page.optJSONArray("links");
+		for (int i = 0; links != null && i < links.length(); i++) {
+			if("next".equals(links.getJSONObject(i).optString("rel"))){
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	private LocationTree fetchLocationTreeOf(String[] locationIdsOrNames) throws JSONException {
 		LocationTree ltr = new LocationTree();
 		
 		for (String loc : locationIdsOrNames) {
@@ -131,4 +230,136 @@ public class OpenmrsLocationService extends OpenmrsService{
 			fillTreeWithUpperHierarchy(ltr, l.getParentLocation().getLocationId());
 		}
 	}
+
+	/**
+	 * All locations indexed by id, name and parent. Immutable once built, so it is swapped as a whole on refresh.
+	 */
+	static class LocationHierarchy {
+		final long loadedAt = System.currentTimeMillis();
+		private final Map<String, Location> byId = new LinkedHashMap<>();
+		private final Map<String, String> idByName = new HashMap<>();
+		private final Map<String, List<String>> childrenById = new HashMap<>();
+		private final List<String> roots = new ArrayList<>();
+		private final ConcurrentMap<String, LocationTree> trees = new ConcurrentHashMap<>();
+		private final ConcurrentMap<String, String> json = new ConcurrentHashMap<>();
+
+		LocationHierarchy(List<Location> locations) {
+			for (Location l : locations) {
+				byId.put(l.getLocationId(), l);
+				if(!idByName.containsKey(l.getName())){
+					idByName.put(l.getName(), l.getLocationId());
+				}
+			}
+			for (Location l : byId.values()) {
+				String parentId = parentIdOf(l);
+				if(parentId == null || !byId.containsKey(parentId)){
+					roots.add(l.getLocationId());
+				}
+				else {
+					List<String> children = childrenById.get(parentId);
+					if(children == null){
+						children = new ArrayList<>();
+						childrenById.put(parentId, children);
+					}
+					children.add(l.getLocationId());
+				}
+			}
+		}
+
+		/**
+		 * @return tree of the given locations with their ancestors and descendants, all locations if none
+		 *         given, or null if any of them is not known
+		 */
+		LocationTree treeOf(String... locationIdsOrNames) {
+			String key = keyOf(locationIdsOrNames);
+			LocationTree ltr = trees.get(key);
+			if(ltr == null){
+				ltr = buildTree(locationIdsOrNames);
+				if(ltr == null){
+					return null;
+				}
+				LocationTree existing = trees.putIfAbsent(key, ltr);
+				ltr = existing == null ? ltr : existing;
+			}
+			return ltr;
+		}
+
+		String jsonOf(String... locationIdsOrNames) {
+			String key = keyOf(locationIdsOrNames);
+			String j = json.get(key);
+			if(j == null){
+				LocationTree ltr = treeOf(locationIdsOrNames);
+				if(ltr == null){
+					return null;
+				}
+				j = new Gson().toJson(ltr);
+				json.putIfAbsent(key, j);
+			}
+			return j;
+		}
+
+		private LocationTree buildTree(String[] locationIdsOrNames) {
+			LocationTree ltr = new LocationTree();
+			if(locationIdsOrNames.length == 0){
+				for (String root : roots) {
+					addSubtree(ltr, root);
+				}
+				return ltr;
+			}
+			for (String loc : locationIdsOrNames) {
+				String id = byId.containsKey(loc) ? loc : idByName.get(loc);
+				if(id == null){
+					return null;
+				}
+				addAncestors(ltr, id);
+				addSubtree(ltr, id);
+			}
+			return ltr;
+		}
+
+		private void addAncestors(LocationTree ltr, String locationId) {
+			List<Location> ancestors = new ArrayList<>();
+			Set<String> visited = new HashSet<>(Collections.singleton(locationId));
+			String parentId = parentIdOf(byId.get(locationId));
+			while (parentId != null && byId.containsKey(parentId) && visited.add(parentId)) {
+				Location parent = byId.get(parentId);
+				ancestors.add(parent);
+				parentId = parentIdOf(parent);
+			}
+			Collections.reverse(ancestors);
+			for (Location l : ancestors) {
+				ltr.addLocation(l);
+			}
+		}
+
+		private void addSubtree(LocationTree ltr, String locationId) {
+			Deque<String> pending = new ArrayDeque<>();
+			pending.push(locationId);
+			while (!pending.isEmpty()) {
+				String id = pending.pop();
+				if(ltr.hasLocation(id)){
+					continue;
+				}
+				ltr.addLocation(byId.get(id));
+				List<String> children = childrenById.get(id);
+				if(children != null){
+					for (int i = children.size() - 1; i >= 0; i--) {
+						pending.push(children.get(i));
+					}
+				}
+			}
+		}
+
+		private static String parentIdOf(Location l) {
+			return l.getParentLocation() == null ? null : l.getParentLocation().getLocationId();
+		}
+
+		private static String keyOf(String[] locationIdsOrNames) {
+			StringBuilder key = new StringBuilder();
+			for (String loc : locationIdsOrNames) {
+				key.append(loc).append(";;");
+			}
+			return key.toString();
+		}
+	}
 }
@@ -0,0 +1,271 @@
+package org.opensrp.connector.dhis2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.motechproject.scheduler.domain.MotechEvent;
+import org.opensrp.common.AllConstants.DHIS2Constants;
+import org.opensrp.domain.Client;
+import org.opensrp.domain.Event;
+import org.opensrp.repository.AllDHIS2Marker;
+import org.opensrp.service.ClientService;
+import org.opensrp.service.EventService;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Pushes clients through {@link DHIS2SyncerListener} to a stub DHIS2 trackedEntityInstances
+ * endpoint running on a local port.
+ */
+public class DHIS2TrackerPushTest {
+
+	@Mock
+	private ClientService clientService;
+
+	@Mock
+	private EventService eventService;
+
+	@Mock
+	private AllDHIS2Marker allDHIS2Marker;
+
+	@Mock
+	private DHIS2TrackerService dhis2TrackerService;
+
+	@Mock
+	private DHIS2Tracker dhis2Tracker;
+
+	private HttpServer dhis2;
+
+	private final List<JSONObject> received = Collections.synchronizedList(new ArrayList<JSONObject>());
+
+	/** a batch holding this client is answered with a server error */
+	private volatile String failingClient;
+
+	/** a batch holding this client is answered with 200 and an ERROR import summary for the client */
+	private volatile String rejectedClient;
+
+	private DHIS2SyncerListener listener;
+
+	@Before
+	public void setUp() throws Exception {
+		initMocks(this);
+		dhis2 = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		dhis2.createContext("/api/trackedEntityInstances", new StubTrackedEntityInstances());
+		dhis2.start();
+
+		DHIS2Connector connector = new DHIS2Connector("http://localhost:" + dhis2.getAddress().getPort() + "/api/",
+		        "admin", "district");
+		listener = new DHIS2SyncerListener(clientService, eventService, allDHIS2Marker, dhis2TrackerService, connector,
+		        500, 2, 2);
+
+		when(eventService.iterateByServerVersion(anyLong(), anyInt())).thenReturn(new ArrayList<Event>().iterator());
+		when(dhis2TrackerService.getTrackerType(any(Client.class))).thenReturn(dhis2Tracker);
+		when(dhis2Tracker.getTrackedEntityInstance(any(Client.class))).thenAnswer(new Answer<JSONObject>() {
+
+			@Override
+			public JSONObject answer(InvocationOnMock invocation) throws Throwable {
+				Client client = (Client) invocation.getArguments()[0];
+				JSONArray attributes = new JSONArray().put(new JSONObject().put("attribute", "s67McYqu0lP").put("value",
+				    client.getBaseEntityId()));
+				return DHIS2Connector.trackedEntityInstance(client.getBaseEntityId(), attributes,
+				    DHIS2Settings.CLIENT_PROGRAM);
+			}
+		});
+	}
+
+	@After
+	public void tearDown() {
+		dhis2.stop(0);
+	}
+
+	@Test
+	public void shouldSendClientsInBulkBatchesAndMoveMarkerPerBatch() throws Exception {
+		when(clientService.iterateByServerVersion(0, 500)).thenReturn(clients(5).iterator());
+
+		JSONObject response = listener.pushToDHIS2(new MotechEvent(DHIS2Constants.DHIS2_TRACK_DATA_SYNCER_SUBJECT));
+
+		assertEquals(3, received.size());
+		int sent = 0;
+		for (JSONObject payload : received) {
+			sent += payload.getJSONArray("trackedEntityInstances").length();
+		}
+		assertEquals(5, sent);
+		assertEquals("OK", response.getString("status"));
+		InOrder markers = inOrder(allDHIS2Marker);
+		markers.verify(allDHIS2Marker).update(2L);
+		markers.verify(allDHIS2Marker).update(4L);
+		markers.verify(allDHIS2Marker).update(5L);
+	}
+
+	@Test
+	public void shouldOnlyMoveMarkerToServerVersionsWhoseClientsAreAllSent() throws Exception {
+		List<Client> clients = clients(4);
+		clients.get(2).setServerVersion(2L);
+		when(clientService.iterateByServerVersion(0, 500)).thenReturn(clients.iterator());
+		failingClient = "c4";
+
+		listener.pushToDHIS2(new MotechEvent(DHIS2Constants.DHIS2_TRACK_DATA_SYNCER_SUBJECT));
+
+		// c3 shares serverVersion 2 with c2 but went in the batch that failed
+		verify(allDHIS2Marker).update(1L);
+		verify(allDHIS2Marker, never()).update(2L);
+	}
+
+	@Test
+	public void shouldNotMoveMarkerPastBatchThatFailed() throws Exception {
+		when(clientService.iterateByServerVersion(0, 500)).thenReturn(clients(5).iterator());
+		failingClient = "c3";
+
+		listener.pushToDHIS2(new MotechEvent(DHIS2Constants.DHIS2_TRACK_DATA_SYNCER_SUBJECT));
+
+		verify(allDHIS2Marker).update(2L);
+		verify(allDHIS2Marker, never()).update(4L);
+		verify(allDHIS2Marker, never()).update(5L);
+		// the batch after the failed round is left for the next run
+		assertEquals(2, received.size());
+	}
+
+	@Test
+	public void shouldNotMoveMarkerPastBatchWithAnErrorImportSummary() throws Exception {
+		when(clientService.iterateByServerVersion(0, 500)).thenReturn(clients(5).iterator());
+		rejectedClient = "c3";
+
+		listener.pushToDHIS2(new MotechEvent(DHIS2Constants.DHIS2_TRACK_DATA_SYNCER_SUBJECT));
+
+		verify(allDHIS2Marker).update(2L);
+		verify(allDHIS2Marker, never()).update(4L);
+		verify(allDHIS2Marker, never()).update(5L);
+	}
+
+	@Test
+	public void shouldResendBatchThatFailedWithTheSameUids() throws Exception {
+		when(clientService.iterateByServerVersion(0, 500)).thenReturn(clients(1, 4).iterator());
+		failingClient = "c3";
+		listener.pushToDHIS2(new MotechEvent(DHIS2Constants.DHIS2_TRACK_DATA_SYNCER_SUBJECT));
+		JSONArray failedBatch = null;
+		for (JSONObject payload : received) {
+			if (payload.toString().contains("\"c3\"")) {
+				failedBatch = payload.getJSONArray("trackedEntityInstances");
+			}
+		}
+		assertEquals(2, failedBatch.length());
+
+		received.clear();
+		failingClient = null;
+		when(clientService.iterateByServerVersion(0, 500)).thenReturn(clients(3, 4).iterator());
+		listener.pushToDHIS2(new MotechEvent(DHIS2Constants.DHIS2_TRACK_DATA_SYNCER_SUBJECT));
+		JSONArray resentBatch = received.get(0).getJSONArray("trackedEntityInstances");
+
+		for (int i = 0; i < failedBatch.length(); i++) {
+			JSONObject failed = failedBatch.getJSONObject(i);
+			JSONObject resent = resentBatch.getJSONObject(i);
+			assertEquals(failed.getString("trackedEntityInstance"), resent.getString("trackedEntityInstance"));
+			assertEquals(failed.getJSONArray("enrollments").getJSONObject(0).getString("enrollment"), resent
+			        .getJSONArray("enrollments").getJSONObject(0).getString("enrollment"));
+		}
+		verify(allDHIS2Marker).update(4L);
+	}
+
+	@Test
+	public void shouldDeriveValidDhis2UidsThatDifferPerProgram() {
+		String uid = DHIS2Connector.uid(DHIS2Settings.CLIENT_PROGRAM + "/c1");
+
+		assertTrue(uid.matches("[a-zA-Z][a-zA-Z0-9]{10}"));
+		assertEquals(uid, DHIS2Connector.uid(DHIS2Settings.CLIENT_PROGRAM + "/c1"));
+		assertNotEquals(uid, DHIS2Connector.uid(DHIS2Settings.VACCINATION_PROGRAM + "/c1"));
+	}
+
+	private List<Client> clients(int count) {
+		return clients(1, count);
+	}
+
+	private List<Client> clients(int first, int last) {
+		List<Client> clients = new ArrayList<Client>();
+		for (int i = first; i <= last; i++) {
+			Client client = new Client("c" + i);
+			client.setServerVersion((long) i);
+			clients.add(client);
+		}
+		return clients;
+	}
+
+	private class StubTrackedEntityInstances implements HttpHandler {
+
+		@Override
+		public void handle(HttpExchange exchange) throws IOException {
+			try {
+				JSONObject payload = new JSONObject(read(exchange.getRequestBody()));
+				received.add(payload);
+				JSONArray instances = payload.getJSONArray("trackedEntityInstances");
+				boolean fail = failingClient != null && instances.toString().contains("\"" + failingClient + "\"");
+
+				JSONArray importSummaries = new JSONArray();
+				int ignored = 0;
+				for (int i = 0; i < instances.length(); i++) {
+					JSONObject instance = instances.getJSONObject(i);
+					boolean rejected = rejectedClient != null
+					        && instance.toString().contains("\"" + rejectedClient + "\"");
+					ignored += rejected ? 1 : 0;
+					importSummaries.put(new JSONObject().put("status", rejected ? "ERROR" : "SUCCESS")
+					        .put("reference", instance.getString("trackedEntityInstance"))
+					        .put("importCount", new JSONObject().put("imported", rejected ? 0 : 1).put("ignored",
+					            rejected ? 1 : 0)));
+				}
+				JSONObject summaries = new JSONObject().put("responseType", "ImportSummaries")
+				        .put("status", ignored > 0 ? "ERROR" : "SUCCESS").put("imported", instances.length() - ignored)
+				        .put("ignored", ignored).put("importSummaries", importSummaries);
+				byte[] body = new JSONObject().put("status", fail ? "ERROR" : "OK").put("response", summaries).toString()
+				        .getBytes("UTF-8");
+				exchange.sendResponseHeaders(fail ? 500 : 200, body.length);
+				try (OutputStream out = exchange.getResponseBody()) {
+					out.write(body);
+				}
+			}
+			catch (Exception e) {
+				exchange.sendResponseHeaders(400, -1);
+			}
+			finally {
+				exchange.close();
+			}
+		}
+
+		private String read(InputStream in) throws IOException {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				bytes.write(buffer, 0, read);
+			}
+			return bytes.toString("UTF-8");
+		}
+	}
+}
@@ -1,5 +1,6 @@
 package org.opensrp.connector.dhis2.it;
 
+import static java.util.Arrays.asList;
 import static org.junit.Assert.assertEquals;
 
 import java.io.IOException;
@@ -20,6 +21,8 @@ import org.opensrp.connector.openmrs.service.TestResourceLoader;
 import org.opensrp.domain.Event;
 import org.opensrp.domain.Obs;
 import org.opensrp.repository.AllEvents;
+import org.opensrp.repository.AllIndicatorContributions;
+import org.opensrp.service.IndicatorAggregationService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
@@ -40,6 +43,12 @@ public class DHIS2AggregateConnectorTest extends TestResourceLoader {
 	@Autowired
 	private Dhis2HttpUtils dhis2HttpUtils;
 	
+	@Autowired
+	private IndicatorAggregationService indicatorAggregationService;
+	
+	@Autowired
+	private AllIndicatorContributions allIndicatorContributions;
+	
 	String orgUnit = "IDc0HEyjhvL";
 	
 	String conceptKey = "concept";
@@ -70,6 +79,7 @@ public class DHIS2AggregateConnectorTest extends TestResourceLoader {
 	@Before
 	public void setup() throws JSONException, IOException {
 		allEvents.removeAll();
+		allIndicatorContributions.removeAll();
 		testDeleteDHIS2Data();
 	}
 	
@@ -142,6 +152,7 @@ public class DHIS2AggregateConnectorTest extends TestResourceLoader {
 		expectedVaccineEvent.setObs(vaccineObservations);
 		
 		allEvents.add(expectedVaccineEvent);
+		indicatorAggregationService.fold(asList(expectedEvent, anotherExpectedEvent, expectedVaccineEvent));
 		
 		JSONObject aggregatedDataSet = null;
 		
@@ -84,11 +84,12 @@ public class DHIS2SyncerListenerTest extends TestResourceLoader {
 		String actualHttpStatusCode = returns.getString("httpStatusCode");
 		assertEquals(expectedImport, actualImport);
 		assertEquals(expectedHttpStatusCode, actualHttpStatusCode);
-		String trackReference = returns.getString("track");
 		
 		JSONArray importSummariesArray = response.getJSONArray("importSummaries");
 		JSONObject importSummariesJsonObject = importSummariesArray.getJSONObject(0);
-		String refId = importSummariesJsonObject.getString("reference");
+		String trackReference = importSummariesJsonObject.getString("reference");
+		String refId = importSummariesJsonObject.getJSONObject("enrollments").getJSONArray("importSummaries")
+		        .getJSONObject(0).getString("reference");
 		
 		/*Clening data*/
 		deleteEnrollment(refId);
@@ -0,0 +1,134 @@
+package org.opensrp.connector.openmrs.schedule;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+import java.util.Collections;
+
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.opensrp.common.monitor.Monitor;
+import org.opensrp.connector.openmrs.constants.OpenmrsConstants.SchedulerConfig;
+import org.opensrp.connector.openmrs.service.EncounterService;
+import org.opensrp.connector.openmrs.service.PatientService;
+import org.opensrp.domain.Client;
+import org.opensrp.domain.Event;
+import org.opensrp.scheduler.service.ActionService;
+import org.opensrp.scheduler.service.ScheduleService;
+import org.opensrp.service.ClientService;
+import org.opensrp.service.ConfigService;
+import org.opensrp.service.ErrorTraceService;
+import org.opensrp.service.EventService;
+
+public class OpenmrsSyncerListenerTest {
+
+	@Mock
+	private ScheduleService scheduleService;
+
+	@Mock
+	private ActionService actionService;
+
+	@Mock
+	private ConfigService configService;
+
+	@Mock
+	private ErrorTraceService errorTraceService;
+
+	@Mock
+	private PatientService patientService;
+
+	@Mock
+	private EncounterService encounterService;
+
+	@Mock
+	private ClientService clientService;
+
+	@Mock
+	private EventService eventService;
+
+	private OpenmrsSyncerListener listener;
+
+	@Before
+	public void setUp() throws Exception {
+		initMocks(this);
+		listener = new OpenmrsSyncerListener(scheduleService, actionService, configService, errorTraceService, patientService,
+		        encounterService, clientService, eventService, new Monitor(), 2, 4);
+	}
+
+	@Test
+	public void shouldPushClientsInPagesAndMoveTokenPerPage() throws Exception {
+		Client c1 = client("c1", 1L), c2 = client("c2", 2L), c3 = client("c3", 2L);
+		when(clientService.iterateByServerVersion(0, 2)).thenReturn(asList(c1, c2, c3).iterator());
+		when(patientService.createPatient(any(Client.class))).thenReturn(new JSONObject("{\"uuid\":\"patient-uuid\"}"));
+
+		JSONObject pushed = listener.pushClient(0);
+
+		assertEquals(3, pushed.getJSONArray("patient").length());
+		verify(patientService).createPatient(c1);
+		verify(patientService).createPatient(c2);
+		verify(patientService).createPatient(c3);
+		verify(configService).updateAppStateToken(SchedulerConfig.openmrs_syncer_sync_client_by_date_updated, 1L);
+		verify(configService).updateAppStateToken(SchedulerConfig.openmrs_syncer_sync_client_by_date_updated, 2L);
+	}
+
+	@Test
+	public void shouldLookupMotherPatientOnceForAllHerChildren() throws Exception {
+		Client c1 = client("c1", 1L), c2 = client("c2", 2L);
+		c1.addRelationship("mother", "mother-id");
+		c2.addRelationship("mother", "mother-id");
+		when(clientService.iterateByServerVersion(0, 2)).thenReturn(asList(c1, c2).iterator());
+		when(clientService.findByRelationship("mother-id")).thenReturn(Collections.<Client> emptyList());
+		when(patientService.createPatient(any(Client.class))).thenReturn(new JSONObject("{\"uuid\":\"patient-uuid\"}"));
+		when(patientService.getPatientByIdentifier("mother-id")).thenReturn(new JSONObject("{\"uuid\":\"mother-uuid\"}"));
+
+		JSONObject pushed = listener.pushClient(0);
+
+		assertEquals(2, pushed.getJSONArray("relation").length());
+		verify(patientService, times(1)).getPatientByIdentifier("mother-id");
+		verify(patientService, times(2)).createPatientRelationShip("patient-uuid", "mother-uuid",
+		    "8d91a210-c2cc-11de-8d13-0010c6dffd0f");
+	}
+
+	@Test
+	public void shouldPushClientsWithAnEmptyIdentifier() throws Exception {
+		Client c1 = client("c1", 1L);
+		c1.addIdentifier("ZEIR_ID", null);
+		when(clientService.iterateByServerVersion(0, 2)).thenReturn(asList(c1).iterator());
+		when(patientService.createPatient(any(Client.class))).thenReturn(new JSONObject("{\"uuid\":\"patient-uuid\"}"));
+
+		JSONObject pushed = listener.pushClient(0);
+
+		assertEquals(1, pushed.getJSONArray("patient").length());
+		verify(errorTraceService, never()).log(anyString(), anyString(), anyString(), anyString(), anyString());
+	}
+
+	@Test
+	public void shouldPushEventsAndMoveTokenToLastPushedEvent() throws Exception {
+		Event e1 = new Event();
+		e1.setServerVersion(5L);
+		when(eventService.iterateByServerVersion(4, 2)).thenReturn(asList(e1).iterator());
+		when(encounterService.createEncounter(e1)).thenReturn(new JSONObject("{\"uuid\":\"encounter-uuid\"}"));
+
+		JSONObject encounter = listener.pushEvent(4);
+
+		assertEquals("encounter-uuid", encounter.getString("uuid"));
+		verify(eventService).updateEvent(e1);
+		verify(configService).updateAppStateToken(SchedulerConfig.openmrs_syncer_sync_event_by_date_updated, 5L);
+		verify(errorTraceService, never()).log(anyString(), anyString(), anyString(), anyString(), anyString());
+	}
+
+	private Client client(String baseEntityId, long serverVersion) {
+		Client client = new Client(baseEntityId);
+		client.setServerVersion(serverVersion);
+		return client;
+	}
+}
@@ -0,0 +1,71 @@
+package org.opensrp.connector.openmrs.service;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.json.JSONException;
+import org.junit.Before;
+import org.junit.Test;
+import org.opensrp.api.domain.Location;
+import org.opensrp.api.util.LocationTree;
+
+public class OpenmrsLocationServiceTest {
+
+	private int fetches;
+
+	private OpenmrsLocationService ls;
+
+	@Before
+	public void setup() {
+		final Location country = new Location("country", "Country", null, null);
+		final Location district = new Location("district", "District", null, country);
+		final Location ward = new Location("ward", "Ward", null, district);
+		final Location otherDistrict = new Location("other-district", "Other District", null, country);
+		ls = new OpenmrsLocationService("http://localhost/openmrs", "user", "pwd") {
+
+			@Override
+			List<Location> fetchLocations() throws JSONException {
+				fetches++;
+				return asList(ward, district, country, otherDistrict);
+			}
+		};
+	}
+
+	@Test
+	public void shouldServeLocationTreeOfLocationWithAncestorsAndDescendants() throws JSONException {
+		LocationTree ltr = ls.getLocationTreeOf(new String[] { "District" });
+
+		assertTrue(ltr.hasLocation("country"));
+		assertTrue(ltr.hasChildLocation("country", "district"));
+		assertTrue(ltr.hasChildLocation("district", "ward"));
+		assertFalse(ltr.hasLocation("other-district"));
+	}
+
+	@Test
+	public void shouldLoadLocationsOnceAndReuseTreesPerRoot() throws JSONException {
+		LocationTree all = ls.getLocationTree();
+		LocationTree ward = ls.getLocationTreeOf("ward");
+
+		assertTrue(all.hasChildLocation("country", "other-district"));
+		assertSame(all, ls.getLocationTree());
+		assertSame(ward, ls.getLocationTreeOf("ward"));
+		assertSame(ls.getLocationTreeJsonOf("ward"), ls.getLocationTreeJsonOf("ward"));
+		assertEquals(1, fetches);
+	}
+
+	@Test
+	public void shouldReloadLocationsOnlyOnceStale() throws JSONException {
+		ls.getLocationTree();
+		ls.refreshLocationsIfStale();
+		assertEquals(1, fetches);
+
+		ls.locationRefreshIntervalMin = 0;
+		ls.refreshLocationsIfStale();
+		assertEquals(2, fetches);
+	}
+}
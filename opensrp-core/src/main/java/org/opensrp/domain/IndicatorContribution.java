@@ -0,0 +1,118 @@
+package org.opensrp.domain;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.lang3.builder.EqualsBuilder;
+import org.apache.commons.lang3.builder.HashCodeBuilder;
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.codehaus.jackson.annotate.JsonProperty;
+import org.ektorp.support.TypeDiscriminator;
+import org.motechproject.model.MotechBaseDataObject;
+
+/**
+ * What a single event adds to the aggregate indicators of its period and location. There is one
+ * contribution per event, replaced whenever the event gets a new revision, so an event is never
+ * counted twice however often it is folded.
+ */
+@TypeDiscriminator("doc.type == 'IndicatorContribution'")
+public class IndicatorContribution extends MotechBaseDataObject {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final String ID_PREFIX = "IndicatorContribution-";
+
+	@JsonProperty
+	private String eventId;
+
+	@JsonProperty
+	private String eventRevision;
+
+	@JsonProperty
+	private String period;
+
+	@JsonProperty
+	private String locationId;
+
+	@JsonProperty
+	private Map<String, Integer> counts = new HashMap<String, Integer>();
+
+	public IndicatorContribution() {
+
+	}
+
+	public IndicatorContribution(String eventId, String eventRevision, String period, String locationId) {
+		setId(idOf(eventId));
+		this.eventId = eventId;
+		this.eventRevision = eventRevision;
+		this.period = period;
+		this.locationId = locationId;
+	}
+
+	/**
+	 * @return the document id of the contribution of the given event
+	 */
+	public static String idOf(String eventId) {
+		return ID_PREFIX + eventId;
+	}
+
+	public void increment(String indicator) {
+		Integer count = counts.get(indicator);
+		counts.put(indicator, count == null ? 1 : count + 1);
+	}
+
+	public String getEventId() {
+		return eventId;
+	}
+
+	public void setEventId(String eventId) {
+		this.eventId = eventId;
+	}
+
+	public String getEventRevision() {
+		return eventRevision;
+	}
+
+	public void setEventRevision(String eventRevision) {
+		this.eventRevision = eventRevision;
+	}
+
+	public String getPeriod() {
+		return period;
+	}
+
+	public void setPeriod(String period) {
+		this.period = period;
+	}
+
+	public String getLocationId() {
+		return locationId;
+	}
+
+	public void setLocationId(String locationId) {
+		this.locationId = locationId;
+	}
+
+	public Map<String, Integer> getCounts() {
+		return counts;
+	}
+
+	public void setCounts(Map<String, Integer> counts) {
+		this.counts = counts;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		return EqualsBuilder.reflectionEquals(this, o, "id", "revision");
+	}
+
+	@Override
+	public int hashCode() {
+		return HashCodeBuilder.reflectionHashCode(this, "id", "revision");
+	}
+
+	@Override
+	public String toString() {
+		return ToStringBuilder.reflectionToString(this);
+	}
+}
@@ -20,6 +20,8 @@ public class Multimedia extends MotechBaseDataObject {
 	private String filePath;
 	@JsonProperty
 	private String fileCategory;
+	@JsonProperty
+	private String checksum;
 	
 	
 	public Multimedia() {
@@ -56,6 +58,11 @@ public class Multimedia extends MotechBaseDataObject {
 		this.fileCategory = fileCategory;
 		return this;
 	}
+
+	public Multimedia withChecksum(String checksum) {
+		this.checksum = checksum;
+		return this;
+	}
 	
 	public String getCaseId() {
 		return caseId;
@@ -72,6 +79,12 @@ public class Multimedia extends MotechBaseDataObject {
 	public String getFileCategory() {
 		return fileCategory;
 	}
+	/**
+	 * @return hex SHA-256 of the file's content
+	 */
+	public String getChecksum() {
+		return checksum;
+	}
 
 	public void setCaseId(String caseId) {
 		this.caseId = caseId;
@@ -88,6 +101,9 @@ public class Multimedia extends MotechBaseDataObject {
 	public void setFileCategory(String fileCategory) {
 		this.fileCategory = fileCategory;
 	}
+	public void setChecksum(String checksum) {
+		this.checksum = checksum;
+	}
 
 	@Override
 	public final boolean equals(Object o) {
@@ -1,10 +1,17 @@
 package org.opensrp.repository;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 import org.ektorp.ComplexKey;
 import org.ektorp.CouchDbConnector;
+import org.ektorp.DocumentOperationResult;
+import org.ektorp.ViewResult;
+import org.ektorp.ViewResult.Row;
 import org.ektorp.support.GenerateView;
 import org.ektorp.support.View;
 import org.ektorp.util.Assert;
@@ -12,7 +19,9 @@ import org.ektorp.util.Documents;
 import org.joda.time.DateTime;
 import org.motechproject.dao.MotechBaseRepository;
 import org.opensrp.common.AllConstants;
+import org.opensrp.common.repository.KeysetPagedIterator;
 import org.opensrp.domain.Client;
+import org.opensrp.repository.lucene.Consistency;
 import org.opensrp.repository.lucene.LuceneClientRepository;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
@@ -54,11 +63,89 @@ public class AllClients extends MotechBaseRepository<Client> {
 		return clients.get(0);
 	}
 
+	/**
+	 * Find the document ids of the clients with the given baseEntityIds in a single view request
+	 * 
+	 * @param baseEntityIds
+	 * @return map of baseEntityId to the id of the first client document found for it
+	 */
+	public Map<String, String> findIdsByBaseEntityIds(Collection<String> baseEntityIds) {
+		Map<String, String> ids = new HashMap<String, String>();
+		if (baseEntityIds == null || baseEntityIds.isEmpty()) {
+			return ids;
+		}
+		ViewResult result = db.queryView(createQuery("by_baseEntityId").keys(baseEntityIds));
+		for (Row row : result.getRows()) {
+			if (!ids.containsKey(row.getKey())) {
+				ids.put(row.getKey(), row.getId());
+			}
+		}
+		return ids;
+	}
+	
+	/**
+	 * Find the document ids of the clients carrying any of the given identifiers in a single view
+	 * request
+	 * 
+	 * @param identifiers
+	 * @return map of identifier to the ids of all client documents carrying it
+	 */
+	public Map<String, List<String>> findIdsByIdentifiers(Collection<String> identifiers) {
+		Map<String, List<String>> ids = new HashMap<String, List<String>>();
+		if (identifiers == null || identifiers.isEmpty()) {
+			return ids;
+		}
+		ViewResult result = db.queryView(createQuery("all_clients_by_identifier").keys(identifiers));
+		for (Row row : result.getRows()) {
+			List<String> docIds = ids.get(row.getKey());
+			if (docIds == null) {
+				docIds = new ArrayList<String>();
+				ids.put(row.getKey(), docIds);
+			}
+			docIds.add(row.getId());
+		}
+		return ids;
+	}
+	
+	/**
+	 * Resolve the current revision of each of the given document ids with a single _all_docs lookup.
+	 * 
+	 * @see DocumentRevisions#find(CouchDbConnector, Collection)
+	 */
+	public Map<String, String> findRevisions(Collection<String> ids) {
+		return DocumentRevisions.find(db, ids);
+	}
+	
+	/**
+	 * Create or update all given clients with one _bulk_docs request. Clients that already exist must
+	 * carry their current id and revision.
+	 * 
+	 * @param clients
+	 * @return results for the documents that could not be saved, e.g. because of a revision conflict
+	 */
+	public List<DocumentOperationResult> bulkAddOrUpdate(Collection<Client> clients) {
+		return db.executeBulk(clients);
+	}
+	
 	@View(name = "all_clients", map = "function(doc) { if (doc.type === 'Client') { emit(doc.baseEntityId); } }")
 	public List<Client> findAllClients() {
 		return db.queryView(createQuery("all_clients").includeDocs(true), Client.class);
 	}
 	
+	/**
+	 * Iterate over all clients ordered by id, fetching <code>pageSize</code> clients from the view at a time
+	 */
+	@View(name = "clients_by_id", map = "function(doc) { if (doc.type === 'Client') { emit(doc._id, null); } }")
+	public Iterator<Client> iterateAllClients(int pageSize) {
+		return new KeysetPagedIterator<Client>(db, createQuery("clients_by_id"), Client.class, pageSize) {
+			
+			@Override
+			protected Object keyOf(Client client) {
+				return client.getId();
+			}
+		};
+	}
+	
 	@View(name = "all_clients_by_identifier", map = "function(doc) {if (doc.type === 'Client') {for(var key in doc.identifiers) {emit(doc.identifiers[key]);}}}")
 	public List<Client> findAllByIdentifier(String identifier) {
 		return db.queryView(createQuery("all_clients_by_identifier").key(identifier).includeDocs(true), Client.class);
@@ -171,12 +258,45 @@ public class AllClients extends MotechBaseRepository<Client> {
 	@View(name = "clients_by__server_version", map = "function(doc) { if (doc.type === 'Client') { emit([doc.serverVersion], null); } }")
 	public List<Client> findByServerVersion(long serverVersion) {
 		ComplexKey startKey = ComplexKey.of(serverVersion + 1);
-		ComplexKey endKey = ComplexKey.of(System.currentTimeMillis());
+		ComplexKey endKey = ComplexKey.of(Long.MAX_VALUE);
 		return db.queryView(createQuery("clients_by__server_version").startKey(startKey).endKey(endKey).includeDocs(true),
 		    Client.class);
 	}
 	
+	/**
+	 * Fetch at most <code>limit</code> clients with a serverVersion greater than the given one,
+	 * ordered by serverVersion
+	 */
+	public List<Client> findByServerVersion(long serverVersion, int limit) {
+		ComplexKey startKey = ComplexKey.of(serverVersion + 1);
+		ComplexKey endKey = ComplexKey.of(Long.MAX_VALUE);
+		return db.queryView(
+		    createQuery("clients_by__server_version").startKey(startKey).endKey(endKey).limit(limit).includeDocs(true),
+		    Client.class);
+	}
+	
+	/**
+	 * Iterate over the clients with a serverVersion greater than the given one, ordered by
+	 * serverVersion, fetching <code>pageSize</code> clients from the view at a time
+	 */
+	public Iterator<Client> iterateByServerVersion(long serverVersion, int pageSize) {
+		ComplexKey startKey = ComplexKey.of(serverVersion + 1);
+		ComplexKey endKey = ComplexKey.of(Long.MAX_VALUE);
+		return new KeysetPagedIterator<Client>(db,
+		        createQuery("clients_by__server_version").startKey(startKey).endKey(endKey), Client.class, pageSize) {
+			
+			@Override
+			protected Object keyOf(Client client) {
+				return ComplexKey.of(client.getServerVersion());
+			}
+		};
+	}
+	
 	public List<Client> findByFieldValue(String field, List<String> ids) {
 		return lcr.getByFieldValue(field, ids);
 	}
+	
+	public List<Client> findByFieldValue(String field, List<String> ids, Consistency consistency) {
+		return lcr.getByFieldValue(field, ids, consistency);
+	}
 }
@@ -1,11 +1,21 @@
 package org.opensrp.repository;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
+import org.codehaus.jackson.JsonNode;
 import org.ektorp.ComplexKey;
 import org.ektorp.CouchDbConnector;
+import org.ektorp.DocumentOperationResult;
 import org.ektorp.UpdateConflictException;
+import org.ektorp.ViewResult;
+import org.ektorp.ViewResult.Row;
 import org.ektorp.support.GenerateView;
 import org.ektorp.support.View;
 import org.ektorp.util.Assert;
@@ -13,7 +23,9 @@ import org.ektorp.util.Documents;
 import org.joda.time.DateTime;
 import org.motechproject.dao.MotechBaseRepository;
 import org.opensrp.common.AllConstants;
+import org.opensrp.common.repository.KeysetPagedIterator;
 import org.opensrp.domain.Event;
+import org.opensrp.repository.lucene.Consistency;
 import org.opensrp.repository.lucene.LuceneEventRepository;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
@@ -46,6 +58,26 @@ public class AllEvents extends MotechBaseRepository<Event> {
 		return event;
 	}
 	
+	/**
+	 * Resolve the current revision of each of the given document ids with a single _all_docs lookup.
+	 * 
+	 * @see DocumentRevisions#find(CouchDbConnector, Collection)
+	 */
+	public Map<String, String> findRevisions(Collection<String> ids) {
+		return DocumentRevisions.find(db, ids);
+	}
+	
+	/**
+	 * Create or update all given events with one _bulk_docs request. Events that already exist must
+	 * carry their current revision.
+	 * 
+	 * @param events
+	 * @return results for the documents that could not be saved, e.g. because of a revision conflict
+	 */
+	public List<DocumentOperationResult> bulkAddOrUpdate(Collection<Event> events) {
+		return db.executeBulk(events);
+	}
+	
 	@GenerateView
 	public List<Event> findByFormSubmissionId(String formSubmissionId) {
 		List<Event> events = queryView("by_formSubmissionId", formSubmissionId);
@@ -64,6 +96,36 @@ public class AllEvents extends MotechBaseRepository<Event> {
 		            .includeDocs(true), Event.class);
 	}
 	
+	/**
+	 * Find the document ids of the events with the given baseEntityId and formSubmissionId
+	 * combinations in a single view request. The view emits no value and no document is included, so
+	 * only the keys and ids are read.
+	 * 
+	 * @param events events carrying the combinations to look up
+	 * @return map of [baseEntityId, formSubmissionId] to the id of the first event document found for it
+	 */
+	@View(name = "events_by_base_entity_and_form_submission", map = "function(doc) { if (doc.type === 'Event'){  emit([doc.baseEntityId, doc.formSubmissionId], null); } }")
+	public Map<List<String>, String> findIdsByBaseEntityAndFormSubmissionIds(Collection<Event> events) {
+		Map<List<String>, String> ids = new HashMap<List<String>, String>();
+		List<ComplexKey> keys = new ArrayList<ComplexKey>();
+		for (Event event : events) {
+			keys.add(ComplexKey.of(event.getBaseEntityId(), event.getFormSubmissionId()));
+		}
+		if (keys.isEmpty()) {
+			return ids;
+		}
+		ViewResult result = db.queryView(createQuery("events_by_base_entity_and_form_submission").keys(keys)
+		        .includeDocs(false));
+		for (Row row : result.getRows()) {
+			JsonNode key = row.getKeyAsNode();
+			List<String> combination = Arrays.asList(key.get(0).getTextValue(), key.get(1).getTextValue());
+			if (!ids.containsKey(combination)) {
+				ids.put(combination, row.getId());
+			}
+		}
+		return ids;
+	}
+	
 	@View(name = "all_events_by_base_entity_and_type", map = "function(doc) { if (doc.type === 'Event'){  emit([doc.baseEntityId, doc.eventType], doc); } }")
 	public List<Event> findByBaseEntityAndType(String baseEntityId, String eventType) {
 		return db.queryView(createQuery("all_events_by_base_entity_and_type").key(ComplexKey.of(baseEntityId, eventType))
@@ -107,6 +169,35 @@ public class AllEvents extends MotechBaseRepository<Event> {
 		    Event.class);
 	}
 	
+	/**
+	 * Fetch at most <code>limit</code> events with a serverVersion greater than the given one,
+	 * ordered by serverVersion
+	 */
+	public List<Event> findByServerVersion(long serverVersion, int limit) {
+		ComplexKey startKey = ComplexKey.of(serverVersion + 1);
+		ComplexKey endKey = ComplexKey.of(Long.MAX_VALUE);
+		return db.queryView(
+		    createQuery("events_by_version").startKey(startKey).endKey(endKey).limit(limit).includeDocs(true),
+		    Event.class);
+	}
+	
+	/**
+	 * Iterate over the events with a serverVersion greater than the given one, ordered by
+	 * serverVersion, fetching <code>pageSize</code> events from the view at a time
+	 */
+	public Iterator<Event> iterateByServerVersion(long serverVersion, int pageSize) {
+		ComplexKey startKey = ComplexKey.of(serverVersion + 1);
+		ComplexKey endKey = ComplexKey.of(Long.MAX_VALUE);
+		return new KeysetPagedIterator<Event>(db, createQuery("events_by_version").startKey(startKey).endKey(endKey),
+		        Event.class, pageSize) {
+			
+			@Override
+			protected Object keyOf(Event event) {
+				return ComplexKey.of(event.getServerVersion());
+			}
+		};
+	}
+	
 	/**
 	 * Find an event based on a concept and between a range of date created dates
 	 * 
@@ -152,12 +243,49 @@ public class AllEvents extends MotechBaseRepository<Event> {
 		return super.getAll();
 	}
 	
+	/**
+	 * Iterate over all events ordered by id, fetching <code>pageSize</code> events from the view at a time
+	 */
+	@View(name = "events_by_id", map = "function(doc) { if (doc.type === 'Event') { emit(doc._id, null); } }")
+	public Iterator<Event> iterateAll(int pageSize) {
+		return new KeysetPagedIterator<Event>(db, createQuery("events_by_id"), Event.class, pageSize) {
+			
+			@Override
+			protected Object keyOf(Event event) {
+				return event.getId();
+			}
+		};
+	}
+	
 	public List<Event> findEvents(String team, String teamId, String providerId, String locationId, String baseEntityId,
 	                              Long serverVersion, String sortBy, String sortOrder, int limit) {
 		return ler
 		        .getByCriteria(team, teamId, providerId, locationId, baseEntityId, serverVersion, sortBy, sortOrder, limit);
 	}
 	
+	public List<Event> findEvents(String team, String teamId, String providerId, String locationId, String baseEntityId,
+	                              Long serverVersion, String sortBy, String sortOrder, int limit, int skip) {
+		return ler.getByCriteria(team, teamId, providerId, locationId, baseEntityId, serverVersion, sortBy, sortOrder,
+		    limit, skip);
+	}
+	
+	public List<Event> findEvents(String team, String teamId, String providerId, String locationId, String baseEntityId,
+	                              Long serverVersion, String sortBy, String sortOrder, int limit, int skip,
+	                              Consistency consistency) {
+		return ler.getByCriteria(team, teamId, providerId, locationId, baseEntityId, serverVersion, sortBy, sortOrder,
+		    limit, skip, consistency);
+	}
+	
+	public int countEventsUpTo(String team, String teamId, String providerId, String locationId, String baseEntityId,
+	                           long serverVersion, String lastEventId) {
+		return ler.countUpTo(team, teamId, providerId, locationId, baseEntityId, serverVersion, lastEventId);
+	}
+	
+	public int countEventsUpTo(String team, String teamId, String providerId, String locationId, String baseEntityId,
+	                           long serverVersion, String lastEventId, Consistency consistency) {
+		return ler.countUpTo(team, teamId, providerId, locationId, baseEntityId, serverVersion, lastEventId, consistency);
+	}
+	
 	@View(name = "all_events_by_event_type_and_version", map = "function(doc) { if (doc.type === 'Event'){  emit([doc.eventType, doc.version], null); } }")
 	public List<Event> findEventByEventTypeBetweenTwoDates(String eventType) {
 		Calendar calendar = Calendar.getInstance();
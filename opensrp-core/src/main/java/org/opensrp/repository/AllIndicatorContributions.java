@@ -0,0 +1,90 @@
+package org.opensrp.repository;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.ektorp.BulkDeleteDocument;
+import org.ektorp.ComplexKey;
+import org.ektorp.CouchDbConnector;
+import org.ektorp.DocumentOperationResult;
+import org.ektorp.ViewQuery;
+import org.ektorp.ViewResult;
+import org.ektorp.ViewResult.Row;
+import org.ektorp.support.View;
+import org.motechproject.dao.MotechBaseRepository;
+import org.opensrp.common.AllConstants;
+import org.opensrp.domain.IndicatorContribution;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public class AllIndicatorContributions extends MotechBaseRepository<IndicatorContribution> {
+
+	@Autowired
+	protected AllIndicatorContributions(@Qualifier(AllConstants.OPENSRP_DATABASE_CONNECTOR) CouchDbConnector db) {
+		super(IndicatorContribution.class, db);
+	}
+
+	/**
+	 * @return the stored contributions of the given events by event id
+	 */
+	@View(name = "indicator_contributions_by_event", map = "function(doc) { if (doc.type === 'IndicatorContribution') { emit(doc.eventId, null); } }")
+	public Map<String, IndicatorContribution> findByEventIds(Collection<String> eventIds) {
+		Map<String, IndicatorContribution> contributions = new HashMap<String, IndicatorContribution>();
+		if (eventIds == null || eventIds.isEmpty()) {
+			return contributions;
+		}
+		for (IndicatorContribution contribution : db.queryView(
+		    createQuery("indicator_contributions_by_event").keys(eventIds).includeDocs(true), IndicatorContribution.class)) {
+			contributions.put(contribution.getEventId(), contribution);
+		}
+		return contributions;
+	}
+
+	/**
+	 * Sum the contributions of all events of the period, over all locations, with a single reduce
+	 * query; the view keeps the running totals so the cost does not grow with the number of events.
+	 *
+	 * @param period yyyyMM
+	 * @return count of each indicator with at least one contribution in the period
+	 */
+	@View(name = "indicator_counts_by_period_indicator_and_location", map = "function(doc) { if (doc.type === 'IndicatorContribution') { for (var indicator in doc.counts) { emit([doc.period, indicator, doc.locationId], doc.counts[indicator]); } } }", reduce = "_sum")
+	public Map<String, Integer> countsForPeriod(String period) {
+		ViewQuery query = createQuery("indicator_counts_by_period_indicator_and_location")
+		        .startKey(ComplexKey.of(period)).endKey(ComplexKey.of(period, ComplexKey.emptyObject())).group(true)
+		        .groupLevel(2);
+		Map<String, Integer> counts = new HashMap<String, Integer>();
+		ViewResult result = db.queryView(query);
+		for (Row row : result.getRows()) {
+			counts.put(row.getKeyAsNode().get(1).getTextValue(), row.getValueAsInt());
+		}
+		return counts;
+	}
+
+	public List<DocumentOperationResult> bulkAddOrUpdate(Collection<IndicatorContribution> contributions) {
+		return db.executeBulk(contributions);
+	}
+
+	/**
+	 * Delete every contribution, <code>pageSize</code> documents per bulk request.
+	 */
+	public void removeAll(int pageSize) {
+		List<IndicatorContribution> page;
+		do {
+			page = db.queryView(createQuery("indicator_contributions_by_event").includeDocs(true).limit(pageSize),
+			    IndicatorContribution.class);
+			List<BulkDeleteDocument> deletes = new ArrayList<BulkDeleteDocument>(page.size());
+			for (IndicatorContribution contribution : page) {
+				deletes.add(BulkDeleteDocument.of(contribution));
+			}
+			if (!page.isEmpty() && db.executeBulk(deletes).size() == page.size()) {
+				// nothing of the page could be deleted, asking for it again would not help
+				break;
+			}
+		} while (page.size() == pageSize);
+	}
+}
@@ -0,0 +1,43 @@
+package org.opensrp.repository;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.codehaus.jackson.JsonNode;
+import org.ektorp.CouchDbConnector;
+import org.ektorp.ViewQuery;
+import org.ektorp.ViewResult;
+import org.ektorp.ViewResult.Row;
+
+/**
+ * Resolves the current revisions of documents with a single _all_docs lookup, for the repositories
+ * that write documents in bulk and so cannot load each of them first.
+ */
+public final class DocumentRevisions {
+
+	private DocumentRevisions() {
+	}
+
+	/**
+	 * Ids that do not exist or have been deleted are left out of the result.
+	 * 
+	 * @param ids document ids
+	 * @return map of document id to current revision
+	 */
+	public static Map<String, String> find(CouchDbConnector db, Collection<String> ids) {
+		Map<String, String> revisions = new HashMap<String, String>();
+		if (ids == null || ids.isEmpty()) {
+			return revisions;
+		}
+		ViewResult result = db.queryView(new ViewQuery().allDocs().keys(ids));
+		for (Row row : result.getRows()) {
+			JsonNode value = row.getValueAsNode();
+			if (row.getId() == null || value == null || value.has("deleted")) {
+				continue;
+			}
+			revisions.put(row.getId(), value.get("rev").getTextValue());
+		}
+		return revisions;
+	}
+}
@@ -0,0 +1,23 @@
+package org.opensrp.repository.lucene;
+
+/**
+ * How up to date the couchdb-lucene index a query reads has to be. couchdb-lucene indexes documents
+ * after they are written; a query that is not allowed to be stale waits for the index to catch up
+ * with the database first, which under a steady write load means waiting on every query.
+ */
+public enum Consistency {
+	
+	/** the index is brought up to date before every query */
+	STRONG,
+	
+	/**
+	 * the index is brought up to date at most every <code>lucene.bounded.staleness.seconds</code>,
+	 * queries in between read it as it is. Queries paging by serverVersion only return documents
+	 * with a serverVersion below the high-water mark of the last update, so nothing written since
+	 * can be skipped by a cursor that has moved past it.
+	 */
+	BOUNDED,
+	
+	/** the index is read as it is, however far behind the database */
+	EVENTUAL
+}
@@ -47,6 +47,11 @@ public class LuceneActionRepository extends CouchDbRepositorySupportWithLucene<A
 	 */
 	public List<Action> getByCriteria(String team, String providerId, Long timeStamp, String sortBy, String sortOrder,
 	                                  int limit) {
+		return getByCriteria(team, providerId, timeStamp, sortBy, sortOrder, limit, Consistency.STRONG);
+	}
+
+	public List<Action> getByCriteria(String team, String providerId, Long timeStamp, String sortBy, String sortOrder,
+	                                  int limit, Consistency consistency) {
 		// create a simple query against the view/search function that we've created
 		LuceneQuery query = new LuceneQuery("Action", "by_all_criteria");
 
@@ -73,14 +78,12 @@ public class LuceneActionRepository extends CouchDbRepositorySupportWithLucene<A
 			throw new RuntimeException("At least one search filter must be specified");
 		}
 		query.setQuery(qf.query());
-		// stale must not be ok, as we've only just loaded the docs
-		query.setStaleOk(false);
 		query.setIncludeDocs(true);
 		query.setLimit(limit);
 		query.setSort((sortOrder.toLowerCase().contains("desc") ? "\\" : "/") + sortBy);
 
 		try {
-			LuceneResult result = db.queryLucene(query);
+			LuceneResult result = ldb.queryLucene(query, "Action", "by_all_criteria", consistency);
 			return ldb.asList(result, Action.class);
 		}
 		catch (IOException e) {
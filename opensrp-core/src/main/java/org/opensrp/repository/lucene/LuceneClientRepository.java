@@ -30,13 +30,13 @@ import com.github.ldriscoll.ektorplucene.LuceneResult;
 import com.github.ldriscoll.ektorplucene.designdocument.annotation.FullText;
 import com.github.ldriscoll.ektorplucene.designdocument.annotation.Index;
 import com.mysql.jdbc.StringUtils;
-
-@FullText({
+
+@FullText({
 		@Index(name = "by_all_criteria", analyzer = "perfield:{baseEntityId:\"keyword\",mother:\"keyword\"}", index = "function (doc) {  if(doc.type !== 'Client') return null;  var docl = new Array();  var len = doc.addresses &&  doc.addresses.length >0 ? doc.addresses.length : 1;  for(var al = 0; al < len; al++) {    var arr1 = ['firstName', 'middleName', 'lastName', 'gender'];    var arr2 = ['addressType', 'country', 'stateProvince', 'cityVillage', 'countyDistrict', 'subDistrict', 'town', 'subTown'];    var ret = new Document(); var baseEntityId = doc.baseEntityId;ret.add(baseEntityId, {'field': 'baseEntityId'});    for(var i in arr1) {      ret.add(doc[arr1[i]], {'field' : arr1[i]});    }    for(var key in doc.attributes) {      ret.add(doc.attributes[key], {'field' : key});    } if (doc.relationships) { for (var key in doc.relationships) { ret.add(doc.relationships[key], { 'field': key }); }}    if(doc.addresses) {      var ad = doc.addresses[al];      if(ad){        for(var i in arr2) {          ret.add(ad[arr2[i]], {'field' : arr2[i]});        }      }              }    var bd = doc.birthdate.substring(0, 19);    ret.add(bd, {'field' : 'birthdate','type' : 'date'});        var crd = doc.dateCreated.substring(0, 19);    ret.add(crd, {'field' : 'lastEdited','type' : 'date'});        if(doc.dateEdited){    var led = doc.dateEdited.substring(0, 19);    ret.add(led, {'field' : 'lastEdited','type' : 'date'});        }        docl.push(ret);    }  return docl; }"),
 		@Index(name = "by_all_criteria_v2", analyzer = "perfield:{baseEntityId:\"keyword\",mother:\"keyword\"}",
 				//        index = "function (doc) {  if(doc.type !== 'Client') return null;  var docl = new Array();  var len = doc.addresses ? doc.addresses.length : 1;  for(var al = 0; al < len; al++) {    var arr1 = ['firstName', 'middleName', 'lastName', 'gender'];    var arr2 = ['addressType', 'country', 'stateProvince', 'cityVillage', 'countyDistrict', 'subDistrict', 'town', 'subTown'];    var ret = new Document(); var baseEntityId = doc.baseEntityId;ret.add(baseEntityId, {'field': 'baseEntityId'});    for(var i in arr1) {      ret.add(doc[arr1[i]], {'field' : arr1[i]});    }      for (var key in doc.identifiers) { ret.add(doc.identifiers[key], {'field': key}); }      for(var key in doc.attributes) {      ret.add(doc.attributes[key], {'field' : key});    }    if(doc.addresses) {      var ad = doc.addresses[al];      if(ad){        for(var i in arr2) {          ret.add(ad[arr2[i]], {'field' : arr2[i]});        }      }              }    var bd = doc.birthdate.substring(0, 19);    ret.add(bd, {'field' : 'birthdate','type' : 'date'});        var crd = doc.dateCreated.substring(0, 19);    ret.add(crd, {'field' : 'lastEdited','type' : 'date'});        if(doc.dateEdited){    var led = doc.dateEdited.substring(0, 19);    ret.add(led, {'field' : 'lastEdited','type' : 'date'});        }        docl.push(ret);    }  return docl; }"
 				index = "function (doc) {  if(doc.type !== 'Client') return null;  var docl = new Array();  var len = doc.addresses &&  doc.addresses.length >0 ? doc.addresses.length : 1;  for(var al = 0; al < len; al++) {    var arr1 = ['firstName', 'middleName', 'lastName', 'gender'];    var arr2 = ['addressType', 'country', 'stateProvince', 'cityVillage', 'countyDistrict', 'subDistrict', 'town', 'subTown'];    var ret = new Document(); var baseEntityId = doc.baseEntityId;ret.add(baseEntityId, {'field': 'baseEntityId'});    for(var i in arr1) {      ret.add(doc[arr1[i]], {'field' : arr1[i]});    }    for(var key in doc.attributes) {      ret.add(doc.attributes[key], {'field' : key});    } if (doc.relationships) {for (var key in doc.relationships) {ret.add(doc.relationships[key][0], {'field': key });}}    if(doc.addresses) {      var ad = doc.addresses[al];      if(ad){        for(var i in arr2) {          ret.add(ad[arr2[i]], {'field' : arr2[i]});        }      }              }    var bd = doc.birthdate.substring(0, 19);    ret.add(bd, {'field' : 'birthdate','type' : 'date'});        var crd = doc.dateCreated.substring(0, 19);    ret.add(crd, {'field' : 'lastEdited','type' : 'date'});        if(doc.dateEdited){    var led = doc.dateEdited.substring(0, 19);    ret.add(led, {'field' : 'lastEdited','type' : 'date'});        }        docl.push(ret);    }  return docl; }"
-
+
 		) })
 @Component
 public class LuceneClientRepository extends CouchDbRepositorySupportWithLucene<Client> {
@@ -70,6 +70,17 @@ public class LuceneClientRepository extends CouchDbRepositorySupportWithLucene<C
 	                                  String attributeValue, String addressType, String country, String stateProvince,
 	                                  String cityVillage, String countyDistrict, String subDistrict, String town,
 	                                  String subTown, DateTime lastEditFrom, DateTime lastEditTo, String motherIdentifier) {
+		return getByCriteria(nameLike, gender, birthdateFrom, birthdateTo, deathdateFrom, deathdateTo, attributeType,
+		    attributeValue, addressType, country, stateProvince, cityVillage, countyDistrict, subDistrict, town,
+		    subTown, lastEditFrom, lastEditTo, motherIdentifier, Consistency.STRONG);
+	}
+
+	public List<Client> getByCriteria(String nameLike, String gender, DateTime birthdateFrom, DateTime birthdateTo,
+	                                  DateTime deathdateFrom, DateTime deathdateTo, String attributeType,
+	                                  String attributeValue, String addressType, String country, String stateProvince,
+	                                  String cityVillage, String countyDistrict, String subDistrict, String town,
+	                                  String subTown, DateTime lastEditFrom, DateTime lastEditTo, String motherIdentifier,
+	                                  Consistency consistency) {
 		// create a simple query against the view/search function that we've created
 		LuceneQuery query = new LuceneQuery("Client", "by_all_criteria");
 
@@ -123,12 +134,10 @@ public class LuceneClientRepository extends CouchDbRepositorySupportWithLucene<C
 			throw new RuntimeException("Atleast one search filter must be specified");
 		}
 		query.setQuery(qf.query());
-		// stale must not be ok, as we've only just loaded the docs
-		query.setStaleOk(false);
 		query.setIncludeDocs(true);
 
 		try {
-			LuceneResult result = db.queryLucene(query);
+			LuceneResult result = ldb.queryLucene(query, "Client", "by_all_criteria", consistency);
 			return ldb.asList(result, Client.class);
 		}
 		catch (IOException e) {
@@ -137,16 +146,18 @@ public class LuceneClientRepository extends CouchDbRepositorySupportWithLucene<C
 	}
 
 	public List<Client> getByCriteria(String query) {
+		return getByCriteria(query, Consistency.STRONG);
+	}
+
+	public List<Client> getByCriteria(String query, Consistency consistency) {
 		// create a simple query against the view/search function that we've created
 		LuceneQuery lq = new LuceneQuery("Client", "by_all_criteria");
 
 		lq.setQuery(query);
-		// stale must not be ok, as we've only just loaded the docs
-		lq.setStaleOk(false);
 		lq.setIncludeDocs(true);
 
 		try {
-			LuceneResult result = db.queryLucene(lq);
+			LuceneResult result = ldb.queryLucene(lq, "Client", "by_all_criteria", consistency);
 			return ldb.asList(result, Client.class);
 		}
 		catch (IOException e) {
@@ -155,6 +166,10 @@ public class LuceneClientRepository extends CouchDbRepositorySupportWithLucene<C
 	}
 
 	public List<Client> getByClientByMother(String field, String value) {
+		return getByClientByMother(field, value, Consistency.STRONG);
+	}
+
+	public List<Client> getByClientByMother(String field, String value, Consistency consistency) {
 		// create a simple query against the view/search function that we've created
 		if (value == null) {
 			return new ArrayList<Client>();
@@ -165,11 +180,10 @@ public class LuceneClientRepository extends CouchDbRepositorySupportWithLucene<C
 			query.eq(field, value);
 		}
 		lq.setQuery(query.query());
-		lq.setStaleOk(false);
 		lq.setIncludeDocs(true);
 
 		try {
-			LuceneResult result = db.queryLucene(lq);
+			LuceneResult result = ldb.queryLucene(lq, "Client", "by_all_criteria_v2", consistency);
 			return ldb.asList(result, Client.class);
 		}
 		catch (IOException e) {
@@ -178,6 +192,10 @@ public class LuceneClientRepository extends CouchDbRepositorySupportWithLucene<C
 	}
 
 	public List<Client> getByFieldValue(String field, String value) {
+		return getByFieldValue(field, value, Consistency.STRONG);
+	}
+
+	public List<Client> getByFieldValue(String field, String value, Consistency consistency) {
 		// create a simple query against the view/search function that we've created
 		if (value == null) {
 			return new ArrayList<Client>();
@@ -188,11 +206,10 @@ public class LuceneClientRepository extends CouchDbRepositorySupportWithLucene<C
 			query.eq(field, value);
 		}
 		lq.setQuery(query.query());
-		lq.setStaleOk(false);
 		lq.setIncludeDocs(true);
 
 		try {
-			LuceneResult result = db.queryLucene(lq);
+			LuceneResult result = ldb.queryLucene(lq, "Client", "by_all_criteria_v2", consistency);
 			return ldb.asList(result, Client.class);
 		}
 		catch (IOException e) {
@@ -201,6 +218,10 @@ public class LuceneClientRepository extends CouchDbRepositorySupportWithLucene<C
 	}
 
 	public List<Client> getByFieldValue(String field, List<String> ids) {
+		return getByFieldValue(field, ids, Consistency.STRONG);
+	}
+
+	public List<Client> getByFieldValue(String field, List<String> ids, Consistency consistency) {
 		// create a simple query against the view/search function that we've created
 		if (ids == null || ids.isEmpty()) {
 			return new ArrayList<Client>();
@@ -212,12 +233,10 @@ public class LuceneClientRepository extends CouchDbRepositorySupportWithLucene<C
 		}
 		lq.setQuery(query.query());
 		lq.setLimit(ids.size());
-		// stale must not be ok, as we've only just loaded the docs
-		lq.setStaleOk(false);
 		lq.setIncludeDocs(true);
 
 		try {
-			LuceneResult result = db.queryLucene(lq);
+			LuceneResult result = ldb.queryLucene(lq, "Client", "by_all_criteria_v2", consistency);
 			return ldb.asList(result, Client.class);
 		}
 		catch (IOException e) {
@@ -1,42 +1,210 @@
 package org.opensrp.repository.lucene;
 
+import static org.opensrp.common.monitor.Metric.LUCENE_QUERY_TIME;
+import static org.opensrp.common.monitor.Metric.LUCENE_STALE_QUERIES;
+
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.codehaus.jackson.JsonProcessingException;
 import org.codehaus.jackson.map.ObjectMapper;
 import org.ektorp.CouchDbConnector;
 import org.ektorp.impl.StdCouchDbInstance;
-import org.json.JSONObject;
 import org.opensrp.common.AllConstants;
+import org.opensrp.common.monitor.Monitor;
+import org.opensrp.common.monitor.Probe;
+import org.opensrp.domain.AppStateToken;
+import org.opensrp.repository.AllAppStateTokens;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import com.github.ldriscoll.ektorplucene.LuceneAwareCouchDbConnector;
+import com.github.ldriscoll.ektorplucene.LuceneQuery;
 import com.github.ldriscoll.ektorplucene.LuceneResult;
 import com.github.ldriscoll.ektorplucene.LuceneResult.Row;
 
 @Component
 class LuceneDbConnector extends LuceneAwareCouchDbConnector{
+	
+	/** ObjectMapper is thread safe, one instance serves every row of every query. */
+	private static final ObjectMapper objectMapper = new ObjectMapper();
+
+	/** longest a {@link Consistency#BOUNDED} query reads an index without bringing it up to date */
+	@Value("#{opensrp['lucene.bounded.staleness.seconds']}")
+	int boundedStalenessSeconds = 5;
+
+	/**
+	 * longest a document may take from its serverVersion block being reserved to being saved; the
+	 * high-water mark of an index is where the serverVersion token was this long before its last update
+	 */
+	@Value("#{opensrp['lucene.server.version.commit.margin.millis']}")
+	long serverVersionCommitMarginMillis = 5000;
+
+	/** when each index was last brought up to date and its high-water mark then, by design document and index name */
+	private final ConcurrentMap<String, IndexRead> indexUpdates = new ConcurrentHashMap<>();
+
+	/** serverVersion token values read when indexes were brought up to date, as {time, value}, oldest first */
+	private final Deque<long[]> tokenSamples = new ArrayDeque<>();
+
+	private final AllAppStateTokens allAppStateTokens;
+
+	private final Monitor monitor;
 
 	@Autowired
-	public LuceneDbConnector(@Qualifier(AllConstants.OPENSRP_DATABASE_CONNECTOR) CouchDbConnector db, StdCouchDbInstance dbinst) throws IOException {
+	public LuceneDbConnector(@Qualifier(AllConstants.OPENSRP_DATABASE_CONNECTOR) CouchDbConnector db, StdCouchDbInstance dbinst,
+	    AllAppStateTokens allAppStateTokens, Monitor monitor) throws IOException {
 		super(db.getDatabaseName(), dbinst);
+		this.allAppStateTokens = allAppStateTokens;
+		this.monitor = monitor;
 	}
 	
 	public <T> List<T> asList(LuceneResult result, Class<T> type) throws JsonProcessingException, IOException {
-		List<T> ol = new ArrayList<>();
-		for (Row r : result.getRows()) {
+		List<Row> rows = result.getRows();
+		List<T> ol = new ArrayList<>(rows.size());
+		for (Row r : rows) {
 			HashMap<String, Object> doc = r.getDoc();
 			
-			T ro = new ObjectMapper().readValue(new JSONObject(doc).toString(), type);
+			// the row is already parsed into maps, bind it to the type directly rather than through a JSON string
+			T ro = objectMapper.convertValue(doc, type);
 			ol.add(ro);
 		}
 		return ol;
 	}
+
+	/**
+	 * Decides whether a query against the given index may read it stale and up to which serverVersion
+	 * its results can be trusted to be complete.
+	 */
+	public IndexRead read(String designDocument, String index, Consistency consistency) {
+		String key = designDocument + "/" + index;
+		long now = System.currentTimeMillis();
+		switch (consistency) {
+			case EVENTUAL:
+				return new IndexRead(key, true, now, Long.MAX_VALUE);
+			case BOUNDED:
+				IndexRead updated = indexUpdates.get(key);
+				if (updated != null && now - updated.indexedAt <= boundedStalenessSeconds * 1000L) {
+					return new IndexRead(key, true, updated.indexedAt, updated.highWaterMark);
+				}
+				return new IndexRead(key, false, now, committedServerVersion(now));
+			default:
+				return new IndexRead(key, false, now, Long.MAX_VALUE);
+		}
+	}
+
+	/**
+	 * The highest serverVersion every document stamped with is saved by now. The
+	 * ServerVersionAllocator hands out blocks from the greater of its token and the clock, so a block
+	 * reserved within the commit margin starts at or above the token as it was a margin ago, and at or
+	 * above the clock then. The token is only moved by reservations, so if it was last edited before
+	 * that it still has the value it had then; otherwise the last value read before that is used.
+	 */
+	long committedServerVersion(long now) {
+		long since = now - serverVersionCommitMarginMillis;
+		String tokenName = AllConstants.Config.SERVER_VERSION_NEXT_AVAILABLE.name();
+		List<AppStateToken> tokens = allAppStateTokens.findByName(tokenName);
+		AppStateToken token = tokens.size() == 1 ? tokens.get(0) : null;
+		long value = token == null ? 0 : token.longValue();
+		long committed;
+		synchronized (tokenSamples) {
+			// only the last sample read before the margin and the ones after it are of any use
+			long[] before = null;
+			while (!tokenSamples.isEmpty() && tokenSamples.peekFirst()[0] <= since) {
+				before = tokenSamples.removeFirst();
+			}
+			if (before != null) {
+				tokenSamples.addFirst(before);
+			}
+			if (token != null && token.getLastEditDate() <= since) {
+				committed = value;
+			} else {
+				committed = before != null ? before[1] : 0;
+			}
+			tokenSamples.addLast(new long[] { now, value });
+		}
+		return Math.max(committed, since) - 1;
+	}
+
+	public LuceneResult queryLucene(LuceneQuery query, String designDocument, String index, Consistency consistency)
+	    throws IOException {
+		return queryLucene(query, read(designDocument, index, consistency));
+	}
+
+	/**
+	 * Runs the query, letting couchdb-lucene answer from a stale index if the read allows it, and
+	 * records the update of the index when it does not. Every query of the Lucene repositories comes
+	 * through here and is timed as {@link org.opensrp.common.monitor.Metric#LUCENE_QUERY_TIME}.
+	 */
+	public LuceneResult queryLucene(LuceneQuery query, IndexRead read) throws IOException {
+		query.setStaleOk(read.isStaleOk());
+		Probe probe = monitor.start(LUCENE_QUERY_TIME);
+		LuceneResult result;
+		try {
+			result = queryLucene(query);
+		}
+		finally {
+			monitor.end(probe);
+		}
+		if (read.isStaleOk()) {
+			monitor.increment(LUCENE_STALE_QUERIES);
+		} else if (read.highWaterMark < Long.MAX_VALUE) {
+			indexUpdated(read);
+		}
+		return result;
+	}
+
+	/**
+	 * Records a bounded read that brought its index up to date, for the reads within the bound after
+	 * it. Strong reads update the index too but have no high-water mark to hand on.
+	 */
+	private void indexUpdated(IndexRead read) {
+		IndexRead updated = indexUpdates.putIfAbsent(read.key, read);
+		while (updated != null && updated.indexedAt < read.indexedAt && !indexUpdates.replace(read.key, updated, read)) {
+			updated = indexUpdates.get(read.key);
+		}
+	}
+
+	/**
+	 * How one query reads an index: stale or not, and the serverVersion below which every saved
+	 * document is known to be in the index it reads.
+	 */
+	static class IndexRead {
+
+		private final String key;
+
+		private final boolean staleOk;
+
+		private final long indexedAt;
+
+		private final long highWaterMark;
+
+		IndexRead(String key, boolean staleOk, long indexedAt, long highWaterMark) {
+			this.key = key;
+			this.staleOk = staleOk;
+			this.indexedAt = indexedAt;
+			this.highWaterMark = highWaterMark;
+		}
+
+		boolean isStaleOk() {
+			return staleOk;
+		}
+
+		/**
+		 * @return highest serverVersion the results of a bounded read can be trusted up to, or
+		 *         Long.MAX_VALUE if the read is not bounded
+		 */
+		long getHighWaterMark() {
+			return highWaterMark;
+		}
+	}
 	
 
 }
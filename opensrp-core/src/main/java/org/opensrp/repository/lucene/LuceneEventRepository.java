@@ -18,7 +18,9 @@ import java.util.List;
 import org.joda.time.DateTime;
 import org.opensrp.common.AllConstants.BaseEntity;
 import org.opensrp.domain.Event;
+import org.opensrp.repository.lucene.LuceneDbConnector.IndexRead;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import com.github.ldriscoll.ektorplucene.CouchDbRepositorySupportWithLucene;
@@ -30,12 +32,29 @@ import com.mysql.jdbc.StringUtils;
 
 @FullText({
 		@Index(name = "by_all_criteria", analyzer = "perfield:{baseEntityId:\"keyword\",locationId:\"keyword\"}", index = "function(doc) {   if(doc.type !== 'Event') return null;   var arr1 = ['baseEntityId','eventType','entityType','providerId','locationId','teamId','team'];   var ret = new Document(); var serverVersion = doc.serverVersion;ret.add(serverVersion, {'field': 'serverVersion'});  for (var i in arr1){     ret.add(doc[arr1[i]], {'field':arr1[i]});   }   if(doc.eventDate){     var bd=doc.eventDate.substring(0,19);      ret.add(bd, {'field':'eventDate','type':'date'});   }          var crd = doc.dateCreated.substring(0, 19);     ret.add(crd, {'field' : 'lastEdited','type' : 'date'});          if(doc.dateEdited){     var led = doc.dateEdited.substring(0, 19);     ret.add(led, {'field' : 'lastEdited','type' : 'date'});         }        return ret;   }"),
-		@Index(name = "by_all_criteria_v2", analyzer = "perfield:{baseEntityId:\"keyword\",locationId:\"keyword\"}", index = "function(doc) {   if(doc.type !== 'Event') return null;   var arr1 = ['baseEntityId','eventType','entityType','providerId','locationId','teamId','team'];   var ret = new Document(); var serverVersion = doc.serverVersion;ret.add(serverVersion, {'field': 'serverVersion'});  for (var i in arr1){     ret.add(doc[arr1[i]], {'field':arr1[i]});   }   if(doc.eventDate){     var bd=doc.eventDate.substring(0,19);      ret.add(bd, {'field':'eventDate','type':'date'});   }          var crd = doc.dateCreated.substring(0, 19);     ret.add(crd, {'field' : 'lastEdited','type' : 'date'});          if(doc.dateEdited){     var led = doc.dateEdited.substring(0, 19);     ret.add(led, {'field' : 'lastEdited','type' : 'date'});         }        return ret;   }") })
+		@Index(name = "by_all_criteria_v2", analyzer = "perfield:{baseEntityId:\"keyword\",locationId:\"keyword\"}", index = "function(doc) {   if(doc.type !== 'Event') return null;   var arr1 = ['baseEntityId','eventType','entityType','providerId','locationId','teamId','team'];   var ret = new Document(); var serverVersion = doc.serverVersion;ret.add(serverVersion, {'field': 'serverVersion'});  for (var i in arr1){     ret.add(doc[arr1[i]], {'field':arr1[i]});   }   if(doc.eventDate){     var bd=doc.eventDate.substring(0,19);      ret.add(bd, {'field':'eventDate','type':'date'});   }          var crd = doc.dateCreated.substring(0, 19);     ret.add(crd, {'field' : 'lastEdited','type' : 'date'});          if(doc.dateEdited){     var led = doc.dateEdited.substring(0, 19);     ret.add(led, {'field' : 'lastEdited','type' : 'date'});         }        return ret;   }"),
+		@Index(name = "by_all_criteria_v3", analyzer = "perfield:{baseEntityId:\"keyword\",locationId:\"keyword\",providerId:\"keyword\",team:\"keyword\",teamId:\"keyword\"}", index = "function(doc) {   if(doc.type !== 'Event') return null;   var arr1 = ['baseEntityId','providerId','locationId','teamId','team'];   var ret = new Document();   if(doc.serverVersion != null){     ret.add(doc.serverVersion, {'field': 'serverVersion', 'type': 'long'});   }   for (var i in arr1){     if(doc[arr1[i]]){       ret.add(doc[arr1[i]], {'field':arr1[i]});     }   }   return ret;   }") })
 @Component
 public class LuceneEventRepository extends CouchDbRepositorySupportWithLucene<Event> {
 
+	public static final String CRITERIA_INDEX_V2 = "by_all_criteria_v2";
+
+	public static final String CRITERIA_INDEX_V3 = "by_all_criteria_v3";
+
+	/** the document id field couchdb-lucene adds to every indexed document */
+	private static final String ID = "_id";
+
 	private LuceneDbConnector ldb;
 
+	/**
+	 * Index the sync criteria queries run against. by_all_criteria_v3 indexes only what the sync
+	 * filters and sorts on, serverVersion as a long and the filter fields as keywords;
+	 * by_all_criteria_v2 can be configured until couchdb-lucene has finished building v3 after an
+	 * upgrade.
+	 */
+	@Value("#{opensrp['lucene.event.criteria.index']}")
+	private String criteriaIndex = CRITERIA_INDEX_V3;
+
 	@Autowired
 	protected LuceneEventRepository(LuceneDbConnector db) {
 		super(Event.class, db);
@@ -46,6 +65,13 @@ public class LuceneEventRepository extends CouchDbRepositorySupportWithLucene<Ev
 	public List<Event> getByCriteria(String baseEntityId, DateTime eventDatefrom, DateTime eventDateto, String eventType,
 	                                 String entityType, String providerId, String locationId, DateTime lastEditFrom,
 	                                 DateTime lastEditTo,String team, String teamId) {
+		return getByCriteria(baseEntityId, eventDatefrom, eventDateto, eventType, entityType, providerId, locationId,
+		    lastEditFrom, lastEditTo, team, teamId, Consistency.STRONG);
+	}
+
+	public List<Event> getByCriteria(String baseEntityId, DateTime eventDatefrom, DateTime eventDateto, String eventType,
+	                                 String entityType, String providerId, String locationId, DateTime lastEditFrom,
+	                                 DateTime lastEditTo,String team, String teamId, Consistency consistency) {
 		// create a simple query against the view/search function that we've created
 		LuceneQuery query = new LuceneQuery("Event", "by_all_criteria");
 
@@ -82,12 +108,10 @@ public class LuceneEventRepository extends CouchDbRepositorySupportWithLucene<Ev
 			throw new RuntimeException("Atleast one search filter must be specified");
 		}
 		query.setQuery(qf.query());
-		// stale must not be ok, as we've only just loaded the docs
-		query.setStaleOk(false);
 		query.setIncludeDocs(true);
 
 		try {
-			LuceneResult result = db.queryLucene(query);
+			LuceneResult result = ldb.queryLucene(query, "Event", "by_all_criteria", consistency);
 			return ldb.asList(result, Event.class);
 		}
 		catch (IOException e) {
@@ -109,22 +133,111 @@ public class LuceneEventRepository extends CouchDbRepositorySupportWithLucene<Ev
 	 */
 	public List<Event> getByCriteria(String team, String teamId,String providerId, String locationId, String baseEntityId,
 	                                 Long serverVersion, String sortBy, String sortOrder, int limit) {
+		return getByCriteria(team, teamId, providerId, locationId, baseEntityId, serverVersion, sortBy, sortOrder, limit,
+		    0);
+	}
+
+	/**
+	 * Same as {@link #getByCriteria(String, String, String, String, String, Long, String, String, int)}
+	 * but skips the first <code>skip</code> matches. Ties in the sort field are broken by document id
+	 * so that consecutive pages over the same serverVersion are stable.
+	 *
+	 * @param skip number of matching documents to skip
+	 * @return
+	 */
+	public List<Event> getByCriteria(String team, String teamId, String providerId, String locationId,
+	                                 String baseEntityId, Long serverVersion, String sortBy, String sortOrder, int limit,
+	                                 int skip) {
+		return getByCriteria(team, teamId, providerId, locationId, baseEntityId, serverVersion, sortBy, sortOrder, limit,
+		    skip, Consistency.STRONG);
+	}
+
+	/**
+	 * Same as {@link #getByCriteria(String, String, String, String, String, Long, String, String, int, int)}
+	 * read with the given consistency. A {@link Consistency#BOUNDED} read only returns events up to the
+	 * serverVersion high-water mark of the index it reads, so a device paging by serverVersion never
+	 * moves its cursor past an event the index has not caught up with yet.
+	 */
+	public List<Event> getByCriteria(String team, String teamId, String providerId, String locationId,
+	                                 String baseEntityId, Long serverVersion, String sortBy, String sortOrder, int limit,
+	                                 int skip, Consistency consistency) {
+		IndexRead read = ldb.read("Event", criteriaIndex, consistency);
+		long highWaterMark = read.getHighWaterMark();
+		if (serverVersion != null && serverVersion > highWaterMark) {
+			return new ArrayList<>();
+		}
+
 		// create a simple query against the view/search function that we've created
-		LuceneQuery query = new LuceneQuery("Event", "by_all_criteria_v2");
+		LuceneQuery query = new LuceneQuery("Event", criteriaIndex);
 
-		Query qf = new Query(FilterType.AND);
+		Query qf = criteriaQuery(team, teamId, providerId, locationId, baseEntityId);
+
+		if (serverVersion != null || highWaterMark < Long.MAX_VALUE) {
+			serverVersionBetween(qf, serverVersion == null ? 0 : serverVersion, highWaterMark);
+		}
+
+		if (StringUtils.isEmptyOrWhitespaceOnly(qf.query())) {
+			throw new RuntimeException("Atleast one search filter must be specified");
+		}
+		query.setQuery(qf.query());
+		query.setIncludeDocs(true);
+		query.setLimit(limit);
+		String sortPrefix = sortOrder.toLowerCase().contains("desc") ? "\\" : "/";
+		query.setSort(sortPrefix + sortField(sortBy) + "," + sortPrefix + "_id");
+		if (skip > 0) {
+			query.setSkip(skip);
+		}
+
+		try {
+			LuceneResult result = ldb.queryLucene(query, read);
+			return ldb.asList(result, Event.class);
+		}
+		catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Counts the events matching the criteria that have exactly the given serverVersion and an id not
+	 * after <code>lastId</code>, i.e. the ones a sync cursor at (serverVersion, lastId) has already
+	 * returned. The count is the total number of hits couchdb-lucene reports, so no row and no
+	 * document is read.
+	 */
+	public int countUpTo(String team, String teamId, String providerId, String locationId, String baseEntityId,
+	                     long serverVersion, String lastId) {
+		return countUpTo(team, teamId, providerId, locationId, baseEntityId, serverVersion, lastId, Consistency.STRONG);
+	}
+
+	public int countUpTo(String team, String teamId, String providerId, String locationId, String baseEntityId,
+	                     long serverVersion, String lastId, Consistency consistency) {
+		LuceneQuery query = new LuceneQuery("Event", criteriaIndex);
 
-		if (serverVersion != null) {
-			qf.between(BaseEntity.SERVER_VERSIOIN, serverVersion, Long.MAX_VALUE);
+		Query qf = criteriaQuery(team, teamId, providerId, locationId, baseEntityId);
+		serverVersionBetween(qf, serverVersion, serverVersion);
+		qf.upTo(ID, lastId);
+
+		query.setQuery(qf.query());
+		query.setIncludeDocs(false);
+		query.setLimit(1);
+
+		try {
+			return ldb.queryLucene(query, "Event", criteriaIndex, consistency).getTotalRows();
+		}
+		catch (IOException e) {
+			throw new RuntimeException(e);
 		}
+	}
+
+	private Query criteriaQuery(String team, String teamId, String providerId, String locationId, String baseEntityId) {
+		Query qf = new Query(FilterType.AND);
 
 		if (team != null && !StringUtils.isEmptyOrWhitespaceOnly(team)) {
 			if (team.contains(",")) {
 				String[] teamArray = org.apache.commons.lang.StringUtils.split(team, ",");
 				List<String> teams = new ArrayList<>(Arrays.asList(teamArray));
-				qf.inList(TEAM, teams);
+				keywordIn(qf, TEAM, teams);
 			} else {
-				qf.eq(TEAM, team);
+				keywordEq(qf, TEAM, team);
 			}
 		}
 		
@@ -132,9 +245,9 @@ public class LuceneEventRepository extends CouchDbRepositorySupportWithLucene<Ev
 			if (teamId.contains(",")) {
 				String[] teamArray = org.apache.commons.lang.StringUtils.split(teamId);
 				List<String> teams = new ArrayList<>(Arrays.asList(teamArray));
-				qf.inList(TEAM_ID, teams);
+				keywordIn(qf, TEAM_ID, teams);
 			} else {
-				qf.eq(TEAM_ID, teamId);
+				keywordEq(qf, TEAM_ID, teamId);
 			}
 		}
 		
@@ -142,9 +255,9 @@ public class LuceneEventRepository extends CouchDbRepositorySupportWithLucene<Ev
 			if (providerId.contains(",")) {
 				String[] providerArray = org.apache.commons.lang.StringUtils.split(providerId, ",");
 				List<String> providers = new ArrayList<>(Arrays.asList(providerArray));
-				qf.inList(PROVIDER_ID, providers);
+				keywordIn(qf, PROVIDER_ID, providers);
 			} else {
-				qf.eq(PROVIDER_ID, providerId);
+				keywordEq(qf, PROVIDER_ID, providerId);
 			}
 		}
 
@@ -174,37 +287,55 @@ public class LuceneEventRepository extends CouchDbRepositorySupportWithLucene<Ev
 				qf.eq(BASE_ENTITY_ID, baseEntityId);
 			}
 		}
+		return qf;
+	}
 
-		if (StringUtils.isEmptyOrWhitespaceOnly(qf.query())) {
-			throw new RuntimeException("Atleast one search filter must be specified");
+	private boolean isTypedIndex() {
+		return CRITERIA_INDEX_V3.equals(criteriaIndex);
+	}
+
+	private void serverVersionBetween(Query qf, long from, long to) {
+		if (isTypedIndex()) {
+			qf.betweenLong(BaseEntity.SERVER_VERSIOIN, from, to);
+		} else {
+			qf.between(BaseEntity.SERVER_VERSIOIN, from, to);
 		}
-		query.setQuery(qf.query());
-		// stale must not be ok, as we've only just loaded the docs
-		query.setStaleOk(false);
-		query.setIncludeDocs(true);
-		query.setLimit(limit);
-		query.setSort((sortOrder.toLowerCase().contains("desc") ? "\\" : "/") + sortBy);
+	}
 
-		try {
-			LuceneResult result = db.queryLucene(query);
-			return ldb.asList(result, Event.class);
+	private String sortField(String sortBy) {
+		return isTypedIndex() && BaseEntity.SERVER_VERSIOIN.equals(sortBy) ? sortBy + "<long>" : sortBy;
+	}
+
+	// keyword analyzed fields in v3 are matched as whole, possibly multi word, values
+	private void keywordEq(Query qf, String field, String value) {
+		if (isTypedIndex()) {
+			qf.like(field, value);
+		} else {
+			qf.eq(field, value);
 		}
-		catch (IOException e) {
-			throw new RuntimeException(e);
+	}
+
+	private void keywordIn(Query qf, String field, List<String> values) {
+		if (isTypedIndex()) {
+			qf.likeList(field, values);
+		} else {
+			qf.inList(field, values);
 		}
 	}
 
 	public List<Event> getByCriteria(String query) {
+		return getByCriteria(query, Consistency.STRONG);
+	}
+
+	public List<Event> getByCriteria(String query, Consistency consistency) {
 		// create a simple query against the view/search function that we've created
 		LuceneQuery q = new LuceneQuery("Event", "by_all_criteria");
 
 		q.setQuery(query);
-		// stale must not be ok, as we've only just loaded the docs
-		q.setStaleOk(false);
 		q.setIncludeDocs(true);
 
 		try {
-			LuceneResult result = db.queryLucene(q);
+			LuceneResult result = ldb.queryLucene(q, "Event", "by_all_criteria", consistency);
 			return ldb.asList(result, Event.class);
 		}
 		catch (IOException e) {
@@ -43,6 +43,13 @@ public class LuceneReportRepository extends CouchDbRepositorySupportWithLucene<R
 	
 	public List<Report> getByCriteria(String baseEntityId, DateTime reportDatefrom, DateTime reportDateto, String reportType,
 	                                  String providerId, String locationId, DateTime lastEditFrom, DateTime lastEditTo) {
+		return getByCriteria(baseEntityId, reportDatefrom, reportDateto, reportType, providerId, locationId,
+		    lastEditFrom, lastEditTo, Consistency.STRONG);
+	}
+
+	public List<Report> getByCriteria(String baseEntityId, DateTime reportDatefrom, DateTime reportDateto, String reportType,
+	                                  String providerId, String locationId, DateTime lastEditFrom, DateTime lastEditTo,
+	                                  Consistency consistency) {
 		// create a simple query against the view/search function that we've created
 		LuceneQuery query = new LuceneQuery("Report", "by_all_criteria");
 		
@@ -70,12 +77,10 @@ public class LuceneReportRepository extends CouchDbRepositorySupportWithLucene<R
 			throw new RuntimeException("Atleast one search filter must be specified");
 		}
 		query.setQuery(qf.query());
-		// stale must not be ok, as we've only just loaded the docs
-		query.setStaleOk(false);
 		query.setIncludeDocs(true);
 		
 		try {
-			LuceneResult result = db.queryLucene(query);
+			LuceneResult result = ldb.queryLucene(query, "Report", "by_all_criteria", consistency);
 			return ldb.asList(result, Report.class);
 		}
 		catch (IOException e) {
@@ -97,6 +102,13 @@ public class LuceneReportRepository extends CouchDbRepositorySupportWithLucene<R
 	 */
 	public List<Report> getByCriteria(String team, String providerId, String locationId, String baseEntityId,
 	                                  Long serverVersion, String sortBy, String sortOrder, int limit) {
+		return getByCriteria(team, providerId, locationId, baseEntityId, serverVersion, sortBy, sortOrder, limit,
+		    Consistency.STRONG);
+	}
+
+	public List<Report> getByCriteria(String team, String providerId, String locationId, String baseEntityId,
+	                                  Long serverVersion, String sortBy, String sortOrder, int limit,
+	                                  Consistency consistency) {
 		// create a simple query against the view/search function that we've created
 		LuceneQuery query = new LuceneQuery("Report", "by_all_criteria_v2");
 		
@@ -140,14 +152,12 @@ public class LuceneReportRepository extends CouchDbRepositorySupportWithLucene<R
 			throw new RuntimeException("Atleast one search filter must be specified");
 		}
 		query.setQuery(qf.query());
-		// stale must not be ok, as we've only just loaded the docs
-		query.setStaleOk(false);
 		query.setIncludeDocs(true);
 		query.setLimit(limit);
 		query.setSort((sortOrder.toLowerCase().contains("desc") ? "\\" : "/") + sortBy);
 		
 		try {
-			LuceneResult result = db.queryLucene(query);
+			LuceneResult result = ldb.queryLucene(query, "Report", "by_all_criteria_v2", consistency);
 			return ldb.asList(result, Report.class);
 		}
 		catch (IOException e) {
@@ -156,16 +166,18 @@ public class LuceneReportRepository extends CouchDbRepositorySupportWithLucene<R
 	}
 	
 	public List<Report> getByCriteria(String query) {
+		return getByCriteria(query, Consistency.STRONG);
+	}
+
+	public List<Report> getByCriteria(String query, Consistency consistency) {
 		// create a simple query against the view/search function that we've created
 		LuceneQuery q = new LuceneQuery("Report", "by_all_criteria");
 		
 		q.setQuery(query);
-		// stale must not be ok, as we've only just loaded the docs
-		q.setStaleOk(false);
 		q.setIncludeDocs(true);
 		
 		try {
-			LuceneResult result = db.queryLucene(q);
+			LuceneResult result = ldb.queryLucene(q, "Report", "by_all_criteria", consistency);
 			return ldb.asList(result, Report.class);
 		}
 		catch (IOException e) {
@@ -42,6 +42,14 @@ public class LuceneSearchRepository extends CouchDbRepositorySupportWithLucene<S
 	                                  Map<String, String> identifiers, Map<String, String> attributes,
 	                                  DateTime birthdateFrom, DateTime birthdateTo, DateTime lastEditFrom,
 	                                  DateTime lastEditTo, Integer limit) {
+		return getByCriteria(nameLike, firstName, middleName, lastName, gender, identifiers, attributes,
+		    birthdateFrom, birthdateTo, lastEditFrom, lastEditTo, limit, Consistency.STRONG);
+	}
+
+	public List<Client> getByCriteria(String nameLike, String firstName, String middleName, String lastName, String gender,
+	                                  Map<String, String> identifiers, Map<String, String> attributes,
+	                                  DateTime birthdateFrom, DateTime birthdateTo, DateTime lastEditFrom,
+	                                  DateTime lastEditTo, Integer limit, Consistency consistency) {
 		// create a simple query against the view/search function that we've
 		// created
 		LuceneQuery query = new LuceneQuery("Search", "by_all_criteria");
@@ -121,14 +129,12 @@ public class LuceneSearchRepository extends CouchDbRepositorySupportWithLucene<S
 			throw new RuntimeException("Atleast one search filter must be specified");
 		}
 		query.setQuery(qf.query());
-		// stale must not be ok, as we've only just loaded the docs
-		query.setStaleOk(false);
 		query.setIncludeDocs(true);
 		if (limit != null && limit.intValue() > 0) {
 			query.setLimit(limit);
 		}
 		try {
-			LuceneResult result = db.queryLucene(query);
+			LuceneResult result = ldb.queryLucene(query, "Search", "by_all_criteria", consistency);
 			return ldb.asList(result, Client.class);
 		}
 		catch (IOException e) {
@@ -137,17 +143,19 @@ public class LuceneSearchRepository extends CouchDbRepositorySupportWithLucene<S
 	}
 
 	public List<Client> getByCriteria(String query) {
+		return getByCriteria(query, Consistency.STRONG);
+	}
+
+	public List<Client> getByCriteria(String query, Consistency consistency) {
 		// create a simple query against the view/search function that we've
 		// created
 		LuceneQuery lq = new LuceneQuery("Search", "by_all_criteria");
 
 		lq.setQuery(query);
-		// stale must not be ok, as we've only just loaded the docs
-		lq.setStaleOk(false);
 		lq.setIncludeDocs(true);
 
 		try {
-			LuceneResult result = db.queryLucene(lq);
+			LuceneResult result = ldb.queryLucene(lq, "Search", "by_all_criteria", consistency);
 			return ldb.asList(result, Client.class);
 		}
 		catch (IOException e) {
@@ -42,6 +42,14 @@ public class LuceneStockRepository extends CouchDbRepositorySupportWithLucene<St
 	public List<Stock> getByCriteria(String identifier, String vaccine_type_id, String transaction_type, String providerid,
 	                                 String value, String date_created, String to_from, String date_updated,
 	                                 Long serverVersion, String sortBy, String sortOrder, int limit) {
+		return getByCriteria(identifier, vaccine_type_id, transaction_type, providerid, value, date_created, to_from,
+		    date_updated, serverVersion, sortBy, sortOrder, limit, Consistency.STRONG);
+	}
+
+	public List<Stock> getByCriteria(String identifier, String vaccine_type_id, String transaction_type, String providerid,
+	                                 String value, String date_created, String to_from, String date_updated,
+	                                 Long serverVersion, String sortBy, String sortOrder, int limit,
+	                                 Consistency consistency) {
 		// create a simple query against the view/search function that we've created
 		LuceneQuery query = new LuceneQuery("Stock", "by_all_criteria");
 		
@@ -79,14 +87,12 @@ public class LuceneStockRepository extends CouchDbRepositorySupportWithLucene<St
 			throw new RuntimeException("Atleast one search filter must be specified");
 		}
 		query.setQuery(qf.query());
-		// stale must not be ok, as we've only just loaded the docs
-		query.setStaleOk(false);
 		query.setLimit(limit);
 		query.setIncludeDocs(true);
 		query.setSort((sortOrder.toLowerCase().contains("desc") ? "\\" : "/") + sortBy);
 		
 		try {
-			LuceneResult result = db.queryLucene(query);
+			LuceneResult result = ldb.queryLucene(query, "Stock", "by_all_criteria", consistency);
 			return ldb.asList(result, Stock.class);
 		}
 		catch (IOException e) {
@@ -97,6 +103,13 @@ public class LuceneStockRepository extends CouchDbRepositorySupportWithLucene<St
 	public List<Stock> getByCriteria(String identifier, String vaccine_type_id, String transaction_type, String providerid,
 	                                 String value, String date_created, String to_from, String date_updated,
 	                                 String serverVersion) {
+		return getByCriteria(identifier, vaccine_type_id, transaction_type, providerid, value, date_created, to_from,
+		    date_updated, serverVersion, Consistency.STRONG);
+	}
+
+	public List<Stock> getByCriteria(String identifier, String vaccine_type_id, String transaction_type, String providerid,
+	                                 String value, String date_created, String to_from, String date_updated,
+	                                 String serverVersion, Consistency consistency) {
 		LuceneQuery query = new LuceneQuery("Stock", "by_all_criteria");
 		
 		Query qf = new Query(FilterType.AND);
@@ -129,12 +142,10 @@ public class LuceneStockRepository extends CouchDbRepositorySupportWithLucene<St
 			throw new RuntimeException("Atleast one search filter must be specified");
 		}
 		query.setQuery(qf.query());
-		// stale must not be ok, as we've only just loaded the docs
-		query.setStaleOk(false);
 		query.setIncludeDocs(true);
 		
 		try {
-			LuceneResult result = db.queryLucene(query);
+			LuceneResult result = ldb.queryLucene(query, "Stock", "by_all_criteria", consistency);
 			return ldb.asList(result, Stock.class);
 		}
 		catch (IOException e) {
@@ -143,16 +154,18 @@ public class LuceneStockRepository extends CouchDbRepositorySupportWithLucene<St
 	}
 	
 	public List<Stock> getByCriteria(String query) {
+		return getByCriteria(query, Consistency.STRONG);
+	}
+
+	public List<Stock> getByCriteria(String query, Consistency consistency) {
 		// create a simple query against the view/search function that we've created
 		LuceneQuery q = new LuceneQuery("Stock", "by_all_criteria");
 		
 		q.setQuery(query);
-		// stale must not be ok, as we've only just loaded the docs
-		q.setStaleOk(false);
 		q.setIncludeDocs(true);
 		
 		try {
-			LuceneResult result = db.queryLucene(q);
+			LuceneResult result = ldb.queryLucene(q, "Stock", "by_all_criteria", consistency);
 			return ldb.asList(result, Stock.class);
 		}
 		catch (IOException e) {
@@ -65,6 +65,18 @@ public class Query {
 		return this;
 	}
 	
+	// range over a field indexed with 'type':'long'
+	public Query betweenLong(String field, long start, long to) {
+		addToQuery(field + "<long>:[" + start + " TO " + to + "] ");
+		return this;
+	}
+	
+	// field:[* TO "value"], terms up to and including the value
+	public Query upTo(String field, String value) {
+		addToQuery(field + ":[* TO \"" + value + "\"] ");
+		return this;
+	}
+	
 	//field:(value1 OR value2 OR value3)
 	public Query inList(String field, List<String> ids) {
 		String idString = org.apache.commons.lang.StringUtils.join(ids, " OR ");
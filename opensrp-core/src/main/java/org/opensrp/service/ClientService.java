@@ -1,18 +1,32 @@
 package org.opensrp.service;
 
 import java.lang.reflect.Field;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
 
 import org.ektorp.CouchDbConnector;
+import org.ektorp.DocumentOperationResult;
 import org.joda.time.DateTime;
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.opensrp.common.AllConstants.BaseEntity;
 import org.opensrp.domain.Address;
 import org.opensrp.domain.Client;
 import org.opensrp.repository.AllClients;
+import org.opensrp.repository.lucene.Consistency;
 import org.opensrp.util.DateTimeTypeConverter;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import com.google.gson.Gson;
@@ -23,9 +37,30 @@ public class ClientService {
 
 	private final AllClients allClients;
 
+	private final ServerVersionAllocator serverVersionAllocator;
+
+	/**
+	 * Clients last served to sync, by baseEntityId, least recently used evicted first. An entry is only
+	 * served while its revision is still the current one in CouchDB.
+	 */
+	private final Map<String, Client> syncClients;
+
+	public ClientService(AllClients allClients, ServerVersionAllocator serverVersionAllocator) {
+		this(allClients, serverVersionAllocator, 10000);
+	}
+
 	@Autowired
-	public ClientService(AllClients allClients) {
+	public ClientService(AllClients allClients, ServerVersionAllocator serverVersionAllocator,
+	    @Value("#{opensrp['client.cache.size']}") final int clientCacheSize) {
 		this.allClients = allClients;
+		this.serverVersionAllocator = serverVersionAllocator;
+		this.syncClients = Collections.synchronizedMap(new LinkedHashMap<String, Client>(16, 0.75f, true) {
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Client> eldest) {
+				return size() > clientCacheSize;
+			}
+		});
 	}
 
 	public Client getByBaseEntityId(String baseEntityId) {
@@ -36,6 +71,10 @@ public class ClientService {
 		return allClients.findAllClients();
 	}
 
+	public Iterator<Client> iterateAllClients(int pageSize) {
+		return allClients.iterateAllClients(pageSize);
+	}
+
 	public List<Client> findAllByIdentifier(String identifier) {
 		return allClients.findAllByIdentifier(identifier);
 	}
@@ -268,10 +307,70 @@ public class ClientService {
 		return allClients.findByServerVersion(serverVersion);
 	}
 
+	public List<Client> findByServerVersion(long serverVersion, int limit) {
+		return allClients.findByServerVersion(serverVersion, limit);
+	}
+
+	public Iterator<Client> iterateByServerVersion(long serverVersion, int pageSize) {
+		return allClients.iterateByServerVersion(serverVersion, pageSize);
+	}
+
 	public List<Client> findByFieldValue(String field, List<String> ids) {
 		return allClients.findByFieldValue(field, ids);
 	}
 
+	/**
+	 * Clients with the given baseEntityIds, as sent along with the events of a sync page. Clients
+	 * served before are reused as long as their revision has not changed, which a single _all_docs
+	 * request over their ids tells without touching the lucene index; only the others are searched
+	 * for, in a {@link Consistency#BOUNDED} read that does not wait for the index to catch up. A
+	 * client is saved before the events that refer to it, and an event only reaches a sync page
+	 * once it is older than the commit margin, so an index at most the staleness bound behind
+	 * already holds its client as long as the bound does not exceed the margin.
+	 *
+	 * @param baseEntityIds
+	 * @return the clients found, in the order of the given baseEntityIds
+	 */
+	public List<Client> findByBaseEntityIds(Collection<String> baseEntityIds) {
+		Map<String, Client> cached = new HashMap<String, Client>();
+		for (String baseEntityId : baseEntityIds) {
+			Client client = syncClients.get(baseEntityId);
+			if (client != null) {
+				cached.put(client.getId(), client);
+			}
+		}
+
+		Map<String, Client> found = new HashMap<String, Client>();
+		Map<String, String> revisions = allClients.findRevisions(cached.keySet());
+		for (Client client : cached.values()) {
+			if (client.getRevision() != null && client.getRevision().equals(revisions.get(client.getId()))) {
+				found.put(client.getBaseEntityId(), client);
+			}
+		}
+
+		List<String> missing = new ArrayList<String>();
+		for (String baseEntityId : baseEntityIds) {
+			if (!found.containsKey(baseEntityId)) {
+				missing.add(baseEntityId);
+			}
+		}
+		if (!missing.isEmpty()) {
+			for (Client client : allClients.findByFieldValue(BaseEntity.BASE_ENTITY_ID, missing, Consistency.BOUNDED)) {
+				found.put(client.getBaseEntityId(), client);
+				syncClients.put(client.getBaseEntityId(), client);
+			}
+		}
+
+		List<Client> clients = new ArrayList<Client>(found.size());
+		for (String baseEntityId : baseEntityIds) {
+			Client client = found.get(baseEntityId);
+			if (client != null) {
+				clients.add(client);
+			}
+		}
+		return clients;
+	}
+
 	public List<Client> findByFieldValue(String id) {
 		return allClients.findByRelationShip(id);
 	}
@@ -280,6 +379,120 @@ public class ClientService {
 		return addorUpdate(client, true);
 	}
 
+	/**
+	 * Batched variant of {@link #addorUpdate(Client)}. Existing clients are resolved by baseEntityId
+	 * and then by identifiers with one view request each, their revisions with one _all_docs request,
+	 * and all clients are written with a single _bulk_docs request. Concurrent writers to the same
+	 * client are detected by CouchDB as revision conflicts and reported back instead of being retried.
+	 * Clients of the batch that share a baseEntityId or an identifier are written as one document, the
+	 * last of them winning as it would when adding them one by one. Updated clients are stamped from one block of the {@link ServerVersionAllocator}; new clients are
+	 * left without a serverVersion for the events listener to stamp.
+	 * 
+	 * @param clients
+	 * @return results for the clients that could not be saved, keyed by document id
+	 */
+	public List<DocumentOperationResult> addorUpdate(List<Client> clients) {
+		List<DocumentOperationResult> failures = new ArrayList<DocumentOperationResult>();
+		List<Client> toSave = new ArrayList<Client>();
+		Set<String> baseEntityIds = new HashSet<String>();
+		Set<String> identifiers = new HashSet<String>();
+		for (Client client : clients) {
+			if (client.getBaseEntityId() == null) {
+				failures.add(DocumentOperationResult.newInstance(client.getId(), "invalid", "No baseEntityId"));
+				continue;
+			}
+			toSave.add(client);
+			baseEntityIds.add(client.getBaseEntityId());
+			identifiers.addAll(client.getIdentifiers().values());
+		}
+		
+		Map<String, String> idsByBaseEntityId = allClients.findIdsByBaseEntityIds(baseEntityIds);
+		Map<String, List<String>> idsByIdentifier = allClients.findIdsByIdentifiers(identifiers);
+		
+		// the document id of each baseEntityId and identifier seen so far in the batch, and the last
+		// client of the batch for each document id
+		Map<String, String> idsInBatch = new HashMap<String, String>();
+		Map<String, Client> resolved = new LinkedHashMap<String, Client>();
+		Set<String> existingIds = new HashSet<String>();
+		for (Client client : toSave) {
+			String existingId = idsByBaseEntityId.get(client.getBaseEntityId());
+			try {
+				if (existingId == null) {
+					existingId = findIdByIdentifiers(client, idsByIdentifier);
+				}
+			}
+			catch (IllegalArgumentException e) {
+				failures.add(DocumentOperationResult.newInstance(client.getId(), "invalid", e.getMessage()));
+				continue;
+			}
+			if (existingId != null) {
+				existingIds.add(existingId);
+			} else {
+				existingId = findIdInBatch(client, idsInBatch);
+			}
+			if (existingId != null) {
+				client.setId(existingId);
+			} else if (client.getId() == null) {
+				client.setId(UUID.randomUUID().toString().replace("-", ""));
+			}
+			idsInBatch.put("baseEntityId|" + client.getBaseEntityId(), client.getId());
+			for (String identifier : client.getIdentifiers().values()) {
+				idsInBatch.put("identifier|" + identifier, client.getId());
+			}
+			resolved.remove(client.getId());
+			resolved.put(client.getId(), client);
+		}
+		
+		Map<String, String> revisions = allClients.findRevisions(existingIds);
+		List<Client> updated = new ArrayList<Client>();
+		for (Client client : resolved.values()) {
+			String revision = revisions.get(client.getId());
+			if (revision != null) {
+				client.setRevision(revision);
+				client.setDateEdited(DateTime.now());
+				updated.add(client);
+			} else {
+				client.setRevision(null);
+				client.setDateCreated(DateTime.now());
+			}
+		}
+		if (!updated.isEmpty()) {
+			long version = serverVersionAllocator.reserve(updated.size());
+			for (Client client : updated) {
+				client.setServerVersion(version++);
+			}
+		}
+		
+		if (!resolved.isEmpty()) {
+			failures.addAll(allClients.bulkAddOrUpdate(new ArrayList<Client>(resolved.values())));
+		}
+		return failures;
+	}
+	
+	private String findIdInBatch(Client client, Map<String, String> idsInBatch) {
+		String id = idsInBatch.get("baseEntityId|" + client.getBaseEntityId());
+		for (Iterator<String> identifiers = client.getIdentifiers().values().iterator(); id == null
+		        && identifiers.hasNext();) {
+			id = idsInBatch.get("identifier|" + identifiers.next());
+		}
+		return id;
+	}
+	
+	private String findIdByIdentifiers(Client client, Map<String, List<String>> idsByIdentifier) {
+		for (String idt : client.getIdentifiers().keySet()) {
+			List<String> ids = idsByIdentifier.get(client.getIdentifier(idt));
+			if (ids == null || ids.isEmpty()) {
+				continue;
+			}
+			if (ids.size() > 1) {
+				throw new IllegalArgumentException(
+						"Multiple clients with identifier type " + idt + " and ID " + client.getIdentifier(idt) + " exist.");
+			}
+			return ids.get(0);
+		}
+		return null;
+	}
+
 	public Client addorUpdate(Client client, boolean resetServerVersion) {
 		if (client.getBaseEntityId() == null) {
 			throw new RuntimeException("No baseEntityId");
@@ -290,7 +503,7 @@ public class ClientService {
 			client.setId(c.getId());
 			client.setDateEdited(DateTime.now());
 			if (resetServerVersion) {
-				client.setServerVersion(System.currentTimeMillis());
+				client.setServerVersion(serverVersionAllocator.next());
 			}
 			allClients.update(client);
 
@@ -1,20 +1,36 @@
 package org.opensrp.service;
 
 import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.locks.Lock;
 
 import org.ektorp.CouchDbConnector;
+import org.ektorp.DocumentOperationResult;
+import org.ektorp.UpdateConflictException;
 import org.joda.time.DateTime;
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.opensrp.common.AllConstants.BaseEntity;
 import org.opensrp.common.AllConstants.Client;
 import org.opensrp.domain.Event;
 import org.opensrp.domain.Obs;
 import org.opensrp.repository.AllEvents;
+import org.opensrp.repository.lucene.Consistency;
 import org.opensrp.util.DateTimeTypeConverter;
+import org.opensrp.util.StripedLock;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -30,6 +46,18 @@ public class EventService {
 	
 	private ClientService clientService;
 	
+	private static final int WRITE_LOCK_STRIPES = 256;
+	
+	/** times {@link #addorUpdateEvents(List)} writes the events that got a revision conflict again */
+	private static final int CONFLICT_RETRIES = 3;
+	
+	/**
+	 * Single event writes are serialized per baseEntityId/formSubmissionId and per identifier instead
+	 * of on the service, so that devices syncing unrelated clients do not wait on each other. Batches
+	 * take no lock, they rely on revision conflicts instead, see {@link #newEventId(Event)}.
+	 */
+	private final StripedLock writeLocks = new StripedLock(WRITE_LOCK_STRIPES);
+	
 	@Autowired
 	public EventService(AllEvents allEvents, ClientService clientService) {
 		this.allEvents = allEvents;
@@ -131,22 +159,53 @@ public class EventService {
 		return null;
 	}
 	
-	public synchronized Event addEvent(Event event) {
-		Event e = find(event);
-		if (e != null) {
-			throw new IllegalArgumentException(
-			        "An event already exists with given list of identifiers. Consider updating data.[" + e + "]");
+	public Event addEvent(Event event) {
+		List<Lock> locks = lockWrites(Collections.singletonList(event));
+		try {
+			Event e = find(event);
+			if (e != null) {
+				throw new IllegalArgumentException(
+				        "An event already exists with given list of identifiers. Consider updating data.[" + e + "]");
+			}
+			
+			if (event.getFormSubmissionId() != null
+			        && getByBaseEntityAndFormSubmissionId(event.getBaseEntityId(), event.getFormSubmissionId()) != null) {
+				throw new IllegalArgumentException(
+				        "An event already exists with given baseEntity and formSubmission combination. Consider updating");
+			}
+			
+			event.setDateCreated(DateTime.now());
+			if (event.getId() == null || event.getId().isEmpty()) {
+				event.setId(newEventId(event));
+				try {
+					allEvents.add(event);
+				}
+				catch (UpdateConflictException e) {
+					throw new IllegalArgumentException(
+					        "An event already exists with given baseEntity and formSubmission combination. Consider updating");
+				}
+			} else {
+				allEvents.add(event);
+			}
+			return event;
 		}
-		
-		if (event.getFormSubmissionId() != null
-		        && getByBaseEntityAndFormSubmissionId(event.getBaseEntityId(), event.getFormSubmissionId()) != null) {
-			throw new IllegalArgumentException(
-			        "An event already exists with given baseEntity and formSubmission combination. Consider updating");
+		finally {
+			unlock(locks);
 		}
-		
-		event.setDateCreated(DateTime.now());
-		allEvents.add(event);
-		return event;
+	}
+	
+	/**
+	 * The document id for a new event. Events of a form submission get an id derived from their
+	 * baseEntityId and formSubmissionId, so that writers racing to add the same submission collide on
+	 * the document id and CouchDB rejects all but one of them with a conflict instead of storing it
+	 * twice.
+	 */
+	static String newEventId(Event event) {
+		if (event.getFormSubmissionId() == null) {
+			return UUID.randomUUID().toString().replace("-", "");
+		}
+		byte[] key = (event.getBaseEntityId() + "|" + event.getFormSubmissionId()).getBytes(StandardCharsets.UTF_8);
+		return UUID.nameUUIDFromBytes(key).toString().replace("-", "");
 	}
 	
 	/**
@@ -158,7 +217,7 @@ public class EventService {
 	 * @param event
 	 * @return
 	 */
-	public synchronized Event processOutOfArea(Event event) {
+	public Event processOutOfArea(Event event) {
 		if (event.getBaseEntityId() == null || event.getBaseEntityId().isEmpty()) {
 			
 			//get events identifiers;
@@ -191,26 +250,60 @@ public class EventService {
 		return event;
 	}
 	
-	public synchronized Event addEvent(CouchDbConnector targetDb, Event event) {
+	public Event addEvent(CouchDbConnector targetDb, Event event) {
 		//		Event e = find(targetDb,event);
 		//		if(e != null){
 		//			throw new IllegalArgumentException("An event already exists with given list of identifiers. Consider updating data.["+e+"]");
 		//		}
-		if (event.getFormSubmissionId() != null
-		        && getByBaseEntityAndFormSubmissionId(targetDb, event.getBaseEntityId(), event.getFormSubmissionId()) != null) {
-			throw new IllegalArgumentException(
-			        "An event already exists with given baseEntity and formSubmission combination. Consider updating");
+		List<Lock> locks = lockWrites(Collections.singletonList(event));
+		try {
+			if (event.getFormSubmissionId() != null
+			        && getByBaseEntityAndFormSubmissionId(targetDb, event.getBaseEntityId(), event.getFormSubmissionId()) != null) {
+				throw new IllegalArgumentException(
+				        "An event already exists with given baseEntity and formSubmission combination. Consider updating");
+			}
+			
+			event.setDateCreated(new DateTime());
+			
+			allEvents.add(targetDb, event);
+			return event;
+		}
+		finally {
+			unlock(locks);
 		}
-		
-		event.setDateCreated(new DateTime());
-		
-		allEvents.add(targetDb, event);
-		return event;
 	}
 	
-	public synchronized Event addorUpdateEvent(Event event) {
+	/**
+	 * Update the event with the same document id or, failing that, the same baseEntityId and
+	 * formSubmissionId; add it if there is none.
+	 */
+	public Event addorUpdateEvent(Event event) {
+		List<Lock> locks = lockWrites(Collections.singletonList(event));
+		try {
+			for (int retry = 0;; retry++) {
+				try {
+					return writeEvent(event);
+				}
+				catch (UpdateConflictException e) {
+					// written by a batch since it was looked up, batches take no lock
+					if (retry == CONFLICT_RETRIES) {
+						throw e;
+					}
+				}
+			}
+		}
+		finally {
+			unlock(locks);
+		}
+	}
+	
+	private Event writeEvent(Event event) {
 		Event existingEvent = findById(event.getId());
+		if (existingEvent == null && event.getFormSubmissionId() != null) {
+			existingEvent = getByBaseEntityAndFormSubmissionId(event.getBaseEntityId(), event.getFormSubmissionId());
+		}
 		if (existingEvent != null) {
+			event.setId(existingEvent.getId());
 			event.setDateEdited(DateTime.now());
 			event.setServerVersion(null);
 			event.setRevision(existingEvent.getRevision());
@@ -218,13 +311,144 @@ public class EventService {
 			
 		} else {
 			event.setDateCreated(DateTime.now());
+			if (event.getId() == null || event.getId().isEmpty()) {
+				event.setId(newEventId(event));
+			}
+			event.setRevision(null);
 			allEvents.add(event);
-			
 		}
-		
 		return event;
 	}
 	
+	/**
+	 * Duplicate detection is done on the baseEntityId and formSubmissionId combination and on the
+	 * identifiers, so writes of events sharing any of them share a lock. The locks are taken in stripe
+	 * order, so writers of overlapping sets of events cannot deadlock.
+	 * 
+	 * @return the locks taken, to be passed to {@link #unlock(List)}
+	 */
+	private List<Lock> lockWrites(Collection<Event> events) {
+		Set<String> keys = new HashSet<String>();
+		for (Event event : events) {
+			keys.add(event.getBaseEntityId() + "|" + event.getFormSubmissionId());
+			for (String identifier : event.getIdentifiers().values()) {
+				keys.add("identifier|" + identifier);
+			}
+		}
+		List<Lock> locks = writeLocks.getAll(keys);
+		for (Lock lock : locks) {
+			lock.lock();
+		}
+		return locks;
+	}
+	
+	private void unlock(List<Lock> locks) {
+		for (int i = locks.size() - 1; i >= 0; i--) {
+			locks.get(i).unlock();
+		}
+	}
+	
+	/**
+	 * Batched variant of {@link #addorUpdateEvent(Event)}. Events that are not found by document id
+	 * are looked up by baseEntityId and formSubmissionId with one view request, the revisions of the
+	 * events that already exist are resolved with one _all_docs request and all events are written
+	 * with a single _bulk_docs request. Out of area events should be passed through
+	 * {@link #processOutOfArea(Event)} first.
+	 * <p>
+	 * No lock is held across these requests. An event written by someone else in the meantime makes
+	 * _bulk_docs reject it with a revision conflict, new events of a submission included as their ids
+	 * are derived from it; only those events are resolved and written again.
+	 * 
+	 * @param events
+	 * @return results for the events that could not be saved
+	 */
+	public List<DocumentOperationResult> addorUpdateEvents(List<Event> events) {
+		if (events.isEmpty()) {
+			return new ArrayList<DocumentOperationResult>();
+		}
+		Set<String> ids = new HashSet<String>();
+		for (Event event : events) {
+			if (event.getId() != null && !event.getId().isEmpty()) {
+				ids.add(event.getId());
+			}
+		}
+		Map<String, String> revisions = allEvents.findRevisions(ids);
+		
+		List<Event> notFound = new ArrayList<Event>();
+		for (Event event : events) {
+			if ((event.getId() == null || !revisions.containsKey(event.getId())) && event.getFormSubmissionId() != null) {
+				notFound.add(event);
+			}
+		}
+		Map<List<String>, String> idsBySubmission = allEvents.findIdsByBaseEntityAndFormSubmissionIds(notFound);
+		Set<String> existingIds = new HashSet<String>();
+		for (Event event : notFound) {
+			String existingId = idsBySubmission.get(Arrays.asList(event.getBaseEntityId(), event.getFormSubmissionId()));
+			if (existingId != null) {
+				event.setId(existingId);
+				existingIds.add(existingId);
+			}
+		}
+		revisions.putAll(allEvents.findRevisions(existingIds));
+		
+		for (Event event : events) {
+			if (event.getId() == null || event.getId().isEmpty()) {
+				event.setId(newEventId(event));
+			}
+		}
+		setRevisions(events, revisions);
+		List<DocumentOperationResult> failures = allEvents.bulkAddOrUpdate(events);
+		
+		for (int retry = 0; retry < CONFLICT_RETRIES; retry++) {
+			// the last event of the batch with an id is the one that was rejected if the batch had two
+			Map<String, Event> conflicting = new LinkedHashMap<String, Event>();
+			List<DocumentOperationResult> otherFailures = new ArrayList<DocumentOperationResult>();
+			for (DocumentOperationResult failure : failures) {
+				if ("conflict".equals(failure.getError())) {
+					conflicting.put(failure.getId(), null);
+				} else {
+					otherFailures.add(failure);
+				}
+			}
+			if (conflicting.isEmpty()) {
+				break;
+			}
+			for (Event event : events) {
+				if (conflicting.containsKey(event.getId())) {
+					conflicting.put(event.getId(), event);
+				}
+			}
+			List<Event> retried = new ArrayList<Event>();
+			for (Event event : conflicting.values()) {
+				if (event != null) {
+					retried.add(event);
+				}
+			}
+			setRevisions(retried, allEvents.findRevisions(conflicting.keySet()));
+			failures = otherFailures;
+			failures.addAll(allEvents.bulkAddOrUpdate(retried));
+		}
+		return failures;
+	}
+	
+	/**
+	 * Sets the events up as updates of the documents with the given revisions by id, or as new
+	 * documents if there is none.
+	 */
+	private void setRevisions(List<Event> events, Map<String, String> revisions) {
+		for (Event event : events) {
+			String revision = revisions.get(event.getId());
+			if (revision != null) {
+				event.setDateEdited(DateTime.now());
+				event.setServerVersion(null);
+				event.setRevision(revision);
+			} else {
+				event.setRevision(null);
+				event.setDateCreated(DateTime.now());
+			}
+		}
+	}
+	
 	public void updateEvent(Event updatedEvent) {
 		// If update is on original entity
 		if (updatedEvent.isNew()) {
@@ -232,13 +456,20 @@ public class EventService {
 			        "Event to be updated is not an existing and persisting domain object. Update database object instead of new pojo");
 		}
 		
-		updatedEvent.setDateEdited(DateTime.now());
-		
-		allEvents.update(updatedEvent);
+		List<Lock> locks = lockWrites(Collections.singletonList(updatedEvent));
+		try {
+			updatedEvent.setDateEdited(DateTime.now());
+			
+			allEvents.update(updatedEvent);
+		}
+		finally {
+			unlock(locks);
+		}
 	}
 	
 	//TODO Review and add test cases as well
 	public Event mergeEvent(Event updatedEvent) {
+		List<Lock> locks = lockWrites(Collections.singletonList(updatedEvent));
 		try {
 			Event original = find(updatedEvent);
 			if (original == null) {
@@ -287,14 +518,25 @@ public class EventService {
 		catch (JSONException e) {
 			throw new RuntimeException(e);
 		}
+		finally {
+			unlock(locks);
+		}
 	}
 	
 	public List<Event> findByServerVersion(long serverVersion) {
 		return allEvents.findByServerVersion(serverVersion);
 	}
 	
-	public List<Event> getAll() {
-		return allEvents.getAll();
+	public List<Event> findByServerVersion(long serverVersion, int limit) {
+		return allEvents.findByServerVersion(serverVersion, limit);
+	}
+	
+	public Iterator<Event> iterateByServerVersion(long serverVersion, int pageSize) {
+		return allEvents.iterateByServerVersion(serverVersion, pageSize);
+	}
+	
+	public Iterator<Event> iterateAll(int pageSize) {
+		return allEvents.iterateAll(pageSize);
 	}
 	
 	public List<Event> findEvents(String team, String teamId, String providerId, String locationId, Long serverVersion,
@@ -308,6 +550,109 @@ public class EventService {
 		    limit);
 	}
 	
+	/**
+	 * Same as {@link #findEvents(String, String, String, String, String, Long, String, String, int)}
+	 * read from the lucene index with the given consistency.
+	 */
+	public List<Event> findEvents(String team, String teamId, String providerId, String locationId, String baseEntityId,
+	                              Long serverVersion, String sortBy, String sortOrder, int limit,
+	                              Consistency consistency) {
+		return allEvents.findEvents(team, teamId, providerId, locationId, baseEntityId, serverVersion, sortBy, sortOrder,
+		    limit, 0, consistency);
+	}
+	
+	/**
+	 * Fetch the next page of events after a sync cursor. The cursor is the serverVersion and document
+	 * id of the last event the device received; events sharing that serverVersion are ordered by id
+	 * so no event is skipped or repeated when a page boundary falls inside a serverVersion. The index is
+	 * read with {@link Consistency#BOUNDED} staleness, so the page stops at the index's serverVersion
+	 * high-water mark rather than at events it has not caught up with.
+	 * 
+	 * @param serverVersion serverVersion of the last synced event, or null to start from the beginning
+	 * @param lastEventId document id of the last synced event, or null if only the serverVersion is known
+	 * @param limit maximum number of events to return
+	 * @return events ordered by serverVersion and id ascending
+	 */
+	public List<Event> findEventsAfter(String team, String teamId, String providerId, String locationId,
+	                                   String baseEntityId, Long serverVersion, String lastEventId, int limit) {
+		if (serverVersion == null || lastEventId == null) {
+			Long from = serverVersion == null ? null : serverVersion + 1;
+			return allEvents.findEvents(team, teamId, providerId, locationId, baseEntityId, from,
+			    BaseEntity.SERVER_VERSIOIN, "asc", limit, 0, Consistency.BOUNDED);
+		}
+		
+		// the events at the cursor's serverVersion the device already has are counted from the index alone
+		int skip = allEvents.countEventsUpTo(team, teamId, providerId, locationId, baseEntityId, serverVersion,
+		    lastEventId, Consistency.BOUNDED);
+		return allEvents.findEvents(team, teamId, providerId, locationId, baseEntityId, serverVersion,
+		    BaseEntity.SERVER_VERSIOIN, "asc", limit, skip, Consistency.BOUNDED);
+	}
+	
+	/**
+	 * Iterates over the same events as
+	 * {@link #findEventsAfter(String, String, String, String, String, Long, String, int)}, reading them
+	 * from the index a page at a time. Every page after the first is fetched after the serverVersion
+	 * and id of the last event read, so only one page is held in memory however large the limit is.
+	 * 
+	 * @param limit maximum number of events to iterate over
+	 * @param pageSize maximum number of events read from the index at a time
+	 */
+	public Iterator<Event> iterateEventsAfter(final String team, final String teamId, final String providerId,
+	                                          final String locationId, final String baseEntityId,
+	                                          final Long serverVersion, final String lastEventId, final int limit,
+	                                          final int pageSize) {
+		if (pageSize < 1) {
+			throw new IllegalArgumentException("Page size must be positive, was " + pageSize);
+		}
+		return new Iterator<Event>() {
+			
+			private Iterator<Event> page = Collections.<Event> emptyList().iterator();
+			
+			private Long cursorServerVersion = serverVersion;
+			
+			private String cursorId = lastEventId;
+			
+			private int remaining = limit;
+			
+			private boolean lastPage;
+			
+			@Override
+			public boolean hasNext() {
+				if (!page.hasNext() && !lastPage && remaining > 0) {
+					fetchNextPage();
+				}
+				return page.hasNext();
+			}
+			
+			@Override
+			public Event next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				return page.next();
+			}
+			
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+			
+			private void fetchNextPage() {
+				int size = Math.min(pageSize, remaining);
+				List<Event> events = findEventsAfter(team, teamId, providerId, locationId, baseEntityId,
+				    cursorServerVersion, cursorId, size);
+				lastPage = events.size() < size;
+				remaining -= events.size();
+				if (!events.isEmpty()) {
+					Event last = events.get(events.size() - 1);
+					cursorServerVersion = last.getServerVersion();
+					cursorId = last.getId();
+				}
+				page = events.iterator();
+			}
+		};
+	}
+	
 	public List<Event> findEventsByConceptAndValue(String concept, String conceptValue) {
 		return allEvents.findByConceptAndValue(concept, conceptValue);
 		
@@ -0,0 +1,246 @@
+package org.opensrp.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.ektorp.DocumentOperationResult;
+import org.joda.time.DateTime;
+import org.opensrp.common.util.DaemonThreadFactory;
+import org.opensrp.domain.Event;
+import org.opensrp.domain.IndicatorContribution;
+import org.opensrp.domain.Obs;
+import org.opensrp.repository.AllEvents;
+import org.opensrp.repository.AllIndicatorContributions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * Keeps the monthly aggregate indicators up to date as events come in. Every event is folded into an
+ * {@link IndicatorContribution} for its period and location once, when it is routed; the totals of
+ * a period are then read from a reduce view instead of walking all events of the month.
+ */
+@Service
+public class IndicatorAggregationService {
+
+	private static Logger logger = LoggerFactory.getLogger(IndicatorAggregationService.class.toString());
+
+	public static final String BIRTH_REGISTRATION = "birth_registration";
+
+	public static final String BIRTH_IN_HOME = "birth_in_home";
+
+	public static final String BIRTH_IN_HEALTH_FACILITY = "birth_in_health_facility";
+
+	public static final String BIRTH_UNDER_WEIGHT = "birth_under_weight";
+
+	/** vaccine doses counted from Vaccination events, each its own indicator */
+	public static final List<String> VACCINES = Arrays.asList("opv_0", "opv_1", "opv_2", "bcg", "pcv_1", "pcv_2",
+	    "penta_1", "penta_2", "rota_1", "rota_2");
+
+	private static final double UNDER_WEIGHT_KG = 3.5;
+
+	private final AllIndicatorContributions allIndicatorContributions;
+
+	private final AllEvents allEvents;
+
+	/** folds share the read lock, a rebuild takes the write lock so no fold runs while it does */
+	private final ReadWriteLock folding = new ReentrantReadWriteLock();
+
+	@Value("#{opensrp['indicators.replay.page.size']}")
+	int replayPageSize = 1000;
+
+	@Value("#{opensrp['indicators.replay.threads']}")
+	int replayThreads = 4;
+
+	@Autowired
+	public IndicatorAggregationService(AllIndicatorContributions allIndicatorContributions, AllEvents allEvents) {
+		this.allIndicatorContributions = allIndicatorContributions;
+		this.allEvents = allEvents;
+	}
+
+	/**
+	 * Fold a page of events into the indicator counters. An event whose current revision has already
+	 * been folded is left alone, one that changed replaces what its earlier revision contributed, so
+	 * folding the same events again never counts them twice. Waits while a {@link #rebuild()} is
+	 * running, so a page routed meanwhile is not folded into counters that are being thrown away.
+	 */
+	public void fold(List<Event> events) {
+		folding.readLock().lock();
+		try {
+			foldPage(events);
+		}
+		finally {
+			folding.readLock().unlock();
+		}
+	}
+
+	private void foldPage(List<Event> events) {
+		Map<String, IndicatorContribution> contributions = new HashMap<String, IndicatorContribution>();
+		for (Event event : events) {
+			if (event.getId() != null) {
+				contributions.put(event.getId(), contributionOf(event));
+			}
+		}
+		if (contributions.isEmpty()) {
+			return;
+		}
+
+		Map<String, IndicatorContribution> stored = allIndicatorContributions.findByEventIds(contributions.keySet());
+		List<IndicatorContribution> changed = new ArrayList<IndicatorContribution>();
+		for (IndicatorContribution contribution : contributions.values()) {
+			IndicatorContribution previous = stored.get(contribution.getEventId());
+			if (previous == null) {
+				if (!contribution.getCounts().isEmpty()) {
+					changed.add(contribution);
+				}
+			} else if (!Objects.equals(previous.getEventRevision(), contribution.getEventRevision())) {
+				contribution.setRevision(previous.getRevision());
+				changed.add(contribution);
+			}
+		}
+		if (changed.isEmpty()) {
+			return;
+		}
+		for (DocumentOperationResult failure : allIndicatorContributions.bulkAddOrUpdate(changed)) {
+			logger.warn("Indicator contribution of " + failure.getId() + " not saved: " + failure.getError() + " "
+			        + failure.getReason());
+		}
+	}
+
+	/**
+	 * @param period yyyyMM
+	 * @return count of each indicator in the period, indicators nobody contributed to are left out
+	 */
+	public Map<String, Integer> countsForPeriod(String period) {
+		return allIndicatorContributions.countsForPeriod(period);
+	}
+
+	/**
+	 * @return the period an event is counted in, yyyyMM of the time it was recorded
+	 */
+	public static String periodOf(long time) {
+		return new DateTime(time).toString("yyyyMM");
+	}
+
+	/**
+	 * Throw away all counters and fold every event again, <code>indicators.replay.threads</code>
+	 * pages at a time. For use after the indicator definitions change or the counters are suspect.
+	 * {@link #fold(List)} is paused until the rebuild is done.
+	 *
+	 * @return number of events folded
+	 */
+	public long rebuild() throws InterruptedException {
+		folding.writeLock().lock();
+		try {
+			return replay();
+		}
+		finally {
+			folding.writeLock().unlock();
+		}
+	}
+
+	private long replay() throws InterruptedException {
+		allIndicatorContributions.removeAll(replayPageSize);
+
+		ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, replayThreads),
+		    new DaemonThreadFactory("indicators-replay"));
+		// bounds the pages read ahead of the workers
+		final Semaphore pending = new Semaphore(Math.max(1, replayThreads) * 2);
+		List<Future<?>> results = new ArrayList<Future<?>>();
+		long folded = 0;
+		try {
+			Iterator<Event> events = allEvents.iterateAll(replayPageSize);
+			while (events.hasNext()) {
+				final List<Event> page = new ArrayList<Event>(replayPageSize);
+				while (page.size() < replayPageSize && events.hasNext()) {
+					page.add(events.next());
+				}
+				folded += page.size();
+				pending.acquire();
+				results.add(pool.submit(new Runnable() {
+
+					@Override
+					public void run() {
+						try {
+							foldPage(page);
+						}
+						finally {
+							pending.release();
+						}
+					}
+				}));
+			}
+			for (Future<?> result : results) {
+				try {
+					result.get();
+				}
+				catch (ExecutionException e) {
+					logger.error("", e.getCause());
+				}
+			}
+		}
+		finally {
+			pool.shutdown();
+		}
+		logger.info("Rebuilt indicator counters from " + folded + " events");
+		return folded;
+	}
+
+	IndicatorContribution contributionOf(Event event) {
+		IndicatorContribution contribution = new IndicatorContribution(event.getId(), event.getRevision(),
+		        periodOf(event.getVersion()), event.getLocationId());
+		if ("Birth Registration".equals(event.getEventType())) {
+			contribution.increment(BIRTH_REGISTRATION);
+			for (Obs obs : event.getObs()) {
+				if ("Place_Birth".equalsIgnoreCase(obs.getFormSubmissionField()) && obs.getHumanReadableValues() != null) {
+					for (Object value : obs.getHumanReadableValues()) {
+						if ("Health facility".equalsIgnoreCase(String.valueOf(value))) {
+							contribution.increment(BIRTH_IN_HEALTH_FACILITY);
+						} else if ("Home".equalsIgnoreCase(String.valueOf(value))) {
+							contribution.increment(BIRTH_IN_HOME);
+						}
+					}
+				}
+				if ("Birth_Weight".equalsIgnoreCase(obs.getFormSubmissionField()) && obs.getValues() != null) {
+					for (Object value : obs.getValues()) {
+						if (isUnderWeight(value)) {
+							contribution.increment(BIRTH_UNDER_WEIGHT);
+						}
+					}
+				}
+			}
+		} else if ("Vaccination".equals(event.getEventType())) {
+			for (Obs obs : event.getObs()) {
+				String field = obs.getFormSubmissionField();
+				if (field != null && VACCINES.contains(field.toLowerCase())) {
+					contribution.increment(field.toLowerCase());
+				}
+			}
+		}
+		return contribution;
+	}
+
+	private static boolean isUnderWeight(Object value) {
+		try {
+			return Double.parseDouble(String.valueOf(value)) < UNDER_WEIGHT_KG;
+		}
+		catch (NumberFormatException e) {
+			logger.debug("Birth_Weight is not a number: " + value);
+			return false;
+		}
+	}
+}
@@ -1,8 +1,25 @@
 package org.opensrp.service;
 
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
+import javax.imageio.ImageIO;
+
+import org.opensrp.common.util.DaemonThreadFactory;
 import org.opensrp.domain.Multimedia;
 import org.opensrp.dto.form.MultimediaDTO;
 import org.opensrp.repository.MultimediaRepository;
@@ -22,13 +39,26 @@ public class MultimediaService {
 
 	private static final String VIDEOS_DIR = "videos";
 
-	private final MultimediaRepository multimediaRepository;
+	/** resized copies of images are kept in images/variants/{size}/ */
+	private static final String IMAGE_VARIANTS_DIR = "variants";
 
-	private String multimediaDirPath;
+	/** longest side, in pixels, of the resized copies made of every uploaded image, smallest first */
+	public static final int[] IMAGE_VARIANT_SIZES = { 128, 512 };
+
+	private static final int COPY_BUFFER_SIZE = 8192;
+
+	private final MultimediaRepository multimediaRepository;
 
 	@Value("#{opensrp['multimedia.directory.name']}")
 	String baseMultimediaDirPath;
 
+	@Value("#{opensrp['multimedia.image.max.size.bytes']}")
+	long maxImageSizeBytes = 5 * 1024 * 1024;
+
+	/** images are resized off the request thread, devices get the upload's status without waiting */
+	private final ExecutorService imageResizer = Executors.newSingleThreadExecutor(new DaemonThreadFactory(
+	        "multimedia-image-resizer"));
+
 	@Autowired
 	public MultimediaService(MultimediaRepository multimediaRepository) {
 		this.multimediaRepository = multimediaRepository;
@@ -36,18 +66,16 @@ public class MultimediaService {
 
 	public String saveMultimediaFile(MultimediaDTO multimediaDTO, MultipartFile file) {
 
-		boolean uploadStatus = uploadFile(multimediaDTO, file);
+		String checksum = storeFile(multimediaDTO, file);
 
-		String[] multimediaDirPathSplit = multimediaDirPath.split("/", 3);
-		String multimediaDirPathDB = File.separator + multimediaDirPathSplit[2];
-
-		if (uploadStatus) {
+		if (checksum != null) {
 			try {
-				logger.info("Image path : " + multimediaDirPath);
+				logger.info("Image path : " + multimediaDTO.getFilePath());
 
 				Multimedia multimediaFile = new Multimedia().withCaseId(multimediaDTO.getCaseId())
 						.withProviderId(multimediaDTO.getProviderId()).withContentType(multimediaDTO.getContentType())
-						.withFilePath(multimediaDTO.getFilePath()).withFileCategory(multimediaDTO.getFileCategory());
+						.withFilePath(multimediaDTO.getFilePath()).withFileCategory(multimediaDTO.getFileCategory())
+						.withChecksum(checksum);
 
 				multimediaRepository.add(multimediaFile);
 
@@ -55,7 +83,7 @@ public class MultimediaService {
 
 			}
 			catch (Exception e) {
-				e.getMessage();
+				logger.error("", e);
 			}
 		}
 
@@ -64,70 +92,221 @@ public class MultimediaService {
 	}
 
 	public boolean uploadFile(MultimediaDTO multimediaDTO, MultipartFile multimediaFile) {
+		return storeFile(multimediaDTO, multimediaFile) != null;
+	}
 
-		// String baseMultimediaDirPath = System.getProperty("user.home");
+	/**
+	 * Streams the upload into a temporary file next to its destination, computing its checksum on the
+	 * way, and moves it into place once complete, so a device downloading the file never reads a
+	 * partly written one. Images larger than <code>multimedia.image.max.size.bytes</code> are
+	 * rejected; resized copies of accepted images are made in the background.
+	 *
+	 * @return hex SHA-256 of the stored file, or null if it was not stored
+	 */
+	private String storeFile(MultimediaDTO multimediaDTO, MultipartFile multimediaFile) {
+
+		if (multimediaFile.isEmpty()) {
+			return null;
+		}
 
-		if (!multimediaFile.isEmpty()) {
-			try {
+		if (multimediaDTO.getContentType() == null) {
+			logger.error("No content type for the file of " + multimediaDTO.getCaseId());
+			return null;
+		}
 
-				multimediaDirPath = baseMultimediaDirPath + File.separator;
-				String fileExt = ".jpg";
-				switch (multimediaDTO.getContentType()) {
-
-					case "application/octet-stream":
-						multimediaDirPath += VIDEOS_DIR;
-						fileExt = ".mp4";
-						break;
-
-					case "image/jpeg":
-						multimediaDirPath += IMAGES_DIR;
-						fileExt = ".jpg";
-						break;
-
-					case "image/gif":
-						multimediaDirPath += IMAGES_DIR;
-						fileExt = ".gif";
-						break;
-
-					case "image/png":
-						multimediaDirPath += IMAGES_DIR;
-						fileExt = ".png";
-						break;
-					default:
-						throw new IllegalArgumentException("Unknown content type : " + multimediaDTO.getContentType());
+		String multimediaDirPath = baseMultimediaDirPath + File.separator;
+		String fileExt = ".jpg";
+		boolean image = true;
+		switch (multimediaDTO.getContentType()) {
+
+			case "application/octet-stream":
+				multimediaDirPath += VIDEOS_DIR;
+				fileExt = ".mp4";
+				image = false;
+				break;
+
+			case "image/jpeg":
+				multimediaDirPath += IMAGES_DIR;
+				fileExt = ".jpg";
+				break;
+
+			case "image/gif":
+				multimediaDirPath += IMAGES_DIR;
+				fileExt = ".gif";
+				break;
+
+			case "image/png":
+				multimediaDirPath += IMAGES_DIR;
+				fileExt = ".png";
+				break;
+			default:
+				logger.error("Unknown content type : " + multimediaDTO.getContentType());
+				return null;
+		}
+
+		long maxSize = image ? maxImageSizeBytes : Long.MAX_VALUE;
+		if (multimediaFile.getSize() > maxSize) {
+			logger.info("Rejected " + multimediaFile.getSize() + " byte image of " + multimediaDTO.getCaseId()
+			        + ", the limit is " + maxSize);
+			return null;
+		}
+
+		Path temp = null;
+		try {
+			File multimediaDir = new File(multimediaDirPath);
+			multimediaDir.mkdirs();
+			Path target = new File(multimediaDir, multimediaDTO.getCaseId() + fileExt).toPath();
+			temp = Files.createTempFile(multimediaDir.toPath(), multimediaDTO.getCaseId(), ".part");
+
+			String checksum = copy(multimediaFile, temp, maxSize);
+			if (checksum == null) {
+				logger.info("Rejected image of " + multimediaDTO.getCaseId() + " larger than " + maxSize + " bytes");
+				return null;
+			}
+			Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+			multimediaDTO.withFilePath(target.toString());
+
+			if (image) {
+				deleteImageVariants(multimediaDTO.getCaseId());
+				resizeInBackground(target.toFile(), multimediaDTO.getCaseId());
+			}
+			return checksum;
+		}
+		catch (Exception e) {
+			logger.error("", e);
+			return null;
+		}
+		finally {
+			deleteQuietly(temp);
+		}
+	}
+
+	/**
+	 * @return hex SHA-256 of the bytes copied, or null if there were more than maxSize of them
+	 */
+	private String copy(MultipartFile multimediaFile, Path destination, long maxSize) throws IOException,
+	    NoSuchAlgorithmException {
+		MessageDigest digest = MessageDigest.getInstance("SHA-256");
+		byte[] buffer = new byte[COPY_BUFFER_SIZE];
+		long size = 0;
+		try (InputStream in = multimediaFile.getInputStream(); OutputStream out = Files.newOutputStream(destination)) {
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				size += read;
+				if (size > maxSize) {
+					return null;
 				}
-				new File(multimediaDirPath).mkdirs();
-				String fileName = multimediaDirPath + File.separator + multimediaDTO.getCaseId() + fileExt;
-				multimediaDTO.withFilePath(fileName);
-				File multimediaDir = new File(fileName);
+				digest.update(buffer, 0, read);
+				out.write(buffer, 0, read);
+			}
+		}
+		StringBuilder checksum = new StringBuilder();
+		for (byte b : digest.digest()) {
+			checksum.append(String.format("%02x", b));
+		}
+		return checksum.toString();
+	}
 
-				multimediaFile.transferTo(multimediaDir);
+	private void resizeInBackground(final File image, final String caseId) {
+		imageResizer.execute(new Runnable() {
 
-			/*
-			 byte[] bytes = multimediaFile.getBytes();
-			 	
-			 BufferedOutputStream stream = new BufferedOutputStream(
-						new FileOutputStream(multimediaDirPath));
-				stream.write(bytes);
-				stream.close();*/
+			@Override
+			public void run() {
+				try {
+					createImageVariants(image, caseId);
+				}
+				catch (Exception e) {
+					logger.error("Could not resize image of " + caseId, e);
+				}
+			}
+		});
+	}
 
-				return true;
+	/**
+	 * Writes a jpeg copy of the image scaled down to each of {@link #IMAGE_VARIANT_SIZES} it is
+	 * larger than, and deletes any copy of the client's earlier images at the other sizes. Resizes run
+	 * one at a time in upload order, so the copies left are always those of the latest image.
+	 */
+	void createImageVariants(File image, String caseId) throws IOException {
+		BufferedImage original = ImageIO.read(image);
+		if (original == null) {
+			logger.info("Not resizing " + image + ", its format is not supported");
+			return;
+		}
+		int longestSide = Math.max(original.getWidth(), original.getHeight());
+		for (int size : IMAGE_VARIANT_SIZES) {
+			if (size >= longestSide) {
+				deleteQuietly(variantFile(caseId, size).toPath());
+				continue;
+			}
+			int width = Math.max(1, original.getWidth() * size / longestSide);
+			int height = Math.max(1, original.getHeight() * size / longestSide);
+			BufferedImage variant = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+			Graphics2D graphics = variant.createGraphics();
+			try {
+				graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+				graphics.drawImage(original, 0, 0, width, height, Color.WHITE, null);
+			}
+			finally {
+				graphics.dispose();
+			}
 
+			File variantDir = variantDir(size);
+			variantDir.mkdirs();
+			Path temp = Files.createTempFile(variantDir.toPath(), caseId, ".part");
+			try {
+				ImageIO.write(variant, "jpg", temp.toFile());
+				Files.move(temp, variantFile(caseId, size).toPath(), StandardCopyOption.ATOMIC_MOVE);
 			}
-			catch (Exception e) {
-				logger.error("", e);
-				return false;
+			finally {
+				deleteQuietly(temp);
 			}
-		} else {
-			return false;
 		}
 	}
 
-	private void makeMultimediaDir(String dirPath) {
-		File file = new File(dirPath);
-		if (!file.exists())
-			file.mkdirs();
+	/**
+	 * @return the smallest resized copy of the client's profile image at least the given size, or
+	 *         null if there is none and the original should be sent
+	 */
+	public File findImageVariant(String caseId, int size) {
+		for (int variantSize : IMAGE_VARIANT_SIZES) {
+			if (variantSize >= size) {
+				File variant = variantFile(caseId, variantSize);
+				return variant.isFile() ? variant : null;
+			}
+		}
+		return null;
+	}
 
+	/**
+	 * Deletes the resized copies of the client's image, so a new upload is served as is until its own
+	 * copies are made
+	 */
+	private void deleteImageVariants(String caseId) {
+		for (int size : IMAGE_VARIANT_SIZES) {
+			deleteQuietly(variantFile(caseId, size).toPath());
+		}
+	}
+
+	private File variantFile(String caseId, int size) {
+		return new File(variantDir(size), caseId + ".jpg");
+	}
+
+	private File variantDir(int size) {
+		return new File(baseMultimediaDirPath + File.separator + IMAGES_DIR + File.separator + IMAGE_VARIANTS_DIR
+		        + File.separator + size);
+	}
+
+	private void deleteQuietly(Path path) {
+		if (path == null) {
+			return;
+		}
+		try {
+			Files.deleteIfExists(path);
+		}
+		catch (IOException e) {
+			logger.warn("Could not delete " + path, e);
+		}
 	}
 
 	public List<Multimedia> getMultimediaFiles(String providerId) {
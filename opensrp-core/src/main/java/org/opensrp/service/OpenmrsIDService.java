@@ -1,19 +1,15 @@
 package org.opensrp.service;
 
-import java.io.IOException;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 
-import org.apache.http.HttpResponse;
-import org.apache.http.client.HttpClient;
-import org.apache.http.client.methods.HttpGet;
-import org.apache.http.impl.client.HttpClientBuilder;
-import org.apache.http.util.EntityUtils;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.opensrp.common.util.HttpResponse;
+import org.opensrp.common.util.HttpUtil;
 import org.opensrp.domain.Client;
 import org.opensrp.domain.UniqueId;
 import org.opensrp.repository.UniqueIdRepository;
@@ -47,8 +43,6 @@ public class OpenmrsIDService {
 	
 	private static Logger logger = LoggerFactory.getLogger(OpenmrsIDService.class.toString());
 	
-	private HttpClient client;
-	
 	@Autowired
 	private UniqueIdRepository uniqueIdRepository;
 	
@@ -58,23 +52,17 @@ public class OpenmrsIDService {
 		return openmrsIDService;
 	}
 	
-	public OpenmrsIDService() {
-		this.client = HttpClientBuilder.create().build();
-	}
-	
 	public List<String> downloadOpenmrsIds(int size) {
 		List<String> ids = new ArrayList<String>();
 		String openmrsQueryUrl = this.openmrsUrl + OPENMRS_IDGEN_URL;
 		// Add query parameters
-		openmrsQueryUrl += "?source=" + this.openmrsSourceId + "&numberToGenerate=" + size;
-		openmrsQueryUrl += "&username=" + this.openmrsUserName + "&password=" + this.openmrsPassword;
+		String query = "source=" + this.openmrsSourceId + "&numberToGenerate=" + size;
+		query += "&username=" + this.openmrsUserName + "&password=" + this.openmrsPassword;
 		
-		HttpGet get = new HttpGet(openmrsQueryUrl);
 		try {
-			HttpResponse response = client.execute(get);
-			String jsonResponse = EntityUtils.toString(response.getEntity());
+			HttpResponse response = HttpUtil.get(openmrsQueryUrl, query);
 			
-			JSONObject responseJson = new JSONObject(jsonResponse);
+			JSONObject responseJson = new JSONObject(response.body());
 			JSONArray jsonArray = responseJson.getJSONArray("identifiers");
 			
 			if (jsonArray != null && jsonArray.length() > 0) {
@@ -83,7 +71,7 @@ public class OpenmrsIDService {
 				}
 			}
 		}
-		catch (IOException | JSONException e) {
+		catch (RuntimeException | JSONException e) {
 			logger.error("", e);
 			return null;
 		}
@@ -188,15 +176,13 @@ public class OpenmrsIDService {
 	    throws JSONException {
 		List<String> ids = new ArrayList<>();
 		String openMRSUrl = this.openmrsUrl + OPENMRS_IDGEN_URL;
-		openMRSUrl += "?source=" + this.openmrsSourceId + "&numberToGenerate=" + numberToGenerate;
-		openMRSUrl += "&username=" + userName + "&password=" + password;
+		String query = "source=" + this.openmrsSourceId + "&numberToGenerate=" + numberToGenerate;
+		query += "&username=" + userName + "&password=" + password;
 		
-		HttpGet get = new HttpGet(openMRSUrl);
 		try {
-			HttpResponse response = client.execute(get);
-			String jsonResponse = EntityUtils.toString(response.getEntity());
+			HttpResponse response = HttpUtil.get(openMRSUrl, query);
 			
-			JSONObject responseJson = new JSONObject(jsonResponse);
+			JSONObject responseJson = new JSONObject(response.body());
 			JSONArray jsonArray = responseJson.getJSONArray("identifiers");
 			
 			if (jsonArray != null && jsonArray.length() > 0) {
@@ -208,7 +194,7 @@ public class OpenmrsIDService {
 			return ids;
 			
 		}
-		catch (IOException | JSONException e) {
+		catch (RuntimeException | JSONException e) {
 			logger.error("", e);
 			return null;
 		}
@@ -1,21 +1,21 @@
 package org.opensrp.service;
 
+import java.io.IOException;
 import java.net.URI;
 import java.util.List;
 import java.util.Map;
 
 import com.google.gson.Gson;
-import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
-import org.apache.http.client.HttpClient;
+import org.apache.http.client.ResponseHandler;
 import org.apache.http.client.methods.HttpDelete;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.util.EntityUtils;
 import org.json.JSONArray;
 import org.json.JSONObject;
+import org.opensrp.common.util.HttpUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
@@ -31,7 +31,21 @@ public class RapidProServiceImpl implements RapidProService {
 
 	private static Logger logger = LoggerFactory.getLogger(RapidProServiceImpl.class.toString());
 
-	HttpClient client = HttpClientBuilder.create().build();
+	private static final ResponseHandler<String> RESPONSE_BODY = new ResponseHandler<String>() {
+
+		@Override
+		public String handleResponse(HttpResponse response) throws IOException {
+			return EntityUtils.toString(response.getEntity(), "UTF-8");
+		}
+	};
+
+	private static final ResponseHandler<Integer> STATUS_CODE = new ResponseHandler<Integer>() {
+
+		@Override
+		public Integer handleResponse(HttpResponse response) {
+			return response.getStatusLine().getStatusCode();
+		}
+	};
 
 	/**
 	 * urns - JSON array of URNs to send the message to (array of strings,
@@ -86,10 +100,7 @@ public class RapidProServiceImpl implements RapidProService {
 			StringEntity params = new StringEntity(jsonParams.toString());
 			post.setEntity(params);
 
-			HttpResponse response = client.execute(post);
-			HttpEntity entity = response.getEntity();
-			String responseString = EntityUtils.toString(entity, "UTF-8");
-			return responseString;
+			return HttpUtil.execute(post, RESPONSE_BODY);
 		} catch (Exception e) {
 			logger.error("", e);
 			return "Exception occurred";
@@ -139,10 +150,7 @@ public class RapidProServiceImpl implements RapidProService {
 			StringEntity params = new StringEntity(jsonParams.toString());
 			post.setEntity(params);
 			logger.info("Creating RapidPro contact for " + (fieldValues.containsKey("name")?fieldValues.get("name"):""));
-			HttpResponse response = client.execute(post);
-			HttpEntity entity = response.getEntity();
-			String responseString = EntityUtils.toString(entity, "UTF-8");
-			return responseString;
+			return HttpUtil.execute(post, RESPONSE_BODY);
 		} catch (Exception e) {
 			logger.error("", e);
 			return "Exception occurred";
@@ -198,10 +206,7 @@ public class RapidProServiceImpl implements RapidProService {
 
 			StringEntity params = new StringEntity(jsonParams.toString());
 			post.setEntity(params);
-			HttpResponse response = client.execute(post);
-			HttpEntity entity = response.getEntity();
-			String responseString = EntityUtils.toString(entity, "UTF-8");
-			return responseString;
+			return HttpUtil.execute(post, RESPONSE_BODY);
 		} catch (Exception e) {
 			logger.error("", e);
 			return "Exception occurred";
@@ -214,9 +219,7 @@ public class RapidProServiceImpl implements RapidProService {
 			HttpDelete delete = new HttpDelete();
 			String uri = rapidproUrl + "/api/v1/contacts.json?uuid=" + uuid;
 			delete = setDeleteAuthHeader(uri, delete);
-			HttpResponse response = client.execute(delete);
-			int status = response.getStatusLine().getStatusCode();
-			return status;
+			return HttpUtil.execute(delete, STATUS_CODE);
 
 		} catch (Exception e) {
 			logger.error("", e);
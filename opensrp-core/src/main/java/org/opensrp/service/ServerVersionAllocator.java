@@ -0,0 +1,108 @@
+package org.opensrp.service;
+
+import java.util.List;
+
+import org.ektorp.UpdateConflictException;
+import org.opensrp.common.AllConstants;
+import org.opensrp.domain.AppStateToken;
+import org.opensrp.repository.AllAppStateTokens;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+/**
+ * Hands out unique, increasing serverVersions for clients and events. The next free version is kept
+ * in the SERVER_VERSION_NEXT_AVAILABLE app state token and blocks are reserved by updating that token
+ * with its current CouchDB revision, so two server nodes can never get overlapping blocks; a node that
+ * loses the race re-reads the token and tries again. Versions never go below the current time in
+ * milliseconds so they stay ordered after the wall clock stamped versions already stored.
+ * <p>
+ * Single updates take their version from {@link #next()}, which hands out a block reserved for this
+ * node, so they do not each read and write the token shared by every node.
+ */
+@Service
+public class ServerVersionAllocator {
+	
+	private static Logger logger = LoggerFactory.getLogger(ServerVersionAllocator.class.toString());
+	
+	private static final int MAX_ATTEMPTS = 20;
+	
+	/** versions reserved at a time for {@link #next()} */
+	private static final int LOCAL_BLOCK_SIZE = 100;
+	
+	/**
+	 * longest {@link #next()} hands out versions of a block after reserving it; this has to stay well
+	 * within lucene.server.version.commit.margin.millis, which bounded reads allow for a reserved
+	 * version to be saved
+	 */
+	private static final long LOCAL_BLOCK_LEASE_MILLIS = 1000;
+	
+	private final AllAppStateTokens allAppStateTokens;
+	
+	/** the versions of the local block left to hand out, [nextLocal, endLocal) */
+	private long nextLocal;
+	
+	private long endLocal;
+	
+	private long localReservedAt;
+	
+	@Autowired
+	public ServerVersionAllocator(ConfigService configService, AllAppStateTokens allAppStateTokens) {
+		this.allAppStateTokens = allAppStateTokens;
+		configService.registerAppStateToken(AllConstants.Config.SERVER_VERSION_NEXT_AVAILABLE, 0,
+		    "Token to keep track of the next serverVersion available for stamping clients and events", true);
+	}
+	
+	/**
+	 * Reserve a block of consecutive serverVersions
+	 * 
+	 * @param count number of versions needed
+	 * @return the first version of the block; the block is [first, first + count)
+	 */
+	public synchronized long reserve(int count) {
+		if (count <= 0) {
+			throw new IllegalArgumentException("Number of versions to reserve must be positive");
+		}
+		String tokenName = AllConstants.Config.SERVER_VERSION_NEXT_AVAILABLE.name();
+		for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+			List<AppStateToken> tokens = allAppStateTokens.findByName(tokenName);
+			if (tokens.size() != 1) {
+				throw new IllegalStateException("Expected exactly one token with name (" + tokenName + ") but found "
+				        + tokens.size());
+			}
+			AppStateToken token = tokens.get(0);
+			long first = Math.max(token.longValue(), getCurrentMilliseconds());
+			token.setValue(first + count);
+			token.setLastEditDate(System.currentTimeMillis());
+			try {
+				allAppStateTokens.update(token);
+				return first;
+			}
+			catch (UpdateConflictException e) {
+				logger.debug("serverVersion block was reserved by another node, retrying");
+			}
+		}
+		throw new IllegalStateException("Could not reserve " + count + " serverVersions after " + MAX_ATTEMPTS
+		        + " attempts");
+	}
+	
+	/**
+	 * One serverVersion, from a block reserved for this node. What is left of a block once its lease
+	 * is over is dropped and a new block is reserved, so versions handed out are never much older than
+	 * their reservation; the gaps this leaves in the serverVersions are harmless.
+	 */
+	public synchronized long next() {
+		long now = getCurrentMilliseconds();
+		if (nextLocal >= endLocal || now - localReservedAt > LOCAL_BLOCK_LEASE_MILLIS) {
+			nextLocal = reserve(LOCAL_BLOCK_SIZE);
+			endLocal = nextLocal + LOCAL_BLOCK_SIZE;
+			localReservedAt = now;
+		}
+		return nextLocal++;
+	}
+	
+	public long getCurrentMilliseconds() {
+		return System.currentTimeMillis();
+	}
+}
@@ -3,16 +3,31 @@ package org.opensrp.service.formSubmission;
 import static java.text.MessageFormat.format;
 import static java.util.Collections.sort;
 import static org.apache.commons.lang.exception.ExceptionUtils.getFullStackTrace;
+import static org.opensrp.common.monitor.Metric.EVENTS_LISTENER_PAGE_TIME;
+import static org.opensrp.common.monitor.Metric.EVENTS_ROUTED;
+import static org.opensrp.common.monitor.Metric.EVENT_ROUTE_FAILURES;
+import static org.opensrp.common.monitor.Metric.EVENT_ROUTE_TIME;
 
 import java.text.MessageFormat;
+import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.locks.ReentrantLock;
 
+import javax.annotation.PreDestroy;
+
+import org.ektorp.DocumentOperationResult;
 import org.joda.time.DateTime;
 import org.motechproject.scheduler.domain.MotechEvent;
 import org.motechproject.server.event.annotations.MotechListener;
 import org.opensrp.common.AllConstants;
+import org.opensrp.common.monitor.Monitor;
+import org.opensrp.common.monitor.Probe;
+import org.opensrp.common.util.DaemonThreadFactory;
 import org.opensrp.domain.AppStateToken;
 import org.opensrp.domain.Client;
 import org.opensrp.domain.ErrorTrace;
@@ -23,10 +38,14 @@ import org.opensrp.repository.AllEvents;
 import org.opensrp.service.ConfigService;
 import org.opensrp.service.ErrorTraceService;
 import org.opensrp.service.EventService;
+import org.opensrp.service.IndicatorAggregationService;
+import org.opensrp.service.ServerVersionAllocator;
 import org.opensrp.service.formSubmission.handler.EventsRouter;
+import org.opensrp.util.ServerVersionPages;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 @Component
@@ -44,31 +63,55 @@ public class EventsListener {
 	private AllClients allClients;
 	@Autowired
 	EventService eventService;
+	@Autowired
+	IndicatorAggregationService indicatorAggregationService;
+	
+	private Monitor monitor;
 	
 	private EventsRouter eventsRouter;
 	
 	private ErrorTraceService errorTraceService;
 	
+	private ServerVersionAllocator serverVersionAllocator;
+	
+	private static final int DEFAULT_PAGE_SIZE = 1000;
+	
+	private static final int DEFAULT_WORKER_THREADS = 4;
+	
+	private int pageSize = DEFAULT_PAGE_SIZE;
+	
+	private ExecutorService[] partitions;
+	
 	@Autowired
 	public EventsListener(EventsRouter eventsRouter, ConfigService configService, AllEvents allEvents,
-	    ErrorTraceService errorTraceService) {
+	    ErrorTraceService errorTraceService, ServerVersionAllocator serverVersionAllocator, Monitor monitor,
+	    @Value("#{opensrp['events.parser.page.size']}") int pageSize,
+	    @Value("#{opensrp['events.parser.worker.threads']}") int workerThreads) {
+		this.pageSize = pageSize;
+		this.partitions = createPartitions(workerThreads);
 		this.configService = configService;
 		this.errorTraceService = errorTraceService;
 		this.eventsRouter = eventsRouter;
 		this.allEvents = allEvents;
+		this.serverVersionAllocator = serverVersionAllocator;
+		this.monitor = monitor;
 		this.configService.registerAppStateToken(AllConstants.Config.EVENTS_PARSER_LAST_PROCESSED_EVENT, 0,
 		    "Token to keep track of events processed for client n event parsing and schedule handling", true);
 	}
 
 
 	public EventsListener(EventsRouter eventsRouter, ConfigService configService, AllEvents allEvents, EventService eventService,
-						  ErrorTraceService errorTraceService, AllClients allClients) {
+						  ErrorTraceService errorTraceService, AllClients allClients, ServerVersionAllocator serverVersionAllocator,
+						  Monitor monitor) {
+		this.partitions = createPartitions(DEFAULT_WORKER_THREADS);
+		this.serverVersionAllocator = serverVersionAllocator;
 		this.configService = configService;
 		this.errorTraceService = errorTraceService;
 		this.eventsRouter = eventsRouter;
 		this.allEvents = allEvents;
 		this.eventService = eventService;
 		this.allClients = allClients;
+		this.monitor = monitor;
 		this.configService.registerAppStateToken(AllConstants.Config.EVENTS_PARSER_LAST_PROCESSED_EVENT, 0,
 				"Token to keep track of events processed for client n event parsing and schedule handling", true);
 	}
@@ -85,29 +128,28 @@ public class EventsListener {
 			logger.info("Fetching Events");
 			long version = getVersion();
 			
-			List<Event> events = allEvents.findByServerVersion(version);
-			
-			if (events.isEmpty()) {
+			ServerVersionPages<Event> pages = ServerVersionPages.of(allEvents.iterateByServerVersion(version, pageSize),
+			    pageSize, version);
+			if (!pages.hasNext()) {
 				logger.info("No new events found. Export token: " + version);
 				return;
 			}
 			
-			logger.info(format("Fetched {0} new events found. Export token: {1}", events.size(), version));
-			
-			sort(events, serverVersionComparator());
-			
-			for (Event event : events) {
-				try {
-					event=eventService.processOutOfArea(event);
-					eventsRouter.route(event);
-					configService.updateAppStateToken(AllConstants.Config.EVENTS_PARSER_LAST_PROCESSED_EVENT,
-					    event.getServerVersion());
-				}
-				catch (Exception e) {
-					e.printStackTrace();
-					errorTraceService
-					        .addError(new ErrorTrace(new DateTime(), "FormSubmissionProcessor", this.getClass().getName(),
-					                e.getStackTrace().toString(), "unsolved", FormSubmission.class.getName()));
+			while (pages.hasNext()) {
+				List<Event> events = pages.next();
+				long watermark = pages.checkpoint();
+				
+				logger.info(format("Fetched {0} new events found. Export token: {1}", events.size(), version));
+				
+				Probe probe = monitor.start(EVENTS_LISTENER_PAGE_TIME);
+				routeInParallel(events);
+				aggregateIndicators(events);
+				monitor.end(probe);
+				
+				// every event of the page is done, so nothing at or below the watermark is left behind
+				if (watermark != version) {
+					configService.updateAppStateToken(AllConstants.Config.EVENTS_PARSER_LAST_PROCESSED_EVENT, watermark);
+					version = watermark;
 				}
 			}
 		}
@@ -120,38 +162,123 @@ public class EventsListener {
 		}
 	}
 	
+	/**
+	 * Route a page of events on the worker pool. Events are partitioned by baseEntityId so that all
+	 * events of a client go to the same single threaded worker and keep their order, while different
+	 * clients are routed in parallel. Returns once every event of the page has been handled.
+	 */
+	private void routeInParallel(List<Event> events) throws InterruptedException {
+		sort(events, serverVersionComparator());
+		
+		List<Future<?>> results = new ArrayList<Future<?>>(events.size());
+		for (final Event event : events) {
+			results.add(partitionFor(event).submit(new Runnable() {
+				
+				@Override
+				public void run() {
+					routeEvent(event);
+				}
+			}));
+		}
+		for (Future<?> result : results) {
+			try {
+				result.get();
+			}
+			catch (ExecutionException e) {
+				logger.error("", e.getCause());
+			}
+		}
+	}
+	
+	/**
+	 * Fold the routed page into the aggregate indicators. A failure is only logged: the page has been
+	 * routed already, and the counters can be rebuilt from the events.
+	 */
+	private void aggregateIndicators(List<Event> events) {
+		if (indicatorAggregationService == null) {
+			return;
+		}
+		try {
+			indicatorAggregationService.fold(events);
+		}
+		catch (Exception e) {
+			logger.error("Could not aggregate indicators of " + events.size() + " events", e);
+		}
+	}
+	
+	private void routeEvent(Event event) {
+		Probe probe = monitor.start(EVENT_ROUTE_TIME);
+		try {
+			event = eventService.processOutOfArea(event);
+			eventsRouter.route(event);
+			monitor.increment(EVENTS_ROUTED);
+		}
+		catch (Exception e) {
+			monitor.increment(EVENT_ROUTE_FAILURES);
+			logger.error("", e);
+			errorTraceService.addError(new ErrorTrace(new DateTime(), "FormSubmissionProcessor", this.getClass().getName(),
+			        e.getStackTrace().toString(), "unsolved", FormSubmission.class.getName()));
+		}
+		finally {
+			monitor.end(probe);
+		}
+	}
+	
+	private ExecutorService partitionFor(Event event) {
+		String key = event.getBaseEntityId() == null ? "" : event.getBaseEntityId();
+		return partitions[(key.hashCode() & 0x7fffffff) % partitions.length];
+	}
+	
+	/**
+	 * Stop the routing workers when the application context is closed. Events of an interrupted page
+	 * are routed again on the next run, as the token has not moved past them.
+	 */
+	@PreDestroy
+	public void shutdown() {
+		for (ExecutorService partition : partitions) {
+			partition.shutdownNow();
+		}
+	}
+	
+	private static ExecutorService[] createPartitions(int workerThreads) {
+		ExecutorService[] partitions = new ExecutorService[Math.max(1, workerThreads)];
+		for (int i = 0; i < partitions.length; i++) {
+			partitions[i] = Executors.newSingleThreadExecutor(new DaemonThreadFactory("events-router"));
+		}
+		return partitions;
+	}
+	
+	/**
+	 * Stamp new clients and events with a serverVersion. Each page of documents without a version
+	 * gets a block of versions from the {@link ServerVersionAllocator} and is written back with one
+	 * bulk update.
+	 */
 	private void addServerVersion() {
 		try {
 			List<Client> clients = allClients.findByEmptyServerVersion();
 			while (clients != null && !clients.isEmpty()) {
+				long version = serverVersionAllocator.reserve(clients.size());
 				for (Client client : clients) {
-					try {
-						Thread.sleep(1);
-						client.setServerVersion(getCurrentMilliseconds());
-						allClients.update(client);
-						logger.debug("Add server_version: found new client " + client.getBaseEntityId());
-					}
-					catch (InterruptedException e) {
-						logger.error("", e);
-					}
+					client.setServerVersion(version++);
+					logger.debug("Add server_version: found new client " + client.getBaseEntityId());
+				}
+				if (!logFailures(allClients.bulkAddOrUpdate(clients), clients.size())) {
+					break;
 				}
 				clients = allClients.findByEmptyServerVersion();
 			}
 			
 			List<Event> events = allEvents.findByEmptyServerVersion();
 			while (events != null && !events.isEmpty()) {
-				for (Event event : events) {
-					try {
-						Thread.sleep(1);
-						event=eventService.processOutOfArea(event);
-						event.setServerVersion(getCurrentMilliseconds());
-						allEvents.update(event);
-						
-						logger.debug("Add server_version: found new event " + event.getBaseEntityId());
-					}
-					catch (InterruptedException e) {
-						logger.error("", e);
-					}
+				long version = serverVersionAllocator.reserve(events.size());
+				for (int i = 0; i < events.size(); i++) {
+					Event event = eventService.processOutOfArea(events.get(i));
+					event.setServerVersion(version++);
+					events.set(i, event);
+					logger.debug("Add server_version: found new event " + event.getBaseEntityId());
+				}
+				if (!logFailures(allEvents.bulkAddOrUpdate(events), events.size())) {
+					break;
 				}
 				
 				events = allEvents.findByEmptyServerVersion();
@@ -162,6 +289,18 @@ public class EventsListener {
 		}
 		
 	}
+	
+	/**
+	 * @return false if no document of the page could be stamped, so the caller should stop paging
+	 *         instead of fetching the same page again
+	 */
+	private boolean logFailures(List<DocumentOperationResult> failures, int pageSize) {
+		for (DocumentOperationResult failure : failures) {
+			logger.warn("Add server_version: failed for " + failure.getId() + " " + failure.getError() + " "
+			        + failure.getReason());
+		}
+		return failures.size() < pageSize;
+	}
 
 	public long getCurrentMilliseconds() {
 		return System.currentTimeMillis();
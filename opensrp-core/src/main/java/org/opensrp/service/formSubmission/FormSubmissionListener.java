@@ -1,19 +1,30 @@
 package org.opensrp.service.formSubmission;
 
 import static java.text.MessageFormat.format;
-import static java.util.Collections.sort;
 import static org.apache.commons.lang.exception.ExceptionUtils.getFullStackTrace;
+import static org.opensrp.common.monitor.Metric.FORM_SUBMISSIONS_PROCESSED;
+import static org.opensrp.common.monitor.Metric.FORM_SUBMISSION_FAILURES;
+import static org.opensrp.common.monitor.Metric.FORM_SUBMISSION_PROCESS_TIME;
 
 import java.text.MessageFormat;
-import java.util.Comparator;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.locks.ReentrantLock;
 
+import javax.annotation.PreDestroy;
+
 import org.joda.time.DateTime;
 import org.motechproject.scheduler.domain.MotechEvent;
 import org.motechproject.server.event.annotations.MotechListener;
 import org.opensrp.common.AllConstants;
+import org.opensrp.common.monitor.Monitor;
+import org.opensrp.common.monitor.Probe;
+import org.opensrp.common.util.DaemonThreadFactory;
 import org.opensrp.domain.AppStateToken;
 import org.opensrp.domain.ErrorTrace;
 import org.opensrp.dto.form.FormSubmissionDTO;
@@ -21,9 +32,11 @@ import org.opensrp.form.domain.FormSubmission;
 import org.opensrp.form.service.FormSubmissionService;
 import org.opensrp.service.ConfigService;
 import org.opensrp.service.ErrorTraceService;
+import org.opensrp.util.ServerVersionPages;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import com.google.gson.Gson;
@@ -38,13 +51,43 @@ public class FormSubmissionListener {
     private FormSubmissionProcessor fsp;
     private ErrorTraceService errorTraceService;
 
+    private static final int DEFAULT_PAGE_SIZE = 500;
+    private static final int DEFAULT_CHECKPOINT_COUNT = 100;
+    private static final long DEFAULT_CHECKPOINT_INTERVAL_MILLIS = 5000;
+    private int pageSize;
+    private int checkpointCount;
+    private long checkpointIntervalMillis;
+    private ExecutorService[] partitions;
+    private Monitor monitor;
+
+    public FormSubmissionListener(FormSubmissionService formSubmissionService, FormSubmissionProcessor fsp,
+    		ConfigService configService, ErrorTraceService errorTraceService, Monitor monitor) {
+        this(formSubmissionService, fsp, configService, errorTraceService, monitor, DEFAULT_PAGE_SIZE,
+                DEFAULT_CHECKPOINT_COUNT, DEFAULT_CHECKPOINT_INTERVAL_MILLIS, 1);
+    }
+
+    /**
+     * @param pageSize number of submissions fetched from CouchDB at a time
+     * @param checkpointCount the app state token is written after this many processed submissions
+     * @param checkpointIntervalMillis or after this many milliseconds, whichever comes first
+     * @param workerThreads submissions are processed on this many threads, partitioned by entityId; 1 processes them in order on the listener thread
+     */
     @Autowired
     public FormSubmissionListener(FormSubmissionService formSubmissionService, FormSubmissionProcessor fsp,
-    		ConfigService configService, ErrorTraceService errorTraceService) {
+    		ConfigService configService, ErrorTraceService errorTraceService, Monitor monitor,
+    		@Value("#{opensrp['form.parser.page.size']}") int pageSize,
+    		@Value("#{opensrp['form.parser.checkpoint.count']}") int checkpointCount,
+    		@Value("#{opensrp['form.parser.checkpoint.interval.millis']}") long checkpointIntervalMillis,
+    		@Value("#{opensrp['form.parser.worker.threads']}") int workerThreads) {
         this.formSubmissionService = formSubmissionService;
         this.configService = configService;
         this.errorTraceService = errorTraceService;
         this.fsp = fsp;
+        this.monitor = monitor;
+        this.pageSize = pageSize;
+        this.checkpointCount = checkpointCount;
+        this.checkpointIntervalMillis = checkpointIntervalMillis;
+        this.partitions = workerThreads > 1 ? createPartitions(workerThreads) : null;
 		this.configService.registerAppStateToken(AllConstants.Config.FORM_ENTITY_PARSER_LAST_SYNCED_FORM_SUBMISSION, 
 			0, "Token to keep track of forms processed for client n event parsing and schedule handling", true);
     }
@@ -66,31 +109,29 @@ public class FormSubmissionListener {
             logger.info("Fetching Forms");
             long version = getVersion();
 
-            List<FormSubmission> formSubmissions = formSubmissionService.getAllSubmissions(version, null);
-            if (formSubmissions.isEmpty()) {
+            ServerVersionPages<FormSubmission> pages = new ServerVersionPages<FormSubmission>(
+                    formSubmissionService.iterateByServerVersion(version, pageSize), pageSize, version) {
+                @Override
+                protected long serverVersionOf(FormSubmission submission) {
+                    return submission.serverVersion();
+                }
+            };
+            if (!pages.hasNext()) {
                 logger.info("No new forms found. Export token: " + version);
                 return;
             }
 
-            logger.info(format("Fetched {0} new forms found. Export token: {1}", formSubmissions.size(), version));
-            
-            sort(formSubmissions, serverVersionComparator());
-
-            for (FormSubmission submission : formSubmissions) {
-            	try{
-	            	logger.info(format("Invoking save for form with instance Id: {0} and for entity Id: {1}", submission.instanceId(), submission.entityId()));
-	
-	            	if(submission.getField("no_client_event") == null || submission.getField("no_client_event").contains("false")){
-		            	fsp.processFormSubmission(submission);
-	            	}
-	            	
-	            	configService.updateAppStateToken(AllConstants.Config.FORM_ENTITY_PARSER_LAST_SYNCED_FORM_SUBMISSION, submission.serverVersion());
-            	}
-            	catch(Exception e){
-            		e.printStackTrace();
-            		errorTraceService.addError(new ErrorTrace(DateTime.now(), "FormSubmissionProcessor", this.getClass().getName(), e.getStackTrace().toString(), "unsolved", FormSubmission.class.getName()));
-            	}
+            long started = System.currentTimeMillis();
+            int processed = 0;
+            while (pages.hasNext()) {
+                List<FormSubmission> formSubmissions = pages.next();
+                logger.info(format("Fetched {0} new forms found. Export token: {1}", formSubmissions.size(), version));
+
+                version = processPage(formSubmissions, version, pages.checkpoint());
+                processed += formSubmissions.size();
             }
+            logger.info(format("Processed {0} forms in {1} ms. Export token: {2}", processed,
+                    System.currentTimeMillis() - started, version));
         } catch (Exception e) {
             logger.error(MessageFormat.format("{0} occurred while trying to fetch forms. Message: {1} with stack trace {2}",
                     e.toString(), e.getMessage(), getFullStackTrace(e)));
@@ -99,18 +140,113 @@ public class FormSubmissionListener {
         }
     }
 
+    /**
+     * Process one page of submissions, ordered by serverVersion, and checkpoint the app state token
+     * every checkpointCount submissions or checkpointIntervalMillis, and at the end of the page. In
+     * serial mode each submission is processed right before it is counted towards the checkpoint; in
+     * parallel mode submissions are waited on in serverVersion order, so the token never passes a
+     * submission that is still being processed. Within the page the token only moves past a
+     * serverVersion once its last submission is done.
+     *
+     * @param pageCheckpoint how far the token may move once the whole page is done
+     * @return the token after the page
+     */
+    private long processPage(List<FormSubmission> formSubmissions, long version, long pageCheckpoint)
+            throws InterruptedException {
+        List<FutureTask<Void>> results = new ArrayList<FutureTask<Void>>(formSubmissions.size());
+        for (final FormSubmission submission : formSubmissions) {
+            FutureTask<Void> task = new FutureTask<Void>(new Runnable() {
+                @Override
+                public void run() {
+                    processSubmission(submission);
+                }
+            }, null);
+            if (partitions != null) {
+                partitionFor(submission).execute(task);
+            }
+            results.add(task);
+        }
+
+        long checkpointedVersion = version;
+        long lastCheckpoint = System.currentTimeMillis();
+        int sinceCheckpoint = 0;
+        for (int i = 0; i < results.size(); i++) {
+            if (partitions == null) {
+                results.get(i).run();
+            }
+            try {
+                results.get(i).get();
+            } catch (ExecutionException e) {
+                logger.error("", e.getCause());
+            }
+            sinceCheckpoint++;
+            long serverVersion = formSubmissions.get(i).serverVersion();
+            boolean lastOfServerVersion = i + 1 < results.size() && formSubmissions.get(i + 1).serverVersion() != serverVersion;
+            if (lastOfServerVersion && (sinceCheckpoint >= checkpointCount
+                    || System.currentTimeMillis() - lastCheckpoint >= checkpointIntervalMillis)) {
+                checkpoint(serverVersion);
+                checkpointedVersion = serverVersion;
+                lastCheckpoint = System.currentTimeMillis();
+                sinceCheckpoint = 0;
+            }
+        }
+        if (checkpointedVersion != pageCheckpoint) {
+            checkpoint(pageCheckpoint);
+        }
+        return pageCheckpoint;
+    }
+
+    private void processSubmission(FormSubmission submission) {
+        Probe probe = monitor.start(FORM_SUBMISSION_PROCESS_TIME);
+        try {
+            logger.info(format("Invoking save for form with instance Id: {0} and for entity Id: {1}", submission.instanceId(), submission.entityId()));
+
+            if (submission.getField("no_client_event") == null || submission.getField("no_client_event").contains("false")) {
+                fsp.processFormSubmission(submission);
+            }
+            monitor.increment(FORM_SUBMISSIONS_PROCESSED);
+        } catch (Exception e) {
+            monitor.increment(FORM_SUBMISSION_FAILURES);
+            e.printStackTrace();
+            errorTraceService.addError(new ErrorTrace(DateTime.now(), "FormSubmissionProcessor", this.getClass().getName(), e.getStackTrace().toString(), "unsolved", FormSubmission.class.getName()));
+        } finally {
+            monitor.end(probe);
+        }
+    }
+
+    private void checkpoint(long version) {
+        configService.updateAppStateToken(AllConstants.Config.FORM_ENTITY_PARSER_LAST_SYNCED_FORM_SUBMISSION, version);
+    }
+
+    private ExecutorService partitionFor(FormSubmission submission) {
+        String key = submission.entityId() == null ? "" : submission.entityId();
+        return partitions[(key.hashCode() & 0x7fffffff) % partitions.length];
+    }
+
+    /**
+     * Stop the parser workers when the application context is closed. Submissions of an interrupted
+     * page are processed again on the next run, as the token has not moved past them.
+     */
+    @PreDestroy
+    public void shutdown() {
+        if (partitions == null) {
+            return;
+        }
+        for (ExecutorService partition : partitions) {
+            partition.shutdownNow();
+        }
+    }
+
+    private static ExecutorService[] createPartitions(int workerThreads) {
+        ExecutorService[] partitions = new ExecutorService[workerThreads];
+        for (int i = 0; i < workerThreads; i++) {
+            partitions[i] = Executors.newSingleThreadExecutor(new DaemonThreadFactory("form-submission-parser"));
+        }
+        return partitions;
+    }
+
     private long getVersion() {
         AppStateToken token = configService.getAppStateTokenByName(AllConstants.Config.FORM_ENTITY_PARSER_LAST_SYNCED_FORM_SUBMISSION);
         return token==null?0L:token.longValue();
     }
-    
-    private Comparator<FormSubmission> serverVersionComparator() {
-        return new Comparator<FormSubmission>() {
-            public int compare(FormSubmission firstSubmission, FormSubmission secondSubmission) {
-                long firstTimestamp = firstSubmission.serverVersion();
-                long secondTimestamp = secondSubmission.serverVersion();
-                return firstTimestamp == secondTimestamp ? 0 : firstTimestamp < secondTimestamp ? -1 : 1;
-            }
-        };
-    }
 }
@@ -3,7 +3,13 @@ package org.opensrp.service.formSubmission.handler;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
 
 import org.apache.commons.io.FileUtils;
 import org.json.JSONArray;
@@ -44,7 +50,9 @@ public class EventsRouter {
 	
 	File scheduleConfigsFolder = null;
 	
-	Event event;
+	long reloadCheckIntervalMillis = 5000;
+	
+	private volatile RoutingTable routingTable = RoutingTable.EMPTY;
 
 	@Autowired
 	public EventsRouter(IHandlerMapper handlerMapper, @Value("#{opensrp['schedules.config.files.dir']}") String scheduleConfigFilesPath) {
@@ -53,26 +61,20 @@ public class EventsRouter {
 	}
 
 	/**
+	 * Hands the event to the handler of every schedule-config event whose types include the event's
+	 * type. Safe to call from many threads at once.
+	 * 
 	 * @param event
 	 */
-	public void route(Event _event) {
+	public void route(Event event) {
 		try {
-			event = _event;
 			if (scheduleConfigFilesPath != null && !scheduleConfigFilesPath.isEmpty()) {
-				
-				String schedulesStr = getScheduleConfigs();
-				
-				JSONArray schedulesJsonObject = new JSONArray("[" + schedulesStr + "]");
-				//iterate through concatenated schedule-configs files to retrieve the events and compare with the current event from the db
-				for (int i = 0; i < schedulesJsonObject.length(); i++) {
-					JSONObject scheduleJsonObject = schedulesJsonObject.getJSONObject(i);
-					String handler = scheduleJsonObject.has(JSON_KEY_HANDLER)?scheduleJsonObject.getString(JSON_KEY_HANDLER):"VaccinesScheduleHandler";
-					JSONArray eventsJsonArray = scheduleJsonObject.getJSONArray(JSON_KEY_EVENTS);
-					String scheduleName = scheduleJsonObject.getString(JSON_KEY_SCHEDULE_NAME);
-					processScheduleConfigEvents(eventsJsonArray, handler,scheduleName);
-					
+				for (Route route : getRoutingTable().routesFor(event.getEventType())) {
+					EventsHandler handler = handlerMapper.handlerMap().get(route.handler);
+					if (handler != null) {
+						handler.handle(event, route.scheduleConfigEvent, route.scheduleName);
+					}
 				}
-				
 			}
 		}
 		catch (IOException | JSONException e) {
@@ -82,28 +84,83 @@ public class EventsRouter {
 	}
 	
 	/**
-	 * This method iterates through 'events' defined in the schedule-configs to see if they match
-	 * the current event, if so get the handler and process the event
-	 * 
-	 * @param eventsJsonArray
-	 * @param handler
-	 * @throws JSONException
+	 * Returns the routing table compiled from the schedule-configs folder, recompiling it when a
+	 * file in the folder has been added, removed or modified. The folder is checked at most once
+	 * per reloadCheckIntervalMillis ms.
 	 */
-	private void processScheduleConfigEvents(JSONArray eventsJsonArray, String handler,String scheduleName) throws JSONException {
-		//iterate through the events in the scheduleconfigs to see if the current event (the one passed to this route method) has a schedule handler
-		for (int j = 0; j < eventsJsonArray.length(); j++) {
-			JSONObject scheduleConfigEvent = eventsJsonArray.getJSONObject(j);
-			JSONArray eventTypesJsonArray = scheduleConfigEvent.getJSONArray(JSON_KEY_TYPES);
-			List<String> eventsList = jsonArrayToList(eventTypesJsonArray);
+	private RoutingTable getRoutingTable() throws IOException, JSONException {
+		RoutingTable table = routingTable;
+		long now = System.currentTimeMillis();
+		if (now - table.checkedAt < reloadCheckIntervalMillis) {
+			return table;
+		}
+		synchronized (this) {
+			table = routingTable;
+			if (now - table.checkedAt < reloadCheckIntervalMillis) {
+				return table;
+			}
+			File[] scheduleFiles = getScheduleConfigFiles();
+			String signature = signatureOf(scheduleFiles);
+			if (signature.equals(table.signature)) {
+				table.checkedAt = now;
+				return table;
+			}
+			routingTable = compile(scheduleFiles, signature, now);
+			logger.info("Compiled schedule-configs routing table for event types " + routingTable.routes.keySet());
+			return routingTable;
+		}
+	}
+	
+	/**
+	 * This method merges all the files in the schedule-configs folder and indexes the 'events' of
+	 * every schedule by event type, keeping the order in which they appear in the files
+	 */
+	private RoutingTable compile(File[] scheduleFiles, String signature, long checkedAt) throws IOException, JSONException {
+		JSONArray schedulesJsonObject = new JSONArray("[" + getScheduleConfigs(scheduleFiles) + "]");
+		Map<String, List<Route>> routes = new HashMap<String, List<Route>>();
+		for (int i = 0; i < schedulesJsonObject.length(); i++) {
+			JSONObject scheduleJsonObject = schedulesJsonObject.getJSONObject(i);
+			String handler = scheduleJsonObject.has(JSON_KEY_HANDLER)?scheduleJsonObject.getString(JSON_KEY_HANDLER):"VaccinesScheduleHandler";
+			JSONArray eventsJsonArray = scheduleJsonObject.getJSONArray(JSON_KEY_EVENTS);
+			String scheduleName = scheduleJsonObject.getString(JSON_KEY_SCHEDULE_NAME);
 			
-			if (eventsList.contains(event.getEventType())) {
-				if (handlerMapper.handlerMap().get(handler) != null) {
-					handlerMapper.handlerMap().get(handler).handle(event, scheduleConfigEvent,scheduleName);
+			for (int j = 0; j < eventsJsonArray.length(); j++) {
+				JSONObject scheduleConfigEvent = eventsJsonArray.getJSONObject(j);
+				Route route = new Route(handler, scheduleName, scheduleConfigEvent);
+				for (String eventType : new LinkedHashSet<String>(jsonArrayToList(scheduleConfigEvent.getJSONArray(JSON_KEY_TYPES)))) {
+					List<Route> eventTypeRoutes = routes.get(eventType);
+					if (eventTypeRoutes == null) {
+						eventTypeRoutes = new ArrayList<Route>();
+						routes.put(eventType, eventTypeRoutes);
+					}
+					eventTypeRoutes.add(route);
 				}
-				
 			}
-			
 		}
+		for (Entry<String, List<Route>> eventTypeRoutes : routes.entrySet()) {
+			eventTypeRoutes.setValue(Collections.unmodifiableList(eventTypeRoutes.getValue()));
+		}
+		return new RoutingTable(Collections.unmodifiableMap(routes), signature, checkedAt);
+	}
+	
+	private File[] getScheduleConfigFiles() throws IOException {
+		if (scheduleConfigsFolder == null && loader.getResource(scheduleConfigFilesPath).exists())
+			scheduleConfigFilesPath = loader.getResource(scheduleConfigFilesPath).getURI().getPath();
+		scheduleConfigsFolder = new File(scheduleConfigFilesPath);
+		File[] scheduleFiles = scheduleConfigsFolder.listFiles();
+		if (scheduleFiles == null) {
+			throw new IOException("Unable to list schedule-configs folder " + scheduleConfigFilesPath);
+		}
+		Arrays.sort(scheduleFiles);
+		return scheduleFiles;
+	}
+	
+	private String signatureOf(File[] scheduleFiles) {
+		StringBuilder signature = new StringBuilder();
+		for (File file : scheduleFiles) {
+			signature.append(file.getName()).append(':').append(file.lastModified()).append(':').append(file.length()).append(';');
+		}
+		return signature.toString();
 	}
 	
 	/**
@@ -113,19 +170,17 @@ public class EventsRouter {
 	 * @return
 	 * @throws IOException
 	 */
-	private String getScheduleConfigs() throws IOException {
-		if (scheduleConfigsFolder == null && loader.getResource(scheduleConfigFilesPath).exists())
-			scheduleConfigFilesPath = loader.getResource(scheduleConfigFilesPath).getURI().getPath();
-		scheduleConfigsFolder = new File(scheduleConfigFilesPath);
-		String scheduleConfigMapping = "";
-		File[] scheduleFiles = scheduleConfigsFolder.listFiles();
+	private String getScheduleConfigs(File[] scheduleFiles) throws IOException {
+		StringBuilder scheduleConfigMapping = new StringBuilder();
 		for (int i = 0; i < scheduleFiles.length; i++) {
 			final File fileEntry = scheduleFiles[i];
 			String scheduleConfig = FileUtils.readFileToString(new File(fileEntry.getAbsolutePath()), "UTF-8");
-			scheduleConfigMapping += (i + 1 == scheduleFiles.length) ? scheduleConfig : scheduleConfig.concat(",");
-			
+			scheduleConfigMapping.append(scheduleConfig);
+			if (i + 1 < scheduleFiles.length) {
+				scheduleConfigMapping.append(",");
+			}
 		}
-		return scheduleConfigMapping;
+		return scheduleConfigMapping.toString();
 	}
 	
 	private List<String> jsonArrayToList(JSONArray jsonArray) throws JSONException {
@@ -139,6 +194,48 @@ public class EventsRouter {
 		}
 		return values;
 	}
-
-
+	
+	/**
+	 * A schedule-config event with the handler and schedule it belongs to
+	 */
+	private static class Route {
+		
+		private final String handler;
+		
+		private final String scheduleName;
+		
+		private final JSONObject scheduleConfigEvent;
+		
+		Route(String handler, String scheduleName, JSONObject scheduleConfigEvent) {
+			this.handler = handler;
+			this.scheduleName = scheduleName;
+			this.scheduleConfigEvent = scheduleConfigEvent;
+		}
+	}
+	
+	/**
+	 * Immutable map of event type to the routes of that type, compiled from the schedule-configs
+	 * files with the given signature
+	 */
+	private static class RoutingTable {
+		
+		private static final RoutingTable EMPTY = new RoutingTable(Collections.<String, List<Route>> emptyMap(), null, 0);
+		
+		private final Map<String, List<Route>> routes;
+		
+		private final String signature;
+		
+		private volatile long checkedAt;
+		
+		RoutingTable(Map<String, List<Route>> routes, String signature, long checkedAt) {
+			this.routes = routes;
+			this.signature = signature;
+			this.checkedAt = checkedAt;
+		}
+		
+		List<Route> routesFor(String eventType) {
+			List<Route> eventTypeRoutes = routes.get(eventType);
+			return eventTypeRoutes == null ? Collections.<Route> emptyList() : eventTypeRoutes;
+		}
+	}
 }
@@ -2,26 +2,46 @@ package org.opensrp.service.formSubmission.ziggy;
 
 import static java.text.MessageFormat.format;
 import static javax.script.ScriptContext.ENGINE_SCOPE;
+import static org.opensrp.common.monitor.Metric.ZIGGY_ENGINE_POOL_WAIT_TIME;
+import static org.opensrp.common.monitor.Metric.ZIGGY_FORM_SAVE_TIME;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.script.Bindings;
-import javax.script.Invocable;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptContext;
 import javax.script.ScriptEngine;
 import javax.script.ScriptEngineManager;
+import javax.script.ScriptException;
+import javax.script.SimpleScriptContext;
 
+import org.opensrp.common.monitor.Monitor;
+import org.opensrp.common.monitor.Probe;
 import org.opensrp.service.formSubmission.handler.FormSubmissionRouter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+/**
+ * Saves ziggy compliant form submissions through the ziggy FormDataController. The ziggy scripts
+ * are compiled once and evaluated into a fixed pool of script contexts; each save checks a context
+ * out of the pool, so up to pool size forms are saved concurrently.
+ */
 @Service
 public class ZiggyService {
     public static final String JAVA_SCRIPT = "JavaScript";
     private static Logger logger = LoggerFactory.getLogger(ZiggyService.class.toString());
-    private static final String SAVE_METHOD_NAME = "createOrUpdateEntity";
     private static final String JS_INIT_SCRIPT = "require([\"ziggy/FormDataController\"], function (FormDataController) {\n" +
             "    controller = FormDataController;\n" +
             "});";
+    private static final String PARAMS = "ziggyParams";
+    private static final String FORM_INSTANCE = "ziggyFormInstance";
+    private static final String JS_SAVE_SCRIPT = "controller.createOrUpdateEntity(" + PARAMS + ", " + FORM_INSTANCE + ");";
     private static final String ZIGGY_FILE_LOADER = "ziggyFileLoader";
     private static final String REPOSITORY = "formDataRepositoryContext";
     private static final String FORM_SUBMISSION_ROUTER = "formSubmissionRouter";
@@ -29,46 +49,109 @@ public class ZiggyService {
     private ZiggyFileLoader ziggyFileLoader;
     private ZiggyDataHandler ziggyDataHandler;
     private FormSubmissionRouter formSubmissionRouter;
-    private Object ziggyFormController;
-    private Invocable invocable;
+    private Monitor monitor;
+    private BlockingQueue<ZiggyContext> pool;
+    private int poolSize;
+    private final AtomicInteger waiting = new AtomicInteger();
+
+    public ZiggyService(ZiggyFileLoader ziggyFileLoader, ZiggyDataHandler ziggyDataHandler, FormSubmissionRouter formSubmissionRouter,
+                        Monitor monitor) throws Exception {
+        this(ziggyFileLoader, ziggyDataHandler, formSubmissionRouter, monitor, 1);
+    }
 
     @Autowired
-    public ZiggyService(ZiggyFileLoader ziggyFileLoader,ZiggyDataHandler ziggyDataHandler,FormSubmissionRouter formSubmissionRouter) throws Exception {
+    public ZiggyService(ZiggyFileLoader ziggyFileLoader, ZiggyDataHandler ziggyDataHandler, FormSubmissionRouter formSubmissionRouter,
+                        Monitor monitor, @Value("#{opensrp['ziggy.engine.pool.size']}") int poolSize) throws Exception {
         this.ziggyFileLoader = ziggyFileLoader;
         this.ziggyDataHandler = ziggyDataHandler;
         this.formSubmissionRouter = formSubmissionRouter;
-        initRhino();
+        this.monitor = monitor;
+        initRhino(Math.max(poolSize, 1));
     }
 
     public boolean isZiggyCompliant(String entityType) {
 		return ziggyDataHandler.isZiggyCompliant(entityType);
 	}
 
+    /**
+     * @throws IllegalStateException if interrupted while waiting for a script context; the form is not
+     *             saved and the thread's interrupt flag is set again
+     */
 	public void saveForm(String params, String formInstance) {
+        ZiggyContext context;
+        try {
+            context = checkout();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(format("Interrupted waiting for a ziggy engine, form not saved, with params: {0}.", params), e);
+        }
+        Probe probe = monitor.start(ZIGGY_FORM_SAVE_TIME);
         try {
-            invocable.invokeMethod(ziggyFormController, SAVE_METHOD_NAME, params, formInstance);
+            context.save(params, formInstance);
             logger.info(format("Saving form successful, with params: {0}.", params));
             logger.debug(format("Saving form successful, with params: {0}, with instance {1}.", params, formInstance));
         } catch (Exception e) {
         	e.printStackTrace();
             logger.error(format("Form save failed, with params: {0}, with instance {1}. Exception: {2}", params, formInstance, e));
+        } finally {
+            monitor.end(probe);
+            pool.offer(context);
         }
     }
 
-    private void initRhino() throws Exception {
-        ScriptEngineManager manager = new ScriptEngineManager();
-        ScriptEngine engine = manager.getEngineByName(JAVA_SCRIPT);
+    private ZiggyContext checkout() throws InterruptedException {
+        Probe probe = monitor.start(ZIGGY_ENGINE_POOL_WAIT_TIME);
+        waiting.incrementAndGet();
+        try {
+            return pool.take();
+        } finally {
+            waiting.decrementAndGet();
+            monitor.end(probe);
+        }
+    }
 
-        Bindings bindings = getBindings(engine);
-        engine.setBindings(bindings, ENGINE_SCOPE);
+    /**
+     * @return number of script contexts in the pool
+     */
+    public int getPoolSize() {
+        return poolSize;
+    }
 
-        String jsFiles = ziggyFileLoader.getJSFiles();
+    /**
+     * @return number of script contexts not saving a form right now
+     */
+    public int getIdleContexts() {
+        return pool.size();
+    }
 
-        engine.eval(jsFiles);
-        engine.eval(JS_INIT_SCRIPT);
+    /**
+     * @return number of saves waiting for a script context
+     */
+    public int getWaitingSaves() {
+        return waiting.get();
+    }
 
-        ziggyFormController = engine.get("controller");
-        invocable = (Invocable) engine;
+    private void initRhino(int poolSize) throws Exception {
+        ScriptEngineManager manager = new ScriptEngineManager();
+        ScriptEngine engine = manager.getEngineByName(JAVA_SCRIPT);
+        String jsFiles = ziggyFileLoader.getJSFiles();
+
+        this.poolSize = poolSize;
+        pool = new ArrayBlockingQueue<ZiggyContext>(poolSize);
+        if (engine instanceof Compilable) {
+            Compilable compiler = (Compilable) engine;
+            CompiledScript ziggy = compiler.compile(jsFiles);
+            CompiledScript init = compiler.compile(JS_INIT_SCRIPT);
+            CompiledScript save = compiler.compile(JS_SAVE_SCRIPT);
+            for (int i = 0; i < poolSize; i++) {
+                pool.add(new CompiledZiggyContext(engine, ziggy, init, save));
+            }
+        } else {
+            for (int i = 0; i < poolSize; i++) {
+                pool.add(new InterpretedZiggyContext(i == 0 ? engine : manager.getEngineByName(JAVA_SCRIPT), jsFiles));
+            }
+        }
+        logger.info(format("Initialized {0} ziggy script contexts, compiled: {1}.", poolSize, engine instanceof Compilable));
     }
 
     private Bindings getBindings(ScriptEngine engine) {
@@ -78,4 +161,63 @@ public class ZiggyService {
         bindings.put(FORM_SUBMISSION_ROUTER, formSubmissionRouter);
         return bindings;
     }
+
+    private interface ZiggyContext {
+        void save(String params, String formInstance) throws ScriptException;
+    }
+
+    /**
+     * A global scope of its own on the shared engine, populated by evaluating the compiled ziggy scripts.
+     */
+    private class CompiledZiggyContext implements ZiggyContext {
+        private final CompiledScript save;
+        private final ScriptContext context;
+
+        CompiledZiggyContext(ScriptEngine engine, CompiledScript ziggy, CompiledScript init, CompiledScript save) throws ScriptException {
+            this.save = save;
+            this.context = new SimpleScriptContext();
+            this.context.setBindings(getBindings(engine), ENGINE_SCOPE);
+            ziggy.eval(context);
+            init.eval(context);
+        }
+
+        @Override
+        public void save(String params, String formInstance) throws ScriptException {
+            Bindings bindings = context.getBindings(ENGINE_SCOPE);
+            bindings.put(PARAMS, params);
+            bindings.put(FORM_INSTANCE, formInstance);
+            try {
+                save.eval(context);
+            } finally {
+                bindings.remove(PARAMS);
+                bindings.remove(FORM_INSTANCE);
+            }
+        }
+    }
+
+    /**
+     * Fallback for engines that can not compile scripts: an engine of its own with the ziggy scripts evaluated into it.
+     */
+    private class InterpretedZiggyContext implements ZiggyContext {
+        private final ScriptEngine engine;
+
+        InterpretedZiggyContext(ScriptEngine engine, String jsFiles) throws ScriptException {
+            this.engine = engine;
+            engine.setBindings(getBindings(engine), ENGINE_SCOPE);
+            engine.eval(jsFiles);
+            engine.eval(JS_INIT_SCRIPT);
+        }
+
+        @Override
+        public void save(String params, String formInstance) throws ScriptException {
+            engine.put(PARAMS, params);
+            engine.put(FORM_INSTANCE, formInstance);
+            try {
+                engine.eval(JS_SAVE_SCRIPT);
+            } finally {
+                engine.getBindings(ENGINE_SCOPE).remove(PARAMS);
+                engine.getBindings(ENGINE_SCOPE).remove(FORM_INSTANCE);
+            }
+        }
+    }
 }
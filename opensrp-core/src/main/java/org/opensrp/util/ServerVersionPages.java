@@ -0,0 +1,100 @@
+package org.opensrp.util;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.opensrp.domain.BaseDataObject;
+
+/**
+ * Splits records read in serverVersion order into pages for the listeners that process them and
+ * keep a serverVersion token of how far they got. The records should come from a keyset paged
+ * iterator, which resumes each page at the last row read, so a page may end in the middle of a
+ * serverVersion and the next one picks up the rest of it.
+ * <p>
+ * {@link #checkpoint()} tells how far the token may move once the pages returned so far are
+ * processed: up to the last record of the page, unless the next record shares its serverVersion,
+ * then up to the serverVersion before it.
+ */
+public abstract class ServerVersionPages<T> implements Iterator<List<T>> {
+
+	private final Iterator<T> records;
+
+	private final int pageSize;
+
+	private T next;
+
+	private long checkpoint;
+
+	/**
+	 * @param records records with a serverVersion greater than the token, in serverVersion order
+	 * @param version the current token
+	 */
+	public ServerVersionPages(Iterator<T> records, int pageSize, long version) {
+		if (pageSize < 1) {
+			throw new IllegalArgumentException("Page size must be positive, was " + pageSize);
+		}
+		this.records = records;
+		this.pageSize = pageSize;
+		this.checkpoint = version;
+		this.next = records.hasNext() ? records.next() : null;
+	}
+
+	/**
+	 * Pages of clients or events
+	 */
+	public static <T extends BaseDataObject> ServerVersionPages<T> of(Iterator<T> records, int pageSize, long version) {
+		return new ServerVersionPages<T>(records, pageSize, version) {
+
+			@Override
+			protected long serverVersionOf(T record) {
+				return record.getServerVersion();
+			}
+		};
+	}
+
+	protected abstract long serverVersionOf(T record);
+
+	@Override
+	public boolean hasNext() {
+		return next != null;
+	}
+
+	@Override
+	public List<T> next() {
+		if (next == null) {
+			throw new NoSuchElementException();
+		}
+		List<T> page = new ArrayList<T>(pageSize);
+		while (next != null && page.size() < pageSize) {
+			page.add(next);
+			next = records.hasNext() ? records.next() : null;
+		}
+
+		long last = serverVersionOf(page.get(page.size() - 1));
+		if (next == null || serverVersionOf(next) != last) {
+			checkpoint = last;
+			return page;
+		}
+		for (int i = page.size() - 1; i >= 0; i--) {
+			if (serverVersionOf(page.get(i)) != last) {
+				checkpoint = serverVersionOf(page.get(i));
+				break;
+			}
+		}
+		return page;
+	}
+
+	/**
+	 * @return the serverVersion every record up to which is in the pages returned so far
+	 */
+	public long checkpoint() {
+		return checkpoint;
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+}
@@ -0,0 +1,63 @@
+package org.opensrp.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A fixed set of locks that keys are hashed onto. Work on the same key is serialized while work on
+ * unrelated keys mostly runs in parallel; two keys only contend when they land on the same stripe.
+ */
+public class StripedLock {
+	
+	private final Lock[] locks;
+	
+	public StripedLock(int stripes) {
+		if (stripes <= 0) {
+			throw new IllegalArgumentException("Number of stripes must be positive");
+		}
+		locks = new Lock[stripes];
+		for (int i = 0; i < stripes; i++) {
+			locks[i] = new ReentrantLock();
+		}
+	}
+	
+	/**
+	 * @param key the key to lock on, null keys all share one stripe
+	 * @return the lock guarding the given key
+	 */
+	public Lock get(Object key) {
+		return locks[stripe(key)];
+	}
+	
+	/**
+	 * @param keys the keys to lock on together
+	 * @return the locks guarding the given keys, each once and in stripe order; threads that lock
+	 *         them in this order cannot deadlock on overlapping sets of keys
+	 */
+	public List<Lock> getAll(Collection<?> keys) {
+		boolean[] stripes = new boolean[locks.length];
+		for (Object key : keys) {
+			stripes[stripe(key)] = true;
+		}
+		List<Lock> all = new ArrayList<Lock>();
+		for (int i = 0; i < stripes.length; i++) {
+			if (stripes[i]) {
+				all.add(locks[i]);
+			}
+		}
+		return all;
+	}
+	
+	private int stripe(Object key) {
+		int h = key == null ? 0 : key.hashCode();
+		h ^= (h >>> 16);
+		return (h & 0x7fffffff) % locks.length;
+	}
+	
+	public int size() {
+		return locks.length;
+	}
+}
@@ -0,0 +1,131 @@
+package org.opensrp.repository;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.ektorp.ComplexKey;
+import org.ektorp.CouchDbConnector;
+import org.ektorp.ViewQuery;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.opensrp.common.repository.KeysetPagedIterator;
+import org.opensrp.domain.Event;
+
+public class KeysetPagedIteratorTest {
+
+	private static final int SYNTHETIC_DOCS = 1000000;
+
+	@Mock
+	private CouchDbConnector db;
+
+	@Before
+	public void setUp() {
+		initMocks(this);
+	}
+
+	@Test
+	public void shouldIterateOverEveryDocumentResumingAtLastKeyAndDocId() {
+		when(db.queryView(any(ViewQuery.class), eq(Event.class))).thenAnswer(new SyntheticView(SYNTHETIC_DOCS));
+
+		Iterator<Event> events = iterator(1000);
+		int count = 0;
+		while (events.hasNext()) {
+			assertEquals(docId(count), events.next().getId());
+			count++;
+		}
+
+		assertEquals(SYNTHETIC_DOCS, count);
+		verify(db, times(SYNTHETIC_DOCS / 1000 + 1)).queryView(any(ViewQuery.class), eq(Event.class));
+	}
+
+	@Test
+	public void shouldNeverHoldMoreThanOnePageOfDocumentsDuringAFullScan() {
+		SyntheticView view = new SyntheticView(SYNTHETIC_DOCS);
+		when(db.queryView(any(ViewQuery.class), eq(Event.class))).thenAnswer(view);
+
+		Iterator<Event> events = iterator(1000);
+		int consumed = 0;
+		int mostHeld = 0;
+		while (events.hasNext()) {
+			events.next();
+			consumed++;
+			mostHeld = Math.max(mostHeld, view.built - consumed + 1);
+		}
+
+		assertEquals(SYNTHETIC_DOCS, consumed);
+		assertTrue("held " + mostHeld + " documents at once", mostHeld <= 1000);
+	}
+
+	@Test
+	public void shouldStopAfterPartialPage() {
+		when(db.queryView(any(ViewQuery.class), eq(Event.class))).thenAnswer(new SyntheticView(5));
+
+		Iterator<Event> events = iterator(2);
+		for (int i = 0; i < 5; i++) {
+			assertEquals(docId(i), events.next().getId());
+		}
+
+		assertFalse(events.hasNext());
+		verify(db, times(3)).queryView(any(ViewQuery.class), eq(Event.class));
+	}
+
+	private Iterator<Event> iterator(int pageSize) {
+		return new KeysetPagedIterator<Event>(db, new ViewQuery().designDocId("_design/Event").viewName("events_by_version"),
+		        Event.class, pageSize) {
+
+			@Override
+			protected Object keyOf(Event event) {
+				return ComplexKey.of(event.getServerVersion());
+			}
+		};
+	}
+
+	private static String docId(int i) {
+		return String.format("%07d", i);
+	}
+
+	/**
+	 * A view over synthetic events ordered by serverVersion and id, three events per serverVersion, that
+	 * only builds the rows of the page asked for.
+	 */
+	private static class SyntheticView implements Answer<List<Event>> {
+
+		private final int size;
+
+		/** Number of documents built for the pages fetched so far */
+		int built;
+
+		SyntheticView(int size) {
+			this.size = size;
+		}
+
+		@Override
+		public List<Event> answer(InvocationOnMock invocation) {
+			ViewQuery query = (ViewQuery) invocation.getArguments()[0];
+			int from = query.getStartDocId() == null ? 0 : Integer.parseInt(query.getStartDocId()) + query.getSkip();
+			List<Event> page = new ArrayList<Event>();
+			for (int i = from; i < size && page.size() < query.getLimit(); i++) {
+				Event event = new Event();
+				event.setId(docId(i));
+				event.setServerVersion((long) i / 3);
+				page.add(event);
+			}
+			built += page.size();
+			return page;
+		}
+	}
+}
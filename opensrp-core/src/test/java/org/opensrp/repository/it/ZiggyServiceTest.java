@@ -1,17 +1,27 @@
 package org.opensrp.repository.it;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.mockito.MockitoAnnotations.initMocks;
 
 import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mock;
+import org.opensrp.common.monitor.Metric;
+import org.opensrp.common.monitor.Monitor;
 import org.opensrp.form.domain.FormSubmission;
 import org.opensrp.form.service.FormSubmissionService;
 import org.opensrp.service.formSubmission.handler.CustomFormSubmissionHandler;
@@ -57,6 +67,9 @@ public class ZiggyServiceTest extends TestResourceLoader{
     @Mock
 	private HandlerMapper handlerMapper;
 
+    @Mock
+    private Monitor monitor;
+
     @Before
     public void setUp() throws Exception {
         initMocks(this);
@@ -85,9 +98,53 @@ public class ZiggyServiceTest extends TestResourceLoader{
 				});
         
         ZiggyService service = new ZiggyService(ziggyFileLoader, ziggyDataHandler,
-                new FormSubmissionRouter(formSubmissionService, handlerMapper)
+                new FormSubmissionRouter(formSubmissionService, handlerMapper), monitor
         );
 
         service.saveForm(params, formInstance);
     }
+
+    @Test
+    public void shouldSaveFormsConcurrentlyThroughEnginePool() throws Exception {
+        final String params = "{\"instanceId\":\"88c0e824-10b4-44c2-9429-754b8d823776\", \"anmId\":\"demotest\", \"entityId\":\"a3f2abf4-2699-4761-819a-cea739224164\",\"formName\":\"new_household_registration\",\"clientVersion\":\"1430997074596\", \"serverVersion\": \"1430998001293\"}";
+        FormSubmission fs = getFormSubmissionFor("new_household_registration",1);
+        final String formInstance = new Gson().toJson(fs.instance());
+
+        when(formSubmissionService.findByInstanceId("88c0e824-10b4-44c2-9429-754b8d823776")).thenReturn(fs);
+        when(ziggyDataHandler.saveEntity(eq("household"), any(String.class))).thenReturn("a3f2abf4-2699-4761-819a-cea739224164");
+
+        final ZiggyService service = new ZiggyService(ziggyFileLoader, ziggyDataHandler,
+                new FormSubmissionRouter(formSubmissionService, new HandlerMapper()), monitor, 2);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        for (int i = 0; i < 4; i++) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    service.saveForm(params, formInstance);
+                }
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(1, TimeUnit.MINUTES));
+
+        verify(ziggyDataHandler, times(4)).saveEntity(eq("household"), any(String.class));
+        verify(monitor, times(4)).start(Metric.ZIGGY_ENGINE_POOL_WAIT_TIME);
+        verify(monitor, times(4)).start(Metric.ZIGGY_FORM_SAVE_TIME);
+    }
+
+    @Test
+    public void shouldFailSaveAndKeepInterruptWhenInterruptedWaitingForEngine() throws Exception {
+        ZiggyService service = new ZiggyService(ziggyFileLoader, ziggyDataHandler,
+                new FormSubmissionRouter(formSubmissionService, new HandlerMapper()), monitor);
+
+        Thread.currentThread().interrupt();
+        try {
+            service.saveForm("{}", "{}");
+            fail("Expected the interrupted save to fail");
+        } catch (IllegalStateException e) {
+            assertTrue(Thread.interrupted());
+        }
+        verify(ziggyDataHandler, never()).saveEntity(any(String.class), any(String.class));
+    }
 }
@@ -0,0 +1,111 @@
+package org.opensrp.repository.lucene;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Collections;
+
+import org.ektorp.CouchDbConnector;
+import org.ektorp.impl.StdCouchDbInstance;
+import org.junit.Before;
+import org.junit.Test;
+import org.opensrp.common.AllConstants;
+import org.opensrp.common.monitor.Monitor;
+import org.opensrp.domain.AppStateToken;
+import org.opensrp.repository.AllAppStateTokens;
+import org.opensrp.repository.lucene.LuceneDbConnector.IndexRead;
+
+import com.github.ldriscoll.ektorplucene.LuceneQuery;
+import com.github.ldriscoll.ektorplucene.LuceneResult;
+
+public class LuceneDbConnectorTest {
+
+	private static final String TOKEN = AllConstants.Config.SERVER_VERSION_NEXT_AVAILABLE.name();
+
+	private LuceneDbConnector ldb;
+
+	private AllAppStateTokens allAppStateTokens;
+
+	@Before
+	public void setUp() throws Exception {
+		allAppStateTokens = mock(AllAppStateTokens.class);
+		token(0, 0);
+		ldb = spy(new LuceneDbConnector(mock(CouchDbConnector.class), mock(StdCouchDbInstance.class), allAppStateTokens,
+		        new Monitor()));
+		doReturn(mock(LuceneResult.class)).when(ldb).queryLucene(any(LuceneQuery.class));
+		ldb.boundedStalenessSeconds = 60;
+		ldb.serverVersionCommitMarginMillis = 5000;
+	}
+
+	@Test
+	public void shouldNeverReadStaleForStrongConsistency() throws Exception {
+		LuceneQuery query = new LuceneQuery("Event", "by_all_criteria_v3");
+		ldb.queryLucene(query, "Event", "by_all_criteria_v3", Consistency.STRONG);
+
+		IndexRead read = ldb.read("Event", "by_all_criteria_v3", Consistency.STRONG);
+		assertFalse(read.isStaleOk());
+		assertEquals(Long.MAX_VALUE, read.getHighWaterMark());
+		verify(ldb).queryLucene(query);
+	}
+
+	@Test
+	public void shouldReadStaleWithinBoundAfterIndexWasUpdated() throws Exception {
+		long before = System.currentTimeMillis();
+		IndexRead first = ldb.read("Event", "by_all_criteria_v3", Consistency.BOUNDED);
+		assertFalse(first.isStaleOk());
+		ldb.queryLucene(new LuceneQuery("Event", "by_all_criteria_v3"), first);
+
+		IndexRead next = ldb.read("Event", "by_all_criteria_v3", Consistency.BOUNDED);
+		assertTrue(next.isStaleOk());
+		assertEquals(first.getHighWaterMark(), next.getHighWaterMark());
+		assertTrue(next.getHighWaterMark() >= before - 5000);
+		assertTrue(next.getHighWaterMark() <= System.currentTimeMillis() - 5000);
+
+		assertFalse(ldb.read("Client", "by_all_criteria", Consistency.BOUNDED).isStaleOk());
+	}
+
+	@Test
+	public void shouldTakeHighWaterMarkFromServerVersionTokenAheadOfClock() throws Exception {
+		long ahead = System.currentTimeMillis() + 3600000;
+		token(ahead, 0);
+
+		IndexRead first = ldb.read("Event", "by_all_criteria_v3", Consistency.BOUNDED);
+		ldb.queryLucene(new LuceneQuery("Event", "by_all_criteria_v3"), first);
+
+		assertEquals(ahead - 1, first.getHighWaterMark());
+		assertEquals(ahead - 1, ldb.read("Event", "by_all_criteria_v3", Consistency.BOUNDED).getHighWaterMark());
+	}
+
+	@Test
+	public void shouldTakeHighWaterMarkFromTokenReadBeforeMarginWhileItIsBeingMoved() throws Exception {
+		ldb.serverVersionCommitMarginMillis = 0;
+		long ahead = System.currentTimeMillis() + 3600000;
+		token(ahead, 0);
+		ldb.committedServerVersion(System.currentTimeMillis());
+
+		token(ahead + 1000, Long.MAX_VALUE);
+
+		assertEquals(ahead - 1, ldb.committedServerVersion(System.currentTimeMillis()));
+	}
+
+	@Test
+	public void shouldUpdateIndexAgainOnceBoundIsExceeded() throws Exception {
+		ldb.queryLucene(new LuceneQuery("Event", "by_all_criteria_v3"), "Event", "by_all_criteria_v3", Consistency.BOUNDED);
+		ldb.boundedStalenessSeconds = -1;
+
+		assertFalse(ldb.read("Event", "by_all_criteria_v3", Consistency.BOUNDED).isStaleOk());
+		assertTrue(ldb.read("Event", "by_all_criteria_v3", Consistency.EVENTUAL).isStaleOk());
+	}
+
+	private void token(long value, long lastEditDate) {
+		when(allAppStateTokens.findByName(TOKEN)).thenReturn(
+		    Collections.singletonList(new AppStateToken(TOKEN, value, lastEditDate)));
+	}
+}
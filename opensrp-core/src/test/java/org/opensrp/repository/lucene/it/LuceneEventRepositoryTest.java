@@ -215,6 +215,54 @@ public class LuceneEventRepositoryTest extends BaseIntegrationTest {
 
 	}
 
+	@Test
+	public void shouldFindByNumericServerVersionRangeInServerVersionOrder() {
+		addRandomInvalidEvents();
+		Event event5 = eventWithServerVersion("event-5", 5l);
+		Event event10 = eventWithServerVersion("event-10", 10l);
+		Event event100 = eventWithServerVersion("event-100", 100l);
+		addObjectToRepository(asList(event100, event5, event10), allEvents);
+
+		List<Event> actualEvents = luceneEventRepository
+				.getByCriteria(null, null, PROVIDER_ID, null, null, 10l, "serverVersion", "asc", 100);
+
+		assertEquals(asList(event10, event100), actualEvents);
+	}
+
+	@Test
+	public void shouldFindEventsWithServerVersionZero() {
+		Event event0 = eventWithServerVersion("event-0", 0l);
+		Event event5 = eventWithServerVersion("event-5", 5l);
+		addObjectToRepository(asList(event5, event0), allEvents);
+
+		List<Event> actualEvents = luceneEventRepository
+				.getByCriteria(null, null, PROVIDER_ID, null, null, 0l, "serverVersion", "asc", 100);
+
+		assertEquals(asList(event0, event5), actualEvents);
+	}
+
+	@Test
+	public void shouldCountEventsUpToSyncCursorFromIndex() {
+		Event first = eventWithServerVersion("a", 10l);
+		Event second = eventWithServerVersion("b", 10l);
+		Event third = eventWithServerVersion("c", 10l);
+		addObjectToRepository(asList(first, second, third, eventWithServerVersion("d", 11l)), allEvents);
+
+		assertEquals(2, luceneEventRepository.countUpTo(null, null, PROVIDER_ID, null, null, 10l, "b"));
+		assertEquals(0, luceneEventRepository.countUpTo(null, null, PROVIDER_ID, null, null, 9l, "b"));
+	}
+
+	private Event eventWithServerVersion(String id, long serverVersion) {
+		Event event = new Event();
+		event.setId(id);
+		event.setBaseEntityId(BASE_ENTITY_ID);
+		event.setDateCreated(EPOCH_DATE_TIME);
+		event.setEventType(EVENT_TYPE);
+		event.setProviderId(PROVIDER_ID);
+		event.setServerVersion(serverVersion);
+		return event;
+	}
+
 	private void addRandomInvalidEvents() {
 		for (int i = 0; i < 100; i++) {
 			Event event = new Event();
@@ -14,11 +14,13 @@ import java.util.List;
 
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.motechproject.scheduler.domain.MotechEvent;
 import org.opensrp.common.AllConstants;
 import org.opensrp.common.AllConstants.Config;
 import org.opensrp.common.AllConstants.OpenSRPEvent;
+import org.opensrp.common.monitor.Monitor;
 import org.opensrp.domain.AppStateToken;
 import org.opensrp.dto.form.FormSubmissionDTO;
 import org.opensrp.form.domain.FormData;
@@ -49,7 +51,7 @@ public class FormEventListenerTest {
     @Before
     public void setUp() throws Exception {
         initMocks(this);
-        listener = new FormSubmissionListener(formSubmissionService, fsp, configService, errorTraceService);
+        listener = new FormSubmissionListener(formSubmissionService, fsp, configService, errorTraceService, new Monitor(), new Monitor());
     }
 
     @Test
@@ -64,28 +66,118 @@ public class FormEventListenerTest {
 
     @Test
     public void shouldFetchFormSubmissionsFromSubmissionService() throws Exception {
-    	FormSubmission fs1 = new FormSubmission("anm id 1", "instance id 1", "form name", "entity id 1", "1.0", 0L, new FormInstance(new FormData("test","def/bindpath", new ArrayList<FormField>(), null))),
-        fs2 = new FormSubmission("anm id 2", "instance id 2", "form name", "entity id 2", "1.0", 0L, new FormInstance(new FormData("test","def/bindpath", new ArrayList<FormField>(), null)));
+    	FormSubmission fs1 = formSubmission("instance id 1", "entity id 1", 2L),
+        fs2 = formSubmission("instance id 2", "entity id 2", 3L);
         List<FormSubmission> formSubmissions = asList(fs1,fs2);
         when(configService.getAppStateTokenByName(Config.FORM_ENTITY_PARSER_LAST_SYNCED_FORM_SUBMISSION)).thenReturn(new AppStateToken("token", 1L, 0));
-        when(formSubmissionService.getAllSubmissions(1L, null)).thenReturn(formSubmissions);
+        when(formSubmissionService.iterateByServerVersion(1L, 500)).thenReturn(formSubmissions.iterator());
 
         listener.parseForms(new MotechEvent("SUBJECT", null));
 
         verify(fsp).processFormSubmission(fs1);
         verify(fsp).processFormSubmission(fs2);
-        verify(configService, atLeast(2)).updateAppStateToken(eq(Config.FORM_ENTITY_PARSER_LAST_SYNCED_FORM_SUBMISSION), any(Long.class));
+        verify(configService).updateAppStateToken(Config.FORM_ENTITY_PARSER_LAST_SYNCED_FORM_SUBMISSION, 3L);
         verifyNoMoreInteractions(fsp);
     }
 
+    @Test
+    public void shouldFetchFormSubmissionsInPagesAndCheckpointEveryNSubmissions() throws Exception {
+        listener = new FormSubmissionListener(formSubmissionService, fsp, configService, errorTraceService, new Monitor(), 3, 2, Long.MAX_VALUE, 1);
+        FormSubmission fs1 = formSubmission("instance id 1", "entity id 1", 2L),
+        fs2 = formSubmission("instance id 2", "entity id 2", 3L),
+        fs3 = formSubmission("instance id 3", "entity id 3", 4L),
+        fs4 = formSubmission("instance id 4", "entity id 4", 4L),
+        fs5 = formSubmission("instance id 5", "entity id 5", 5L);
+        when(configService.getAppStateTokenByName(Config.FORM_ENTITY_PARSER_LAST_SYNCED_FORM_SUBMISSION)).thenReturn(new AppStateToken("token", 1L, 0));
+        when(formSubmissionService.iterateByServerVersion(1L, 3)).thenReturn(asList(fs1, fs2, fs3, fs4, fs5).iterator());
+
+        listener.parseForms(new MotechEvent("SUBJECT", null));
+
+        // the first page ends inside serverVersion 4, so the token waits for fs4 on the second page
+        InOrder inOrder = inOrder(fsp, configService);
+        inOrder.verify(fsp).processFormSubmission(fs1);
+        inOrder.verify(fsp).processFormSubmission(fs2);
+        inOrder.verify(configService).updateAppStateToken(Config.FORM_ENTITY_PARSER_LAST_SYNCED_FORM_SUBMISSION, 3L);
+        inOrder.verify(fsp).processFormSubmission(fs3);
+        inOrder.verify(fsp).processFormSubmission(fs4);
+        inOrder.verify(fsp).processFormSubmission(fs5);
+        inOrder.verify(configService).updateAppStateToken(Config.FORM_ENTITY_PARSER_LAST_SYNCED_FORM_SUBMISSION, 5L);
+        verify(configService, times(2)).updateAppStateToken(eq(Config.FORM_ENTITY_PARSER_LAST_SYNCED_FORM_SUBMISSION), any());
+        verifyNoMoreInteractions(fsp);
+    }
+
+    @Test
+    public void shouldProcessEverySubmissionOfAServerVersionSplitAcrossPages() throws Exception {
+        listener = new FormSubmissionListener(formSubmissionService, fsp, configService, errorTraceService, new Monitor(), 2, 100, Long.MAX_VALUE, 1);
+        List<FormSubmission> formSubmissions = asList(formSubmission("instance id 1", "entity id 1", 2L),
+                formSubmission("instance id 2", "entity id 2", 3L), formSubmission("instance id 3", "entity id 3", 3L),
+                formSubmission("instance id 4", "entity id 4", 3L), formSubmission("instance id 5", "entity id 5", 3L),
+                formSubmission("instance id 6", "entity id 6", 4L));
+        when(configService.getAppStateTokenByName(Config.FORM_ENTITY_PARSER_LAST_SYNCED_FORM_SUBMISSION)).thenReturn(new AppStateToken("token", 1L, 0));
+        when(formSubmissionService.iterateByServerVersion(1L, 2)).thenReturn(formSubmissions.iterator());
+
+        listener.parseForms(new MotechEvent("SUBJECT", null));
+
+        for (FormSubmission submission : formSubmissions) {
+            verify(fsp).processFormSubmission(submission);
+        }
+        // the second page holds serverVersion 3 only, the token waits for the rest of it on the third
+        InOrder inOrder = inOrder(configService);
+        inOrder.verify(configService).updateAppStateToken(Config.FORM_ENTITY_PARSER_LAST_SYNCED_FORM_SUBMISSION, 2L);
+        inOrder.verify(configService).updateAppStateToken(Config.FORM_ENTITY_PARSER_LAST_SYNCED_FORM_SUBMISSION, 4L);
+        verify(configService, times(2)).updateAppStateToken(eq(Config.FORM_ENTITY_PARSER_LAST_SYNCED_FORM_SUBMISSION), any());
+    }
+
+    @Test
+    public void shouldCheckpointBetweenSubmissionsOfAPageWhenProcessingSerially() throws Exception {
+        listener = new FormSubmissionListener(formSubmissionService, fsp, configService, errorTraceService, new Monitor(), 500, 1, Long.MAX_VALUE, 1);
+        FormSubmission fs1 = formSubmission("instance id 1", "entity id 1", 2L),
+        fs2 = formSubmission("instance id 2", "entity id 2", 3L),
+        fs3 = formSubmission("instance id 3", "entity id 3", 4L);
+        when(configService.getAppStateTokenByName(Config.FORM_ENTITY_PARSER_LAST_SYNCED_FORM_SUBMISSION)).thenReturn(new AppStateToken("token", 1L, 0));
+        when(formSubmissionService.iterateByServerVersion(1L, 500)).thenReturn(asList(fs1, fs2, fs3).iterator());
+
+        listener.parseForms(new MotechEvent("SUBJECT", null));
+
+        InOrder inOrder = inOrder(fsp, configService);
+        inOrder.verify(fsp).processFormSubmission(fs1);
+        inOrder.verify(configService).updateAppStateToken(Config.FORM_ENTITY_PARSER_LAST_SYNCED_FORM_SUBMISSION, 2L);
+        inOrder.verify(fsp).processFormSubmission(fs2);
+        inOrder.verify(configService).updateAppStateToken(Config.FORM_ENTITY_PARSER_LAST_SYNCED_FORM_SUBMISSION, 3L);
+        inOrder.verify(fsp).processFormSubmission(fs3);
+        inOrder.verify(configService).updateAppStateToken(Config.FORM_ENTITY_PARSER_LAST_SYNCED_FORM_SUBMISSION, 4L);
+    }
+
+    @Test
+    public void shouldProcessEverySubmissionWhenPartitionedByEntityId() throws Exception {
+        listener = new FormSubmissionListener(formSubmissionService, fsp, configService, errorTraceService, new Monitor(), 500, 100, Long.MAX_VALUE, 4);
+        List<FormSubmission> formSubmissions = new ArrayList<FormSubmission>();
+        for (int i = 0; i < 20; i++) {
+            formSubmissions.add(formSubmission("instance id " + i, "entity id " + (i % 3), i + 2L));
+        }
+        when(configService.getAppStateTokenByName(Config.FORM_ENTITY_PARSER_LAST_SYNCED_FORM_SUBMISSION)).thenReturn(new AppStateToken("token", 1L, 0));
+        when(formSubmissionService.iterateByServerVersion(1L, 500)).thenReturn(formSubmissions.iterator());
+
+        listener.parseForms(new MotechEvent("SUBJECT", null));
+
+        for (FormSubmission submission : formSubmissions) {
+            verify(fsp).processFormSubmission(submission);
+        }
+        verify(configService).updateAppStateToken(Config.FORM_ENTITY_PARSER_LAST_SYNCED_FORM_SUBMISSION, 21L);
+    }
+
     @Test
     public void shouldNotDoAnythingIfFetchFromSubmissionServiceReturnsEmptyList() throws Exception {
         when(configService.getAppStateTokenByName(Config.FORM_ENTITY_PARSER_LAST_SYNCED_FORM_SUBMISSION)).thenReturn(new AppStateToken("token", 1L, 0));
-        when(formSubmissionService.getAllSubmissions(1L, null)).thenReturn(Collections.EMPTY_LIST);
+        when(formSubmissionService.iterateByServerVersion(1L, 500)).thenReturn(Collections.<FormSubmission>emptyIterator());
 
         listener.parseForms(new MotechEvent("SUBJECT", null));
 
         verifyZeroInteractions(fsp);
     }
-}
 
+    private FormSubmission formSubmission(String instanceId, String entityId, long serverVersion) {
+        return new FormSubmission("anm id", instanceId, "form name", entityId, 0L, "1.0",
+                new FormInstance(new FormData("test", "def/bindpath", new ArrayList<FormField>(), null)), serverVersion);
+    }
+}
@@ -0,0 +1,75 @@
+package org.opensrp.service;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.opensrp.domain.Client;
+import org.opensrp.repository.AllClients;
+import org.opensrp.repository.lucene.Consistency;
+
+public class ClientCacheTest {
+
+	@Mock
+	private AllClients allClients;
+
+	private ClientService clientService;
+
+	@Before
+	public void setUp() {
+		initMocks(this);
+		clientService = new ClientService(allClients, mock(ServerVersionAllocator.class), 10);
+	}
+
+	@Test
+	public void shouldServeClientsFromCacheWhileRevisionIsUnchanged() {
+		Client mother = client("mother", "1-a");
+		when(allClients.findByFieldValue("baseEntityId", asList("mother"), Consistency.BOUNDED)).thenReturn(
+		    asList(mother));
+		when(allClients.findRevisions(anyCollectionOf(String.class))).thenReturn(
+		    Collections.singletonMap("mother-doc", "1-a"));
+
+		clientService.findByBaseEntityIds(asList("mother"));
+		List<Client> clients = clientService.findByBaseEntityIds(asList("mother"));
+
+		assertSame(mother, clients.get(0));
+		verify(allClients, times(1)).findByFieldValue("baseEntityId", asList("mother"), Consistency.BOUNDED);
+	}
+
+	@Test
+	public void shouldSearchAgainForClientsWhoseRevisionChanged() {
+		Client mother = client("mother", "1-a");
+		Client updatedMother = client("mother", "2-b");
+		Client child = client("child", "1-c");
+		when(allClients.findByFieldValue("baseEntityId", asList("mother"), Consistency.BOUNDED)).thenReturn(
+		    asList(mother));
+		when(allClients.findByFieldValue("baseEntityId", asList("mother", "child"), Consistency.BOUNDED)).thenReturn(
+		    asList(child, updatedMother));
+		when(allClients.findRevisions(anyCollectionOf(String.class))).thenReturn(
+		    Collections.singletonMap("mother-doc", "2-b"));
+
+		clientService.findByBaseEntityIds(asList("mother"));
+		List<Client> clients = clientService.findByBaseEntityIds(asList("mother", "child"));
+
+		assertEquals(asList(updatedMother, child), clients);
+	}
+
+	private Client client(String baseEntityId, String revision) {
+		Client client = new Client(baseEntityId);
+		client.setId(baseEntityId + "-doc");
+		client.setRevision(revision);
+		return client;
+	}
+}
@@ -0,0 +1,106 @@
+package org.opensrp.service;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.ektorp.DocumentOperationResult;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.opensrp.domain.Client;
+import org.opensrp.repository.AllClients;
+
+public class ClientServiceAddOrUpdateTest {
+
+	private static final long VERSION_AHEAD_OF_CLOCK = Long.MAX_VALUE / 2;
+
+	@Mock
+	private AllClients allClients;
+
+	@Mock
+	private ServerVersionAllocator serverVersionAllocator;
+
+	private ClientService clientService;
+
+	@Before
+	public void setUp() {
+		initMocks(this);
+		clientService = new ClientService(allClients, serverVersionAllocator, 10);
+		when(allClients.findIdsByIdentifiers(anyCollectionOf(String.class))).thenReturn(
+		    new HashMap<String, List<String>>());
+		when(allClients.bulkAddOrUpdate(anyCollectionOf(Client.class))).thenReturn(
+		    Collections.<DocumentOperationResult> emptyList());
+	}
+
+	@Test
+	public void shouldStampUpdatedClientsInBulkWithVersionsFromTheAllocator() {
+		Map<String, String> idsByBaseEntityId = new HashMap<String, String>();
+		idsByBaseEntityId.put("mother", "mother-doc");
+		idsByBaseEntityId.put("child", "child-doc");
+		Map<String, String> revisions = new HashMap<String, String>();
+		revisions.put("mother-doc", "1-a");
+		revisions.put("child-doc", "1-b");
+		when(allClients.findIdsByBaseEntityIds(anyCollectionOf(String.class))).thenReturn(idsByBaseEntityId);
+		when(allClients.findRevisions(anyCollectionOf(String.class))).thenReturn(revisions);
+		when(serverVersionAllocator.reserve(2)).thenReturn(VERSION_AHEAD_OF_CLOCK);
+		Client mother = new Client("mother");
+		Client child = new Client("child");
+		Client newborn = new Client("newborn");
+
+		clientService.addorUpdate(asList(mother, child, newborn));
+
+		assertEquals(Long.valueOf(VERSION_AHEAD_OF_CLOCK), mother.getServerVersion());
+		assertEquals(Long.valueOf(VERSION_AHEAD_OF_CLOCK + 1), child.getServerVersion());
+		assertNull(newborn.getServerVersion());
+	}
+
+	@Test
+	public void shouldStampUpdatedClientWithVersionFromTheAllocator() {
+		Client existing = new Client("mother");
+		existing.setId("mother-doc");
+		existing.setRevision("1-a");
+		when(allClients.findByBaseEntityId("mother")).thenReturn(existing);
+		when(serverVersionAllocator.next()).thenReturn(VERSION_AHEAD_OF_CLOCK);
+		Client mother = new Client("mother");
+
+		clientService.addorUpdate(mother, true);
+
+		assertEquals(Long.valueOf(VERSION_AHEAD_OF_CLOCK), mother.getServerVersion());
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void shouldWriteNewClientsOfABatchSharingAKeyAsOneDocument() {
+		when(allClients.findIdsByBaseEntityIds(anyCollectionOf(String.class))).thenReturn(
+		    new HashMap<String, String>());
+		when(allClients.findRevisions(anyCollectionOf(String.class))).thenReturn(new HashMap<String, String>());
+		Client first = new Client("mother");
+		first.addIdentifier("ZEIR_ID", "123");
+		Client sameBaseEntity = new Client("mother");
+		Client sameIdentifier = new Client("mother-resubmitted");
+		sameIdentifier.addIdentifier("ZEIR_ID", "123");
+		Client other = new Client("child");
+
+		clientService.addorUpdate(asList(first, sameBaseEntity, sameIdentifier, other));
+
+		ArgumentCaptor<List> saved = ArgumentCaptor.forClass(List.class);
+		verify(allClients).bulkAddOrUpdate(saved.capture());
+		assertEquals(2, saved.getValue().size());
+		assertSame(sameIdentifier, saved.getValue().get(0));
+		assertSame(other, saved.getValue().get(1));
+		assertEquals(first.getId(), sameBaseEntity.getId());
+		assertEquals(first.getId(), sameIdentifier.getId());
+	}
+}
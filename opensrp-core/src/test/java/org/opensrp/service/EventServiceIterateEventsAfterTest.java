@@ -0,0 +1,88 @@
+package org.opensrp.service;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.opensrp.common.AllConstants.BaseEntity;
+import org.opensrp.domain.Event;
+import org.opensrp.repository.AllEvents;
+import org.opensrp.repository.lucene.Consistency;
+
+public class EventServiceIterateEventsAfterTest {
+
+	@Mock
+	private AllEvents allEvents;
+
+	@Mock
+	private ClientService clientService;
+
+	private EventService eventService;
+
+	@Before
+	public void setUp() {
+		initMocks(this);
+		eventService = new EventService(allEvents, clientService);
+	}
+
+	@Test
+	public void shouldReadEachPageAfterTheLastEventOfThePreviousOne() {
+		Event first = event("a", 1L);
+		Event second = event("b", 2L);
+		Event third = event("c", 2L);
+		when(allEvents.findEvents(null, null, "provider", null, null, null, BaseEntity.SERVER_VERSIOIN, "asc", 2, 0,
+		    Consistency.BOUNDED)).thenReturn(asList(first, second));
+		when(allEvents.countEventsUpTo(null, null, "provider", null, null, 2L, "b", Consistency.BOUNDED)).thenReturn(1);
+		when(allEvents.findEvents(null, null, "provider", null, null, 2L, BaseEntity.SERVER_VERSIOIN, "asc", 1, 1,
+		    Consistency.BOUNDED)).thenReturn(asList(third));
+
+		List<Event> events = toList(eventService.iterateEventsAfter(null, null, "provider", null, null, null, null, 3, 2));
+
+		assertEquals(asList(first, second, third), events);
+	}
+
+	@Test
+	public void shouldStopAfterAShortPage() {
+		Event first = event("a", 1L);
+		when(allEvents.findEvents(null, null, "provider", null, null, 1L, BaseEntity.SERVER_VERSIOIN, "asc", 2, 0,
+		    Consistency.BOUNDED)).thenReturn(asList(first));
+
+		List<Event> events = toList(eventService.iterateEventsAfter(null, null, "provider", null, null, 0L, null, 10, 2));
+
+		assertEquals(asList(first), events);
+		verify(allEvents, never()).countEventsUpTo(any(String.class), any(String.class), any(String.class),
+		    any(String.class), any(String.class), anyLong(), any(String.class), any(Consistency.class));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void shouldRejectANonPositivePageSize() {
+		eventService.iterateEventsAfter(null, null, "provider", null, null, null, null, 10, 0);
+	}
+
+	private Event event(String id, long serverVersion) {
+		Event event = new Event();
+		event.setId(id);
+		event.setServerVersion(serverVersion);
+		return event;
+	}
+
+	private List<Event> toList(Iterator<Event> iterator) {
+		List<Event> events = new ArrayList<Event>();
+		while (iterator.hasNext()) {
+			events.add(iterator.next());
+		}
+		return events;
+	}
+}
@@ -0,0 +1,186 @@
+package org.opensrp.service;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.ektorp.DocumentOperationResult;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.opensrp.domain.Event;
+import org.opensrp.domain.IndicatorContribution;
+import org.opensrp.domain.Obs;
+import org.opensrp.repository.AllEvents;
+import org.opensrp.repository.AllIndicatorContributions;
+
+public class IndicatorAggregationServiceTest {
+
+	@Mock
+	private AllIndicatorContributions allIndicatorContributions;
+
+	@Mock
+	private AllEvents allEvents;
+
+	private IndicatorAggregationService service;
+
+	@Before
+	public void setUp() {
+		initMocks(this);
+		service = new IndicatorAggregationService(allIndicatorContributions, allEvents);
+		when(allIndicatorContributions.bulkAddOrUpdate(anyCollectionOf(IndicatorContribution.class))).thenReturn(
+		    Collections.<DocumentOperationResult> emptyList());
+	}
+
+	@Test
+	public void shouldCountBirthRegistrationIndicators() {
+		Event event = event("e1", "1-a", "Birth Registration", obs("Place_Birth", "1536", "Health facility"),
+		    obs("Birth_Weight", "3", null));
+
+		IndicatorContribution contribution = service.contributionOf(event);
+
+		assertEquals(IndicatorContribution.idOf("e1"), contribution.getId());
+		assertEquals(IndicatorAggregationService.periodOf(event.getVersion()), contribution.getPeriod());
+		assertEquals("location", contribution.getLocationId());
+		assertEquals(Integer.valueOf(1), contribution.getCounts().get(IndicatorAggregationService.BIRTH_REGISTRATION));
+		assertEquals(Integer.valueOf(1), contribution.getCounts().get(IndicatorAggregationService.BIRTH_IN_HEALTH_FACILITY));
+		assertEquals(Integer.valueOf(1), contribution.getCounts().get(IndicatorAggregationService.BIRTH_UNDER_WEIGHT));
+		assertNull(contribution.getCounts().get(IndicatorAggregationService.BIRTH_IN_HOME));
+	}
+
+	@Test
+	public void shouldCountEveryVaccineDose() {
+		Event event = event("e1", "1-a", "Vaccination", obs("opv_1", "2016-12-07", null), obs("BCG", "2016-12-07", null),
+		    obs("measles_1", "2016-12-07", null));
+
+		IndicatorContribution contribution = service.contributionOf(event);
+
+		assertEquals(2, contribution.getCounts().size());
+		assertEquals(Integer.valueOf(1), contribution.getCounts().get("opv_1"));
+		assertEquals(Integer.valueOf(1), contribution.getCounts().get("bcg"));
+	}
+
+	@Test
+	public void shouldFoldEachEventRevisionOnlyOnce() {
+		Event unchanged = event("e1", "1-a", "Vaccination", obs("opv_1", "2016-12-07", null));
+		Event edited = event("e2", "2-b", "Vaccination", obs("opv_2", "2016-12-07", null));
+		Event added = event("e3", "1-c", "Vaccination", obs("bcg", "2016-12-07", null));
+		Event notCounted = event("e4", "1-d", "Growth Monitoring");
+		when(allIndicatorContributions.findByEventIds(anyCollectionOf(String.class))).thenReturn(
+		    asMap(stored("e1", "1-a", "rev-1"), stored("e2", "1-b", "rev-2")));
+
+		service.fold(asList(unchanged, edited, added, notCounted));
+
+		List<IndicatorContribution> saved = savedContributions();
+		assertEquals(2, saved.size());
+		for (IndicatorContribution contribution : saved) {
+			if (contribution.getEventId().equals("e2")) {
+				assertEquals("rev-2", contribution.getRevision());
+				assertEquals("2-b", contribution.getEventRevision());
+			} else {
+				assertEquals("e3", contribution.getEventId());
+				assertNull(contribution.getRevision());
+			}
+		}
+	}
+
+	@Test
+	public void shouldNotWriteAnythingWhenPageWasFoldedBefore() {
+		Event event = event("e1", "1-a", "Vaccination", obs("opv_1", "2016-12-07", null));
+		when(allIndicatorContributions.findByEventIds(anyCollectionOf(String.class))).thenReturn(
+		    asMap(stored("e1", "1-a", "rev-1")));
+
+		service.fold(asList(event));
+
+		verify(allIndicatorContributions, never()).bulkAddOrUpdate(anyCollectionOf(IndicatorContribution.class));
+	}
+
+	@Test
+	public void shouldHoldBackFoldingWhileRebuilding() throws Exception {
+		final Event event = event("e1", "1-a", "Vaccination", obs("opv_1", "2016-12-07", null));
+		when(allIndicatorContributions.findByEventIds(anyCollectionOf(String.class))).thenReturn(
+		    new HashMap<String, IndicatorContribution>());
+		when(allEvents.iterateAll(anyInt())).thenReturn(Collections.<Event> emptyList().iterator());
+		final Thread folder = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				service.fold(asList(event));
+			}
+		});
+		final boolean[] heldBack = new boolean[1];
+		doAnswer(new Answer<Void>() {
+
+			@Override
+			public Void answer(InvocationOnMock invocation) throws Throwable {
+				folder.start();
+				folder.join(200);
+				heldBack[0] = folder.isAlive();
+				return null;
+			}
+		}).when(allIndicatorContributions).removeAll(anyInt());
+
+		service.rebuild();
+		folder.join(10000);
+
+		assertTrue(heldBack[0]);
+		assertEquals(1, savedContributions().size());
+	}
+
+	@SuppressWarnings("unchecked")
+	private List<IndicatorContribution> savedContributions() {
+		ArgumentCaptor<Collection> captor = ArgumentCaptor.forClass(Collection.class);
+		verify(allIndicatorContributions).bulkAddOrUpdate(captor.capture());
+		return new ArrayList<IndicatorContribution>(captor.getValue());
+	}
+
+	private Map<String, IndicatorContribution> asMap(IndicatorContribution... contributions) {
+		Map<String, IndicatorContribution> map = new HashMap<String, IndicatorContribution>();
+		for (IndicatorContribution contribution : contributions) {
+			map.put(contribution.getEventId(), contribution);
+		}
+		return map;
+	}
+
+	private IndicatorContribution stored(String eventId, String eventRevision, String revision) {
+		IndicatorContribution contribution = new IndicatorContribution(eventId, eventRevision, "201701", "location");
+		contribution.setRevision(revision);
+		return contribution;
+	}
+
+	private Event event(String id, String revision, String eventType, Obs... obs) {
+		Event event = new Event("child", eventType, null, "child", "provider", "location", "formSubmission");
+		event.setId(id);
+		event.setRevision(revision);
+		event.setObs(new ArrayList<Obs>(asList(obs)));
+		return event;
+	}
+
+	private Obs obs(String formSubmissionField, String value, String humanReadableValue) {
+		Obs obs = new Obs();
+		obs.setFormSubmissionField(formSubmissionField);
+		obs.setValues(new ArrayList<Object>(asList(value)));
+		if (humanReadableValue != null) {
+			obs.setHumanReadableValues(new ArrayList<Object>(asList(humanReadableValue)));
+		}
+		return obs;
+	}
+}
@@ -0,0 +1,111 @@
+package org.opensrp.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opensrp.dto.form.MultimediaDTO;
+import org.opensrp.repository.MultimediaRepository;
+import org.springframework.mock.web.MockMultipartFile;
+
+public class MultimediaImageVariantsTest {
+
+	@Rule
+	public TemporaryFolder multimediaDir = new TemporaryFolder();
+
+	private MultimediaService multimediaService;
+
+	@Before
+	public void setUp() {
+		multimediaService = new MultimediaService(mock(MultimediaRepository.class));
+		multimediaService.baseMultimediaDirPath = multimediaDir.getRoot().getAbsolutePath();
+	}
+
+	@Test
+	public void shouldStoreUploadAtomicallyLeavingNoTemporaryFile() throws Exception {
+		MultimediaDTO multimediaDTO = new MultimediaDTO("caseId", "providerId", "image/png", null, "profilepic");
+
+		assertTrue(multimediaService.uploadFile(multimediaDTO, new MockMultipartFile("file", png(600, 300))));
+
+		File images = new File(multimediaDir.getRoot(), MultimediaService.IMAGES_DIR);
+		assertTrue(new File(images, "caseId.png").isFile());
+		for (String name : images.list()) {
+			assertFalse(name, name.endsWith(".part"));
+		}
+	}
+
+	@Test
+	public void shouldRejectImageOverSizeLimit() throws Exception {
+		multimediaService.maxImageSizeBytes = 10;
+		MultimediaDTO multimediaDTO = new MultimediaDTO("caseId", "providerId", "image/png", null, "profilepic");
+
+		assertFalse(multimediaService.uploadFile(multimediaDTO, new MockMultipartFile("file", png(600, 300))));
+		assertFalse(new File(multimediaDir.getRoot(), MultimediaService.IMAGES_DIR + "/caseId.png").exists());
+	}
+
+	@Test
+	public void shouldRejectUploadWithoutContentType() throws Exception {
+		MultimediaDTO multimediaDTO = new MultimediaDTO("caseId", "providerId", null, null, "profilepic");
+
+		assertFalse(multimediaService.uploadFile(multimediaDTO, new MockMultipartFile("file", png(600, 300))));
+	}
+
+	@Test
+	public void shouldCreateVariantsSmallerThanImageAndServeSmallestLargeEnough() throws Exception {
+		File image = multimediaDir.newFile("caseId.png");
+		ImageIO.write(ImageIO.read(new ByteArrayInputStream(png(600, 300))), "png", image);
+
+		multimediaService.createImageVariants(image, "caseId");
+
+		BufferedImage thumbnail = ImageIO.read(multimediaService.findImageVariant("caseId", 100));
+		assertEquals(128, thumbnail.getWidth());
+		assertEquals(64, thumbnail.getHeight());
+		assertEquals(512, ImageIO.read(multimediaService.findImageVariant("caseId", 300)).getWidth());
+		assertNull(multimediaService.findImageVariant("caseId", 1024));
+		assertNull(multimediaService.findImageVariant("otherCaseId", 100));
+	}
+
+	@Test
+	public void shouldDeleteVariantsOfPreviousImageWhenNewOneIsUploaded() throws Exception {
+		File image = multimediaDir.newFile("caseId.png");
+		ImageIO.write(ImageIO.read(new ByteArrayInputStream(png(600, 300))), "png", image);
+		multimediaService.createImageVariants(image, "caseId");
+		MultimediaDTO multimediaDTO = new MultimediaDTO("caseId", "providerId", "image/png", null, "profilepic");
+
+		assertTrue(multimediaService.uploadFile(multimediaDTO, new MockMultipartFile("file", png(200, 100))));
+
+		assertNull(multimediaService.findImageVariant("caseId", 300));
+	}
+
+	@Test
+	public void shouldDeleteVariantsOfPreviousImageTheNewOneIsTooSmallFor() throws Exception {
+		File image = multimediaDir.newFile("caseId.png");
+		ImageIO.write(ImageIO.read(new ByteArrayInputStream(png(600, 300))), "png", image);
+		multimediaService.createImageVariants(image, "caseId");
+
+		ImageIO.write(ImageIO.read(new ByteArrayInputStream(png(200, 100))), "png", image);
+		multimediaService.createImageVariants(image, "caseId");
+
+		assertEquals(128, ImageIO.read(multimediaService.findImageVariant("caseId", 100)).getWidth());
+		assertNull(multimediaService.findImageVariant("caseId", 300));
+	}
+
+	private byte[] png(int width, int height) throws Exception {
+		ByteArrayOutputStream png = new ByteArrayOutputStream();
+		ImageIO.write(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB), "png", png);
+		return png.toByteArray();
+	}
+}
@@ -0,0 +1,102 @@
+package org.opensrp.service;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.ektorp.UpdateConflictException;
+import org.junit.Before;
+import org.junit.Test;
+import org.opensrp.common.AllConstants;
+import org.opensrp.domain.AppStateToken;
+import org.opensrp.repository.AllAppStateTokens;
+
+public class ServerVersionAllocatorTest {
+	
+	private static final String TOKEN = AllConstants.Config.SERVER_VERSION_NEXT_AVAILABLE.name();
+	
+	private AllAppStateTokens allAppStateTokens;
+	
+	private ServerVersionAllocator allocator;
+	
+	private long now = 1000l;
+	
+	@Before
+	public void setUp() {
+		allAppStateTokens = mock(AllAppStateTokens.class);
+		allocator = new ServerVersionAllocator(mock(ConfigService.class), allAppStateTokens) {
+			
+			@Override
+			public long getCurrentMilliseconds() {
+				return now;
+			}
+		};
+	}
+	
+	@Test
+	public void shouldReserveConsecutiveBlocksStartingFromTheToken() {
+		AppStateToken token = new AppStateToken(TOKEN, 5000l, 0l);
+		when(allAppStateTokens.findByName(TOKEN)).thenReturn(asList(token));
+		
+		assertEquals(5000l, allocator.reserve(200));
+		assertEquals(5200l, token.longValue());
+		assertEquals(5200l, allocator.reserve(10));
+		assertEquals(5210l, token.longValue());
+	}
+	
+	@Test
+	public void shouldNotGoBelowCurrentTime() {
+		AppStateToken token = new AppStateToken(TOKEN, 0, 0l);
+		when(allAppStateTokens.findByName(TOKEN)).thenReturn(asList(token));
+		
+		assertEquals(1000l, allocator.reserve(5));
+		assertEquals(1005l, token.longValue());
+	}
+	
+	@Test
+	public void shouldRetryWhenAnotherNodeReservedFirst() {
+		AppStateToken stale = new AppStateToken(TOKEN, 5000l, 0l);
+		AppStateToken fresh = new AppStateToken(TOKEN, 5200l, 0l);
+		when(allAppStateTokens.findByName(TOKEN)).thenReturn(asList(stale), asList(fresh));
+		doThrow(new UpdateConflictException()).when(allAppStateTokens).update(stale);
+		doNothing().when(allAppStateTokens).update(fresh);
+		
+		assertEquals(5200l, allocator.reserve(100));
+		assertEquals(5300l, fresh.longValue());
+		verify(allAppStateTokens, times(2)).update(any(AppStateToken.class));
+	}
+	
+	@Test
+	public void shouldHandOutSingleVersionsFromALocalBlock() {
+		AppStateToken token = new AppStateToken(TOKEN, 5000l, 0l);
+		when(allAppStateTokens.findByName(TOKEN)).thenReturn(asList(token));
+		
+		assertEquals(5000l, allocator.next());
+		assertEquals(5001l, allocator.next());
+		assertEquals(5100l, token.longValue());
+		verify(allAppStateTokens, times(1)).update(token);
+	}
+	
+	@Test
+	public void shouldDropTheLocalBlockOnceItsLeaseIsOver() {
+		AppStateToken token = new AppStateToken(TOKEN, 5000l, 0l);
+		when(allAppStateTokens.findByName(TOKEN)).thenReturn(asList(token));
+		
+		assertEquals(5000l, allocator.next());
+		now += 1001;
+		
+		assertEquals(5100l, allocator.next());
+		assertEquals(5200l, token.longValue());
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void shouldRejectEmptyReservation() {
+		allocator.reserve(0);
+	}
+}
@@ -9,6 +9,7 @@ import org.mockito.Matchers;
 import org.mockito.Mock;
 import org.motechproject.scheduler.domain.MotechEvent;
 import org.opensrp.common.AllConstants;
+import org.opensrp.common.monitor.Monitor;
 import org.opensrp.domain.AppStateToken;
 import org.opensrp.domain.Client;
 import org.opensrp.domain.Event;
@@ -18,6 +19,7 @@ import org.opensrp.service.ClientService;
 import org.opensrp.service.ConfigService;
 import org.opensrp.service.ErrorTraceService;
 import org.opensrp.service.EventService;
+import org.opensrp.service.ServerVersionAllocator;
 import org.opensrp.service.formSubmission.handler.EventsHandler;
 import org.opensrp.service.formSubmission.handler.EventsRouter;
 import org.opensrp.service.formSubmission.handler.IHandlerMapper;
@@ -28,6 +30,7 @@ import java.util.List;
 import java.util.Map;
 
 import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyBoolean;
 import static org.mockito.Matchers.anyString;
@@ -46,6 +49,8 @@ public class EventListenerTest {
     private ErrorTraceService errorTraceService;
     @Mock
     private ClientService clientService;
+    @Mock
+    private ServerVersionAllocator serverVersionAllocator;
     IHandlerMapper handlerMapper;
 
     private EventService eventService;
@@ -59,13 +64,14 @@ public class EventListenerTest {
         clientService = mock(ClientService.class);
         allClients = mock(AllClients.class);
         handlerMapper = mock(IHandlerMapper.class);
+        serverVersionAllocator = mock(ServerVersionAllocator.class);
 
         when(configService.registerAppStateToken(any(AllConstants.Config.class), Matchers.anyObject(), anyString(), anyBoolean()))
                 .thenReturn(new AppStateToken("token", 01l, 02l));
         eventsRouter = new EventsRouter(handlerMapper, "/schedules/schedule-configs");
         eventService = new EventService(allEvents, clientService);
         eventsListener = new EventsListener(eventsRouter, configService, allEvents, eventService,
-                errorTraceService, allClients);
+                errorTraceService, allClients, serverVersionAllocator, new Monitor());
     }
 
     @Test
@@ -85,27 +91,62 @@ public class EventListenerTest {
         when(configService.getAppStateTokenByName(AllConstants.Config.EVENTS_PARSER_LAST_PROCESSED_EVENT))
                 .thenReturn(new AppStateToken("token", 1l, 0l));
         when(allEvents.findByEmptyServerVersion()).thenReturn(events, Collections.EMPTY_LIST);
-        when(allEvents.findByServerVersion(1l)).thenReturn(events);
+        when(allEvents.iterateByServerVersion(1l, 1000)).thenReturn(events.iterator());
         when(clientService.findAllByIdentifier(AllConstants.Client.ZEIR_ID.toUpperCase(), "2"))
                 .thenReturn(clients);
         when(allEvents.findByBaseEntityAndType("222", "Birth Registration")).thenReturn(events);
 
         when(handlerMapper.handlerMap()).thenReturn(handlerMap);
+        when(serverVersionAllocator.reserve(1)).thenReturn(100l);
+        when(serverVersionAllocator.reserve(2)).thenReturn(200l);
 
-
-        EventsListener spyEventListener = spy(eventsListener);
-        when(spyEventListener.getCurrentMilliseconds()).thenReturn(0l);
-
-        spyEventListener.processEvent(new MotechEvent("motechEvent"));
+        eventsListener.processEvent(new MotechEvent("motechEvent"));
 
 
         InOrder inOrder = inOrder(allClients, allEvents, eventHandler);
-        clients.get(0).setServerVersion(System.currentTimeMillis());
-        events.get(0).setServerVersion(System.currentTimeMillis());
-        inOrder.verify(allClients).update(clients.get(0));
-        inOrder.verify(allEvents).update(events.get(0));
+        inOrder.verify(allClients).bulkAddOrUpdate(clients);
+        inOrder.verify(allEvents).bulkAddOrUpdate(events);
         inOrder.verify(eventHandler, atLeastOnce()).handle(eq(events.get(0)), any(JSONObject.class), eq("BCG"));
+        assertEquals(Long.valueOf(100l), clients.get(0).getServerVersion());
+        assertEquals(Long.valueOf(200l), events.get(0).getServerVersion());
+        assertEquals(Long.valueOf(201l), events.get(1).getServerVersion());
+
+    }
+
+    @Test
+    public void shouldRouteEveryEventOfAServerVersionSplitAcrossPages() throws Exception {
+        EventsHandler eventHandler = mock(EventsHandler.class);
+        Map<String, EventsHandler> handlerMap = new HashMap<>();
+        handlerMap.put("VaccinesScheduleHandler", eventHandler);
+        when(handlerMapper.handlerMap()).thenReturn(handlerMap);
+        eventsListener = new EventsListener(eventsRouter, configService, allEvents, errorTraceService,
+                serverVersionAllocator, new Monitor(), 2, 1);
+        eventsListener.eventService = eventService;
+        List<Event> events = asList(vaccination("1", 5l), vaccination("2", 6l), vaccination("3", 6l),
+                vaccination("4", 6l), vaccination("5", 6l), vaccination("6", 6l), vaccination("7", 7l));
+        when(allClients.findByEmptyServerVersion()).thenReturn(Collections.<Client>emptyList());
+        when(allEvents.findByEmptyServerVersion()).thenReturn(Collections.<Event>emptyList());
+        when(configService.getAppStateTokenByName(AllConstants.Config.EVENTS_PARSER_LAST_PROCESSED_EVENT))
+                .thenReturn(new AppStateToken("token", 4l, 0l));
+        when(allEvents.iterateByServerVersion(4l, 2)).thenReturn(events.iterator());
+
+        eventsListener.processEvent(new MotechEvent("motechEvent"));
+
+        for (Event event : events) {
+            verify(eventHandler, atLeastOnce()).handle(eq(event), any(JSONObject.class), eq("BCG"));
+        }
+        // the second page holds serverVersion 6 only, the token waits for the rest of it on the third
+        InOrder inOrder = inOrder(configService);
+        inOrder.verify(configService).updateAppStateToken(AllConstants.Config.EVENTS_PARSER_LAST_PROCESSED_EVENT, 5l);
+        inOrder.verify(configService).updateAppStateToken(AllConstants.Config.EVENTS_PARSER_LAST_PROCESSED_EVENT, 6l);
+        inOrder.verify(configService).updateAppStateToken(AllConstants.Config.EVENTS_PARSER_LAST_PROCESSED_EVENT, 7l);
+        verify(configService, times(3)).updateAppStateToken(eq(AllConstants.Config.EVENTS_PARSER_LAST_PROCESSED_EVENT), any());
+    }
 
+    private static Event vaccination(String baseEntityId, long serverVersion) {
+        Event event = new Event().withBaseEntityId(baseEntityId).withEventType("Vaccination");
+        event.setServerVersion(serverVersion);
+        return event;
     }
 
     @Test
@@ -0,0 +1,86 @@
+package org.opensrp.service.formSubmission.handler;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mock;
+import org.opensrp.domain.Event;
+
+public class EventsRouterTest {
+
+	private static final String SCHEDULE_CONFIGS = "{\"name\": \"BCG\", \"events\": ["
+	        + "{\"types\": [\"Birth Registration\"], \"milestone\": \"bcg\", \"action\": \"enroll\"},"
+	        + "{\"types\": [\"Vaccination\", \"Vaccination\"], \"milestone\": \"bcg\", \"action\": \"fulfill\"}]},"
+	        + "{\"name\": \"OPV 0\", \"events\": ["
+	        + "{\"types\": [\"Birth Registration\"], \"milestone\": \"opv0\", \"action\": \"enroll\"}]}";
+
+	@Rule
+	public TemporaryFolder scheduleConfigs = new TemporaryFolder();
+
+	@Mock
+	private IHandlerMapper handlerMapper;
+
+	@Mock
+	private EventsHandler vaccinesScheduleHandler;
+
+	private EventsRouter router;
+
+	@Before
+	public void setUp() throws Exception {
+		initMocks(this);
+		Map<String, EventsHandler> handlers = new HashMap<String, EventsHandler>();
+		handlers.put("VaccinesScheduleHandler", vaccinesScheduleHandler);
+		when(handlerMapper.handlerMap()).thenReturn(handlers);
+
+		FileUtils.writeStringToFile(new File(scheduleConfigs.getRoot(), "vaccines-schedule-configs.json"), SCHEDULE_CONFIGS, "UTF-8");
+		router = new EventsRouter(handlerMapper, scheduleConfigs.getRoot().getAbsolutePath());
+	}
+
+	@Test
+	public void shouldRouteEventToEveryScheduleConfigEventOfItsType() throws Exception {
+		router.route(new Event().withEventType("Birth Registration"));
+		router.route(new Event().withEventType("Vaccination"));
+		router.route(new Event().withEventType("Death"));
+
+		verify(vaccinesScheduleHandler, times(2)).handle(any(Event.class), any(JSONObject.class), eq("BCG"));
+		verify(vaccinesScheduleHandler).handle(any(Event.class), any(JSONObject.class), eq("OPV 0"));
+	}
+
+	@Test
+	public void shouldRecompileRoutingTableWhenScheduleConfigsChange() throws Exception {
+		router.reloadCheckIntervalMillis = 0;
+		router.route(new Event().withEventType("Growth Monitoring"));
+
+		File growthConfigs = new File(scheduleConfigs.getRoot(), "growth-schedule-configs.json");
+		FileUtils.writeStringToFile(growthConfigs,
+		    "{\"name\": \"Growth\", \"events\": [{\"types\": [\"Growth Monitoring\"], \"action\": \"enroll\"}]}", "UTF-8");
+		router.route(new Event().withEventType("Growth Monitoring"));
+
+		verify(vaccinesScheduleHandler).handle(any(Event.class), any(JSONObject.class), eq("Growth"));
+		verify(vaccinesScheduleHandler, never()).handle(any(Event.class), any(JSONObject.class), eq("BCG"));
+	}
+
+	@Test
+	public void shouldNotReadScheduleConfigsForEveryEvent() throws Exception {
+		router.route(new Event().withEventType("Birth Registration"));
+		FileUtils.deleteDirectory(scheduleConfigs.getRoot());
+		router.route(new Event().withEventType("Birth Registration"));
+
+		verify(vaccinesScheduleHandler, times(2)).handle(any(Event.class), any(JSONObject.class), eq("OPV 0"));
+	}
+}
@@ -1,6 +1,7 @@
 package org.opensrp.service.it;
 
 import org.ektorp.CouchDbConnector;
+import org.ektorp.DocumentOperationResult;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
 import org.json.JSONException;
@@ -494,4 +495,35 @@ public class ClientServiceTest extends BaseIntegrationTest {
 		assertObjectUpdate(expectedClient, dbClients.get(0));
 	}
 
+
+	@Test
+	public void shouldBulkAddNewAndUpdateExistingClients() {
+		addObjectToRepository(Collections.singletonList(getClient()), allClients);
+		Client existingClient = allClients.getAll().get(0);
+		existingClient.setFirstName(LAST_NAME);
+		existingClient.setRevision(null);
+		Client newClient = getClient();
+		newClient.setBaseEntityId(DIFFERENT_BASE_ENTITY_ID);
+		newClient.setIdentifiers(new HashMap<String, String>());
+
+		List<DocumentOperationResult> failures = clientService.addorUpdate(asList(existingClient, newClient));
+
+		assertTrue(failures.isEmpty());
+		List<Client> dbClients = allClients.getAll();
+		assertEquals(2, dbClients.size());
+		assertEquals(LAST_NAME, allClients.findByBaseEntityId(BASE_ENTITY_ID).getFirstName());
+		assertNotNull(allClients.findByBaseEntityId(DIFFERENT_BASE_ENTITY_ID));
+	}
+
+	@Test
+	public void shouldReportClientWithoutBaseEntityIdInBulkAddOrUpdate() {
+		Client client = getClient();
+		client.setBaseEntityId(null);
+
+		List<DocumentOperationResult> failures = clientService.addorUpdate(asList(client));
+
+		assertEquals(1, failures.size());
+		assertEquals(0, allClients.getAll().size());
+	}
+
 }
@@ -0,0 +1,144 @@
+package org.opensrp.service.it;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.ektorp.DocumentOperationResult;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opensrp.BaseIntegrationTest;
+import org.opensrp.domain.Event;
+import org.opensrp.repository.AllEvents;
+import org.opensrp.service.EventService;
+import org.springframework.beans.factory.annotation.Autowired;
+
+/**
+ * Races the event write paths of {@link EventService} against each other, and batches against
+ * batches, on copies of the same submission and checks that CouchDB ends up with a single document per baseEntityId and
+ * formSubmissionId.
+ */
+public class EventServiceConcurrencyTest extends BaseIntegrationTest {
+
+	private static final int SUBMISSIONS = 20;
+
+	@Autowired
+	private AllEvents allEvents;
+
+	@Autowired
+	private EventService eventService;
+
+	private ExecutorService executor;
+
+	@Before
+	public void setUp() {
+		allEvents.removeAll();
+		executor = Executors.newFixedThreadPool(3);
+	}
+
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+		allEvents.removeAll();
+	}
+
+	@Test
+	public void shouldStoreEachSubmissionOnceWhenAddedAndUpdatedConcurrently() throws Exception {
+		final CountDownLatch start = new CountDownLatch(1);
+		List<Future<Void>> writers = new ArrayList<>();
+		writers.add(executor.submit(new Callable<Void>() {
+
+			@Override
+			public Void call() throws Exception {
+				start.await();
+				for (int i = 0; i < SUBMISSIONS; i++) {
+					try {
+						eventService.addEvent(submission(i));
+					}
+					catch (IllegalArgumentException e) {
+						// already stored by one of the other writers
+					}
+				}
+				return null;
+			}
+		}));
+		writers.add(executor.submit(new Callable<Void>() {
+
+			@Override
+			public Void call() throws Exception {
+				start.await();
+				for (int i = 0; i < SUBMISSIONS; i++) {
+					eventService.addorUpdateEvent(submission(i));
+				}
+				return null;
+			}
+		}));
+		writers.add(executor.submit(new Callable<Void>() {
+
+			@Override
+			public Void call() throws Exception {
+				start.await();
+				for (int i = 0; i < SUBMISSIONS; i++) {
+					eventService.addorUpdateEvents(Collections.singletonList(submission(i)));
+				}
+				return null;
+			}
+		}));
+		start.countDown();
+
+		for (Future<Void> writer : writers) {
+			writer.get(60, TimeUnit.SECONDS);
+		}
+
+		for (int i = 0; i < SUBMISSIONS; i++) {
+			assertEquals("submission " + i, 1, allEvents.findByBaseEntityAndFormSubmissionId("client", "form" + i).size());
+		}
+		assertEquals(SUBMISSIONS, allEvents.getAll().size());
+	}
+
+	@Test
+	public void shouldStoreEachSubmissionOnceWhenWrittenInConcurrentBatches() throws Exception {
+		final CountDownLatch start = new CountDownLatch(1);
+		List<Future<List<DocumentOperationResult>>> writers = new ArrayList<>();
+		for (int w = 0; w < 3; w++) {
+			writers.add(executor.submit(new Callable<List<DocumentOperationResult>>() {
+
+				@Override
+				public List<DocumentOperationResult> call() throws Exception {
+					List<Event> batch = new ArrayList<>();
+					for (int i = 0; i < SUBMISSIONS; i++) {
+						batch.add(submission(i));
+					}
+					start.await();
+					return eventService.addorUpdateEvents(batch);
+				}
+			}));
+		}
+		start.countDown();
+
+		for (Future<List<DocumentOperationResult>> writer : writers) {
+			assertEquals(Collections.emptyList(), writer.get(60, TimeUnit.SECONDS));
+		}
+		for (int i = 0; i < SUBMISSIONS; i++) {
+			assertEquals("submission " + i, 1, allEvents.findByBaseEntityAndFormSubmissionId("client", "form" + i).size());
+		}
+		assertEquals(SUBMISSIONS, allEvents.getAll().size());
+	}
+
+	private static Event submission(int i) {
+		Event event = new Event();
+		event.setBaseEntityId("client");
+		event.setFormSubmissionId("form" + i);
+		event.setEventType("Birth Registration");
+		return event;
+	}
+}
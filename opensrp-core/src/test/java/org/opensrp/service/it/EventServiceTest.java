@@ -1,5 +1,6 @@
 package org.opensrp.service.it;
 
+import org.ektorp.DocumentOperationResult;
 import org.joda.time.DateTime;
 import org.junit.Before;
 import org.junit.Test;
@@ -13,13 +14,16 @@ import org.springframework.beans.factory.annotation.Autowired;
 
 import java.io.IOException;
 import java.util.Collections;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
 import static java.util.Arrays.asList;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.opensrp.common.AllConstants.OpenSRPEvent.Client.ZEIR_ID;
 import static org.opensrp.util.SampleFullDomainObject.*;
 import static org.utils.AssertionUtil.assertNewObjectCreation;
@@ -367,7 +371,7 @@ public class EventServiceTest extends BaseIntegrationTest {
 
 		Event actualEvent = eventService.addorUpdateEvent(expectedEvent);
 
-		List<Event> dbEvents = eventService.getAll();
+		List<Event> dbEvents = iterateAllEvents();
 		assertEquals(1, dbEvents.size());
 		assertEquals(expectedEvent, actualEvent);
 
@@ -381,7 +385,7 @@ public class EventServiceTest extends BaseIntegrationTest {
 
 		Event actualEvent = eventService.addorUpdateEvent(expectedEvent);
 
-		List<Event> dbEvents = eventService.getAll();
+		List<Event> dbEvents = iterateAllEvents();
 		assertEquals(1, dbEvents.size());
 		assertEquals(expectedEvent, actualEvent);
 
@@ -389,6 +393,22 @@ public class EventServiceTest extends BaseIntegrationTest {
 		assertObjectUpdate(expectedEvent, dbEvents.get(0));
 	}
 
+	@Test
+	public void shouldBulkAddNewAndUpdateExistingEvents() {
+		addObjectToRepository(Collections.singletonList(getEvent()), allEvents);
+		Event existingEvent = allEvents.getAll().get(0);
+		existingEvent.setRevision(null);
+		Event newEvent = getEvent();
+		newEvent.setBaseEntityId(DIFFERENT_BASE_ENTITY_ID);
+
+		List<DocumentOperationResult> failures = eventService.addorUpdateEvents(asList(existingEvent, newEvent));
+
+		assertTrue(failures.isEmpty());
+		List<Event> dbEvents = iterateAllEvents();
+		assertEquals(2, dbEvents.size());
+		assertNull(allEvents.findById(existingEvent.getId()).getServerVersion());
+	}
+
 	@Test
 	public void shouldUpdateEvent() {
 		addObjectToRepository(Collections.singletonList(getEvent()), allEvents);
@@ -396,7 +416,7 @@ public class EventServiceTest extends BaseIntegrationTest {
 
 		eventService.updateEvent(expectedEvent);
 
-		List<Event> dbEvents = eventService.getAll();
+		List<Event> dbEvents = iterateAllEvents();
 		assertEquals(1, dbEvents.size());
 		assertObjectUpdate(expectedEvent, dbEvents.get(0));
 	}
@@ -432,11 +452,51 @@ public class EventServiceTest extends BaseIntegrationTest {
 
 		addObjectToRepository(expectedEvents, allEvents);
 
-		List<Event> actualEvents = eventService.getAll();
+		List<Event> actualEvents = iterateAllEvents();
 
 		assertTwoListAreSameIgnoringOrder(expectedEvents, actualEvents);
 	}
 
+	@Test
+	public void shouldIterateOverAllEventsAPageAtATime() {
+		List<Event> expectedEvents = new ArrayList<>();
+		for (int i = 0; i < 5; i++) {
+			Event event = getEvent();
+			event.setBaseEntityId(BASE_ENTITY_ID + i);
+			expectedEvents.add(event);
+		}
+
+		addObjectToRepository(expectedEvents, allEvents);
+
+		List<Event> actualEvents = iterateAllEvents();
+
+		assertTwoListAreSameIgnoringOrder(expectedEvents, actualEvents);
+	}
+
+	@Test
+	public void shouldIterateByServerVersionAPageAtATime() {
+		List<Event> expectedEvents = new ArrayList<>();
+		for (int i = 0; i < 5; i++) {
+			Event event = getEvent();
+			event.setBaseEntityId(BASE_ENTITY_ID + i);
+			expectedEvents.add(event);
+		}
+
+		addObjectToRepository(expectedEvents, allEvents);
+
+		Iterator<Event> events = eventService.iterateByServerVersion(0L, 2);
+		long previousServerVersion = 0;
+		int count = 0;
+		while (events.hasNext()) {
+			Event event = events.next();
+			assertTrue(event.getServerVersion() >= previousServerVersion);
+			previousServerVersion = event.getServerVersion();
+			count++;
+		}
+
+		assertEquals(expectedEvents.size(), count);
+	}
+
 	@Test
 	public void shouldFindByObsFieldCodeKeyAndValue() {
 		Event expectedEvent = getEvent();
@@ -585,4 +645,13 @@ public class EventServiceTest extends BaseIntegrationTest {
 
 		eventService.mergeEvent(updatedEvent);
 	}
+
+	private List<Event> iterateAllEvents() {
+		List<Event> events = new ArrayList<>();
+		Iterator<Event> iterator = eventService.iterateAll(2);
+		while (iterator.hasNext()) {
+			events.add(iterator.next());
+		}
+		return events;
+	}
 }
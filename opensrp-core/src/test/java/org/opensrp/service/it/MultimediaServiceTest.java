@@ -10,6 +10,7 @@ import org.opensrp.repository.MultimediaRepository;
 import org.opensrp.service.MultimediaService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.mock.web.MockMultipartFile;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.File;
@@ -96,13 +97,13 @@ public class MultimediaServiceTest extends BaseIntegrationTest {
 		String baseImagePath = baseMultimediaDirPath + "/" + "images/";
 		String pathname = baseImagePath + CASE_ID + ".jpg";
 		MultimediaDTO multimediaDTO = getMultimediaDTO("image/jpeg");
-		MultipartFile mockMultipartFile = mock(MultipartFile.class);
+		MultipartFile multipartFile = new MockMultipartFile("file", "image".getBytes());
 
-		Boolean result = multimediaService.uploadFile(multimediaDTO, mockMultipartFile);
+		Boolean result = multimediaService.uploadFile(multimediaDTO, multipartFile);
 
 		assertTrue(result);
 		assertTrue(new File(baseImagePath).exists());
-		verify(mockMultipartFile, times(1)).transferTo(new File(pathname));
+		assertTrue(new File(pathname).exists());
 	}
 
 	@Test
@@ -110,13 +111,13 @@ public class MultimediaServiceTest extends BaseIntegrationTest {
 		String baseImagePath = baseMultimediaDirPath + "/" + "images/";
 		String pathname = baseImagePath + CASE_ID + ".gif";
 		MultimediaDTO multimediaDTO = getMultimediaDTO("image/gif");
-		MultipartFile mockMultipartFile = mock(MultipartFile.class);
+		MultipartFile multipartFile = new MockMultipartFile("file", "image".getBytes());
 
-		Boolean result = multimediaService.uploadFile(multimediaDTO, mockMultipartFile);
+		Boolean result = multimediaService.uploadFile(multimediaDTO, multipartFile);
 
 		assertTrue(result);
 		assertTrue(new File(baseImagePath).exists());
-		verify(mockMultipartFile, times(1)).transferTo(new File(pathname));
+		assertTrue(new File(pathname).exists());
 	}
 
 	@Test
@@ -124,13 +125,13 @@ public class MultimediaServiceTest extends BaseIntegrationTest {
 		String baseImagePath = baseMultimediaDirPath + "/" + "images/";
 		String pathname = baseImagePath + CASE_ID + ".png";
 		MultimediaDTO multimediaDTO = getMultimediaDTO("image/png");
-		MultipartFile mockMultipartFile = mock(MultipartFile.class);
+		MultipartFile multipartFile = new MockMultipartFile("file", "image".getBytes());
 
-		Boolean result = multimediaService.uploadFile(multimediaDTO, mockMultipartFile);
+		Boolean result = multimediaService.uploadFile(multimediaDTO, multipartFile);
 
 		assertTrue(result);
 		assertTrue(new File(baseImagePath).exists());
-		verify(mockMultipartFile, times(1)).transferTo(new File(pathname));
+		assertTrue(new File(pathname).exists());
 	}
 
 	@Test
@@ -138,13 +139,13 @@ public class MultimediaServiceTest extends BaseIntegrationTest {
 		String baseImagePath = baseMultimediaDirPath + "/" + "videos/";
 		String pathname = baseImagePath + CASE_ID + ".mp4";
 		MultimediaDTO multimediaDTO = getMultimediaDTO("application/octet-stream");
-		MultipartFile mockMultipartFile = mock(MultipartFile.class);
+		MultipartFile multipartFile = new MockMultipartFile("file", "image".getBytes());
 
-		Boolean result = multimediaService.uploadFile(multimediaDTO, mockMultipartFile);
+		Boolean result = multimediaService.uploadFile(multimediaDTO, multipartFile);
 
 		assertTrue(result);
 		assertTrue(new File(baseImagePath).exists());
-		verify(mockMultipartFile, times(1)).transferTo(new File(pathname));
+		assertTrue(new File(pathname).exists());
 	}
 
 	@Test
@@ -167,12 +168,13 @@ public class MultimediaServiceTest extends BaseIntegrationTest {
 	@Test
 	public void shouldSaveMultimediaForSuccessfulUpdate() {
 		MultimediaDTO multimediaDTO = getMultimediaDTO("image/png");
-		MultipartFile mockMultipartFile = mock(MultipartFile.class);
+		MultipartFile multipartFile = new MockMultipartFile("file", "image".getBytes());
 		Multimedia expectedMultimedia = getMultimedia();
 		expectedMultimedia.setContentType("image/png");
 		expectedMultimedia.setFilePath("../multimedia/opensrp/images/caseId.png");
+		expectedMultimedia.setChecksum("6105d6cc76af400325e94d588ce511be5bfdbb73b437dc51eca43917d7a43e3d");
 
-		String result = multimediaService.saveMultimediaFile(multimediaDTO, mockMultipartFile);
+		String result = multimediaService.saveMultimediaFile(multimediaDTO, multipartFile);
 
 		assertEquals("success", result);
 		List<Multimedia> dbFiles = multimediaRepository.getAll();
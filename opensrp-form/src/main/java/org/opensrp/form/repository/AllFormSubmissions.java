@@ -11,7 +11,9 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Repository;
 import org.opensrp.common.AllConstants;
+import org.opensrp.common.repository.KeysetPagedIterator;
 
+import java.util.Iterator;
 import java.util.List;
 
 @Repository
@@ -55,6 +57,24 @@ public class AllFormSubmissions extends MotechBaseRepository<FormSubmission> {
         return db.queryView(query, FormSubmission.class);
     }
 
+    /**
+     * Iterate over the submissions with a serverVersion greater than the given one, ordered by
+     * serverVersion, fetching <code>pageSize</code> submissions from the view at a time
+     */
+    public Iterator<FormSubmission> iterateByServerVersion(long serverVersion, int pageSize) {
+        ComplexKey startKey = ComplexKey.of(serverVersion + 1);
+        ComplexKey endKey = ComplexKey.of(Long.MAX_VALUE);
+        return new KeysetPagedIterator<FormSubmission>(db,
+                createQuery("formSubmission_by_server_version").startKey(startKey).endKey(endKey), FormSubmission.class,
+                pageSize) {
+
+            @Override
+            protected Object keyOf(FormSubmission submission) {
+                return ComplexKey.of(submission.serverVersion());
+            }
+        };
+    }
+
     @View(name = "formSubmission_by_anm_and_server_version",
             map = "function(doc) { if (doc.type === 'FormSubmission') { emit([doc.anmId, doc.serverVersion], null); } }")
     public List<FormSubmission> findByANMIDAndServerVersion(String anmId, long version, Integer batchSize) {
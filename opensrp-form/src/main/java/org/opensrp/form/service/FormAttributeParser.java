@@ -1,7 +1,6 @@
 package org.opensrp.form.service;
 
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
@@ -9,9 +8,12 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
@@ -53,6 +55,7 @@ import com.mysql.jdbc.StringUtils;
 public class FormAttributeParser {
 	private String jsonFilePath;
 	private String xmlFilePath;
+	private final ConcurrentMap<String, FormMetadata> formMetadata = new ConcurrentHashMap<>();
 	
 	@Autowired
 	public FormAttributeParser(@Value("#{opensrp['form.directory.name']}") String formDirPath) throws IOException
@@ -64,29 +67,28 @@ public class FormAttributeParser {
 	}
 	
 	public FormSubmissionMap createFormSubmissionMap(FormSubmission fs) throws JsonIOException, JsonSyntaxException, ParserConfigurationException, SAXException, IOException, XPathExpressionException {
-		JsonObject formDefinitionData = getFormDefinitionData(fs.formName());
-		Document modelXml = getModelXmlData(fs.formName());
-		JsonObject jsonForm = getJSONFormData(fs.formName());
+		FormMetadata metadata = getFormMetadata(fs.formName());
 		
-		Map<String, String> formAttributes = getAttributesForBindPath(fs.defaultBindPath(), modelXml);
+		Map<String, String> formAttributes = metadata.field(fs.defaultBindPath()).attributes();
 		List<FormFieldMap> fields = new ArrayList<FormFieldMap>();
 		for (FormField fsf : fs.instance().form().fields()) {
-			String bindPath = getPropertyBindFromFormDefinition(fsf.name(), fs.formName(), formDefinitionData);
-			String type = bindPath==null?null:getFieldType(bindPath, jsonForm);
-			Map<String, String> fieldAttributes = bindPath==null?new HashMap<String, String>():getAttributesForBindPath(bindPath, modelXml);
+			String bindPath = metadata.bindPath(fsf.name());
+			FieldMetadata field = bindPath==null?null:metadata.field(bindPath);
+			String type = field==null?null:field.type;
+			Map<String, String> fieldAttributes = field==null?new HashMap<String, String>():field.attributes();
 			
-			boolean ismultiselect = bindPath==null?false:isMultiselect(bindPath, jsonForm);
+			boolean ismultiselect = field==null?false:field.multiselect;
 			if(!StringUtils.isEmptyOrWhitespaceOnly(fsf.value())){
 			if(ismultiselect){
 				String[] vals = fsf.value().split(" ");
 				Map<String, Map<String, String>> valCods = new HashMap<>();
 				for (String v : vals) {
-					valCods.put(v, getInstanceAttributesForFormFieldAndValue(bindPath, v, jsonForm));
+					valCods.put(v, field.valueCodes(v));
 				}
 				fields.add(new FormFieldMap(fsf.name(), Arrays.asList(vals), fsf.source(), bindPath, type, fieldAttributes, valCods));
 			}
 			else {
-				Map<String, String> valueCodes = bindPath==null?null:getInstanceAttributesForFormFieldAndValue(bindPath, fsf.value(), jsonForm);
+				Map<String, String> valueCodes = field==null?null:field.valueCodes(fsf.value());
 				fields.add(new FormFieldMap(fsf.name(), fsf.value(), fsf.source(), bindPath, type, fieldAttributes, valueCodes));
 			}
 			}
@@ -96,24 +98,25 @@ public class FormAttributeParser {
 		if(fs.subForms() != null){
 		for (SubFormData sf : fs.subForms()) {
 			for (Map<String, String> flvl : sf.instances()) {
-				Map<String, String> subformAttributes = getAttributesForBindPath(sf.defaultBindPath(), modelXml);
+				Map<String, String> subformAttributes = metadata.field(sf.defaultBindPath()).attributes();
 				List<FormFieldMap> sfFields = new ArrayList<>();
 				for (Entry<String, String> sffl : flvl.entrySet()) {
-					String source = getSourceFromSubformDefinition(sf.name(), sffl.getKey(), fs.formName(), formDefinitionData);
-					String bindPath = getPathFromSubformDefinition(sf.name(), sffl.getKey(), fs.formName(), formDefinitionData);
-					String type = bindPath==null?null:getFieldType(bindPath, jsonForm);
-					Map<String, String> attributes = bindPath==null?new HashMap<String, String>():getAttributesForBindPath(bindPath, modelXml);
-					boolean ismultiselect = bindPath==null?false:isMultiselect(bindPath, jsonForm);
+					String source = metadata.subformSource(sf.name(), sffl.getKey());
+					String bindPath = metadata.subformBindPath(sf.name(), sffl.getKey());
+					FieldMetadata field = bindPath==null?null:metadata.field(bindPath);
+					String type = field==null?null:field.type;
+					Map<String, String> attributes = field==null?new HashMap<String, String>():field.attributes();
+					boolean ismultiselect = field==null?false:field.multiselect;
 					if(ismultiselect){
 						String[] vals = sffl.getValue().split(" ");
 						Map<String, Map<String, String>> valCods = new HashMap<>();
 						for (String v : vals) {
-							valCods.put(v, getInstanceAttributesForFormFieldAndValue(bindPath, v, jsonForm));
+							valCods.put(v, field.valueCodes(v));
 						}
 						sfFields.add(new FormFieldMap(sffl.getKey(), Arrays.asList(vals), source, bindPath, type, attributes, valCods));
 					}
 					else {
-						Map<String, String> valueCodes = bindPath==null?null:getInstanceAttributesForFormFieldAndValue(bindPath, sffl.getValue(), jsonForm);
+						Map<String, String> valueCodes = field==null?null:field.valueCodes(sffl.getValue());
 						sfFields.add(new FormFieldMap(sffl.getKey(), sffl.getValue(), source, bindPath, type, attributes, valueCodes));
 					}
 				}
@@ -124,18 +127,40 @@ public class FormAttributeParser {
 		return new FormSubmissionMap(fs, formAttributes, fields, subforms);
 	}
 	
-	public JsonObject getFormDefinitionData(String formName) throws JsonIOException, JsonSyntaxException, FileNotFoundException {
+	/**
+	 * Returns the compiled metadata of given form, parsing its form_definition.json, form.json and model.xml
+	 * only when the form is first used or any of the files has been modified since it was last parsed.
+	 * @param formName
+	 * @return
+	 */
+	FormMetadata getFormMetadata(String formName) throws JsonIOException, JsonSyntaxException, ParserConfigurationException, SAXException, IOException {
+		String formDirectory = this.jsonFilePath+"/"+formName;
+		String lastModified = new File(formDirectory+"/form_definition.json").lastModified()
+				+":"+new File(formDirectory+"/form.json").lastModified()
+				+":"+new File(this.xmlFilePath+"/"+formName+"/model.xml").lastModified();
+		
+		FormMetadata metadata = formMetadata.get(formName);
+		if(metadata == null || !metadata.lastModified.equals(lastModified)){
+			metadata = new FormMetadata(lastModified, getFormDefinitionData(formName), getJSONFormData(formName), getModelXmlData(formName));
+			formMetadata.put(formName, metadata);
+		}
+		return metadata;
+	}
+	
+	public JsonObject getFormDefinitionData(String formName) throws JsonIOException, JsonSyntaxException, IOException {
 		String filePath = this.jsonFilePath+"/"+formName+"/form_definition.json";
 		JsonParser parser = new JsonParser();
-		Object obj = parser.parse(new FileReader(filePath));
-		return (JsonObject)obj;
+		try (FileReader reader = new FileReader(filePath)) {
+			return (JsonObject)parser.parse(reader);
+		}
 	}
 	
-	public JsonObject getJSONFormData(String formName) throws JsonIOException, JsonSyntaxException, FileNotFoundException {
+	public JsonObject getJSONFormData(String formName) throws JsonIOException, JsonSyntaxException, IOException {
 		String filePath = this.jsonFilePath+"/"+formName+"/form.json";
 		JsonParser parser = new JsonParser();
-		Object obj = parser.parse(new FileReader(filePath));
-		return (JsonObject)obj;
+		try (FileReader reader = new FileReader(filePath)) {
+			return (JsonObject)parser.parse(reader);
+		}
 	}
 	
 	public Document getModelXmlData(String formName) throws ParserConfigurationException, SAXException, IOException {
@@ -564,10 +589,7 @@ public class FormAttributeParser {
 	
 	public Map<String, String> getInstanceAttributesForFormFieldAndValue(String fieldBindPath, String fieldVal, JsonObject jsonForm) throws JsonSyntaxException, IOException
 	{		
-		String[] sps = fieldBindPath.split("/");
-		int level = sps.length-4;
-		String nodeNameToFind = sps[sps.length-1];
-		JsonObject node = getChildrenOfLevel(level, jsonForm, nodeNameToFind);
+		JsonObject node = getFieldNode(fieldBindPath, jsonForm);
 		
 		if(node != null && node.getAsJsonObject().has("children")){
 			JsonArray nodeChAr = node.getAsJsonObject().get("children").getAsJsonArray();
@@ -584,10 +606,7 @@ public class FormAttributeParser {
 	
 	public String getFieldType(String fieldBindPath, JsonObject jsonForm)
 	{		
-		String[] sps = fieldBindPath.split("/");
-		int level = sps.length-4;
-		String nodeNameToFind = sps[sps.length-1];
-		JsonObject node = getChildrenOfLevel(level, jsonForm, nodeNameToFind);
+		JsonObject node = getFieldNode(fieldBindPath, jsonForm);
 		
 		if(node != null && node.getAsJsonObject().has("type")){
 			return node.getAsJsonObject().get("type").getAsString();
@@ -597,10 +616,7 @@ public class FormAttributeParser {
 	
 	public boolean isMultiselect(String fieldBindPath, JsonObject jsonForm)
 	{		
-		String[] sps = fieldBindPath.split("/");
-		int level = sps.length-4;
-		String nodeNameToFind = sps[sps.length-1];
-		JsonObject node = getChildrenOfLevel(level, jsonForm, nodeNameToFind);
+		JsonObject node = getFieldNode(fieldBindPath, jsonForm);
 		
 		if(node != null && node.getAsJsonObject().has("children") 
 				&& node.has("type") 
@@ -611,6 +627,13 @@ public class FormAttributeParser {
     	return false;
 	}
 	
+	private JsonObject getFieldNode(String fieldBindPath, JsonObject jsonForm){
+		String[] sps = fieldBindPath.split("/");
+		int level = sps.length-4;
+		String nodeNameToFind = sps[sps.length-1];
+		return getChildrenOfLevel(level, jsonForm, nodeNameToFind);
+	}
+	
 	private JsonObject getChildrenOfLevel(int level, JsonObject node, String nodeName){
 		for (JsonElement ch : getChildren(node)) {
 			if(ch.getAsJsonObject().has("type")){
@@ -771,4 +794,127 @@ public class FormAttributeParser {
 
 		return lastNode;
 	}
+	
+	/**
+	 * The form_definition.json, form.json and model.xml of a form, with the lookups done for every
+	 * submission indexed up front: bind paths by field name, and type, multiselect flag, option codes
+	 * and model.xml attributes by bind path. Field metadata is built on first use of a bind path.
+	 */
+	class FormMetadata {
+		private final String lastModified;
+		private final JsonObject jsonForm;
+		private final Document modelXml;
+		private final Map<String, String> bindPaths = new HashMap<>();
+		private final Map<String, String> subformBindPaths = new HashMap<>();
+		private final Map<String, String> subformSources = new HashMap<>();
+		private final ConcurrentMap<String, FieldMetadata> fields = new ConcurrentHashMap<>();
+		
+		FormMetadata(String lastModified, JsonObject formDefinition, JsonObject jsonForm, Document modelXml) {
+			this.lastModified = lastModified;
+			this.jsonForm = jsonForm;
+			this.modelXml = modelXml;
+			
+			JsonObject form = formDefinition.get("form").getAsJsonObject();
+			for (JsonElement fl : form.get("fields").getAsJsonArray()) {
+				JsonObject field = fl.getAsJsonObject();
+				if(field.has("bind")){
+					putIfAbsent(bindPaths, key(field.get("name").getAsString()), field.get("bind").getAsString());
+				}
+			}
+			if(form.has("sub_forms")){
+				for (JsonElement sf : form.get("sub_forms").getAsJsonArray()) {
+					String subform = sf.getAsJsonObject().get("name").getAsString();
+					for (JsonElement fl : sf.getAsJsonObject().get("fields").getAsJsonArray()) {
+						JsonObject field = fl.getAsJsonObject();
+						String name = field.get("name").getAsString();
+						if(field.has("bind")){
+							putIfAbsent(subformBindPaths, key(subform, name), field.get("bind").getAsString());
+						}
+						if(field.has("source")){
+							putIfAbsent(subformSources, key(subform, name), field.get("source").getAsString());
+						}
+					}
+				}
+			}
+		}
+		
+		String bindPath(String fieldName) {
+			return bindPaths.get(key(fieldName));
+		}
+		
+		String subformBindPath(String subform, String fieldName) {
+			return subformBindPaths.get(key(subform, fieldName));
+		}
+		
+		String subformSource(String subform, String fieldName) {
+			return subformSources.get(key(subform, fieldName));
+		}
+		
+		FieldMetadata field(String bindPath) throws XPathExpressionException, ParserConfigurationException, SAXException, IOException {
+			FieldMetadata field = fields.get(bindPath);
+			if(field == null){
+				// DOM reads are not thread safe, so fields are built one at a time
+				synchronized (this) {
+					field = fields.get(bindPath);
+					if(field == null){
+						field = new FieldMetadata(bindPath, jsonForm, convertToMap(getFormPropertyNameForAttribute(bindPath, modelXml)));
+						fields.put(bindPath, field);
+					}
+				}
+			}
+			return field;
+		}
+		
+		private String key(String name) {
+			return name.toLowerCase(Locale.ENGLISH);
+		}
+		
+		private String key(String subform, String name) {
+			return key(subform)+"/"+key(name);
+		}
+		
+		private void putIfAbsent(Map<String, String> map, String key, String value) {
+			if(!map.containsKey(key)){
+				map.put(key, value);
+			}
+		}
+	}
+	
+	class FieldMetadata {
+		private final String type;
+		private final boolean multiselect;
+		private final Map<String, String> attributes;
+		private final Map<String, Map<String, String>> valueCodes = new HashMap<>();
+		
+		FieldMetadata(String bindPath, JsonObject jsonForm, Map<String, String> attributes) {
+			this.type = getFieldType(bindPath, jsonForm);
+			this.multiselect = isMultiselect(bindPath, jsonForm);
+			this.attributes = attributes;
+			
+			JsonObject node = getFieldNode(bindPath, jsonForm);
+			if(node != null && node.has("children")){
+				for (JsonElement ch : node.get("children").getAsJsonArray()) {
+					String option = ch.getAsJsonObject().get("name").getAsString().toLowerCase(Locale.ENGLISH);
+					if(!valueCodes.containsKey(option)){
+						valueCodes.put(option, convertToMap(ch.getAsJsonObject().get("instance")));
+					}
+				}
+			}
+		}
+		
+		/**
+		 * @return a copy of the model.xml attributes of the field
+		 */
+		Map<String, String> attributes() {
+			return new HashMap<>(attributes);
+		}
+		
+		/**
+		 * @return a copy of the custom codes of given option, null if field has no such option
+		 */
+		Map<String, String> valueCodes(String value) {
+			Map<String, String> codes = value==null?null:valueCodes.get(value.toLowerCase(Locale.ENGLISH));
+			return codes==null?null:new HashMap<>(codes);
+		}
+	}
 }
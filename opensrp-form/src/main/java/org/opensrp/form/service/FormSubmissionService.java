@@ -13,6 +13,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
 
 import static ch.lambdaj.collection.LambdaCollections.with;
@@ -49,6 +50,10 @@ public class FormSubmissionService {
     public List<FormSubmission> getAllSubmissions(Long version, Integer batchSize) {
         return allFormSubmissions.allFormSubmissions(version, batchSize);
     }
+
+    public Iterator<FormSubmission> iterateByServerVersion(long version, int pageSize) {
+        return allFormSubmissions.iterateByServerVersion(version, pageSize);
+    }
     
     public List<FormSubmission> getAllSubmissions(CouchDbConnector sourceDb,Long version, Integer batchSize) {
         return allFormSubmissions.allFormSubmissions(sourceDb,version, batchSize);
@@ -7,6 +7,7 @@ import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.MockitoAnnotations.initMocks;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -21,6 +22,7 @@ import org.hamcrest.Matchers;
 import org.junit.Before;
 import org.junit.Test;
 import org.opensrp.form.domain.FormSubmission;
+import org.springframework.core.io.DefaultResourceLoader;
 import org.xml.sax.SAXException;
 
 import com.google.gson.JsonIOException;
@@ -41,6 +43,22 @@ public class FormAttributeParserTest extends TestResourceLoader{
         fam = new FormAttributeParser(formDirPath);
     }
 	
+	@Test
+	public void shouldReuseFormMetadataUntilFormFilesAreModified() throws Exception {
+		FormSubmission fs = getFormSubmissionFor("basic_reg");
+		FormSubmissionMap fsm = fam.createFormSubmissionMap(fs);
+		FormAttributeParser.FormMetadata metadata = fam.getFormMetadata("basic_reg");
+		
+		assertTrue(metadata == fam.getFormMetadata("basic_reg"));
+		assertEquals(fsm.getField("woman_name").fieldAttributes(), fam.createFormSubmissionMap(fs).getField("woman_name").fieldAttributes());
+		
+		File formDefinition = new File(new DefaultResourceLoader().getResource(formDirPath).getURI().getPath()+"/basic_reg/form_definition.json");
+		assertTrue(formDefinition.setLastModified(formDefinition.lastModified()+1000));
+		
+		assertTrue(metadata != fam.getFormMetadata("basic_reg"));
+		assertEquals(fsm.getField("woman_name").fieldAttributes(), fam.createFormSubmissionMap(fs).getField("woman_name").fieldAttributes());
+	}
+	
 	@SuppressWarnings({ "unchecked" })
 	@Test
 	public void shouldValidateGeneratedFormSubmissionMap() throws JsonIOException, IOException, JsonSyntaxException, XPathExpressionException, ParserConfigurationException, SAXException {
@@ -0,0 +1,113 @@
+package org.opensrp.register.thrivepk;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.opensrp.form.domain.FormSubmission;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Writes the submissions of a form as CSV, one row per submission and one column per field path
+ * found in any of them, the way the dump_csv list function does. Submissions are read a page at a
+ * time, twice: once to collect the columns and once to write the rows, so only the column names are
+ * held in memory however many submissions the form has. Submissions saved between the two passes
+ * are written with the columns collected in the first.
+ */
+@Component
+public class FormSubmissionCsvExporter {
+	
+	public static final int PAGE_SIZE = 500;
+	
+	/** fields left out of the export, as in dump_csv.js */
+	private static final Set<String> IGNORED_FIELDS = new HashSet<String>(Arrays.asList("fields", "existing_birth_date",
+	    "e_opv3", "existing_ethnicity", "e_opv2", "e_opv1", "e_opv0", "first_name_note", "existing_province",
+	    "child_was_suffering_from_a_disease_at_birth_note", "mother_name_note", "existing_mother_name",
+	    "program_client_id_note", "e_measles1", "existing_union_council", "existing_union_councilname", "e_measles2",
+	    "existing_townname", "existing_provincename", "existing_epi_card_number", "e_bcg", "existing_reminders_approval",
+	    "calc_dob_note", "exisiting_ethnicity_note", "existing_town", "existing_city_village", "existing_landmark",
+	    "existing_contact_phone_number", "existing_client_reg_date_note", "existing_address1", "existing_gender",
+	    "last_name_note", "existing_child_was_suffering_from_a_disease_at_birth", "existing_client_reg_date",
+	    "existing_last_name", "e_penta3", "e_penta2", "e_penta1", "existing_city_villagename", "e_pcv2", "e_pcv1",
+	    "gender_note", "e_pcv3", "existing_first_name", "e_ipv", "existing_program_client_id"));
+	
+	private static final ObjectMapper objectMapper = new ObjectMapper();
+	
+	private final FormSubmissionView formSubmissionView;
+	
+	@Autowired
+	public FormSubmissionCsvExporter(FormSubmissionView formSubmissionView) {
+		this.formSubmissionView = formSubmissionView;
+	}
+	
+	public void export(String formName, Writer out) throws IOException {
+		Set<String> columns = new LinkedHashSet<String>();
+		Iterator<FormSubmission> submissions = formSubmissionView.iterateByFormName(formName, PAGE_SIZE);
+		while (submissions.hasNext()) {
+			columns.addAll(flatten(submissions.next()).keySet());
+		}
+		
+		String separator = "";
+		for (String column : columns) {
+			out.write(separator);
+			writeCell(column.substring(column.lastIndexOf('.') + 1), out);
+			separator = ",";
+		}
+		out.write('\n');
+		
+		submissions = formSubmissionView.iterateByFormName(formName, PAGE_SIZE);
+		while (submissions.hasNext()) {
+			Map<String, String> row = flatten(submissions.next());
+			separator = "";
+			for (String column : columns) {
+				out.write(separator);
+				String value = row.get(column);
+				writeCell(value == null ? "" : value, out);
+				separator = ",";
+			}
+			out.write('\n');
+		}
+	}
+	
+	/**
+	 * @return the values of the submission by field path, e.g. instance.form.bind_type
+	 */
+	Map<String, String> flatten(FormSubmission formSubmission) {
+		Map<String, String> row = new LinkedHashMap<String, String>();
+		flatten("", objectMapper.convertValue(formSubmission, Map.class), row);
+		return row;
+	}
+	
+	private void flatten(String path, Object value, Map<String, String> row) {
+		if (value instanceof Map) {
+			for (Map.Entry<?, ?> field : ((Map<?, ?>) value).entrySet()) {
+				String name = String.valueOf(field.getKey());
+				if (!IGNORED_FIELDS.contains(name)) {
+					flatten(path.isEmpty() ? name : path + "." + name, field.getValue(), row);
+				}
+			}
+		} else if (value instanceof List) {
+			List<?> values = (List<?>) value;
+			for (int i = 0; i < values.size(); i++) {
+				flatten(path + "[" + i + "]", values.get(i), row);
+			}
+		} else if (value != null) {
+			row.put(path, String.valueOf(value));
+		}
+	}
+	
+	private void writeCell(String value, Writer out) throws IOException {
+		out.write('"');
+		out.write(value.replace("\"", "\"\""));
+		out.write('"');
+	}
+}
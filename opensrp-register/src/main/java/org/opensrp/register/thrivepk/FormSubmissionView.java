@@ -1,13 +1,16 @@
 package org.opensrp.register.thrivepk;
 
 import java.io.InputStream;
+import java.util.Iterator;
 
 import org.ektorp.CouchDbConnector;
 import org.ektorp.ViewQuery;
 import org.ektorp.support.ListFunction;
 import org.ektorp.support.Lists;
+import org.ektorp.support.View;
 import org.motechproject.dao.MotechBaseRepository;
 import org.opensrp.common.AllConstants;
+import org.opensrp.common.repository.KeysetPagedIterator;
 import org.opensrp.form.domain.FormSubmission;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
@@ -27,6 +30,21 @@ public class FormSubmissionView extends MotechBaseRepository<FormSubmission>{
 		return db.queryForStream(query);
 	}
 	
+	/**
+	 * Iterates over the submissions of a form a page at a time, in document id order.
+	 */
+	@View(name = "formSubmission_by_form_name", map = "function(doc) { if (doc.type === 'FormSubmission') { emit(doc.formName); } }")
+	public Iterator<FormSubmission> iterateByFormName(final String formName, int pageSize) {
+		ViewQuery query = createQuery("formSubmission_by_form_name").startKey(formName).endKey(formName);
+		return new KeysetPagedIterator<FormSubmission>(db, query, FormSubmission.class, pageSize) {
+			
+			@Override
+			protected Object keyOf(FormSubmission formSubmission) {
+				return formName;
+			}
+		};
+	}
+	
 	@Lists(value = { @ListFunction(name = "aggregate_child_enrollment_by_center_csv", file = "aggregate_child_enrollment_by_center_csv.js") })
 	public InputStream aggregate_child_enrollment_by_center_csv(String formName) {
 		ViewQuery query = createQuery("formSubmission_by_form_name").includeDocs(true).key(formName);
@@ -0,0 +1,69 @@
+package org.opensrp.register.thrivepk;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+import java.io.StringWriter;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.opensrp.form.domain.FormSubmission;
+import org.opensrp.register.util.FormSubmissionBuilder;
+
+public class FormSubmissionCsvExporterTest {
+
+	@Mock
+	private FormSubmissionView formSubmissionView;
+
+	private FormSubmissionCsvExporter exporter;
+
+	@Before
+	public void setUp() {
+		initMocks(this);
+		exporter = new FormSubmissionCsvExporter(formSubmissionView);
+	}
+
+	@Test
+	public void shouldFlattenSubmissionByFieldPathLeavingOutIgnoredFields() {
+		Map<String, String> row = exporter.flatten(FormSubmissionBuilder.create().withEntityId("entity \"1\"").build());
+
+		assertEquals("entity \"1\"", row.get("entityId"));
+		assertEquals("entity 1", row.get("instance.form.bind_type"));
+		assertEquals("sub form name", row.get("instance.form.sub_forms[0].name"));
+		for (String path : row.keySet()) {
+			assertFalse(path, path.contains("fields"));
+		}
+	}
+
+	@Test
+	public void shouldWriteHeaderOfAllColumnsThenOneRowPerSubmission() throws Exception {
+		final List<FormSubmission> submissions = asList(
+		    FormSubmissionBuilder.create().withFormName("birth_registration").withEntityId("child 1").build(),
+		    FormSubmissionBuilder.create().withFormName("birth_registration").withEntityId("child \"2\"").build());
+		when(formSubmissionView.iterateByFormName(eq("birth_registration"), anyInt())).thenReturn(submissions.iterator(),
+		    submissions.iterator());
+
+		StringWriter csv = new StringWriter();
+		exporter.export("birth_registration", csv);
+
+		String[] lines = csv.toString().split("\n");
+		assertEquals(3, lines.length);
+		List<String> header = asList(lines[0].split(","));
+		assertTrue(header.contains("\"entityId\""));
+		assertTrue(header.contains("\"bind_type\""));
+		assertEquals(header.size(), lines[1].split(",").length);
+		assertTrue(lines[2].contains("\"child \"\"2\"\"\""));
+		verify(formSubmissionView, times(2)).iterateByFormName(eq("birth_registration"), anyInt());
+	}
+}
@@ -7,6 +7,7 @@ import static org.opensrp.web.rest.RestUtils.getStringFilter;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
@@ -37,6 +38,7 @@ import ch.lambdaj.function.convert.Converter;
 @Controller
 public class ActionController {
 	private static org.slf4j.Logger logger = LoggerFactory.getLogger(ActionController.class.toString());
+	private static final int CLIENT_PAGE_SIZE = 500;
 
     private ActionService actionService;
     private AllClients allClients;
@@ -79,7 +81,8 @@ public class ActionController {
     	if(!key.equalsIgnoreCase("20160727KiSafaiMuhim")){
     		throw new RuntimeException("Invalid Key");
     	}
-        for (Client c : allClients.findAllClients()) {
+        for (Iterator<Client> clients = allClients.iterateAllClients(CLIENT_PAGE_SIZE); clients.hasNext();) {
+			Client c = clients.next();
 			List<Alert> al = allAlerts.findActiveAlertByEntityId(c.getBaseEntityId());
 			Logger.getLogger(getClass()).warn(al.size()+" Alerts for "+c.getBaseEntityId());
 			Map<String, Alert> am = new HashMap<>();
@@ -7,6 +7,7 @@ import org.json.JSONObject;
 import org.opensrp.connector.dhis2.DHIS2AggregateConnector;
 import org.opensrp.domain.Event;
 import org.opensrp.repository.AllEvents;
+import org.opensrp.service.IndicatorAggregationService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
@@ -25,6 +26,8 @@ public class DHIS2Controller {
     @Autowired
     private DHIS2AggregateConnector dHIS2AggregateConnector;
     @Autowired
+    private IndicatorAggregationService indicatorAggregationService;
+    @Autowired
     public DHIS2Controller(AllEvents allEvents) {
     	this.allEvents = allEvents;
     }
@@ -50,5 +53,15 @@ public class DHIS2Controller {
         
     }
     
+    /**
+     * Rebuild the aggregate indicator counters from all events, e.g. after an indicator definition
+     * changed. Returns the number of events folded.
+     */
+    @RequestMapping(method = RequestMethod.POST, value = "/rebuild-aggregate-indicators")
+    @ResponseBody
+    public ResponseEntity<String> rebuildAggregateIndicators() throws InterruptedException {
+    	long events = indicatorAggregationService.rebuild();
+    	return new ResponseEntity<>(new Gson().toJson(events), HttpStatus.OK);
+    }
+    
 }
-
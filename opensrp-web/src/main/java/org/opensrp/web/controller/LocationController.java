@@ -10,8 +10,6 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.ResponseBody;
 
-import com.google.gson.Gson;
-
 @Controller
 @RequestMapping("/location/")
 public class LocationController {
@@ -26,12 +24,12 @@ public class LocationController {
 	@RequestMapping("location-tree")
 	@ResponseBody
 	public ResponseEntity<String> getLocationTree() throws JSONException {
-		return new ResponseEntity<>(new Gson().toJson(openmrsLocationService.getLocationTree()),HttpStatus.OK);
+		return new ResponseEntity<>(openmrsLocationService.getLocationTreeJson(),HttpStatus.OK);
 	}
 	
 	@RequestMapping("location-tree/{uuid}")
 	@ResponseBody
 	public ResponseEntity<String> getLocationTree(@PathVariable("uuid") String uuid) throws JSONException {
-		return new ResponseEntity<>(new Gson().toJson(openmrsLocationService.getLocationTreeOf(uuid)),HttpStatus.OK);
+		return new ResponseEntity<>(openmrsLocationService.getLocationTreeJsonOf(uuid),HttpStatus.OK);
 	}
 }
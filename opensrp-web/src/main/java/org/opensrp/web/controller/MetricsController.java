@@ -0,0 +1,239 @@
+package org.opensrp.web.controller;
+
+import static org.opensrp.common.monitor.Metric.Type.TIMER;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.opensrp.common.monitor.Gauge;
+import org.opensrp.common.monitor.Histogram;
+import org.opensrp.common.monitor.Metric;
+import org.opensrp.common.monitor.Monitor;
+import org.opensrp.common.util.HttpClientMetrics;
+import org.opensrp.common.util.HttpUtil;
+import org.opensrp.service.formSubmission.ziggy.ZiggyService;
+import org.opensrp.web.security.DrishtiAuthenticationProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+import com.google.gson.Gson;
+
+/**
+ * Publishes the timers, counters and gauges of the {@link Monitor} and the latency of the outbound
+ * HTTP calls, as Prometheus text at /metrics and as JSON at /metrics/json. Durations are published
+ * in seconds in the Prometheus text, in milliseconds in the JSON. The gauges registered here cover
+ * the outbound HTTP connection pool, the credential cache and the pool of ziggy script contexts.
+ */
+@Controller
+public class MetricsController {
+
+	private static final double[] QUANTILES = { 0.5, 0.75, 0.95, 0.99, 0.999 };
+
+	private static final String[] PERCENTILE_NAMES = { "p50", "p75", "p95", "p99", "p999" };
+
+	private static final String PREFIX = "opensrp_";
+
+	private final Monitor monitor;
+
+	@Autowired
+	public MetricsController(Monitor monitor,
+	                         @Qualifier("drishtiAuthenticationProvider") final DrishtiAuthenticationProvider authenticationProvider,
+	                         final ZiggyService ziggyService) {
+		this.monitor = monitor;
+		monitor.registerGauge("http_client_pool_leased", new Gauge() {
+
+			@Override
+			public long value() {
+				return HttpUtil.poolStats().getLeased();
+			}
+		});
+		monitor.registerGauge("http_client_pool_pending", new Gauge() {
+
+			@Override
+			public long value() {
+				return HttpUtil.poolStats().getPending();
+			}
+		});
+		monitor.registerGauge("http_client_pool_available", new Gauge() {
+
+			@Override
+			public long value() {
+				return HttpUtil.poolStats().getAvailable();
+			}
+		});
+		monitor.registerGauge("http_client_pool_max", new Gauge() {
+
+			@Override
+			public long value() {
+				return HttpUtil.poolStats().getMax();
+			}
+		});
+		monitor.registerGauge("auth_cache_hits", new Gauge() {
+
+			@Override
+			public long value() {
+				return authenticationProvider.getCacheHits();
+			}
+		});
+		monitor.registerGauge("auth_cache_misses", new Gauge() {
+
+			@Override
+			public long value() {
+				return authenticationProvider.getCacheMisses();
+			}
+		});
+		// gauges are whole numbers, the rate is published in percent
+		monitor.registerGauge("auth_cache_hit_rate_percent", new Gauge() {
+
+			@Override
+			public long value() {
+				return Math.round(authenticationProvider.getCacheHitRate() * 100);
+			}
+		});
+		monitor.registerGauge("ziggy_pool_size", new Gauge() {
+
+			@Override
+			public long value() {
+				return ziggyService.getPoolSize();
+			}
+		});
+		monitor.registerGauge("ziggy_pool_idle", new Gauge() {
+
+			@Override
+			public long value() {
+				return ziggyService.getIdleContexts();
+			}
+		});
+		monitor.registerGauge("ziggy_pool_waiting", new Gauge() {
+
+			@Override
+			public long value() {
+				return ziggyService.getWaitingSaves();
+			}
+		});
+	}
+
+	@RequestMapping(method = RequestMethod.GET, value = "/metrics")
+	@ResponseBody
+	public ResponseEntity<String> prometheus() {
+		StringBuilder text = new StringBuilder();
+		for (Metric metric : Metric.values()) {
+			if (metric.type() == TIMER) {
+				String name = PREFIX + metric.name().toLowerCase().replaceAll("_time$", "") + "_seconds";
+				text.append("# TYPE ").append(name).append(" summary\n");
+				appendSummary(text, name, monitor.timer(metric));
+			} else {
+				String name = PREFIX + metric.name().toLowerCase() + "_total";
+				text.append("# TYPE ").append(name).append(" counter\n");
+				text.append(name).append(' ').append(monitor.counter(metric).value()).append('\n');
+			}
+		}
+		for (Map.Entry<String, Gauge> gauge : monitor.gauges().entrySet()) {
+			String name = PREFIX + gauge.getKey();
+			text.append("# TYPE ").append(name).append(" gauge\n");
+			text.append(name).append(' ').append(gauge.getValue().value()).append('\n');
+		}
+
+		Map<String, HttpClientMetrics.Latency> endpoints = HttpUtil.metrics().endpoints();
+		String requests = PREFIX + "http_client_request_seconds";
+		text.append("# TYPE ").append(requests).append(" histogram\n");
+		for (Map.Entry<String, HttpClientMetrics.Latency> endpoint : endpoints.entrySet()) {
+			String label = "endpoint=\"" + escape(endpoint.getKey()) + "\"";
+			HttpClientMetrics.Latency latency = endpoint.getValue();
+			long[] buckets = latency.bucketCounts();
+			long cumulative = 0;
+			for (int i = 0; i < HttpClientMetrics.Latency.BUCKET_BOUNDS_MILLIS.length; i++) {
+				cumulative += buckets[i];
+				text.append(requests).append("_bucket{").append(label).append(",le=\"")
+				        .append(HttpClientMetrics.Latency.BUCKET_BOUNDS_MILLIS[i] / 1000.0).append("\"} ").append(cumulative)
+				        .append('\n');
+			}
+			text.append(requests).append("_bucket{").append(label).append(",le=\"+Inf\"} ").append(latency.count())
+			        .append('\n');
+			text.append(requests).append("_sum{").append(label).append("} ").append(latency.totalNanos() / 1e9)
+			        .append('\n');
+			text.append(requests).append("_count{").append(label).append("} ").append(latency.count()).append('\n');
+		}
+		String failures = PREFIX + "http_client_request_failures_total";
+		text.append("# TYPE ").append(failures).append(" counter\n");
+		for (Map.Entry<String, HttpClientMetrics.Latency> endpoint : endpoints.entrySet()) {
+			text.append(failures).append("{endpoint=\"").append(escape(endpoint.getKey())).append("\"} ")
+			        .append(endpoint.getValue().failures()).append('\n');
+		}
+
+		HttpHeaders headers = new HttpHeaders();
+		headers.set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+		return new ResponseEntity<>(text.toString(), headers, HttpStatus.OK);
+	}
+
+	@RequestMapping(method = RequestMethod.GET, value = "/metrics/json")
+	@ResponseBody
+	public ResponseEntity<String> json() {
+		Map<String, Object> timers = new LinkedHashMap<String, Object>();
+		Map<String, Object> counters = new LinkedHashMap<String, Object>();
+		for (Metric metric : Metric.values()) {
+			if (metric.type() == TIMER) {
+				Histogram timer = monitor.timer(metric);
+				Map<String, Object> values = new LinkedHashMap<String, Object>();
+				values.put("count", timer.count());
+				values.put("sum_millis", millis(timer.sum()));
+				values.put("max_millis", millis(timer.max()));
+				for (int i = 0; i < QUANTILES.length; i++) {
+					values.put(PERCENTILE_NAMES[i] + "_millis", millis(timer.valueAtPercentile(QUANTILES[i] * 100)));
+				}
+				timers.put(metric.name(), values);
+			} else {
+				counters.put(metric.name(), monitor.counter(metric).value());
+			}
+		}
+		Map<String, Object> gauges = new LinkedHashMap<String, Object>();
+		for (Map.Entry<String, Gauge> gauge : monitor.gauges().entrySet()) {
+			gauges.put(gauge.getKey(), gauge.getValue().value());
+		}
+		Map<String, Object> httpClient = new LinkedHashMap<String, Object>();
+		for (Map.Entry<String, HttpClientMetrics.Latency> endpoint : HttpUtil.metrics().endpoints().entrySet()) {
+			HttpClientMetrics.Latency latency = endpoint.getValue();
+			Map<String, Object> values = new LinkedHashMap<String, Object>();
+			values.put("count", latency.count());
+			values.put("failures", latency.failures());
+			values.put("sum_millis", TimeUnit.NANOSECONDS.toMillis(latency.totalNanos()));
+			for (int i = 0; i < QUANTILES.length; i++) {
+				long millis = latency.percentileMillis(QUANTILES[i] * 100);
+				values.put(PERCENTILE_NAMES[i] + "_millis", millis == Long.MAX_VALUE ? "+Inf" : millis);
+			}
+			httpClient.put(endpoint.getKey(), values);
+		}
+
+		Map<String, Object> metrics = new LinkedHashMap<String, Object>();
+		metrics.put("timers", timers);
+		metrics.put("counters", counters);
+		metrics.put("gauges", gauges);
+		metrics.put("http_client", httpClient);
+		return new ResponseEntity<>(new Gson().toJson(metrics), HttpStatus.OK);
+	}
+
+	private static void appendSummary(StringBuilder text, String name, Histogram timer) {
+		for (double quantile : QUANTILES) {
+			text.append(name).append("{quantile=\"").append(quantile).append("\"} ")
+			        .append(timer.valueAtPercentile(quantile * 100) / 1e6).append('\n');
+		}
+		text.append(name).append("_sum ").append(timer.sum() / 1e6).append('\n');
+		text.append(name).append("_count ").append(timer.count()).append('\n');
+	}
+
+	private static double millis(long micros) {
+		return micros / 1000.0;
+	}
+
+	private static String escape(String labelValue) {
+		return labelValue.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+}
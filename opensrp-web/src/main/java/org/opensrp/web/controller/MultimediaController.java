@@ -2,15 +2,17 @@ package org.opensrp.web.controller;
 
 import static org.springframework.web.bind.annotation.RequestMethod.POST;
 
-import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URLConnection;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.Charset;
 
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.opensrp.domain.Multimedia;
@@ -27,7 +29,6 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.Authentication;
 import org.springframework.stereotype.Controller;
-import org.springframework.util.FileCopyUtils;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
@@ -43,6 +44,19 @@ public class MultimediaController {
 	
 	private static Logger logger = LoggerFactory.getLogger(MultimediaController.class.toString());
 	
+	/** how long devices may use a downloaded file before revalidating it with its ETag */
+	private static final long CACHE_MAX_AGE_SECONDS = 24 * 60 * 60;
+	
+	/** set by Tomcat on requests whose connector can send a file itself, with the kernel's sendfile */
+	static final String SENDFILE_SUPPORTED = "org.apache.tomcat.sendfile.support";
+	
+	static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+	
+	static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+	
+	/** offset one past the last byte to send */
+	static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+	
 	@Value("#{opensrp['multimedia.directory.name']}")
 	String multiMediaDir;
 	
@@ -57,8 +71,10 @@ public class MultimediaController {
 	 * Download a file from the multimedia directory. The method also assumes two file types mp4 and
 	 * images whereby all images are stored in the images folder and videos in mp4 in the multimedia
 	 * directory This method is set to bypass spring security config but authenticate through the
-	 * username/password passed at the headers
+	 * username/password passed at the headers. Single byte ranges and conditional requests are
+	 * supported, see {@link #downloadFile(File, HttpServletRequest, HttpServletResponse)}.
 	 * 
+	 * @param request
 	 * @param response
 	 * @param fileName
 	 * @param userName
@@ -66,7 +82,8 @@ public class MultimediaController {
 	 * @throws IOException
 	 */
 	@RequestMapping(value = "/download/{fileName:.+}", method = RequestMethod.GET)
-	public void downloadFile(HttpServletResponse response, @PathVariable("fileName") String fileName,
+	public void downloadFile(HttpServletRequest request, HttpServletResponse response,
+	                         @PathVariable("fileName") String fileName,
 	                         @RequestHeader(value = "username") String userName,
 	                         @RequestHeader(value = "password") String password)
 	    throws Exception {
@@ -78,7 +95,7 @@ public class MultimediaController {
 					file = new File(multiMediaDir + File.separator + "videos" + File.separator + fileName);
 				}
 				
-				downloadFile(file, response);
+				downloadFile(file, request, response);
 			}
 		}
 		catch (Exception e) {
@@ -88,16 +105,22 @@ public class MultimediaController {
 	
 	/**
 	 * This method downloads a file from the server given the client id. A search is made to the
-	 * multimedia repo to see if any file exists mapped to the user whereby the filepath is recorded
+	 * multimedia repo to see if any file exists mapped to the user whereby the filepath is recorded.
+	 * Devices on slow links can ask for a resized copy of the image with the size parameter.
 	 * 
+	 * @param request
 	 * @param response
 	 * @param baseEntityId
+	 * @param size longest side in pixels the image is displayed at; the smallest resized copy at
+	 *            least this large is sent, or the original if there is none
 	 * @param userName
 	 * @param password
 	 * @throws Exception
 	 */
 	@RequestMapping(value = "/profileimage/{baseEntityId}", method = RequestMethod.GET)
-	public void downloadFileByClientId(HttpServletResponse response, @PathVariable("baseEntityId") String baseEntityId,
+	public void downloadFileByClientId(HttpServletRequest request, HttpServletResponse response,
+	                                   @PathVariable("baseEntityId") String baseEntityId,
+	                                   @RequestParam(value = "size", required = false) Integer size,
 	                                   @RequestHeader(value = "username") String userName,
 	                                   @RequestHeader(value = "password") String password)
 	    throws Exception {
@@ -105,26 +128,34 @@ public class MultimediaController {
 		try {
 			if (authenticate(userName, password).isAuthenticated()) {
 				
+				if (size != null) {
+					File variant = multimediaService.findImageVariant(baseEntityId, size);
+					if (variant != null) {
+						downloadFile(variant, request, response);
+						return;
+					}
+				}
+				
 				Multimedia multiMedia = multimediaService.findByCaseId(baseEntityId);
 				if (multiMedia == null || multiMedia.getFilePath() == null) {
 					//see if the file exists in the disk with the assumption that it's .jpg otherwise return error msg
 					File file = new File(multiMediaDir + File.separator + MultimediaService.IMAGES_DIR + File.separator
 					        + baseEntityId + ".jpg");
 					if (file.exists()) {
-						downloadFile(file, response);
+						downloadFile(file, request, response);
 					} else {
 						String errorMessage = "Sorry. The file you are looking for does not exist";
 						logger.info(errorMessage);
 						OutputStream outputStream = response.getOutputStream();
 						outputStream.write(errorMessage.getBytes(Charset.forName("UTF-8")));
 						outputStream.close();
-						return;
 					}
+					return;
 				}
 				String filePath = multiMedia.getFilePath();
 				
 				File file = new File(filePath);
-				downloadFile(file, response);
+				downloadFile(file, request, response);
 			}
 		}
 		catch (Exception e) {
@@ -154,9 +185,18 @@ public class MultimediaController {
 		return auth;
 	}
 	
-	private void downloadFile(File file, HttpServletResponse response) throws Exception {
+	/**
+	 * Sends the file, or the single byte range of it asked for in the Range header. When the servlet
+	 * container supports sendfile (Tomcat's NIO and APR connectors) the file is handed over to it and
+	 * the kernel copies it to the socket without it passing through the heap; otherwise it is copied
+	 * from its file channel to the response stream. Every response carries an ETag and Last-Modified;
+	 * a request whose If-None-Match or If-Modified-Since matches them is answered with 304 and no
+	 * body, so devices syncing do not download unchanged files again, and an interrupted video
+	 * download resumes from the byte it stopped at.
+	 */
+	void downloadFile(File file, HttpServletRequest request, HttpServletResponse response) throws IOException {
 		
-		if (!file.exists()) {
+		if (!file.isFile()) {
 			String errorMessage = "Sorry. The file you are looking for does not exist";
 			logger.info(errorMessage);
 			OutputStream outputStream = response.getOutputStream();
@@ -165,6 +205,21 @@ public class MultimediaController {
 			return;
 		}
 		
+		long length = file.length();
+		// http dates have a resolution of seconds
+		long lastModified = file.lastModified() / 1000 * 1000;
+		String eTag = "\"" + Long.toHexString(length) + "-" + Long.toHexString(lastModified) + "\"";
+		
+		response.setHeader("ETag", eTag);
+		response.setDateHeader("Last-Modified", lastModified);
+		response.setHeader("Cache-Control", "private, max-age=" + CACHE_MAX_AGE_SECONDS);
+		response.setHeader("Accept-Ranges", "bytes");
+		
+		if (notModified(request, eTag, lastModified)) {
+			response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			return;
+		}
+		
 		String mimeType = URLConnection.guessContentTypeFromName(file.getName());
 		if (mimeType == null) {
 			logger.info("mimetype is not detectable, will take default");
@@ -182,12 +237,126 @@ public class MultimediaController {
 		/* "Content-Disposition : attachment" will be directly download, may provide save as popup, based on your browser setting*/
 		//response.setHeader("Content-Disposition", String.format("attachment; filename=\"%s\"", file.getName()));
 		
-		response.setContentLength((int) file.length());
+		long start = 0;
+		long end = length - 1;
+		String range = request.getHeader("Range");
+		if (range != null && rangeStillValid(request, eTag, lastModified)) {
+			long[] byteRange = parseByteRange(range, length);
+			if (byteRange == null) {
+				response.setHeader("Content-Range", "bytes */" + length);
+				response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+				return;
+			}
+			if (byteRange.length == 2) {
+				start = byteRange[0];
+				end = byteRange[1];
+				response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+				response.setHeader("Content-Range", "bytes " + start + "-" + end + "/" + length);
+			}
+		}
 		
-		InputStream inputStream = new BufferedInputStream(new FileInputStream(file));
+		// set as a header, setContentLength takes an int and files over 2GB would overflow it
+		response.setHeader("Content-Length", Long.toString(end - start + 1));
 		
-		//Copy bytes from source to destination(outputstream in this example), closes both streams.
-		FileCopyUtils.copy(inputStream, response.getOutputStream());
+		if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORTED))) {
+			request.setAttribute(SENDFILE_FILENAME, file.getCanonicalPath());
+			request.setAttribute(SENDFILE_START, Long.valueOf(start));
+			request.setAttribute(SENDFILE_END, Long.valueOf(end + 1));
+			return;
+		}
+		
+		try (FileChannel in = new FileInputStream(file).getChannel()) {
+			WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+			long position = start;
+			long remaining = end - start + 1;
+			while (remaining > 0) {
+				long sent = in.transferTo(position, remaining, out);
+				if (sent <= 0) {
+					break;
+				}
+				position += sent;
+				remaining -= sent;
+			}
+		}
+	}
+	
+	private boolean notModified(HttpServletRequest request, String eTag, long lastModified) {
+		String ifNoneMatch = request.getHeader("If-None-Match");
+		if (ifNoneMatch != null) {
+			return ifNoneMatch.trim().equals("*") || ifNoneMatch.contains(eTag);
+		}
+		long ifModifiedSince = dateHeader(request, "If-Modified-Since");
+		return ifModifiedSince != -1 && lastModified <= ifModifiedSince;
+	}
+	
+	/**
+	 * A Range sent with If-Range only applies if the file is still the one the device got the rest of
+	 * its copy from.
+	 */
+	private boolean rangeStillValid(HttpServletRequest request, String eTag, long lastModified) {
+		String ifRange = request.getHeader("If-Range");
+		if (ifRange == null) {
+			return true;
+		}
+		if (ifRange.startsWith("\"")) {
+			return ifRange.equals(eTag);
+		}
+		return dateHeader(request, "If-Range") == lastModified;
+	}
+	
+	private long dateHeader(HttpServletRequest request, String name) {
+		try {
+			return request.getDateHeader(name);
+		}
+		catch (IllegalArgumentException e) {
+			return -1;
+		}
+	}
+	
+	/**
+	 * @return the first and last byte of a single byte range, an empty array if the whole file should
+	 *         be sent (several or malformed ranges, including one whose last byte is before its first),
+	 *         or null if the range is well formed but not satisfiable, i.e. starts past the end of the
+	 *         file or asks for the last 0 bytes
+	 */
+	static long[] parseByteRange(String range, long length) {
+		if (!range.startsWith("bytes=") || range.contains(",")) {
+			return new long[0];
+		}
+		String spec = range.substring("bytes=".length()).trim();
+		int dash = spec.indexOf('-');
+		if (dash < 0) {
+			return new long[0];
+		}
+		try {
+			long start;
+			long end;
+			if (dash == 0) {
+				// the last n bytes
+				long suffix = Long.parseLong(spec.substring(1));
+				if (suffix < 0) {
+					return new long[0];
+				}
+				if (suffix == 0) {
+					return null;
+				}
+				start = Math.max(0, length - suffix);
+				end = length - 1;
+			} else {
+				start = Long.parseLong(spec.substring(0, dash));
+				end = dash == spec.length() - 1 ? Long.MAX_VALUE : Long.parseLong(spec.substring(dash + 1));
+				if (end < start) {
+					return new long[0];
+				}
+			}
+			if (start >= length) {
+				return null;
+			}
+			return new long[] { start, Math.min(end, length - 1) };
+		}
+		catch (NumberFormatException e) {
+			return new long[0];
+		}
 	}
 	
 }
@@ -10,6 +10,14 @@ import static org.opensrp.common.AllConstants.Event.LOCATION_ID;
 import static org.opensrp.common.AllConstants.Event.PROVIDER_ID;
 import static org.opensrp.common.AllConstants.Event.TEAM;
 import static org.opensrp.common.AllConstants.Event.TEAM_ID;
+import static org.opensrp.common.monitor.Metric.CLIENTS_SAVED;
+import static org.opensrp.common.monitor.Metric.CLIENT_SAVE_FAILURES;
+import static org.opensrp.common.monitor.Metric.EVENTS_SAVED;
+import static org.opensrp.common.monitor.Metric.EVENTS_SYNCED;
+import static org.opensrp.common.monitor.Metric.EVENT_SAVE_FAILURES;
+import static org.opensrp.common.monitor.Metric.EVENT_SAVE_TIME;
+import static org.opensrp.common.monitor.Metric.EVENT_SYNC_STREAM_TIME;
+import static org.opensrp.common.monitor.Metric.EVENT_SYNC_TIME;
 import static org.opensrp.web.rest.RestUtils.getDateRangeFilter;
 import static org.opensrp.web.rest.RestUtils.getIntegerFilter;
 import static org.opensrp.web.rest.RestUtils.getStringFilter;
@@ -18,19 +26,33 @@ import static org.springframework.http.HttpStatus.CREATED;
 import static org.springframework.http.HttpStatus.INTERNAL_SERVER_ERROR;
 import static org.springframework.web.bind.annotation.RequestMethod.POST;
 
+import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.map.ObjectMapper;
 import org.joda.time.DateTime;
+import org.ektorp.DocumentOperationResult;
 import org.json.JSONObject;
 import org.opensrp.common.AllConstants.BaseEntity;
+import org.opensrp.common.monitor.Monitor;
+import org.opensrp.common.monitor.Probe;
 import org.opensrp.domain.Client;
 import org.opensrp.domain.Event;
+import org.opensrp.repository.lucene.Consistency;
 import org.opensrp.service.ClientService;
 import org.opensrp.service.EventService;
 import org.opensrp.util.DateTimeTypeConverter;
@@ -49,6 +71,7 @@ import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.JsonArray;
 import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonWriter;
 import com.mysql.jdbc.StringUtils;
 
 @Controller
@@ -57,17 +80,30 @@ public class EventResource extends RestResource<Event> {
 	
 	private static Logger logger = LoggerFactory.getLogger(EventResource.class.toString());
 	
+	private static final String LAST_EVENT_ID = "lastEventId";
+	
+	private static final int CLIENT_FETCH_BATCH_SIZE = 100;
+	
+	private static final int STREAM_PAGE_SIZE = 100;
+	
+	private static final int GET_ALL_PAGE_SIZE = 500;
+	
+	private static final ObjectMapper objectMapper = new ObjectMapper();
+	
 	private EventService eventService;
 	
 	private ClientService clientService;
 	
+	private Monitor monitor;
+	
 	Gson gson = new GsonBuilder().setDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ")
 	        .registerTypeAdapter(DateTime.class, new DateTimeTypeConverter()).create();
 	
 	@Autowired
-	public EventResource(ClientService clientService, EventService eventService) {
+	public EventResource(ClientService clientService, EventService eventService, Monitor monitor) {
 		this.clientService = clientService;
 		this.eventService = eventService;
+		this.monitor = monitor;
 	}
 	
 	@Override
@@ -75,10 +111,30 @@ public class EventResource extends RestResource<Event> {
 		return eventService.find(uniqueId);
 	}
 	
+	/**
+	 * Writes every event as a json array, reading them from the database a page at a time so the
+	 * whole collection is never held in memory.
+	 * 
+	 * @param response
+	 * @throws IOException
+	 */
 	@RequestMapping(value = "/getall", method = RequestMethod.GET)
-	@ResponseBody
-	protected List<Event> getAll() {
-		return eventService.getAll();
+	protected void getAll(HttpServletResponse response) throws IOException {
+		response.setStatus(HttpServletResponse.SC_OK);
+		response.setContentType("application/json");
+		response.setCharacterEncoding("UTF-8");
+		JsonGenerator generator = objectMapper.getJsonFactory().createJsonGenerator(response.getOutputStream(),
+		    JsonEncoding.UTF8);
+		try {
+			generator.writeStartArray();
+			for (Iterator<Event> events = eventService.iterateAll(GET_ALL_PAGE_SIZE); events.hasNext();) {
+				objectMapper.writeValue(generator, events.next());
+			}
+			generator.writeEndArray();
+		}
+		finally {
+			generator.close();
+		}
 	}
 	
 	/**
@@ -92,7 +148,7 @@ public class EventResource extends RestResource<Event> {
 	@ResponseBody
 	protected ResponseEntity<String> sync(HttpServletRequest request) {
 		Map<String, Object> response = new HashMap<String, Object>();
-		
+		Probe probe = monitor.start(EVENT_SYNC_TIME);
 		try {
 			String providerId = getStringFilter(PROVIDER_ID, request);
 			String locationId = getStringFilter(LOCATION_ID, request);
@@ -110,19 +166,18 @@ public class EventResource extends RestResource<Event> {
 			}
 			
 			List<Event> events = new ArrayList<Event>();
-			List<String> clientIds = new ArrayList<String>();
+			Set<String> clientIds = new LinkedHashSet<String>();
 			List<Client> clients = new ArrayList<Client>();
 			if (team != null || providerId != null || locationId != null || baseEntityId != null) {
 				events = eventService.findEvents(team, teamId, providerId, locationId, baseEntityId, lastSyncedServerVersion,
-				    BaseEntity.SERVER_VERSIOIN, "asc", limit);
+				    BaseEntity.SERVER_VERSIOIN, "asc", limit, Consistency.BOUNDED);
 				if (!events.isEmpty()) {
 					for (Event event : events) {
-						if (event.getBaseEntityId() != null && !event.getBaseEntityId().isEmpty()
-						        && !clientIds.contains(event.getBaseEntityId())) {
+						if (event.getBaseEntityId() != null && !event.getBaseEntityId().isEmpty()) {
 							clientIds.add(event.getBaseEntityId());
 						}
 					}
-					clients = clientService.findByFieldValue(BaseEntity.BASE_ENTITY_ID, clientIds);
+					clients = clientService.findByBaseEntityIds(clientIds);
 				}
 			}
 			
@@ -133,6 +188,7 @@ public class EventResource extends RestResource<Event> {
 			response.put("events", eventsArray);
 			response.put("clients", clientsArray);
 			response.put("no_of_events", events.size());
+			monitor.increment(EVENTS_SYNCED, events.size());
 			
 			return new ResponseEntity<>(gson.toJson(response), HttpStatus.OK);
 			
@@ -142,11 +198,129 @@ public class EventResource extends RestResource<Event> {
 			logger.error("", e);
 			return new ResponseEntity<>(new Gson().toJson(response), HttpStatus.INTERNAL_SERVER_ERROR);
 		}
+		finally {
+			monitor.end(probe);
+		}
+	}
+	
+	/**
+	 * Streaming variant of {@link #sync(HttpServletRequest)}. Events are read from the index a page at a
+	 * time and, like the clients, written one by one straight to the servlet output stream instead of
+	 * being collected and converted to a json tree and a String first, so large limits do not hold the
+	 * payload in heap. The response has the same shape as /sync plus a <code>cursor</code> object
+	 * holding the serverVersion and id of the last event, which the device sends back as
+	 * <code>serverVersion</code> and <code>lastEventId</code> to fetch the next page.
+	 * 
+	 * @param request
+	 * @param response
+	 * @throws IOException
+	 */
+	@RequestMapping(value = "/sync/stream", method = RequestMethod.GET)
+	protected void streamSync(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		Probe probe = monitor.start(EVENT_SYNC_STREAM_TIME);
+		try {
+			streamEvents(request, response);
+		}
+		finally {
+			monitor.end(probe);
+		}
+	}
+	
+	private void streamEvents(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		Iterator<Event> events;
+		try {
+			String providerId = getStringFilter(PROVIDER_ID, request);
+			String locationId = getStringFilter(LOCATION_ID, request);
+			String baseEntityId = getStringFilter(BASE_ENTITY_ID, request);
+			String serverVersion = getStringFilter(BaseEntity.SERVER_VERSIOIN, request);
+			String lastEventId = getStringFilter(LAST_EVENT_ID, request);
+			String team = getStringFilter(TEAM, request);
+			String teamId = getStringFilter(TEAM_ID, request);
+			Integer limit = getIntegerFilter("limit", request);
+			if (limit == null || limit.intValue() == 0) {
+				limit = 25;
+			}
+			
+			events = Collections.<Event> emptyList().iterator();
+			if (team != null || providerId != null || locationId != null || baseEntityId != null) {
+				events = eventService.iterateEventsAfter(team, teamId, providerId, locationId, baseEntityId,
+				    serverVersion == null ? null : Long.valueOf(serverVersion), lastEventId, limit, STREAM_PAGE_SIZE);
+				// read the first page before the response is committed, so a failing query still gets a 500
+				events.hasNext();
+			}
+		}
+		catch (Exception e) {
+			logger.error("", e);
+			response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+			response.setContentType("application/json");
+			response.getWriter().write("{\"msg\":\"Error occurred\"}");
+			return;
+		}
+		
+		response.setStatus(HttpServletResponse.SC_OK);
+		response.setContentType("application/json");
+		response.setCharacterEncoding("UTF-8");
+		JsonWriter writer = new JsonWriter(new OutputStreamWriter(response.getOutputStream(), "UTF-8"));
+		try {
+			writer.beginObject();
+			
+			Set<String> clientIds = new LinkedHashSet<String>();
+			int count = 0;
+			Event last = null;
+			writer.name("events").beginArray();
+			while (events.hasNext()) {
+				Event event = events.next();
+				gson.toJson(event, Event.class, writer);
+				count++;
+				last = event;
+				if (event.getBaseEntityId() != null && !event.getBaseEntityId().isEmpty()) {
+					clientIds.add(event.getBaseEntityId());
+				}
+			}
+			writer.endArray();
+			
+			writer.name("clients").beginArray();
+			List<String> batch = new ArrayList<String>(CLIENT_FETCH_BATCH_SIZE);
+			for (Iterator<String> it = clientIds.iterator(); it.hasNext();) {
+				batch.add(it.next());
+				if (batch.size() == CLIENT_FETCH_BATCH_SIZE || !it.hasNext()) {
+					for (Client client : clientService.findByBaseEntityIds(batch)) {
+						gson.toJson(client, Client.class, writer);
+					}
+					batch.clear();
+				}
+			}
+			writer.endArray();
+			
+			writer.name("no_of_events").value(count);
+			monitor.increment(EVENTS_SYNCED, count);
+			if (last != null) {
+				writer.name("cursor").beginObject();
+				writer.name(BaseEntity.SERVER_VERSIOIN).value(last.getServerVersion());
+				writer.name("id").value(last.getId());
+				writer.endObject();
+			}
+			
+			writer.endObject();
+		}
+		finally {
+			writer.close();
+		}
 	}
 	
+	/**
+	 * Save the clients and events posted by a device. All clients are written in one CouchDB bulk
+	 * request and all events in another. The response lists the documents that could not be saved,
+	 * e.g. because of a revision conflict, so the device can retry only those.
+	 * 
+	 * @param data json with clients and/or events arrays
+	 * @return CREATED with the failed_clients and failed_events, BAD_REQUEST if the data has neither
+	 */
 	@SuppressWarnings("unchecked")
 	@RequestMapping(headers = { "Accept=application/json" }, method = POST, value = "/add")
-	public ResponseEntity<HttpStatus> save(@RequestBody String data) {
+	public ResponseEntity<String> save(@RequestBody String data) {
+		Map<String, Object> response = new HashMap<String, Object>();
+		Probe probe = monitor.start(EVENT_SAVE_TIME);
 		try {
 			JSONObject syncData = new JSONObject(data);
 			if (!syncData.has("clients") && !syncData.has("events")) {
@@ -157,28 +331,43 @@ public class EventResource extends RestResource<Event> {
 				
 				ArrayList<Client> clients = (ArrayList<Client>) gson.fromJson(syncData.getString("clients"),
 				    new TypeToken<ArrayList<Client>>() {}.getType());
-				for (Client client : clients) {
-					try {
-					    clientService.addorUpdate(client);
-					}
-					catch (Exception e) {
-						logger.error("Client" + client.getBaseEntityId()==null?"":client.getBaseEntityId()+" failed to sync", e);
-					}
+				List<DocumentOperationResult> failures = clientService.addorUpdate(clients);
+				for (DocumentOperationResult failure : failures) {
+					logger.error("Client " + failure.getId() + " failed to sync: " + failure.getError() + " "
+					        + failure.getReason());
 				}
-				
+				monitor.increment(CLIENTS_SAVED, clients.size() - failures.size());
+				monitor.increment(CLIENT_SAVE_FAILURES, failures.size());
+				response.put("clients_saved", clients.size() - failures.size());
+				response.put("failed_clients", failures);
 			}
 			if (syncData.has("events")) {
 				ArrayList<Event> events = (ArrayList<Event>) gson.fromJson(syncData.getString("events"),
 				    new TypeToken<ArrayList<Event>>() {}.getType());
+				List<Event> processed = new ArrayList<Event>(events.size());
+				List<DocumentOperationResult> rejected = new ArrayList<DocumentOperationResult>();
 				for (Event event : events) {
 					try {
-						event = eventService.processOutOfArea(event);
-						eventService.addorUpdateEvent(event);
+						processed.add(eventService.processOutOfArea(event));
 					}
 					catch (Exception e) {
-						logger.error("Event of type "+event.getEventType()+" for client " + event.getBaseEntityId()==null?"":event.getBaseEntityId()+" failed to sync", e);
+						logger.error("Event of type " + event.getEventType() + " for client "
+						        + (event.getBaseEntityId() == null ? "" : event.getBaseEntityId()) + " failed to sync", e);
+						// new events have no id yet, the device knows them by their form submission
+						rejected.add(DocumentOperationResult.newInstance(
+						    event.getId() == null ? event.getFormSubmissionId() : event.getId(), "invalid", e.getMessage()));
 					}
 				}
+				List<DocumentOperationResult> failures = eventService.addorUpdateEvents(processed);
+				for (DocumentOperationResult failure : failures) {
+					logger.error("Event " + failure.getId() + " failed to sync: " + failure.getError() + " "
+					        + failure.getReason());
+				}
+				monitor.increment(EVENTS_SAVED, processed.size() - failures.size());
+				monitor.increment(EVENT_SAVE_FAILURES, rejected.size() + failures.size());
+				response.put("events_saved", processed.size() - failures.size());
+				rejected.addAll(failures);
+				response.put("failed_events", rejected);
 			}
 			
 		}
@@ -186,7 +375,10 @@ public class EventResource extends RestResource<Event> {
 			logger.error(format("Sync data processing failed with exception {0}.- ", e));
 			return new ResponseEntity<>(INTERNAL_SERVER_ERROR);
 		}
-		return new ResponseEntity<>(CREATED);
+		finally {
+			monitor.end(probe);
+		}
+		return new ResponseEntity<>(gson.toJson(response), CREATED);
 	}
 	
 	/*	@RequestMapping(method=RequestMethod.GET)
@@ -2,33 +2,76 @@ package org.opensrp.web.rest;
 
 import static org.opensrp.web.rest.RestUtils.getStringFilter;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
-import java.text.ParseException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.zip.GZIPOutputStream;
 
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 
 import org.apache.commons.io.IOUtils;
+import org.opensrp.register.thrivepk.FormSubmissionCsvExporter;
 import org.opensrp.register.thrivepk.FormSubmissionView;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
-import org.springframework.web.bind.annotation.ResponseBody;
 
 @Controller
 @RequestMapping(value = "/rest/export")
 public class ExportResource {
 	private FormSubmissionView fsv;
 	
+	private FormSubmissionCsvExporter csvExporter;
+	
 	@Autowired
-	public ExportResource(FormSubmissionView fsv) {
+	public ExportResource(FormSubmissionView fsv, FormSubmissionCsvExporter csvExporter) {
 		this.fsv = fsv;
+		this.csvExporter = csvExporter;
 	}
 
+	/**
+	 * Streams the submissions of a form as CSV, gzipped if the client accepts it. The CSV is written
+	 * by {@link FormSubmissionCsvExporter} a page of submissions at a time; with
+	 * <code>listFunction=true</code> the output of the dump_csv CouchDB list function is passed
+	 * through instead. Nothing is buffered beyond a page, so the response goes out chunked.
+	 */
 	@RequestMapping(value = "dumpcsv" , method = RequestMethod.GET)
-	public @ResponseBody String dumpCsv(HttpServletRequest request) throws ParseException, IOException {
+	public void dumpCsv(HttpServletRequest request, HttpServletResponse response) throws IOException {
 		String formName = getStringFilter("formName", request);
-		return IOUtils.toString(fsv.dump_csv(formName));
+		boolean listFunction = Boolean.parseBoolean(getStringFilter("listFunction", request));
+		
+		response.setStatus(HttpServletResponse.SC_OK);
+		response.setContentType("text/csv");
+		response.setCharacterEncoding("UTF-8");
+		OutputStream out = response.getOutputStream();
+		if (acceptsGzip(request)) {
+			response.setHeader("Content-Encoding", "gzip");
+			out = new GZIPOutputStream(out);
+		}
+		
+		if (listFunction) {
+			try (InputStream csv = fsv.dump_csv(formName)) {
+				IOUtils.copy(csv, out);
+			}
+		} else {
+			Writer writer = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"));
+			csvExporter.export(formName, writer);
+			writer.flush();
+		}
+		if (out instanceof GZIPOutputStream) {
+			((GZIPOutputStream) out).finish();
+		}
+		out.flush();
+	}
+	
+	private boolean acceptsGzip(HttpServletRequest request) {
+		String acceptEncoding = request.getHeader("Accept-Encoding");
+		return acceptEncoding != null && acceptEncoding.toLowerCase().contains("gzip");
 	}
 	
 }
@@ -2,15 +2,31 @@ package org.opensrp.web.security;
 
 import static java.text.MessageFormat.format;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PreDestroy;
 
 import org.json.JSONException;
 import org.opensrp.api.domain.User;
+import org.opensrp.common.util.DaemonThreadFactory;
 import org.opensrp.connector.openmrs.service.OpenmrsUserService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.authentication.AuthenticationProvider;
 import org.springframework.security.authentication.BadCredentialsException;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
@@ -30,15 +46,46 @@ public class DrishtiAuthenticationProvider implements AuthenticationProvider {
     public static final String USER_NOT_ACTIVATED = "The user has been registered but not activated. Please contact your local administrator.";
     public static final String INTERNAL_ERROR = "Failed to authenticate user due to internal server error.";
 
+    private static final int DEFAULT_CACHE_SIZE = 1000;
+    private static final int DEFAULT_CACHE_TTL_SECONDS = 900;
+    private static final int DEFAULT_CACHE_REFRESH_SECONDS = 120;
+
     //private AllOpenSRPUsers allOpenSRPUsers;
     private PasswordEncoder passwordEncoder;
     private OpenmrsUserService openmrsUserService;
+    private final Map<String, CachedCredentials> credentials;
+    private final long cacheTtlMillis;
+    private final long cacheRefreshMillis;
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong cacheMisses = new AtomicLong();
+    private final ExecutorService revalidator;
+    private final SecureRandom random = new SecureRandom();
 
+    public DrishtiAuthenticationProvider(OpenmrsUserService openmrsUserService, PasswordEncoder passwordEncoder) {
+        this(openmrsUserService, passwordEncoder, DEFAULT_CACHE_SIZE, DEFAULT_CACHE_TTL_SECONDS, DEFAULT_CACHE_REFRESH_SECONDS);
+    }
 
+    /**
+     * @param cacheSize number of users whose verified credentials are kept
+     * @param cacheTtlSeconds verified credentials are trusted without asking OpenMRS for this long
+     * @param cacheRefreshSeconds credentials older than this are revalidated with OpenMRS in the background on their next use
+     */
     @Autowired
-    public DrishtiAuthenticationProvider(OpenmrsUserService openmrsUserService, @Qualifier("shaPasswordEncoder") PasswordEncoder passwordEncoder) {
+    public DrishtiAuthenticationProvider(OpenmrsUserService openmrsUserService, @Qualifier("shaPasswordEncoder") PasswordEncoder passwordEncoder,
+                                         @Value("#{opensrp['auth.cache.size']}") final int cacheSize,
+                                         @Value("#{opensrp['auth.cache.ttl.seconds']}") int cacheTtlSeconds,
+                                         @Value("#{opensrp['auth.cache.refresh.seconds']}") int cacheRefreshSeconds) {
         this.openmrsUserService = openmrsUserService;
         this.passwordEncoder = passwordEncoder;
+        this.cacheTtlMillis = TimeUnit.SECONDS.toMillis(cacheTtlSeconds);
+        this.cacheRefreshMillis = TimeUnit.SECONDS.toMillis(cacheRefreshSeconds);
+        this.credentials = Collections.synchronizedMap(new LinkedHashMap<String, CachedCredentials>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedCredentials> eldest) {
+                return size() > cacheSize;
+            }
+        });
+        this.revalidator = Executors.newSingleThreadExecutor(new DaemonThreadFactory("credentials-revalidator"));
     }
 
     @Override
@@ -73,16 +120,33 @@ public class DrishtiAuthenticationProvider implements AuthenticationProvider {
 
     
     
+    /**
+     * Returns the OpenMRS user with given username if the credentials of given authentication are valid,
+     * null otherwise. Credentials verified by OpenMRS are cached as salted hashes; a request presenting
+     * the same password again is served from the cache until it expires, and a wrong password evicts it.
+     */
     public User getDrishtiUser(Authentication authentication, String username) {
+        String name = authentication.getName();
+        String password = authentication.getCredentials().toString();
         User user = null;
         try {
-        	if(openmrsUserService.authenticate(authentication.getName(), authentication.getCredentials().toString())){
-                boolean response = openmrsUserService.deleteSession(authentication.getName(),authentication.getCredentials().toString());
+            User cached = getCachedUser(name, password);
+            if (cached != null) {
+                cacheHits.incrementAndGet();
+                return name.equals(username) ? cached : openmrsUserService.getUser(username);
+            }
+            cacheMisses.incrementAndGet();
+
+        	if(openmrsUserService.authenticate(name, password)){
+                boolean response = openmrsUserService.deleteSession(name, password);
 			    user = openmrsUserService.getUser(username);
 			    if(!response){
 		            logger.error(format("{0}. Exception: {1}", INTERNAL_ERROR, "Unable to clear session"));
 
 			    }
+			    if (user != null && name.equals(username)) {
+			        credentials.put(name, new CachedCredentials(password, user));
+			    }
 			}
         } catch (Exception e) {
             logger.error(format("{0}. Exception: {1}", INTERNAL_ERROR, e));
@@ -91,4 +155,100 @@ public class DrishtiAuthenticationProvider implements AuthenticationProvider {
         }
         return user;
     }
+
+    public long getCacheHits() {
+        return cacheHits.get();
+    }
+
+    public long getCacheMisses() {
+        return cacheMisses.get();
+    }
+
+    public double getCacheHitRate() {
+        long hits = cacheHits.get();
+        long total = hits + cacheMisses.get();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        revalidator.shutdownNow();
+    }
+
+    private User getCachedUser(String name, String password) throws NoSuchAlgorithmException {
+        CachedCredentials cached = credentials.get(name);
+        if (cached == null) {
+            return null;
+        }
+        long age = System.currentTimeMillis() - cached.verifiedAt;
+        if (age > cacheTtlMillis || !cached.matches(password)) {
+            evict(name, cached);
+            return null;
+        }
+        if (age > cacheRefreshMillis) {
+            revalidate(name, password, cached);
+        }
+        return cached.user;
+    }
+
+    private void revalidate(final String name, final String password, final CachedCredentials cached) {
+        if (revalidator.isShutdown() || !cached.revalidating.compareAndSet(false, true)) {
+            return;
+        }
+        revalidator.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (openmrsUserService.authenticate(name, password)) {
+                        openmrsUserService.deleteSession(name, password);
+                        User user = openmrsUserService.getUser(name);
+                        if (user != null) {
+                            credentials.put(name, new CachedCredentials(password, user));
+                            return;
+                        }
+                    }
+                    evict(name, cached);
+                }
+                catch (Exception e) {
+                    // OpenMRS is unreachable, keep serving the cached credentials until they expire
+                    logger.warn(format("Unable to revalidate credentials of {0}. Exception: {1}", name, e));
+                    cached.revalidating.set(false);
+                }
+            }
+        });
+    }
+
+    private void evict(String name, CachedCredentials cached) {
+        synchronized (credentials) {
+            if (credentials.get(name) == cached) {
+                credentials.remove(name);
+            }
+        }
+    }
+
+    private class CachedCredentials {
+        private final byte[] salt;
+        private final byte[] hash;
+        private final User user;
+        private final long verifiedAt;
+        private final AtomicBoolean revalidating = new AtomicBoolean();
+
+        CachedCredentials(String password, User user) throws NoSuchAlgorithmException {
+            this.salt = new byte[16];
+            random.nextBytes(salt);
+            this.hash = hash(salt, password);
+            this.user = user;
+            this.verifiedAt = System.currentTimeMillis();
+        }
+
+        boolean matches(String password) throws NoSuchAlgorithmException {
+            return MessageDigest.isEqual(hash, hash(salt, password));
+        }
+    }
+
+    private static byte[] hash(byte[] salt, String password) throws NoSuchAlgorithmException {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        digest.update(salt);
+        return digest.digest(password.getBytes(StandardCharsets.UTF_8));
+    }
 }
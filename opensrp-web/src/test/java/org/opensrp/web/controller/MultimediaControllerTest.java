@@ -0,0 +1,132 @@
+package org.opensrp.web.controller;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+public class MultimediaControllerTest {
+
+	@Rule
+	public TemporaryFolder multimediaDir = new TemporaryFolder();
+
+	private MultimediaController controller;
+
+	private File video;
+
+	@Before
+	public void setUp() throws Exception {
+		controller = new MultimediaController();
+		video = multimediaDir.newFile("training.mp4");
+		FileUtils.writeStringToFile(video, "0123456789", "UTF-8");
+	}
+
+	@Test
+	public void shouldSendWholeFileWithValidators() throws Exception {
+		MockHttpServletResponse response = download(new MockHttpServletRequest());
+
+		assertEquals(HttpServletResponse.SC_OK, response.getStatus());
+		assertEquals("0123456789", response.getContentAsString());
+		assertEquals("bytes", response.getHeader("Accept-Ranges"));
+	}
+
+	@Test
+	public void shouldResumeFromRequestedRange() throws Exception {
+		MockHttpServletRequest request = new MockHttpServletRequest();
+		request.addHeader("Range", "bytes=4-");
+
+		MockHttpServletResponse response = download(request);
+
+		assertEquals(HttpServletResponse.SC_PARTIAL_CONTENT, response.getStatus());
+		assertEquals("456789", response.getContentAsString());
+		assertEquals("bytes 4-9/10", response.getHeader("Content-Range"));
+	}
+
+	@Test
+	public void shouldAnswerNotModifiedForMatchingETag() throws Exception {
+		String eTag = (String) download(new MockHttpServletRequest()).getHeader("ETag");
+		MockHttpServletRequest request = new MockHttpServletRequest();
+		request.addHeader("If-None-Match", eTag);
+
+		MockHttpServletResponse response = download(request);
+
+		assertEquals(HttpServletResponse.SC_NOT_MODIFIED, response.getStatus());
+		assertEquals(0, response.getContentAsByteArray().length);
+	}
+
+	@Test
+	public void shouldAnswerNotModifiedIfUnchangedSinceLastDownload() throws Exception {
+		MockHttpServletRequest request = new MockHttpServletRequest();
+		request.addHeader("If-Modified-Since", video.lastModified());
+
+		assertEquals(HttpServletResponse.SC_NOT_MODIFIED, download(request).getStatus());
+	}
+
+	@Test
+	public void shouldRejectRangeBeyondEndOfFile() throws Exception {
+		MockHttpServletRequest request = new MockHttpServletRequest();
+		request.addHeader("Range", "bytes=10-");
+
+		MockHttpServletResponse response = download(request);
+
+		assertEquals(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE, response.getStatus());
+		assertEquals("bytes */10", response.getHeader("Content-Range"));
+	}
+
+	@Test
+	public void shouldIgnoreInvalidRangeAndSendWholeFile() throws Exception {
+		MockHttpServletRequest request = new MockHttpServletRequest();
+		request.addHeader("Range", "bytes=5-2");
+
+		MockHttpServletResponse response = download(request);
+
+		assertEquals(HttpServletResponse.SC_OK, response.getStatus());
+		assertEquals("0123456789", response.getContentAsString());
+		assertNull(response.getHeader("Content-Range"));
+	}
+
+	@Test
+	public void shouldHandRangeOverToSendfileWhenSupported() throws Exception {
+		MockHttpServletRequest request = new MockHttpServletRequest();
+		request.setAttribute(MultimediaController.SENDFILE_SUPPORTED, Boolean.TRUE);
+		request.addHeader("Range", "bytes=4-");
+
+		MockHttpServletResponse response = download(request);
+
+		assertEquals(HttpServletResponse.SC_PARTIAL_CONTENT, response.getStatus());
+		assertEquals(0, response.getContentAsByteArray().length);
+		assertEquals(video.getCanonicalPath(), request.getAttribute(MultimediaController.SENDFILE_FILENAME));
+		assertEquals(4L, request.getAttribute(MultimediaController.SENDFILE_START));
+		assertEquals(10L, request.getAttribute(MultimediaController.SENDFILE_END));
+	}
+
+	@Test
+	public void shouldParseSingleByteRanges() {
+		assertArrayEquals(new long[] { 0, 4 }, MultimediaController.parseByteRange("bytes=0-4", 10));
+		assertArrayEquals(new long[] { 7, 9 }, MultimediaController.parseByteRange("bytes=-3", 10));
+		assertArrayEquals(new long[] { 2, 9 }, MultimediaController.parseByteRange("bytes=2-100", 10));
+		assertArrayEquals(new long[0], MultimediaController.parseByteRange("bytes=0-1,4-5", 10));
+		assertArrayEquals(new long[0], MultimediaController.parseByteRange("bytes=5-2", 10));
+		assertArrayEquals(new long[0], MultimediaController.parseByteRange("bytes=--3", 10));
+		assertArrayEquals(new long[0], MultimediaController.parseByteRange("bytes=a-4", 10));
+		assertNull(MultimediaController.parseByteRange("bytes=10-12", 10));
+		assertNull(MultimediaController.parseByteRange("bytes=-0", 10));
+	}
+
+	private MockHttpServletResponse download(MockHttpServletRequest request) throws Exception {
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		controller.downloadFile(video, request, response);
+		return response;
+	}
+}
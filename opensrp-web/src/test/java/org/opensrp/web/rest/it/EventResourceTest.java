@@ -425,6 +425,43 @@ public class EventResourceTest extends BaseResourceTest {
 		assertTwoListAreSameIgnoringOrder(expectedEvent, actualEventList);
 	}
 
+	@Test
+	public void shouldStreamSyncEventsAndRelatedClientsWithCursor() throws Exception {
+
+		List<Client> expectedClient = createClient();
+		List<Event> expectedEvent = createEventsForSyncTest();
+
+		String syncQuery = "sync/stream?serverVersion=0&providerId=providerId";
+		JsonNode actualObj = getCallAsJsonNode(BASE_URL + syncQuery, "", status().isOk());
+
+		JsonNode eventObj = actualObj.get("events");
+		JsonNode clientObj = actualObj.get("clients");
+		int eventSize = actualObj.get("no_of_events").asInt();
+		List<Event> actualEventList = new ArrayList<>();
+		for (int i = 0; i < eventObj.size(); i++) {
+			Event actualEvent = mapper.treeToValue(eventObj.get(i), Event.class);
+			actualEventList.add(actualEvent);
+		}
+
+		List<Client> actualClientList = new ArrayList<>();
+		for (int i = 0; i < clientObj.size(); i++) {
+			Client actualClient = mapper.treeToValue(clientObj.get(i), Client.class);
+			actualClientList.add(actualClient);
+		}
+
+		assertEquals(4, eventSize);
+		assertTwoListAreSameIgnoringOrder(expectedClient, actualClientList);
+		assertTwoListAreSameIgnoringOrder(expectedEvent, actualEventList);
+
+		JsonNode cursor = actualObj.get("cursor");
+		String nextQuery = "sync/stream?providerId=providerId&serverVersion=" + cursor.get("serverVersion").asLong()
+				+ "&lastEventId=" + cursor.get("id").asText();
+		JsonNode nextObj = getCallAsJsonNode(BASE_URL + nextQuery, "", status().isOk());
+
+		assertEquals(0, nextObj.get("no_of_events").asInt());
+		assertNull(nextObj.get("cursor"));
+	}
+
 	@Test
 	public void shouldAddClientAndEventFromSyncData() throws Exception {
 		String synData =
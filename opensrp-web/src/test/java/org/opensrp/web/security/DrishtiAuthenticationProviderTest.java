@@ -2,6 +2,8 @@ package org.opensrp.web.security;
 
 import com.google.gson.Gson;
 
+import org.opensrp.api.domain.User;
+import org.opensrp.connector.openmrs.service.OpenmrsUserService;
 import org.opensrp.repository.AllUsers;
 import org.junit.Before;
 import org.junit.Ignore;
@@ -20,6 +22,9 @@ import java.util.UUID;
 import static java.util.Arrays.asList;
 import static java.util.UUID.randomUUID;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.mockito.MockitoAnnotations.initMocks;
@@ -34,8 +39,73 @@ public class DrishtiAuthenticationProviderTest {
     @Rule
     public ExpectedException exception = ExpectedException.none();
 
+    @Mock
+    private OpenmrsUserService openmrsUserService;
+
     private DrishtiAuthenticationProvider authenticationProvider;
 
+    @Before
+    public void setUp() throws Exception {
+        initMocks(this);
+        authenticationProvider = new DrishtiAuthenticationProvider(openmrsUserService, passwordEncoder);
+        when(openmrsUserService.authenticate("user 1", "password 1")).thenReturn(true);
+        when(openmrsUserService.deleteSession("user 1", "password 1")).thenReturn(true);
+        when(openmrsUserService.getUser("user 1")).thenReturn(new User("user 1").withUsername("user 1").withRole("Provider"));
+    }
+
+    @Test
+    public void shouldServeRepeatedAuthenticationFromCredentialsCache() throws Exception {
+        authenticationProvider.authenticate(new UsernamePasswordAuthenticationToken("user 1", "password 1"));
+        Authentication authentication = authenticationProvider.authenticate(new UsernamePasswordAuthenticationToken("user 1", "password 1"));
+
+        assertEquals("user 1", authentication.getName());
+        verify(openmrsUserService, times(1)).authenticate("user 1", "password 1");
+        verify(openmrsUserService, times(1)).getUser("user 1");
+        assertEquals(1, authenticationProvider.getCacheHits());
+        assertEquals(1, authenticationProvider.getCacheMisses());
+        assertEquals(0.5, authenticationProvider.getCacheHitRate(), 0);
+    }
+
+    @Test
+    public void shouldEvictCachedCredentialsOnFailedLogin() throws Exception {
+        authenticationProvider.authenticate(new UsernamePasswordAuthenticationToken("user 1", "password 1"));
+        try {
+            authenticationProvider.authenticate(new UsernamePasswordAuthenticationToken("user 1", "wrong password"));
+            fail("wrong password should not authenticate");
+        }
+        catch (BadCredentialsException e) {
+            assertEquals(DrishtiAuthenticationProvider.USER_NOT_FOUND, e.getMessage());
+        }
+        authenticationProvider.authenticate(new UsernamePasswordAuthenticationToken("user 1", "password 1"));
+
+        verify(openmrsUserService).authenticate("user 1", "wrong password");
+        verify(openmrsUserService, times(2)).authenticate("user 1", "password 1");
+        assertEquals(0, authenticationProvider.getCacheHits());
+    }
+
+    @Test
+    public void shouldRevalidateStaleCredentialsInBackground() throws Exception {
+        authenticationProvider = new DrishtiAuthenticationProvider(openmrsUserService, passwordEncoder, 10, 900, 0);
+        authenticationProvider.authenticate(new UsernamePasswordAuthenticationToken("user 1", "password 1"));
+        Thread.sleep(5);
+        authenticationProvider.authenticate(new UsernamePasswordAuthenticationToken("user 1", "password 1"));
+
+        verify(openmrsUserService, timeout(1000).times(2)).authenticate("user 1", "password 1");
+        assertEquals(1, authenticationProvider.getCacheHits());
+    }
+
+    @Test
+    public void shouldServeCachedCredentialsWithoutRevalidatingOnceShutDown() throws Exception {
+        authenticationProvider = new DrishtiAuthenticationProvider(openmrsUserService, passwordEncoder, 10, 900, 0);
+        authenticationProvider.authenticate(new UsernamePasswordAuthenticationToken("user 1", "password 1"));
+        authenticationProvider.shutdown();
+        Thread.sleep(5);
+        authenticationProvider.authenticate(new UsernamePasswordAuthenticationToken("user 1", "password 1"));
+
+        verify(openmrsUserService, times(1)).authenticate("user 1", "password 1");
+        assertEquals(1, authenticationProvider.getCacheHits());
+    }
+
     /*@Before
     public void setUp() throws Exception {
         initMocks(this);